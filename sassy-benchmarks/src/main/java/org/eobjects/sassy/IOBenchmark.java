@@ -0,0 +1,151 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the primitive readers of {@link IO} and the string decoders of
+ * {@link SasCharset} with the previous implementation, which wrapped a new
+ * {@link ByteBuffer} for every primitive and decoded strings through an
+ * {@link InputStreamReader}.
+ * 
+ * @author Kasper Sørensen
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IOBenchmark {
+
+	@Param({ "windows-1252", "UTF-8", "GBK" })
+	public String charset;
+
+	@Param({ "ascii", "national" })
+	public String text;
+
+	private SasCharset _charset;
+	private byte[] _string;
+	private byte[] _numbers;
+
+	@Setup(Level.Trial)
+	public void createData() throws Exception {
+		_charset = SasCharset.get(Charset.forName(charset));
+		if ("ascii".equals(text)) {
+			_string = "Pizza brand A, 30% moisture".getBytes(charset);
+		} else if ("GBK".equals(charset)) {
+			_string = "中文字符串测试".getBytes(charset);
+		} else {
+			_string = "Rødgrød med fløde, 30 €".getBytes(charset);
+		}
+		_numbers = new byte[64];
+		final ByteBuffer buffer = ByteBuffer.wrap(_numbers).order(
+				ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < 8; i++) {
+			buffer.putDouble(i * 8, i * 1.5);
+		}
+	}
+
+	@Benchmark
+	public String readString() {
+		return _charset.decode(_string, 0, _string.length);
+	}
+
+	@Benchmark
+	public String readStringLegacy() {
+		return legacyReadString(_string, 0, _string.length, charset);
+	}
+
+	@Benchmark
+	public double readPrimitives() {
+		double sum = 0;
+		for (int off = 0; off < _numbers.length; off += 8) {
+			sum += IO.readDouble(_numbers, off) + IO.readInt(_numbers, off)
+					+ IO.readShort(_numbers, off);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double readPrimitivesLegacy() {
+		double sum = 0;
+		for (int off = 0; off < _numbers.length; off += 8) {
+			sum += legacyReadDouble(_numbers, off)
+					+ legacyReadInt(_numbers, off)
+					+ legacyReadShort(_numbers, off);
+		}
+		return sum;
+	}
+
+	private static String legacyReadString(byte[] buffer, int off, int len,
+			String charsetName) {
+		final byte[] bytes = new byte[len];
+		System.arraycopy(buffer, off, bytes, 0, len);
+		try {
+			InputStreamReader reader = new InputStreamReader(
+					new ByteArrayInputStream(bytes), charsetName);
+			char[] chars = new char[bytes.length * 2];
+			int read = reader.read(chars);
+			chars = Arrays.copyOf(chars, read);
+			return new String(chars);
+		} catch (Exception e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static double legacyReadDouble(byte[] buffer, int off) {
+		ByteBuffer bb = ByteBuffer.wrap(buffer);
+		bb.order(ByteOrder.LITTLE_ENDIAN);
+		return bb.getDouble(off);
+	}
+
+	private static int legacyReadInt(byte[] buffer, int off) {
+		ByteBuffer bb = ByteBuffer.wrap(buffer);
+		bb.order(ByteOrder.LITTLE_ENDIAN);
+		return bb.getInt(off);
+	}
+
+	private static short legacyReadShort(byte[] buffer, int off) {
+		ByteBuffer bb = ByteBuffer.wrap(buffer);
+		bb.order(ByteOrder.LITTLE_ENDIAN);
+		return bb.getShort(off);
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.eobjects.sassy.benchmarks.Fixtures;
+import org.eobjects.sassy.benchmarks.Throughput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of header and sub header parsing of the bundled fixtures, read
+ * from memory. Lives in the reader's package to reach
+ * {@link SasReader#readHeader(SasPageSource)}.
+ * 
+ * @author Kasper Sørensen
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetadataBenchmark {
+
+	@Param({ "mathattitudes", "physeds2006", "pizza",
+			"charset_cyrillic_and_more" })
+	public String fixture;
+
+	private byte[] _bytes;
+
+	@Setup(Level.Trial)
+	public void readFixture() throws Exception {
+		_bytes = Files.readAllBytes(Fixtures.getFixture(fixture).toPath());
+	}
+
+	@Benchmark
+	public SasHeader header(Throughput throughput) throws Exception {
+		final ByteBufferSasPageSource source = new ByteBufferSasPageSource(
+				_bytes);
+		final SasHeader header = new SasReader(source).readHeader(source);
+		throughput.add(0, header.getHeaderLength());
+		return header;
+	}
+
+	@Benchmark
+	public SasMetadata metadata(Throughput throughput) {
+		final SasMetadata metadata = new SasReader(ByteBuffer.wrap(_bytes))
+				.readMetadata();
+		throughput.add(0, _bytes.length);
+		return metadata;
+	}
+}
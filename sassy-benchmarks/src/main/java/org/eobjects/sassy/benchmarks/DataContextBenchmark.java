@@ -0,0 +1,168 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.eobjects.metamodel.data.DataSet;
+import org.eobjects.metamodel.data.Row;
+import org.eobjects.metamodel.query.FunctionType;
+import org.eobjects.metamodel.query.OperatorType;
+import org.eobjects.metamodel.query.Query;
+import org.eobjects.metamodel.query.SelectItem;
+import org.eobjects.metamodel.schema.Column;
+import org.eobjects.metamodel.schema.Table;
+import org.eobjects.sassy.metamodel.SasDataContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of queries on a {@link SasDataContext}, over a synthetic copy of
+ * the pizza fixture. The row throughput counts the rows that were scanned,
+ * not the rows that were returned.
+ * 
+ * @author Kasper Sørensen
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataContextBenchmark {
+
+	private File _directory;
+	private File _file;
+	private long _rowCount;
+	private long _byteCount;
+
+	private SasDataContext _dataContext;
+	private Table _table;
+	private Column _id;
+	private Column _mois;
+	private Column _brand;
+
+	@Setup(Level.Trial)
+	public void createDataContext() throws IOException {
+		_directory = Files.createTempDirectory("sassy-benchmarks").toFile();
+		_file = Fixtures.createSyntheticFile("pizza", 500, _directory);
+		_rowCount = Fixtures.getRowCount(_file);
+		_byteCount = _file.length();
+
+		_dataContext = new SasDataContext(_directory);
+		_table = _dataContext.getDefaultSchema().getTables()[0];
+		_id = _table.getColumnByName("id");
+		_mois = _table.getColumnByName("mois");
+		_brand = _table.getColumnByName("brand");
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteFile() {
+		_file.delete();
+		_directory.delete();
+	}
+
+	@Benchmark
+	public Object countAll() {
+		// answered from the metadata, without reading any data pages
+		final Query query = new Query().from(_table).selectCount();
+		return single(_dataContext.executeQuery(query));
+	}
+
+	@Benchmark
+	public Object countWhere(Throughput throughput) {
+		final Query query = new Query().from(_table).selectCount()
+				.where(_brand, OperatorType.EQUALS_TO, "a");
+		final Object result = single(_dataContext.executeQuery(query));
+		throughput.add(_rowCount, _byteCount);
+		return result;
+	}
+
+	@Benchmark
+	public Object sum(Throughput throughput) {
+		// computed on primitive doubles inside the reader
+		final Query query = new Query().from(_table).select(
+				new SelectItem(FunctionType.SUM, _mois));
+		final Object result = single(_dataContext.executeQuery(query));
+		throughput.add(_rowCount, _byteCount);
+		return result;
+	}
+
+	@Benchmark
+	public void groupBy(Throughput throughput, Blackhole blackhole) {
+		// grouped in the reader, on primitive hash tables
+		final Query query = new Query().from(_table).select(_brand)
+				.select(new SelectItem(FunctionType.SUM, _mois))
+				.groupBy(_brand);
+		consume(_dataContext.executeQuery(query), blackhole);
+		throughput.add(_rowCount, _byteCount);
+	}
+
+	@Benchmark
+	public void selectWhere(Throughput throughput, Blackhole blackhole) {
+		final Query query = new Query().from(_table).select(_id)
+				.where(_brand, OperatorType.EQUALS_TO, "a")
+				.where(_mois, OperatorType.GREATER_THAN, 30);
+		consume(_dataContext.executeQuery(query), blackhole);
+		throughput.add(_rowCount, _byteCount);
+	}
+
+	@Benchmark
+	public void selectAll(Throughput throughput, Blackhole blackhole) {
+		final Query query = new Query().from(_table).select(
+				_table.getColumns());
+		consume(_dataContext.executeQuery(query), blackhole);
+		throughput.add(_rowCount, _byteCount);
+	}
+
+	private static Object single(DataSet dataSet) {
+		try {
+			dataSet.next();
+			return dataSet.getRow().getValue(0);
+		} finally {
+			dataSet.close();
+		}
+	}
+
+	private static void consume(DataSet dataSet, Blackhole blackhole) {
+		try {
+			while (dataSet.next()) {
+				final Row row = dataSet.getRow();
+				blackhole.consume(row.getValues());
+			}
+		} finally {
+			dataSet.close();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eobjects.sassy.SasReader;
+
+/**
+ * Locates the bundled sas7bdat fixtures and generates larger synthetic files
+ * from them, by appending copies of their data pages.
+ * 
+ * @author Kasper Sørensen
+ */
+public final class Fixtures {
+
+	/**
+	 * System property that points to the directory with the fixtures, if the
+	 * benchmarks are not run from the benchmark module directory.
+	 */
+	public static final String FIXTURES_PROPERTY = "sassy.fixtures";
+
+	private Fixtures() {
+		// prevent instantiation
+	}
+
+	public static File getFixture(String name) {
+		String directory = System.getProperty(FIXTURES_PROPERTY);
+		if (directory == null) {
+			directory = "../src/test/resources";
+		}
+		final File file = new File(directory, name + ".sas7bdat");
+		if (!file.exists()) {
+			throw new IllegalStateException("Fixture not found: " + file
+					+ " (set -D" + FIXTURES_PROPERTY + "=<directory>)");
+		}
+		return file;
+	}
+
+	public static int getRowCount(File file) {
+		return new SasReader(file).readMetadata().getRowCount();
+	}
+
+	/**
+	 * Creates a synthetic file with the same columns as a fixture, but with
+	 * the data pages (not the mix pages) of the fixture repeated a number of
+	 * times. The page count and row count of the file are patched accordingly.
+	 * 
+	 * @param name
+	 *            the name of the fixture
+	 * @param copies
+	 *            the amount of times to repeat the data pages
+	 * @param directory
+	 *            the directory to create the file in
+	 * @return the synthetic file
+	 * @throws IOException
+	 */
+	public static File createSyntheticFile(String name, int copies,
+			File directory) throws IOException {
+		final byte[] bytes = Files.readAllBytes(getFixture(name).toPath());
+		final ByteBuffer source = ByteBuffer.wrap(bytes).order(
+				ByteOrder.LITTLE_ENDIAN);
+
+		final boolean u64 = source.get(32) == 0x33;
+		final int align2 = source.get(35) == 0x33 ? 4 : 0;
+		final int headerLength = source.getInt(196 + align2);
+		final int pageSize = source.getInt(200 + align2);
+		final int pageCount = source.getInt(204 + align2);
+
+		final List<Integer> dataPages = new ArrayList<Integer>();
+		int dataPageRows = 0;
+		int rowSizeOffset = -1;
+		for (int page = 0; page < pageCount; page++) {
+			final int pageOffset = headerLength + page * pageSize;
+			final byte pageType = source.get(pageOffset + (u64 ? 33 : 17));
+			if (pageType == 1) {
+				dataPages.add(page);
+				dataPageRows += source.getInt(pageOffset + (u64 ? 34 : 18));
+			} else if (pageType == 0 || pageType == 2) {
+				final int offset = findRowSizeSubHeader(source, pageOffset,
+						u64);
+				if (offset != -1) {
+					rowSizeOffset = offset;
+				}
+			}
+		}
+		if (dataPages.isEmpty() || rowSizeOffset == -1) {
+			throw new IllegalStateException("Fixture " + name
+					+ " has no data pages that can be repeated");
+		}
+
+		final ByteBuffer target = ByteBuffer.allocate(
+				bytes.length + copies * dataPages.size() * pageSize).order(
+				ByteOrder.LITTLE_ENDIAN);
+		target.put(bytes);
+		for (int copy = 0; copy < copies; copy++) {
+			for (int page : dataPages) {
+				target.put(bytes, headerLength + page * pageSize, pageSize);
+			}
+		}
+
+		target.putInt(204 + align2, pageCount + copies * dataPages.size());
+		final int rowCountOffset = rowSizeOffset + (u64 ? 48 : 24);
+		if (u64) {
+			target.putLong(rowCountOffset, target.getLong(rowCountOffset)
+					+ (long) copies * dataPageRows);
+		} else {
+			target.putInt(rowCountOffset, target.getInt(rowCountOffset)
+					+ copies * dataPageRows);
+		}
+
+		final File file = new File(directory, name + "_x" + copies
+				+ ".sas7bdat");
+		Files.write(file.toPath(), target.array());
+		return file;
+	}
+
+	private static int findRowSizeSubHeader(ByteBuffer source, int pageOffset,
+			boolean u64) {
+		final int count = source.getInt(pageOffset + (u64 ? 36 : 20));
+		final int pointerLength = u64 ? 24 : 12;
+		for (int i = 0; i < count; i++) {
+			final int pointer = pageOffset + (u64 ? 40 : 24) + i
+					* pointerLength;
+			final long offset = u64 ? source.getLong(pointer) : source
+					.getInt(pointer);
+			final long length = u64 ? source.getLong(pointer + 8) : source
+					.getInt(pointer + 4);
+			if (length > 0
+					&& source.getInt(pageOffset + (int) offset) == 0xf7f7f7f7) {
+				return pageOffset + (int) offset;
+			}
+		}
+		return -1;
+	}
+}
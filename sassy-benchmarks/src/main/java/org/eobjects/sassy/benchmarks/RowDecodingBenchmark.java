@@ -0,0 +1,170 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eobjects.sassy.CountReaderCallback;
+import org.eobjects.sassy.SasColumnBatch;
+import org.eobjects.sassy.SasColumnType;
+import org.eobjects.sassy.SasColumnarCallback;
+import org.eobjects.sassy.SasReader;
+import org.eobjects.sassy.SasReaderCallback;
+import org.eobjects.sassy.SasRowCursor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of row decoding through the different read APIs of
+ * {@link SasReader}, and of counting rows with a {@link CountReaderCallback}.
+ * 
+ * @author Kasper Sørensen
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowDecodingBenchmark {
+
+	@Benchmark
+	public void callback(SyntheticFileState state, Throughput throughput,
+			Blackhole blackhole) {
+		readRows(new SasReader(state.file), state, throughput, blackhole);
+	}
+
+	@Benchmark
+	public void callbackLazyStrings(SyntheticFileState state,
+			Throughput throughput, Blackhole blackhole) {
+		final SasReader reader = new SasReader(state.file);
+		reader.setLazyStrings(true);
+		readRows(reader, state, throughput, blackhole);
+	}
+
+	@Benchmark
+	public void callbackReadAhead(SyntheticFileState state,
+			Throughput throughput, Blackhole blackhole) {
+		final SasReader reader = new SasReader(state.file);
+		reader.setReadAhead(4);
+		readRows(reader, state, throughput, blackhole);
+	}
+
+	private static void readRows(SasReader reader, SyntheticFileState state,
+			Throughput throughput, final Blackhole blackhole) {
+		reader.read(new SasReaderCallback() {
+			@Override
+			public void column(int columnIndex, String columnName,
+					String columnLabel, SasColumnType columnType,
+					String format, int columnLength) {
+			}
+
+			@Override
+			public boolean readData() {
+				return true;
+			}
+
+			@Override
+			public boolean row(int rowNumber, Object[] rowData) {
+				for (int i = 0; i < rowData.length; i++) {
+					blackhole.consume(rowData[i]);
+				}
+				return true;
+			}
+		});
+		throughput.add(state.rowCount, state.byteCount);
+	}
+
+	@Benchmark
+	public void columnar(SyntheticFileState state, Throughput throughput,
+			final Blackhole blackhole) {
+		new SasReader(state.file).read(new SasColumnarCallback() {
+			@Override
+			public void column(int columnIndex, String columnName,
+					String columnLabel, SasColumnType columnType,
+					String format, int columnLength) {
+			}
+
+			@Override
+			public boolean readData() {
+				return true;
+			}
+
+			@Override
+			public boolean batch(SasColumnBatch batch) {
+				final int rowCount = batch.getRowCount();
+				for (int column = 0; column < batch.getColumnCount(); column++) {
+					if (batch.getColumnType(column).isNumeric()) {
+						final double[] doubles = batch.getDoubles(column);
+						double sum = 0;
+						for (int row = 0; row < rowCount; row++) {
+							sum += doubles[row];
+						}
+						blackhole.consume(sum);
+					} else {
+						for (int row = 0; row < rowCount; row++) {
+							blackhole.consume(batch.getString(column, row));
+						}
+					}
+				}
+				return true;
+			}
+		});
+		throughput.add(state.rowCount, state.byteCount);
+	}
+
+	@Benchmark
+	public void cursor(SyntheticFileState state, Throughput throughput,
+			Blackhole blackhole) {
+		final SasRowCursor cursor = new SasReader(state.file).openCursor();
+		try {
+			final int columnCount = cursor.getColumnCount();
+			final boolean[] numeric = new boolean[columnCount];
+			for (int i = 0; i < columnCount; i++) {
+				numeric[i] = cursor.getColumnType(i).isNumeric();
+			}
+			while (cursor.next()) {
+				for (int i = 0; i < columnCount; i++) {
+					if (numeric[i]) {
+						blackhole.consume(cursor.getDouble(i));
+					} else {
+						blackhole.consume(cursor.getString(i));
+					}
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		throughput.add(state.rowCount, state.byteCount);
+	}
+
+	@Benchmark
+	public int count(SyntheticFileState state, Throughput throughput) {
+		final CountReaderCallback callback = new CountReaderCallback();
+		new SasReader(state.file).read(callback);
+		throughput.add(state.rowCount, state.byteCount);
+		return callback.getCount();
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark state holding a synthetic file of a particular shape, generated
+ * at setup from one of the bundled fixtures.
+ * 
+ * @author Kasper Sørensen
+ */
+@State(Scope.Benchmark)
+public class SyntheticFileState {
+
+	/**
+	 * The shape of the data:
+	 * <ul>
+	 * <li>numeric: 15 NUMERIC columns (mathattitudes)</li>
+	 * <li>string: a single CHARACTER column with non-ASCII values
+	 * (charset_cyrillic_and_more)</li>
+	 * <li>wide: 232 columns in 2000 byte rows (physeds2006)</li>
+	 * </ul>
+	 */
+	@Param({ "numeric", "string", "wide" })
+	public String shape;
+
+	public File directory;
+
+	public File file;
+
+	public long rowCount;
+
+	public long byteCount;
+
+	@Setup(Level.Trial)
+	public void createFile() throws IOException {
+		directory = Files.createTempDirectory("sassy-benchmarks").toFile();
+		if ("numeric".equals(shape)) {
+			file = Fixtures.createSyntheticFile("mathattitudes", 100,
+					directory);
+		} else if ("string".equals(shape)) {
+			file = Fixtures.createSyntheticFile("charset_cyrillic_and_more",
+					2000, directory);
+		} else if ("wide".equals(shape)) {
+			file = Fixtures.createSyntheticFile("physeds2006", 500, directory);
+		} else {
+			throw new IllegalArgumentException("Unknown shape: " + shape);
+		}
+		rowCount = Fixtures.getRowCount(file);
+		byteCount = file.length();
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteFile() {
+		file.delete();
+		directory.delete();
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link SasPageSource} for a sas7bdat file that is held in a
+ * {@link ByteBuffer}, eg. a byte array or a direct buffer. Pages are handed
+ * out as slices of the buffer, without copying.
+ * 
+ * @author Kasper Sørensen
+ */
+public final class ByteBufferSasPageSource implements SasPageSource {
+
+	private final ByteBuffer _buffer;
+
+	/**
+	 * Creates a page source for the remaining bytes of a buffer. The position
+	 * of the buffer itself is not changed.
+	 * 
+	 * @param buffer
+	 */
+	public ByteBufferSasPageSource(ByteBuffer buffer) {
+		if (buffer == null) {
+			throw new IllegalArgumentException("buffer cannot be null");
+		}
+		_buffer = buffer.slice();
+		_buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public ByteBufferSasPageSource(byte[] data) {
+		this(ByteBuffer.wrap(data));
+	}
+
+	@Override
+	public ByteBuffer read(int length) {
+		if (!_buffer.hasRemaining()) {
+			return null;
+		}
+		final int available = Math.min(length, _buffer.remaining());
+		final ByteBuffer result = IO.slice(_buffer, _buffer.position(),
+				available);
+		_buffer.position(_buffer.position() + available);
+		return result;
+	}
+
+	@Override
+	public boolean isRetainingBuffers() {
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "ByteBufferSasPageSource[capacity=" + _buffer.capacity() + "]";
+	}
+
+	@Override
+	public void close() {
+		// nothing to release
+	}
+}
@@ -20,9 +20,14 @@
 package org.eobjects.sassy;
 
 /**
- * A {@link SasReaderCallback} for getting the count of rows in a dataset.
+ * A {@link SasReaderCallback} for getting the count of rows in a dataset. No
+ * column values are decoded while counting.
+ * 
+ * @see SasReader#readMetadata()
  */
-public class CountReaderCallback implements SasReaderCallback {
+public class CountReaderCallback implements SasProjectingReaderCallback {
+
+    private static final int[] NO_COLUMNS = new int[0];
 
     private int count;
 
@@ -44,6 +49,11 @@ public class CountReaderCallback implements SasReaderCallback {
         return true;
     }
 
+    @Override
+    public int[] getColumnProjection() {
+        return NO_COLUMNS;
+    }
+
     @Override
     public boolean row(int rowNumber, Object[] rowData) {
         count++;
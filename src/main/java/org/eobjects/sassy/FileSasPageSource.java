@@ -0,0 +1,52 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * {@link SasPageSource} that reads a file through a regular
+ * {@link FileInputStream}.
+ * 
+ * @see MappedFileSasPageSource
+ * 
+ * @author Kasper Sørensen
+ */
+public final class FileSasPageSource extends InputStreamSasPageSource {
+
+	private final File _file;
+
+	public FileSasPageSource(File file) throws IOException {
+		super(new FileInputStream(file));
+		_file = file;
+	}
+
+	@Override
+	public String toString() {
+		return _file.toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		getInputStream().close();
+	}
+}
@@ -19,11 +19,9 @@
  */
 package org.eobjects.sassy;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Arrays;
+import java.nio.charset.Charset;
 
 /**
  * Contains static convenience methods for low level operations (typically close
@@ -33,7 +31,11 @@ import java.util.Arrays;
  */
 final class IO {
 
-	private static final String CHARSET_NAME = "GBK";
+	/**
+	 * The charset of header fields, which are plain ASCII in practice
+	 */
+	private static final SasCharset HEADER_CHARSET = SasCharset.get(Charset
+			.forName("windows-1252"));
 
 	private IO() {
 		// prevent instantiation
@@ -58,47 +60,29 @@ final class IO {
 	}
 
 	public static String readString(byte[] buffer, int off, int len) {
-		byte[] subset = readBytes(buffer, off, len);
-
-		String str = getString(subset, CHARSET_NAME);
-		return str;
-	}
-
-	private static String getString(byte[] bytes, String encoding) {
-		try {
-			InputStreamReader reader = new InputStreamReader(
-					new ByteArrayInputStream(bytes), encoding);
-			char[] chars = new char[bytes.length * 2];
-			int read = reader.read(chars);
-			chars = Arrays.copyOf(chars, read);
-			return new String(chars);
-		} catch (Exception e) {
-			throw new IllegalArgumentException(e);
+		if (buffer.length < off + len) {
+			throw new SasReaderException("readString failed! data.length: "
+					+ buffer.length + ", off: " + off + ", len: " + len);
 		}
+		return HEADER_CHARSET.decode(buffer, off, len);
 	}
 
 	public static byte readByte(byte[] buffer, int off) {
-		ByteBuffer bb = ByteBuffer.wrap(buffer);
-		bb.order(ByteOrder.LITTLE_ENDIAN);
-		return bb.get(off);
+		return buffer[off];
 	}
 
 	public static int readInt(byte[] buffer, int off) {
-		ByteBuffer bb = ByteBuffer.wrap(buffer);
-		bb.order(ByteOrder.LITTLE_ENDIAN);
-		return bb.getInt(off);
+		return (buffer[off] & 0xff) | ((buffer[off + 1] & 0xff) << 8)
+				| ((buffer[off + 2] & 0xff) << 16) | (buffer[off + 3] << 24);
 	}
 
 	public static double readDouble(byte[] buffer, int off) {
-		ByteBuffer bb = ByteBuffer.wrap(buffer);
-		bb.order(ByteOrder.LITTLE_ENDIAN);
-		return bb.getDouble(off);
+		return Double.longBitsToDouble(readLong(buffer, off));
 	}
-	
-	public static long readLong(byte[] buffer,int off){
-		ByteBuffer bb = ByteBuffer.wrap(buffer);
-		bb.order(ByteOrder.LITTLE_ENDIAN);
-		return bb.getLong(off);
+
+	public static long readLong(byte[] buffer, int off) {
+		return (readInt(buffer, off) & 0xffffffffL)
+				| ((long) readInt(buffer, off + 4) << 32);
 	}
 
 	public static byte[] readBytes(byte[] data, int off, int len) {
@@ -112,9 +96,7 @@ final class IO {
 	}
 
 	public static short readShort(byte[] buffer, int off) {
-		ByteBuffer bb = ByteBuffer.wrap(buffer);
-		bb.order(ByteOrder.LITTLE_ENDIAN);
-		return bb.getShort(off);
+		return (short) ((buffer[off] & 0xff) | (buffer[off + 1] << 8));
 	}
 
 	public static Number readNumber(byte[] buffer, int off, int len) {
@@ -147,6 +129,148 @@ final class IO {
 		}
 	}
 
+	/**
+	 * Creates a little endian view of a region of a buffer, without copying
+	 * the underlying data.
+	 * 
+	 * @param buffer
+	 * @param off
+	 * @param len
+	 * @return
+	 */
+	public static ByteBuffer slice(ByteBuffer buffer, int off, int len) {
+		if (buffer.limit() < off + len) {
+			throw new SasReaderException("slice failed! buffer.limit: "
+					+ buffer.limit() + ", off: " + off + ", len: " + len);
+		}
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.limit(off + len);
+		duplicate.position(off);
+		ByteBuffer result = duplicate.slice();
+		result.order(ByteOrder.LITTLE_ENDIAN);
+		return result;
+	}
+
+	/**
+	 * Copies a region of a buffer into a new little endian heap buffer. Used
+	 * when the source buffer is about to be reused.
+	 * 
+	 * @param buffer
+	 * @param off
+	 * @param len
+	 * @return
+	 */
+	public static ByteBuffer copy(ByteBuffer buffer, int off, int len) {
+		return wrap(readBytes(buffer, off, len));
+	}
+
+	public static ByteBuffer wrap(byte[] data) {
+		ByteBuffer result = ByteBuffer.wrap(data);
+		result.order(ByteOrder.LITTLE_ENDIAN);
+		return result;
+	}
+
+	public static byte[] readBytes(ByteBuffer buffer, int off, int len) {
+		if (buffer.limit() < off + len) {
+			throw new SasReaderException("readBytes failed! buffer.limit: "
+					+ buffer.limit() + ", off: " + off + ", len: " + len);
+		}
+		byte[] subset = new byte[len];
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(off);
+		duplicate.get(subset);
+		return subset;
+	}
+
+	public static byte readByte(ByteBuffer buffer, int off) {
+		return buffer.get(off);
+	}
+
+	public static short readShort(ByteBuffer buffer, int off) {
+		return buffer.getShort(off);
+	}
+
+	public static int readInt(ByteBuffer buffer, int off) {
+		return buffer.getInt(off);
+	}
+
+	public static String readString(ByteBuffer buffer, int off, int len) {
+		return HEADER_CHARSET.decode(buffer, off, len);
+	}
+
+	/**
+	 * Reads a NUMERIC cell value. SAS stores numbers as doubles that may be
+	 * truncated to between 3 and 7 bytes, dropping the least significant
+	 * bytes of the mantissa.
+	 * 
+	 * @param buffer
+	 *            a little endian buffer
+	 * @param off
+	 * @param len
+	 * @return
+	 */
+	public static double readTruncatedDouble(ByteBuffer buffer, int off,
+			int len) {
+		if (len == 8) {
+			return buffer.getDouble(off);
+		}
+		long bits = 0;
+		for (int i = len - 1; i >= 0; i--) {
+			bits = (bits << 8) | (buffer.get(off + i) & 0xff);
+		}
+		bits = bits << ((8 - len) * 8);
+		return Double.longBitsToDouble(bits);
+	}
+
+	/**
+	 * Finds the start of the trimmed value of a CHARACTER cell, skipping the
+	 * same leading characters as {@link String#trim()}.
+	 * 
+	 * @param buffer
+	 * @param start
+	 * @param end
+	 *            the (exclusive) end of the cell
+	 * @return
+	 */
+	public static int trimStart(ByteBuffer buffer, int start, int end) {
+		while (start < end && (buffer.get(start) & 0xff) <= ' ') {
+			start++;
+		}
+		return start;
+	}
+
+	/**
+	 * Finds the (exclusive) end of the trimmed value of a CHARACTER cell,
+	 * skipping the same trailing characters as {@link String#trim()}.
+	 * 
+	 * @param buffer
+	 * @param start
+	 * @param end
+	 *            the (exclusive) end of the cell
+	 * @return
+	 */
+	public static int trimEnd(ByteBuffer buffer, int start, int end) {
+		while (end > start && (buffer.get(end - 1) & 0xff) <= ' ') {
+			end--;
+		}
+		return end;
+	}
+
+	public static Number readNumber2(ByteBuffer buffer, int off, int len) {
+		if (len == 1) {
+			return buffer.get(off);
+		} else if (len == 2) {
+			return buffer.getShort(off);
+		} else if (len == 4) {
+			return buffer.getInt(off);
+		} else if (len == 8) {
+			return buffer.getLong(off);
+		} else {
+			throw new UnsupportedOperationException(
+					"Number byte-length not supported: " + len);
+		}
+	}
+
 	public static byte[] concat(byte[] arr1, byte[] arr2) {
 		byte[] result = new byte[arr1.length + arr2.length];
 		System.arraycopy(arr1, 0, result, 0, arr1.length);
@@ -0,0 +1,90 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SasPageSource} that reads from an {@link InputStream} in a single
+ * pass, which makes it suitable also for non-seekable streams such as pipes
+ * and archive entries. A single buffer is reused for all pages of the same
+ * size, so buffers are not retained.
+ * 
+ * The stream is not closed when the page source is closed.
+ * 
+ * @author Kasper Sørensen
+ */
+public class InputStreamSasPageSource implements SasPageSource {
+
+	private final InputStream _inputStream;
+	private byte[] _data;
+
+	public InputStreamSasPageSource(InputStream inputStream) {
+		if (inputStream == null) {
+			throw new IllegalArgumentException("input stream cannot be null");
+		}
+		_inputStream = inputStream;
+	}
+
+	protected InputStream getInputStream() {
+		return _inputStream;
+	}
+
+	@Override
+	public ByteBuffer read(int length) throws IOException {
+		if (_data == null || _data.length != length) {
+			_data = new byte[length];
+		}
+
+		int read = 0;
+		while (read < length) {
+			int n = _inputStream.read(_data, read, length - read);
+			if (n == -1) {
+				break;
+			}
+			read += n;
+		}
+
+		if (read == 0 && length > 0) {
+			return null;
+		}
+
+		ByteBuffer buffer = IO.wrap(_data);
+		buffer.limit(read);
+		return buffer;
+	}
+
+	@Override
+	public String toString() {
+		return "InputStreamSasPageSource";
+	}
+
+	@Override
+	public boolean isRetainingBuffers() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		// the stream is owned by the caller
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * {@link SasPageSource} that memory maps the file and hands out pages as
+ * slices of the mapping. Large files are mapped in windows, since a single
+ * mapping cannot exceed 2 GB.
+ * 
+ * @author Kasper Sørensen
+ */
+public final class MappedFileSasPageSource implements SasPageSource {
+
+	private static final long MAX_WINDOW_SIZE = 1024 * 1024 * 1024;
+
+	private final File _file;
+	private final RandomAccessFile _randomAccessFile;
+	private final FileChannel _channel;
+	private final long _size;
+	private MappedByteBuffer _window;
+	private long _windowStart;
+	private long _position;
+
+	public MappedFileSasPageSource(File file) throws IOException {
+		_file = file;
+		_randomAccessFile = new RandomAccessFile(file, "r");
+		_channel = _randomAccessFile.getChannel();
+		_size = _channel.size();
+		_position = 0;
+	}
+
+	@Override
+	public ByteBuffer read(int length) throws IOException {
+		if (_position >= _size) {
+			return null;
+		}
+
+		final int available = (int) Math.min(length, _size - _position);
+		if (_window == null || _position < _windowStart
+				|| _position + available > _windowStart + _window.capacity()) {
+			final long windowSize = Math.min(
+					Math.max(MAX_WINDOW_SIZE, available), _size - _position);
+			_window = _channel.map(MapMode.READ_ONLY, _position, windowSize);
+			_windowStart = _position;
+		}
+
+		final ByteBuffer result = IO.slice(_window,
+				(int) (_position - _windowStart), available);
+		_position += available;
+		return result;
+	}
+
+	@Override
+	public boolean isRetainingBuffers() {
+		// mappings stay valid after the channel has been closed
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return _file.toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		_randomAccessFile.close();
+	}
+}
@@ -0,0 +1,230 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SasPageSource} decorator that reads pages ahead of the reader on a
+ * background thread, so that I/O overlaps with decoding. Pages of a source
+ * that does not retain its buffers are copied into a ring of buffers, which
+ * are recycled once the reader moves on to the next page. Pages of a source
+ * that retains its buffers (eg. a memory mapping) are passed on as is, after
+ * touching them so that they are faulted in ahead of the reader.
+ * 
+ * Only pages are read ahead, so the decorated source must be positioned at
+ * the first page, and all reads must be of the page size.
+ * 
+ * @author Kasper Sørensen
+ */
+final class ReadAheadSasPageSource implements SasPageSource {
+
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	/**
+	 * The distance between bytes touched to fault in a mapped page
+	 */
+	private static final int OS_PAGE_SIZE = 4096;
+
+	/**
+	 * How often the read-ahead thread checks if the source has been closed
+	 * while it waits for the reader
+	 */
+	private static final long POLL_MILLIS = 10;
+
+	private final SasPageSource _source;
+	private final int _pageSize;
+	private final boolean _retainingBuffers;
+	private final BlockingQueue<ByteBuffer> _filled;
+	private final BlockingQueue<ByteBuffer> _free;
+	private final Thread _thread;
+	private volatile Throwable _error;
+	private volatile boolean _closed;
+	private ByteBuffer _current;
+	private boolean _ended;
+
+	/**
+	 * Creates a read-ahead page source and starts reading ahead.
+	 * 
+	 * @param source
+	 *            the source to read pages from, positioned at the first page
+	 * @param pageSize
+	 * @param depth
+	 *            the maximum amount of pages to read ahead
+	 * @param name
+	 *            the name of the file, used to name the read-ahead thread
+	 */
+	public ReadAheadSasPageSource(SasPageSource source, int pageSize,
+			int depth, String name) {
+		if (depth < 1) {
+			throw new IllegalArgumentException(
+					"depth must be a positive number");
+		}
+		_source = source;
+		_pageSize = pageSize;
+		_retainingBuffers = source.isRetainingBuffers();
+		_filled = new ArrayBlockingQueue<ByteBuffer>(depth + 1);
+		if (_retainingBuffers) {
+			_free = null;
+		} else {
+			// one buffer is held by the reader while the others are filled
+			_free = new ArrayBlockingQueue<ByteBuffer>(depth + 1);
+			for (int i = 0; i <= depth; i++) {
+				_free.add(IO.wrap(new byte[pageSize]));
+			}
+		}
+		_thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readAhead();
+			}
+		}, "sassy-read-ahead (" + name + ")");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	private void readAhead() {
+		try {
+			while (!_closed) {
+				final ByteBuffer buffer;
+				if (_retainingBuffers) {
+					buffer = null;
+				} else {
+					buffer = _free.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+					if (buffer == null) {
+						continue;
+					}
+				}
+				final ByteBuffer page = _source.read(_pageSize);
+				if (page == null) {
+					break;
+				}
+				if (_retainingBuffers) {
+					if (page.isDirect()) {
+						for (int i = 0; i < page.limit(); i += OS_PAGE_SIZE) {
+							page.get(i);
+						}
+					}
+					offer(page);
+				} else {
+					buffer.clear();
+					buffer.put(page);
+					buffer.flip();
+					offer(buffer);
+				}
+				if (page.limit() < _pageSize) {
+					break;
+				}
+			}
+		} catch (Throwable e) {
+			_error = e;
+		}
+		try {
+			offer(END);
+		} catch (InterruptedException e) {
+			// nobody is waiting for the end
+		}
+	}
+
+	/**
+	 * Hands a page to the reader, giving up if the source is closed. The
+	 * thread is not interrupted on close, since that would close
+	 * interruptible channels that the decorated source reads from.
+	 */
+	private void offer(ByteBuffer page) throws InterruptedException {
+		while (!_closed) {
+			if (_filled.offer(page, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+		}
+	}
+
+	@Override
+	public ByteBuffer read(int length) throws IOException {
+		if (length != _pageSize) {
+			throw new IllegalArgumentException("Read of " + length
+					+ " bytes, only pages of " + _pageSize
+					+ " bytes are read ahead");
+		}
+		if (_ended) {
+			return null;
+		}
+		if (_current != null) {
+			if (!_retainingBuffers) {
+				_free.add(_current);
+			}
+			_current = null;
+		}
+
+		final ByteBuffer page;
+		try {
+			page = _filled.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while waiting for page");
+		}
+		if (page == END) {
+			_ended = true;
+			final Throwable error = _error;
+			if (error instanceof IOException) {
+				throw (IOException) error;
+			}
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			}
+			if (error != null) {
+				throw new IOException("Read-ahead of page failed", error);
+			}
+			return null;
+		}
+		_current = page;
+		return page;
+	}
+
+	@Override
+	public boolean isRetainingBuffers() {
+		return _retainingBuffers;
+	}
+
+	@Override
+	public String toString() {
+		return "ReadAheadSasPageSource[" + _source + "]";
+	}
+
+	/**
+	 * Stops reading ahead and closes the decorated source.
+	 */
+	@Override
+	public void close() throws IOException {
+		_closed = true;
+		try {
+			_thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		_source.close();
+	}
+}
@@ -0,0 +1,442 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The charset of the CHARACTER cells, column names and labels of a file,
+ * along with a decoder specialized for it. Single byte charsets (such as
+ * ASCII, Latin-1 and the Windows code pages) are decoded through a byte to
+ * char table and UTF-8 is decoded by hand, which leaves only the multi byte
+ * charsets (such as GBK) to a {@link CharsetDecoder}.
+ * 
+ * Instances are thread-safe (buffers are kept per thread) and shared per
+ * charset.
+ * 
+ * @author Kasper Sørensen
+ */
+final class SasCharset {
+
+	/**
+	 * The charset used when the header of a file does not specify a (known)
+	 * encoding. This is GBK, which this reader has always decoded such files
+	 * with.
+	 */
+	public static final Charset DEFAULT_CHARSET = Charset.forName("GBK");
+
+	private static final int MODE_TABLE = 0;
+	private static final int MODE_UTF8 = 1;
+	private static final int MODE_DECODER = 2;
+
+	private static final Map<Integer, Charset> CHARSETS_BY_CODE = new HashMap<Integer, Charset>();
+	private static final Map<Charset, Integer> CODES_BY_CHARSET = new HashMap<Charset, Integer>();
+	private static final ConcurrentMap<Charset, SasCharset> INSTANCES = new ConcurrentHashMap<Charset, SasCharset>();
+
+	static {
+		// the encoding codes of the header, the first code of a charset is
+		// the one that is written
+		addCode(20, "UTF-8");
+		addCode(28, "US-ASCII");
+		addCode(29, "ISO-8859-1");
+		addCode(30, "ISO-8859-2");
+		addCode(31, "ISO-8859-3");
+		addCode(32, "ISO-8859-4");
+		addCode(33, "ISO-8859-5");
+		addCode(34, "ISO-8859-6");
+		addCode(35, "ISO-8859-7");
+		addCode(36, "ISO-8859-8");
+		addCode(37, "ISO-8859-9");
+		addCode(39, "x-iso-8859-11");
+		addCode(40, "ISO-8859-15");
+		addCode(41, "IBM437");
+		addCode(42, "IBM850");
+		addCode(43, "IBM852");
+		addCode(44, "IBM857");
+		addCode(45, "IBM00858");
+		addCode(46, "IBM862");
+		addCode(47, "IBM864");
+		addCode(48, "IBM865");
+		addCode(49, "IBM866");
+		addCode(50, "IBM869");
+		addCode(51, "x-IBM874");
+		addCode(60, "windows-1250");
+		addCode(61, "windows-1251");
+		addCode(62, "windows-1252");
+		addCode(63, "windows-1253");
+		addCode(64, "windows-1254");
+		addCode(65, "windows-1255");
+		addCode(66, "windows-1256");
+		addCode(67, "windows-1257");
+		addCode(68, "windows-1258");
+		addCode(69, "x-MacRoman");
+		addCode(118, "x-windows-950");
+		addCode(119, "x-EUC-TW");
+		addCode(123, "Big5");
+		addCode(125, "GB18030");
+		addCode(126, "GBK");
+		addCode(128, "x-IBM1381");
+		addCode(134, "EUC-JP");
+		addCode(136, "x-windows-949");
+		addCode(137, "x-IBM942");
+		addCode(138, "windows-31j");
+		addCode(140, "EUC-KR");
+		addCode(205, "GB18030");
+	}
+
+	private static void addCode(int code, String charsetName) {
+		if (Charset.isSupported(charsetName)) {
+			final Charset charset = Charset.forName(charsetName);
+			CHARSETS_BY_CODE.put(code, charset);
+			if (!CODES_BY_CHARSET.containsKey(charset)) {
+				CODES_BY_CHARSET.put(charset, code);
+			}
+		}
+	}
+
+	/**
+	 * Gets the charset of an encoding code of the file header.
+	 * 
+	 * @param code
+	 * @return the charset, or null if the code is unknown (or unspecified)
+	 */
+	public static Charset getCharset(int code) {
+		return CHARSETS_BY_CODE.get(code);
+	}
+
+	/**
+	 * Gets the encoding code of a charset, for the file header.
+	 * 
+	 * @param charset
+	 * @return the code, or -1 if the charset has no code
+	 */
+	public static int getCode(Charset charset) {
+		final Integer code = CODES_BY_CHARSET.get(charset);
+		return code == null ? -1 : code.intValue();
+	}
+
+	public static SasCharset get(Charset charset) {
+		SasCharset result = INSTANCES.get(charset);
+		if (result == null) {
+			result = new SasCharset(charset);
+			final SasCharset existing = INSTANCES.putIfAbsent(charset, result);
+			if (existing != null) {
+				result = existing;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Per thread buffers, and a decoder for {@link #MODE_DECODER}
+	 */
+	private static final class Buffers {
+		char[] chars = new char[256];
+		byte[] bytes = new byte[256];
+		CharsetDecoder decoder;
+
+		char[] chars(int len) {
+			if (chars.length < len) {
+				chars = new char[Math.max(len, chars.length * 2)];
+			}
+			return chars;
+		}
+
+		byte[] bytes(int len) {
+			if (bytes.length < len) {
+				bytes = new byte[Math.max(len, bytes.length * 2)];
+			}
+			return bytes;
+		}
+	}
+
+	private final Charset _charset;
+	private final int _mode;
+	private final char[] _table;
+	private final boolean _asciiCompatible;
+	private final ThreadLocal<Buffers> _buffers;
+
+	private SasCharset(Charset charset) {
+		_charset = charset;
+		_table = createTable(charset);
+		if (_table != null) {
+			_mode = MODE_TABLE;
+		} else if ("UTF-8".equals(charset.name())) {
+			_mode = MODE_UTF8;
+		} else {
+			_mode = MODE_DECODER;
+		}
+		_asciiCompatible = isAsciiCompatible(charset);
+		_buffers = new ThreadLocal<Buffers>() {
+			@Override
+			protected Buffers initialValue() {
+				return new Buffers();
+			}
+		};
+	}
+
+	/**
+	 * Creates the byte to char table of a single byte charset.
+	 * 
+	 * @return the table, or null if the charset is not a single byte charset
+	 */
+	private static char[] createTable(Charset charset) {
+		if (!charset.canEncode()
+				|| charset.newEncoder().maxBytesPerChar() != 1f) {
+			return null;
+		}
+		final char[] table = new char[256];
+		for (int i = 0; i < table.length; i++) {
+			final CharBuffer chars;
+			try {
+				chars = newDecoder(charset).decode(
+						ByteBuffer.wrap(new byte[] { (byte) i }));
+			} catch (CharacterCodingException e) {
+				return null;
+			}
+			if (chars.remaining() != 1) {
+				return null;
+			}
+			table[i] = chars.get(0);
+		}
+		return table;
+	}
+
+	private static boolean isAsciiCompatible(Charset charset) {
+		final byte[] ascii = new byte[128];
+		for (int i = 0; i < ascii.length; i++) {
+			ascii[i] = (byte) i;
+		}
+		try {
+			final CharBuffer chars = newDecoder(charset).decode(
+					ByteBuffer.wrap(ascii));
+			if (chars.remaining() != ascii.length) {
+				return false;
+			}
+			for (int i = 0; i < ascii.length; i++) {
+				if (chars.get(i) != i) {
+					return false;
+				}
+			}
+			return true;
+		} catch (CharacterCodingException e) {
+			return false;
+		}
+	}
+
+	private static CharsetDecoder newDecoder(Charset charset) {
+		return charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	public Charset getCharset() {
+		return _charset;
+	}
+
+	/**
+	 * Determines if the charset encodes ASCII characters as single ASCII
+	 * bytes, which allows comparing ASCII strings with encoded bytes.
+	 * 
+	 * @return
+	 */
+	public boolean isAsciiCompatible() {
+		return _asciiCompatible;
+	}
+
+	public String decode(byte[] buffer, int off, int len) {
+		switch (_mode) {
+		case MODE_TABLE:
+			final char[] table = _table;
+			final char[] chars = _buffers.get().chars(len);
+			for (int i = 0; i < len; i++) {
+				chars[i] = table[buffer[off + i] & 0xff];
+			}
+			return new String(chars, 0, len);
+		case MODE_UTF8:
+			return decodeUtf8(buffer, off, len);
+		default:
+			return decodeAsciiOrCharset(buffer, off, len);
+		}
+	}
+
+	public String decode(ByteBuffer buffer, int off, int len) {
+		if (buffer.hasArray()) {
+			return decode(buffer.array(), buffer.arrayOffset() + off, len);
+		}
+		if (_mode == MODE_TABLE) {
+			final char[] table = _table;
+			final char[] chars = _buffers.get().chars(len);
+			for (int i = 0; i < len; i++) {
+				chars[i] = table[buffer.get(off + i) & 0xff];
+			}
+			return new String(chars, 0, len);
+		}
+		final byte[] bytes = _buffers.get().bytes(len);
+		for (int i = 0; i < len; i++) {
+			bytes[i] = buffer.get(off + i);
+		}
+		return decode(bytes, 0, len);
+	}
+
+	/**
+	 * Decodes UTF-8 without a {@link CharsetDecoder}. Malformed input is left
+	 * to the decoder, which replaces it.
+	 */
+	private String decodeUtf8(byte[] buffer, int off, int len) {
+		// a char never takes up fewer bytes than it is long
+		final char[] chars = _buffers.get().chars(len);
+		final int end = off + len;
+		int i = off;
+		int n = 0;
+		while (i < end) {
+			final int b = buffer[i];
+			if (b >= 0) {
+				chars[n++] = (char) b;
+				i++;
+			} else if ((b & 0xe0) == 0xc0 && i + 1 < end
+					&& (buffer[i + 1] & 0xc0) == 0x80) {
+				final int c = ((b & 0x1f) << 6) | (buffer[i + 1] & 0x3f);
+				if (c < 0x80) {
+					return decodeCharset(buffer, off, len);
+				}
+				chars[n++] = (char) c;
+				i += 2;
+			} else if ((b & 0xf0) == 0xe0 && i + 2 < end
+					&& (buffer[i + 1] & 0xc0) == 0x80
+					&& (buffer[i + 2] & 0xc0) == 0x80) {
+				final int c = ((b & 0x0f) << 12)
+						| ((buffer[i + 1] & 0x3f) << 6)
+						| (buffer[i + 2] & 0x3f);
+				if (c < 0x800 || Character.isSurrogate((char) c)) {
+					return decodeCharset(buffer, off, len);
+				}
+				chars[n++] = (char) c;
+				i += 3;
+			} else if ((b & 0xf8) == 0xf0 && i + 3 < end
+					&& (buffer[i + 1] & 0xc0) == 0x80
+					&& (buffer[i + 2] & 0xc0) == 0x80
+					&& (buffer[i + 3] & 0xc0) == 0x80) {
+				final int c = ((b & 0x07) << 18)
+						| ((buffer[i + 1] & 0x3f) << 12)
+						| ((buffer[i + 2] & 0x3f) << 6)
+						| (buffer[i + 3] & 0x3f);
+				if (c < 0x10000 || c > Character.MAX_CODE_POINT) {
+					return decodeCharset(buffer, off, len);
+				}
+				chars[n++] = Character.highSurrogate(c);
+				chars[n++] = Character.lowSurrogate(c);
+				i += 4;
+			} else {
+				return decodeCharset(buffer, off, len);
+			}
+		}
+		return new String(chars, 0, n);
+	}
+
+	/**
+	 * Skips the decoder for values that are plain ASCII, which is the common
+	 * case.
+	 */
+	private String decodeAsciiOrCharset(byte[] buffer, int off, int len) {
+		if (!_asciiCompatible) {
+			return decodeCharset(buffer, off, len);
+		}
+		final char[] chars = _buffers.get().chars(len);
+		for (int i = 0; i < len; i++) {
+			final byte b = buffer[off + i];
+			if (b < 0) {
+				return decodeCharset(buffer, off, len);
+			}
+			chars[i] = (char) b;
+		}
+		return new String(chars, 0, len);
+	}
+
+	private String decodeCharset(byte[] buffer, int off, int len) {
+		final Buffers buffers = _buffers.get();
+		if (buffers.decoder == null) {
+			buffers.decoder = newDecoder(_charset);
+		}
+		final CharsetDecoder decoder = buffers.decoder;
+		final ByteBuffer in = ByteBuffer.wrap(buffer, off, len);
+		int capacity = buffers.chars(len * 2).length;
+		while (true) {
+			final CharBuffer out = CharBuffer.wrap(buffers.chars, 0, capacity);
+			decoder.reset();
+			CoderResult result = decoder.decode(in, out, true);
+			if (!result.isOverflow()) {
+				result = decoder.flush(out);
+			}
+			if (!result.isOverflow()) {
+				return new String(buffers.chars, 0, out.position());
+			}
+			in.position(off);
+			capacity = buffers.chars(capacity * 2).length;
+		}
+	}
+
+	/**
+	 * Encodes a string, e.g. to compare it with the bytes of a cell.
+	 * 
+	 * @param str
+	 * @return the encoded bytes, or null if the string cannot be represented
+	 *         in the charset
+	 */
+	public byte[] encode(String str) {
+		try {
+			final ByteBuffer encoded = newEncoder().encode(
+					CharBuffer.wrap(str));
+			final byte[] result = new byte[encoded.remaining()];
+			encoded.get(result);
+			return result;
+		} catch (CharacterCodingException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates an encoder which reports (rather than replaces) unmappable
+	 * characters.
+	 * 
+	 * @return
+	 */
+	public CharsetEncoder newEncoder() {
+		return _charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+	}
+
+	@Override
+	public String toString() {
+		return _charset.name();
+	}
+}
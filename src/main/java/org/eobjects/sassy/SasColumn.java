@@ -0,0 +1,97 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+/**
+ * Describes a column of a sas7bdat file.
+ * 
+ * @author Kasper Sørensen
+ */
+public final class SasColumn {
+
+	private final int _index;
+	private final String _name;
+	private final String _label;
+	private final SasColumnType _type;
+	private final String _format;
+	private final int _offset;
+	private final int _length;
+
+	public SasColumn(int index, String name, String label, SasColumnType type,
+			String format, int offset, int length) {
+		_index = index;
+		_name = name;
+		_label = label;
+		_type = type;
+		_format = format;
+		_offset = offset;
+		_length = length;
+	}
+
+	/**
+	 * Gets the index (0-based) of the column
+	 * 
+	 * @return
+	 */
+	public int getIndex() {
+		return _index;
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	public String getLabel() {
+		return _label;
+	}
+
+	public SasColumnType getType() {
+		return _type;
+	}
+
+	public String getFormat() {
+		return _format;
+	}
+
+	/**
+	 * Gets the offset of the column's values within a row
+	 * 
+	 * @return
+	 */
+	public int getOffset() {
+		return _offset;
+	}
+
+	/**
+	 * Gets the length (in bytes) of the column's values
+	 * 
+	 * @return
+	 */
+	public int getLength() {
+		return _length;
+	}
+
+	@Override
+	public String toString() {
+		return "SasColumn[index=" + _index + ",name=" + _name + ",type="
+				+ _type + ",format=" + _format + ",offset=" + _offset
+				+ ",length=" + _length + "]";
+	}
+}
@@ -0,0 +1,337 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A batch of rows in columnar form, as passed to a
+ * {@link SasColumnarCallback}. The columns of a batch are the projected
+ * columns of the reader (see {@link SasReader#setColumnProjection(int...)}),
+ * and the rows are the rows of a page that satisfy the reader's predicates.
+ * 
+ * NUMERIC columns are available as double vectors, along with a bitmap of
+ * the rows that have missing (NaN) or null values. DATE, DATETIME and TIME
+ * columns are available as double vectors too, and can be converted in bulk
+ * to vectors of epoch values. CHARACTER columns are available as offsets and
+ * lengths of the trimmed values within the page buffer. All vectors may be
+ * longer than the row count of the batch.
+ * 
+ * @author Kasper Sørensen
+ */
+public final class SasColumnBatch {
+
+	private final int[] _columnIndices;
+	private final SasColumnType[] _columnTypes;
+	private final SasStringDictionary[] _dictionaries;
+	private final SasCharset _charset;
+	private final double[][] _doubles;
+	private final long[][] _epochValues;
+	private final boolean[] _epochValuesConverted;
+	private final long[][] _missing;
+	private final int[][] _offsets;
+	private final int[][] _lengths;
+	private int[] _rowNumbers;
+	private int _rowCount;
+	private int _pageNumber;
+	private ByteBuffer _page;
+	private ByteBuffer _pageView;
+
+	SasColumnBatch(int[] columnIndices, SasColumnType[] columnTypes,
+			SasStringDictionary[] dictionaries, SasCharset charset) {
+		_columnIndices = columnIndices;
+		_columnTypes = columnTypes;
+		_dictionaries = dictionaries;
+		_charset = charset;
+		_doubles = new double[columnTypes.length][];
+		_epochValues = new long[columnTypes.length][];
+		_epochValuesConverted = new boolean[columnTypes.length];
+		_missing = new long[columnTypes.length][];
+		_offsets = new int[columnTypes.length][];
+		_lengths = new int[columnTypes.length][];
+		_rowNumbers = new int[0];
+		_rowCount = 0;
+		// the vectors grow with the first page that has rows, the first
+		// pages may have none
+		for (int i = 0; i < columnTypes.length; i++) {
+			if (columnTypes[i].isNumeric()) {
+				_doubles[i] = new double[0];
+			} else {
+				_offsets[i] = new int[0];
+				_lengths[i] = new int[0];
+			}
+			_missing[i] = new long[0];
+		}
+	}
+
+	/**
+	 * Prepares the batch for the rows of a new page.
+	 * 
+	 * @param page
+	 * @param capacity
+	 *            the maximum amount of rows that will be added
+	 */
+	void reset(ByteBuffer page, int capacity) {
+		_page = page;
+		_pageView = null;
+		_rowCount = 0;
+		Arrays.fill(_epochValuesConverted, false);
+		if (_rowNumbers.length < capacity) {
+			_rowNumbers = new int[capacity];
+			for (int i = 0; i < _columnTypes.length; i++) {
+				if (_columnTypes[i].isNumeric()) {
+					_doubles[i] = new double[capacity];
+					_epochValues[i] = null;
+				} else {
+					_offsets[i] = new int[capacity];
+					_lengths[i] = new int[capacity];
+				}
+				_missing[i] = new long[(capacity + 63) >>> 6];
+			}
+		} else {
+			for (int i = 0; i < _columnTypes.length; i++) {
+				Arrays.fill(_missing[i], 0L);
+			}
+		}
+	}
+
+	/**
+	 * Adds a row to the batch. The values of the row are set afterwards,
+	 * using the returned index.
+	 * 
+	 * @param rowNumber
+	 * @return the index of the row within the batch
+	 */
+	int addRow(int rowNumber) {
+		_rowNumbers[_rowCount] = rowNumber;
+		return _rowCount++;
+	}
+
+	void setDouble(int column, int row, double value) {
+		_doubles[column][row] = value;
+		if (Double.isNaN(value)) {
+			setMissing(column, row);
+		}
+	}
+
+	void setString(int column, int row, int offset, int length) {
+		_offsets[column][row] = offset;
+		_lengths[column][row] = length;
+	}
+
+	void setMissing(int column, int row) {
+		_missing[column][row >>> 6] |= 1L << row;
+	}
+
+	/**
+	 * Gets the amount of rows in the batch.
+	 * 
+	 * @return
+	 */
+	public int getRowCount() {
+		return _rowCount;
+	}
+
+	/**
+	 * Gets the number (0-based) of the page that the rows of the batch were
+	 * read from.
+	 * 
+	 * @return
+	 */
+	public int getPageNumber() {
+		return _pageNumber;
+	}
+
+	void setPageNumber(int pageNumber) {
+		_pageNumber = pageNumber;
+	}
+
+	/**
+	 * Gets the row number of a row, which refers to the position of the row
+	 * in the file.
+	 * 
+	 * @param row
+	 *            the index (0-based) of the row within the batch
+	 * @return
+	 */
+	public int getRowNumber(int row) {
+		return _rowNumbers[row];
+	}
+
+	/**
+	 * Gets the amount of columns in the batch.
+	 * 
+	 * @return
+	 */
+	public int getColumnCount() {
+		return _columnTypes.length;
+	}
+
+	/**
+	 * Gets the index of a column within the dataset.
+	 * 
+	 * @param column
+	 *            the index (0-based) of the column within the batch
+	 * @return
+	 */
+	public int getColumnIndex(int column) {
+		return _columnIndices[column];
+	}
+
+	public SasColumnType getColumnType(int column) {
+		return _columnTypes[column];
+	}
+
+	/**
+	 * Gets the values of a NUMERIC, DATE, DATETIME or TIME column. Values of
+	 * DATE, DATETIME and TIME columns are relative to the SAS epoch.
+	 * 
+	 * @param column
+	 *            the index (0-based) of the column within the batch
+	 * @return
+	 */
+	public double[] getDoubles(int column) {
+		if (!_columnTypes[column].isNumeric()) {
+			throw new IllegalArgumentException("Column " + column
+					+ " of batch is not NUMERIC but " + _columnTypes[column]);
+		}
+		return _doubles[column];
+	}
+
+	/**
+	 * Gets the values of a DATE, DATETIME or TIME column as epoch values: days
+	 * since 1970-01-01 (DATE), milliseconds since 1970-01-01 00:00 (DATETIME)
+	 * or milliseconds since midnight (TIME). The values of the whole column
+	 * are converted on the first call, and missing values are 0.
+	 * 
+	 * @param column
+	 *            the index (0-based) of the column within the batch
+	 * @return
+	 */
+	public long[] getEpochValues(int column) {
+		final SasColumnType type = _columnTypes[column];
+		if (!type.isTemporal()) {
+			throw new IllegalArgumentException("Column " + column
+					+ " of batch is not temporal but " + type);
+		}
+		if (!_epochValuesConverted[column]) {
+			if (_epochValues[column] == null) {
+				_epochValues[column] = new long[_doubles[column].length];
+			}
+			SasDates.toEpochValues(type, _doubles[column],
+					_epochValues[column], _rowCount);
+			_epochValuesConverted[column] = true;
+		}
+		return _epochValues[column];
+	}
+
+	/**
+	 * Gets the bitmap of missing values of a column, with one bit per row (bit
+	 * {@code row % 64} of element {@code row / 64}). A NUMERIC value is
+	 * missing if it is NaN or null, a CHARACTER value if it is null.
+	 * 
+	 * @param column
+	 * @return
+	 */
+	public long[] getMissing(int column) {
+		return _missing[column];
+	}
+
+	/**
+	 * Determines if a value is missing (NaN or null).
+	 * 
+	 * @param column
+	 * @param row
+	 * @return
+	 */
+	public boolean isMissing(int column, int row) {
+		return (_missing[column][row >>> 6] & (1L << row)) != 0;
+	}
+
+	/**
+	 * Gets the offsets of the values of a CHARACTER column within the page.
+	 * 
+	 * @see #getPage()
+	 * 
+	 * @param column
+	 * @return
+	 */
+	public int[] getOffsets(int column) {
+		checkType(column, SasColumnType.CHARACTER);
+		return _offsets[column];
+	}
+
+	/**
+	 * Gets the byte lengths of the (trimmed) values of a CHARACTER column.
+	 * 
+	 * @param column
+	 * @return
+	 */
+	public int[] getLengths(int column) {
+		checkType(column, SasColumnType.CHARACTER);
+		return _lengths[column];
+	}
+
+	/**
+	 * Gets a read-only view of the page that holds the values of CHARACTER
+	 * columns.
+	 * 
+	 * @return
+	 */
+	public ByteBuffer getPage() {
+		if (_pageView == null) {
+			_pageView = _page.asReadOnlyBuffer();
+		}
+		return _pageView;
+	}
+
+	/**
+	 * Decodes a CHARACTER value. This creates a string, so it is mostly meant
+	 * for values that actually need to be materialized.
+	 * 
+	 * @param column
+	 * @param row
+	 * @return the value, or null if the value is null
+	 */
+	public String getString(int column, int row) {
+		checkType(column, SasColumnType.CHARACTER);
+		if (isMissing(column, row)) {
+			return null;
+		}
+		final int length = _lengths[column][row];
+		if (length == 0) {
+			return "";
+		}
+		final SasStringDictionary dictionary = _dictionaries[column];
+		if (dictionary != null) {
+			return dictionary.get(_page, _offsets[column][row], length);
+		}
+		return _charset.decode(_page, _offsets[column][row], length);
+	}
+
+	private void checkType(int column, SasColumnType type) {
+		if (_columnTypes[column] != type) {
+			throw new IllegalArgumentException("Column " + column
+					+ " of batch is not " + type + " but "
+					+ _columnTypes[column]);
+		}
+	}
+}
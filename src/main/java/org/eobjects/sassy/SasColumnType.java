@@ -19,12 +19,100 @@
  */
 package org.eobjects.sassy;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 /**
- * Represents the supported sas column types in SassyReader.
+ * Represents the supported sas column types in SassyReader. DATE, DATETIME
+ * and TIME columns are NUMERIC columns with a date, datetime or time format,
+ * which hold days since 1960-01-01, seconds since 1960-01-01 00:00 and
+ * seconds since midnight respectively.
  * 
  * @author Kasper Sørensen
  */
 public enum SasColumnType {
 
-	NUMERIC, CHARACTER;
+	NUMERIC, CHARACTER, DATE, DATETIME, TIME;
+
+	private static final Set<String> DATE_FORMATS = new HashSet<String>(
+			Arrays.asList("DATE", "DAY", "DDMMYY", "DDMMYYB", "DDMMYYC",
+					"DDMMYYD", "DDMMYYN", "DDMMYYP", "DDMMYYS", "DOWNAME",
+					"E8601DA", "B8601DA", "IS8601DA", "EURDFDD", "EURDFDE",
+					"EURDFMY", "EURDFWDX", "EURDFWKX", "JULDAY", "JULIAN",
+					"MINGUO", "MMDDYY", "MMDDYYB", "MMDDYYC", "MMDDYYD",
+					"MMDDYYN", "MMDDYYP", "MMDDYYS", "MMYY", "MMYYC", "MMYYD",
+					"MMYYN", "MMYYP", "MMYYS", "MONNAME", "MONTH", "MONYY",
+					"NENGO", "NLDATE", "PDJULG", "PDJULI", "QTR", "QTRR",
+					"WEEKDATE", "WEEKDATX", "WEEKDAY", "WEEKU", "WEEKV",
+					"WEEKW", "WORDDATE", "WORDDATX", "XYYMMDD", "YEAR", "YYMM",
+					"YYMMC", "YYMMD", "YYMMN", "YYMMP", "YYMMS", "YYMMDD",
+					"YYMMDDB", "YYMMDDC", "YYMMDDD", "YYMMDDN", "YYMMDDP",
+					"YYMMDDS", "YYMON", "YYQ", "YYQC", "YYQD", "YYQN", "YYQP",
+					"YYQS", "YYQR", "YYQRC", "YYQRD", "YYQRN", "YYQRP",
+					"YYQRS"));
+
+	private static final Set<String> DATETIME_FORMATS = new HashSet<String>(
+			Arrays.asList("DATETIME", "DATEAMPM", "DTDATE", "DTMONYY",
+					"DTWKDATX", "DTYEAR", "DTYYQC", "E8601DT", "E8601DN",
+					"E8601DZ", "B8601DT", "B8601DN", "B8601DZ", "IS8601DT",
+					"IS8601DN", "IS8601DZ", "MDYAMPM", "NLDATM"));
+
+	private static final Set<String> TIME_FORMATS = new HashSet<String>(
+			Arrays.asList("TIME", "TIMEAMPM", "TOD", "HHMM", "HOUR", "MMSS",
+					"E8601TM", "E8601TZ", "B8601TM", "B8601TZ", "IS8601TM",
+					"IS8601TZ", "NLTIME"));
+
+	/**
+	 * Determines if values of this type are stored as (truncated) doubles,
+	 * which is the case for all types but CHARACTER.
+	 * 
+	 * @return
+	 */
+	public boolean isNumeric() {
+		return this != CHARACTER;
+	}
+
+	/**
+	 * Determines if this is a DATE, DATETIME or TIME type.
+	 * 
+	 * @return
+	 */
+	public boolean isTemporal() {
+		return this == DATE || this == DATETIME || this == TIME;
+	}
+
+	/**
+	 * Gets the type of a numeric column with a particular format.
+	 * 
+	 * @param format
+	 *            the format name, optionally followed by a width and a dot
+	 *            (eg. "DATE9."), or null
+	 * @return DATE, DATETIME or TIME for the corresponding formats, otherwise
+	 *         NUMERIC
+	 */
+	static SasColumnType getNumericType(String format) {
+		if (format == null) {
+			return NUMERIC;
+		}
+		int end = format.length();
+		while (end > 0) {
+			final char c = format.charAt(end - 1);
+			if (c != '.' && (c < '0' || c > '9')) {
+				break;
+			}
+			end--;
+		}
+		final String name = format.substring(0, end).trim().toUpperCase();
+		if (DATE_FORMATS.contains(name)) {
+			return DATE;
+		}
+		if (DATETIME_FORMATS.contains(name)) {
+			return DATETIME;
+		}
+		if (TIME_FORMATS.contains(name)) {
+			return TIME;
+		}
+		return NUMERIC;
+	}
 }
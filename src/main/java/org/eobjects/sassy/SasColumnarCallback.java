@@ -0,0 +1,60 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+/**
+ * A callback interface for the {@link SasReader} that receives the data of a
+ * sas7bdat file in columnar batches instead of row by row. Numbers are
+ * delivered as primitive doubles and strings as views into the page, so no
+ * objects are created per row or per value.
+ * 
+ * @see SasReader#read(SasColumnarCallback)
+ * 
+ * @author Kasper Sørensen
+ */
+public interface SasColumnarCallback {
+
+	/**
+	 * Callback method that accepts a column discovered by the {@link SasReader}
+	 * .
+	 * 
+	 * @see SasReaderCallback#column(int, String, String, SasColumnType,
+	 *      String, int)
+	 */
+	public void column(int columnIndex, String columnName, String columnLabel,
+			SasColumnType columnType, String format, int columnLength);
+
+	/**
+	 * Should the reader read the data/rows (or only columns?)
+	 * 
+	 * @return true if data/rows should be read.
+	 */
+	public boolean readData();
+
+	/**
+	 * Callback method that accepts a batch of rows, typically the rows of a
+	 * single page. The batch (including its vectors and page) is reused for
+	 * the next batch, so it must not be retained after this method returns.
+	 * 
+	 * @param batch
+	 * @return true if more batches should be read, false if not.
+	 */
+	public boolean batch(SasColumnBatch batch);
+}
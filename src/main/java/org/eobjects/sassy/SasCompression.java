@@ -0,0 +1,43 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+/**
+ * Represents the row compression methods of sas7bdat files.
+ * 
+ * @author Kasper Sørensen
+ */
+public enum SasCompression {
+
+	/**
+	 * Rows are not compressed
+	 */
+	NONE,
+
+	/**
+	 * Run length encoding, written by COMPRESS=CHAR (SASYZCRL)
+	 */
+	CHAR,
+
+	/**
+	 * Ross Data Compression, written by COMPRESS=BINARY (SASYZCR2)
+	 */
+	BINARY;
+}
@@ -0,0 +1,169 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.util.Date;
+
+/**
+ * Converts the values of DATE, DATETIME and TIME columns between the SAS
+ * representation (days or seconds since 1960-01-01) and the Java
+ * representation (days or milliseconds since 1970-01-01, UTC).
+ * 
+ * @author Kasper Sørensen
+ */
+final class SasDates {
+
+	/**
+	 * Days from the SAS epoch (1960-01-01) to the Java epoch (1970-01-01)
+	 */
+	static final int EPOCH_DAY_OFFSET = 3653;
+
+	/**
+	 * Seconds from the SAS epoch to the Java epoch
+	 */
+	static final long EPOCH_SECOND_OFFSET = EPOCH_DAY_OFFSET * 86400L;
+
+	static final long MILLIS_PER_DAY = 86400000L;
+
+	private SasDates() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Converts a SAS value to an epoch value, see
+	 * {@link SasTemporalValues#EPOCH}.
+	 * 
+	 * @param type
+	 * @param value
+	 *            a value that is not missing
+	 * @return
+	 */
+	public static long toEpochValue(SasColumnType type, double value) {
+		switch (type) {
+		case DATE:
+			return (long) Math.floor(value) - EPOCH_DAY_OFFSET;
+		case DATETIME:
+			return Math.round(value * 1000) - EPOCH_SECOND_OFFSET * 1000;
+		case TIME:
+			return Math.round(value * 1000);
+		default:
+			throw new IllegalArgumentException("Not a temporal type: " + type);
+		}
+	}
+
+	/**
+	 * Converts SAS values to epoch values in bulk. Missing values are
+	 * converted to 0.
+	 * 
+	 * @param type
+	 * @param values
+	 * @param epochValues
+	 * @param count
+	 *            the amount of values to convert
+	 */
+	public static void toEpochValues(SasColumnType type, double[] values,
+			long[] epochValues, int count) {
+		switch (type) {
+		case DATE:
+			for (int i = 0; i < count; i++) {
+				epochValues[i] = (long) Math.floor(values[i])
+						- EPOCH_DAY_OFFSET;
+			}
+			break;
+		case DATETIME:
+			final long offset = EPOCH_SECOND_OFFSET * 1000;
+			for (int i = 0; i < count; i++) {
+				epochValues[i] = Math.round(values[i] * 1000) - offset;
+			}
+			break;
+		case TIME:
+			for (int i = 0; i < count; i++) {
+				epochValues[i] = Math.round(values[i] * 1000);
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Not a temporal type: " + type);
+		}
+		for (int i = 0; i < count; i++) {
+			if (Double.isNaN(values[i])) {
+				epochValues[i] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Converts a SAS value to a date.
+	 * 
+	 * @param type
+	 * @param value
+	 *            a value that is not missing
+	 * @return
+	 */
+	public static Date toDate(SasColumnType type, double value) {
+		final long epochValue = toEpochValue(type, value);
+		if (type == SasColumnType.DATE) {
+			return new Date(epochValue * MILLIS_PER_DAY);
+		}
+		return new Date(epochValue);
+	}
+
+	/**
+	 * Converts a date to a SAS value. The time of day of a date converted to
+	 * a DATE value is kept as a fraction of a day, so that comparisons with
+	 * it are exact.
+	 * 
+	 * @param type
+	 * @param date
+	 * @return
+	 */
+	public static double toSasValue(SasColumnType type, Date date) {
+		final long millis = date.getTime();
+		switch (type) {
+		case DATE:
+			return millis / (double) MILLIS_PER_DAY + EPOCH_DAY_OFFSET;
+		case DATETIME:
+			return millis / 1000d + EPOCH_SECOND_OFFSET;
+		case TIME:
+			return millis / 1000d;
+		default:
+			throw new IllegalArgumentException("Not a temporal type: " + type);
+		}
+	}
+
+	/**
+	 * Converts a SAS value to the value delivered in rows.
+	 * 
+	 * @param temporalValues
+	 * @param type
+	 * @param value
+	 * @return
+	 */
+	public static Object toRowValue(SasTemporalValues temporalValues,
+			SasColumnType type, double value) {
+		switch (temporalValues) {
+		case EPOCH:
+			return Double.isNaN(value) ? null : toEpochValue(type, value);
+		case DATES:
+			return Double.isNaN(value) ? null : toDate(type, value);
+		default:
+			return value;
+		}
+	}
+}
@@ -21,6 +21,10 @@ package org.eobjects.sassy;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 /**
  * A {@link FilenameFilter} that accepts only SAS dataset files (.sas7bdat).
@@ -29,6 +33,13 @@ import java.io.FilenameFilter;
  */
 public class SasFilenameFilter implements FilenameFilter {
 
+	private static final DirectoryStream.Filter<Path> PATH_FILTER = new DirectoryStream.Filter<Path>() {
+		@Override
+		public boolean accept(Path path) {
+			return isSasFilename(path.getFileName().toString());
+		}
+	};
+
 	public static boolean isSasDirectory(File directory) {
 		if (directory == null) {
 			return false;
@@ -36,13 +47,40 @@ public class SasFilenameFilter implements FilenameFilter {
 		if (!directory.isDirectory()) {
 			return false;
 		}
-		String[] filenames = directory.list(new SasFilenameFilter());
-		return filenames.length > 0;
+		// stop at the first SAS file instead of listing the whole directory
+		try {
+			final DirectoryStream<Path> stream = newDirectoryStream(directory);
+			try {
+				return stream.iterator().hasNext();
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Opens a stream over the SAS dataset files of a directory, which lists
+	 * the directory incrementally rather than all at once. The stream must be
+	 * closed after use.
+	 * 
+	 * @param directory
+	 * @return
+	 * @throws IOException
+	 */
+	public static DirectoryStream<Path> newDirectoryStream(File directory)
+			throws IOException {
+		return Files.newDirectoryStream(directory.toPath(), PATH_FILTER);
+	}
+
+	private static boolean isSasFilename(String name) {
+		return name.endsWith(".sas7bdat");
 	}
 
 	@Override
 	public boolean accept(File dir, String name) {
-		return name.endsWith(".sas7bdat");
+		return isSasFilename(name);
 	}
 
 }
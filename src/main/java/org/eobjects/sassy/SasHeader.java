@@ -19,6 +19,8 @@
  */
 package org.eobjects.sassy;
 
+import java.nio.charset.Charset;
+
 /**
  * Represents the header metadata in the sas7bdat file format.
  * 
@@ -41,6 +43,8 @@ final class SasHeader {
 	
 	private int align2;
 	
+	private int headerLength;
+	
 	private String endian;
 	
 	private String winunix;
@@ -59,6 +63,11 @@ final class SasHeader {
 	
 	private String OS_name;
 
+	/**
+	 * The encoding code of the header, 0 if unspecified
+	 */
+	private int encodingCode;
+
 	public SasHeader(String sasRelease, String sasHost, int pageSize,
 			int pageCount) {
 		this.sasRelease = sasRelease;
@@ -95,6 +104,23 @@ final class SasHeader {
 				+ OS_maker + ", OS_name=" + OS_name + "]";
 	}
 
+	public int getEncodingCode() {
+		return encodingCode;
+	}
+
+	public void setEncodingCode(int encodingCode) {
+		this.encodingCode = encodingCode;
+	}
+
+	/**
+	 * Gets the charset of the encoding code of the header.
+	 * 
+	 * @return the charset, or null if the encoding is unspecified or unknown
+	 */
+	public Charset getEncoding() {
+		return SasCharset.getCharset(encodingCode);
+	}
+
 	public boolean isU64() {
 		return u64;
 	}
@@ -119,6 +145,14 @@ final class SasHeader {
 		this.align2 = align2;
 	}
 
+	public int getHeaderLength() {
+		return headerLength;
+	}
+
+	public void setHeaderLength(int headerLength) {
+		this.headerLength = headerLength;
+	}
+
 	public String getEndian() {
 		return endian;
 	}
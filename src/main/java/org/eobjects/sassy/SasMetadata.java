@@ -0,0 +1,167 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The metadata of a sas7bdat file, as read by {@link SasReader#readMetadata()}
+ * from the file header and metadata sub headers only.
+ * 
+ * @author Kasper Sørensen
+ */
+public final class SasMetadata {
+
+	private final boolean _u64;
+	private final int _headerLength;
+	private final int _pageSize;
+	private final int _pageCount;
+	private final int _rowCount;
+	private final int _rowLength;
+	private final int _mixPageRowCount;
+	private final SasCompression _compression;
+	private final Charset _encoding;
+	private final List<SasColumn> _columns;
+
+	SasMetadata(boolean u64, int headerLength, int pageSize, int pageCount,
+			int rowCount, int rowLength, int mixPageRowCount,
+			SasCompression compression, Charset encoding,
+			List<SasColumn> columns) {
+		_u64 = u64;
+		_headerLength = headerLength;
+		_pageSize = pageSize;
+		_pageCount = pageCount;
+		_rowCount = rowCount;
+		_rowLength = rowLength;
+		_mixPageRowCount = mixPageRowCount;
+		_compression = compression;
+		_encoding = encoding;
+		_columns = Collections.unmodifiableList(columns);
+	}
+
+	/**
+	 * Determines if the file has the 64 bit layout
+	 * 
+	 * @return
+	 */
+	public boolean isU64() {
+		return _u64;
+	}
+
+	/**
+	 * Gets the length of the file header, ie. the offset of the first page
+	 * 
+	 * @return
+	 */
+	public int getHeaderLength() {
+		return _headerLength;
+	}
+
+	public int getPageSize() {
+		return _pageSize;
+	}
+
+	public int getPageCount() {
+		return _pageCount;
+	}
+
+	/**
+	 * Gets the total amount of rows in the file
+	 * 
+	 * @return
+	 */
+	public int getRowCount() {
+		return _rowCount;
+	}
+
+	/**
+	 * Gets the length (in bytes) of a single row
+	 * 
+	 * @return
+	 */
+	public int getRowLength() {
+		return _rowLength;
+	}
+
+	/**
+	 * Gets the maximum amount of rows stored on a page that also contains
+	 * sub headers (a "mix" page).
+	 * 
+	 * @return
+	 */
+	public int getMixPageRowCount() {
+		return _mixPageRowCount;
+	}
+
+	/**
+	 * Gets the method that rows are compressed with
+	 * 
+	 * @return
+	 */
+	public SasCompression getCompression() {
+		return _compression;
+	}
+
+	/**
+	 * Gets the charset that CHARACTER values, column names and labels are
+	 * decoded with. This is the encoding given in the file header, unless it
+	 * was overridden with {@link SasReader#setEncoding(Charset)}.
+	 * 
+	 * @return
+	 */
+	public Charset getEncoding() {
+		return _encoding;
+	}
+
+	public List<SasColumn> getColumns() {
+		return _columns;
+	}
+
+	public int getColumnCount() {
+		return _columns.size();
+	}
+
+	/**
+	 * Gets a column by it's name.
+	 * 
+	 * @param name
+	 * @return the column, or null if no such column exists
+	 */
+	public SasColumn getColumn(String name) {
+		for (SasColumn column : _columns) {
+			if (column.getName().equals(name)) {
+				return column;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return "SasMetadata[u64=" + _u64 + ",headerLength=" + _headerLength
+				+ ",pageSize=" + _pageSize + ",pageCount=" + _pageCount
+				+ ",rowCount=" + _rowCount + ",rowLength=" + _rowLength
+				+ ",compression=" + _compression + ",encoding=" + _encoding
+				+ ",columns=" + _columns
+				+ "]";
+	}
+}
@@ -0,0 +1,493 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes the rows of data pages, based on the layout that was parsed from
+ * the metadata sub headers. A decoder holds no mutable state apart from its
+ * (thread safe) string dictionaries, and can be shared between threads.
+ * 
+ * @author Kasper Sørensen
+ */
+final class SasPageDecoder {
+
+	private final boolean _u64;
+	private final int _rowCount;
+	private final int _mixPageRowCount;
+	private final int _rowLength;
+	private final SasCompression _compression;
+	private final int[] _columnOffsets;
+	private final int[] _columnLengths;
+	private final SasColumnType[] _columnTypes;
+	private final int[] _projection;
+	private final SasRowFilter _filter;
+	private final SasStringDictionary[] _dictionaries;
+	private final boolean _lazyStrings;
+	private final SasTemporalValues _temporalValues;
+	private final SasCharset _charset;
+
+	private static final Object[] EMPTY_ROW = new Object[0];
+
+	/**
+	 * Creates a decoder
+	 * 
+	 * @param metadata
+	 * @param projection
+	 *            the indices of the columns to decode, in the order they should
+	 *            appear in the decoded rows, or null to decode all columns
+	 * @param filter
+	 *            the filter that rows must pass to be decoded, or null to
+	 *            decode all rows
+	 * @param dictionaries
+	 *            the string dictionaries of CHARACTER columns, by column
+	 *            index, or null to decode all strings
+	 * @param lazyStrings
+	 *            whether CHARACTER values (of columns without a dictionary)
+	 *            are decoded as {@link SasString}s rather than strings
+	 * @param temporalValues
+	 *            how values of DATE, DATETIME and TIME columns are decoded
+	 */
+	public SasPageDecoder(SasMetadata metadata, int[] projection,
+			SasRowFilter filter, SasStringDictionary[] dictionaries,
+			boolean lazyStrings, SasTemporalValues temporalValues) {
+		final List<SasColumn> columns = metadata.getColumns();
+		_u64 = metadata.isU64();
+		_rowCount = metadata.getRowCount();
+		_mixPageRowCount = metadata.getMixPageRowCount();
+		_rowLength = metadata.getRowLength();
+		_compression = metadata.getCompression();
+		_columnOffsets = new int[columns.size()];
+		_columnLengths = new int[columns.size()];
+		_columnTypes = new SasColumnType[columns.size()];
+		for (int i = 0; i < _columnTypes.length; i++) {
+			final SasColumn column = columns.get(i);
+			_columnOffsets[i] = column.getOffset();
+			_columnLengths[i] = column.getLength();
+			_columnTypes[i] = column.getType();
+		}
+		if (projection == null) {
+			_projection = new int[_columnTypes.length];
+			for (int i = 0; i < _projection.length; i++) {
+				_projection[i] = i;
+			}
+		} else {
+			for (int col : projection) {
+				if (col < 0 || col >= _columnTypes.length) {
+					throw new SasReaderException("Projected column index " + col
+							+ " out of range, column count is "
+							+ _columnTypes.length);
+				}
+			}
+			_projection = projection;
+		}
+		_filter = filter;
+		_dictionaries = dictionaries;
+		_lazyStrings = lazyStrings;
+		_temporalValues = temporalValues;
+		_charset = SasCharset.get(metadata.getEncoding());
+	}
+
+	/**
+	 * Gets the type of a page: 0 for meta pages, 1 for data pages, 2 for mix
+	 * pages and 4 for amendment pages. Other types are returned as is.
+	 * 
+	 * @param page
+	 * @param u64
+	 * @return
+	 */
+	public static byte getPageType(ByteBuffer page, boolean u64) {
+		final byte pageType = IO.readByte(page, u64 ? 33 : 17);
+		if (pageType == 0x40) {
+			// the second kind of meta page
+			return 0;
+		}
+		return pageType;
+	}
+
+	public int getColumnCount() {
+		return _columnTypes.length;
+	}
+
+	public int getRowLength() {
+		return _rowLength;
+	}
+
+	/**
+	 * Gets the string dictionary of a column, if any.
+	 * 
+	 * @param column
+	 *            the index of the column
+	 * @return the dictionary, or null if the strings of the column are not
+	 *         looked up in a dictionary
+	 */
+	public SasStringDictionary getDictionary(int column) {
+		return _dictionaries == null ? null : _dictionaries[column];
+	}
+
+	public SasCharset getCharset() {
+		return _charset;
+	}
+
+	public SasCompression getCompression() {
+		return _compression;
+	}
+
+	/**
+	 * Creates a decompressor for the rows of compressed pages, which are
+	 * pages whose rows are stored in sub headers.
+	 * 
+	 * @return
+	 */
+	public SasRowDecompressor createDecompressor() {
+		return new SasRowDecompressor(_u64, _compression, _rowLength);
+	}
+
+	/**
+	 * Determines if the rows of a page are stored in compressed row sub
+	 * headers, in which case the page must be decompressed before its rows
+	 * can be decoded.
+	 * 
+	 * @param page
+	 * @param pageType
+	 * @return
+	 */
+	public boolean isCompressed(ByteBuffer page, byte pageType) {
+		return SasRowDecompressor.getRowCount(page, pageType, _u64,
+				_compression) > 0;
+	}
+
+	/**
+	 * Gets the indices of the decoded columns. The returned array must not be
+	 * modified.
+	 * 
+	 * @return
+	 */
+	public int[] getProjection() {
+		return _projection;
+	}
+
+	/**
+	 * Determines if no row at all can pass the row filter.
+	 * 
+	 * @return
+	 */
+	public boolean isRejectingAll() {
+		return _filter != null && _filter.isRejectingAll();
+	}
+
+	/**
+	 * Determines if a row passes the row filter, and should be decoded.
+	 * 
+	 * @param page
+	 * @param base
+	 *            the offset of the row within the page
+	 * @return
+	 */
+	public boolean accept(ByteBuffer page, int base) {
+		return _filter == null || _filter.matches(page, base);
+	}
+
+	/**
+	 * Gets the amount of rows stored on a data page, or in the row sub headers
+	 * of a compressed page.
+	 * 
+	 * @param page
+	 * @param pageType
+	 * @return
+	 */
+	public int getRowCount(ByteBuffer page, byte pageType) {
+		int row_count_p = 0;
+		if (pageType != 1) {
+			// compressed pages keep their rows in sub headers
+			row_count_p = SasRowDecompressor.getRowCount(page, pageType, _u64,
+					_compression);
+		}
+		if (row_count_p == 0) {
+			if (pageType == 2) {
+				row_count_p = _mixPageRowCount;
+			} else {
+				row_count_p = IO.readInt(page, _u64 ? 34 : 18);
+			}
+		}
+		if (row_count_p > _rowCount) {
+			row_count_p = _rowCount;
+		}
+		return row_count_p;
+	}
+
+	/**
+	 * Gets the offset of the first row on a data page.
+	 * 
+	 * @param page
+	 * @param pageType
+	 * @return
+	 */
+	public int getRowOffset(ByteBuffer page, byte pageType) {
+		int base = (_u64 ? 32 : 16) + 8;
+		if (pageType == 2) {
+			int subhCount = IO.readInt(page, 20);
+			base = base + subhCount * (_u64 ? 24 : 12);
+			base = base + base % 8;
+		}
+		return ((base + 7) / 8) * 8 + base % 8;
+	}
+
+	/**
+	 * Decodes the projected columns of a row.
+	 * 
+	 * @param page
+	 * @param base
+	 *            the offset of the row within the page
+	 * @return
+	 */
+	public Object[] decodeRow(ByteBuffer page, int base) {
+		final int[] projection = _projection;
+		if (projection.length == 0) {
+			return EMPTY_ROW;
+		}
+		final Object[] rowData = new Object[projection.length];
+		for (int i = 0; i < projection.length; i++) {
+			final int col = projection[i];
+			final int off = base + _columnOffsets[col];
+			final int len = _columnLengths[col];
+			if (len > 0) {
+				final Object value;
+				if (_columnTypes[col] == SasColumnType.CHARACTER) {
+					final SasStringDictionary dictionary = getDictionary(col);
+					if (dictionary != null) {
+						value = readString(dictionary, page, off, len);
+					} else if (_lazyStrings) {
+						value = readSasString(_charset, page, off, len);
+					} else {
+						value = _charset.decode(page, off, len).trim();
+					}
+				} else if (_columnTypes[col] == SasColumnType.NUMERIC
+						|| _temporalValues == SasTemporalValues.NUMBERS) {
+					value = IO.readTruncatedDouble(page, off, len);
+				} else {
+					value = SasDates.toRowValue(_temporalValues,
+							_columnTypes[col],
+							IO.readTruncatedDouble(page, off, len));
+				}
+				rowData[i] = value;
+			}
+		}
+		return rowData;
+	}
+
+	/**
+	 * Reads the trimmed value of a CHARACTER cell through a dictionary. Cells
+	 * are trimmed before decoding, which gives the same strings as trimming
+	 * after decoding since the supported encodings are ASCII compatible.
+	 * 
+	 * @param dictionary
+	 * @param page
+	 * @param off
+	 *            the offset of the cell
+	 * @param len
+	 *            the length of the cell
+	 * @return
+	 */
+	static String readString(SasStringDictionary dictionary, ByteBuffer page,
+			int off, int len) {
+		final int start = IO.trimStart(page, off, off + len);
+		final int end = IO.trimEnd(page, start, off + len);
+		if (start == end) {
+			return "";
+		}
+		return dictionary.get(page, start, end - start);
+	}
+
+	/**
+	 * Reads the trimmed bytes of a CHARACTER cell, without decoding them.
+	 * 
+	 * @param charset
+	 * @param page
+	 * @param off
+	 *            the offset of the cell
+	 * @param len
+	 *            the length of the cell
+	 * @return
+	 */
+	static SasString readSasString(SasCharset charset, ByteBuffer page,
+			int off, int len) {
+		final int start = IO.trimStart(page, off, off + len);
+		final int end = IO.trimEnd(page, start, off + len);
+		if (start == end) {
+			return SasString.EMPTY;
+		}
+		return new SasString(IO.readBytes(page, start, end - start), charset);
+	}
+
+	/**
+	 * Decodes the rows of a data page that pass the row filter.
+	 * 
+	 * @param page
+	 * @param pageType
+	 * @param rowNumber
+	 *            the row number of the first row on the page
+	 * @param rows
+	 *            the rows to add the decoded rows to
+	 * @return the amount of rows on the page, including rows that did not
+	 *         pass the filter
+	 */
+	public int decodePage(ByteBuffer page, byte pageType, int rowNumber,
+			DecodedRows rows) {
+		final int rowCount = getRowCount(page, pageType);
+		int base = getRowOffset(page, pageType);
+		for (int row = 0; row < rowCount; row++) {
+			if (accept(page, base)) {
+				rows.add(rowNumber + row, decodeRow(page, base));
+			}
+			base = base + _rowLength;
+		}
+		return rowCount;
+	}
+
+	/**
+	 * Creates a batch that can hold the projected columns of the rows of a
+	 * page.
+	 * 
+	 * @return
+	 */
+	public SasColumnBatch createBatch() {
+		final SasColumnType[] columnTypes = new SasColumnType[_projection.length];
+		final SasStringDictionary[] dictionaries = new SasStringDictionary[_projection.length];
+		for (int i = 0; i < columnTypes.length; i++) {
+			columnTypes[i] = _columnTypes[_projection[i]];
+			dictionaries[i] = getDictionary(_projection[i]);
+		}
+		return new SasColumnBatch(_projection.clone(), columnTypes,
+				dictionaries, _charset);
+	}
+
+	/**
+	 * Decodes the rows of a data page that pass the row filter into a
+	 * columnar batch, without creating any objects per row.
+	 * 
+	 * @param page
+	 * @param pageType
+	 * @param rowNumber
+	 *            the row number of the first row on the page
+	 * @param batch
+	 *            the batch to reset and fill
+	 * @return the amount of rows on the page, including rows that did not
+	 *         pass the filter
+	 */
+	public int decodePage(ByteBuffer page, byte pageType, int rowNumber,
+			SasColumnBatch batch) {
+		final int rowCount = getRowCount(page, pageType);
+		final int[] projection = _projection;
+		batch.reset(page, rowCount);
+		int base = getRowOffset(page, pageType);
+		for (int row = 0; row < rowCount; row++) {
+			if (accept(page, base)) {
+				final int index = batch.addRow(rowNumber + row);
+				for (int i = 0; i < projection.length; i++) {
+					final int col = projection[i];
+					final int off = base + _columnOffsets[col];
+					final int len = _columnLengths[col];
+					if (_columnTypes[col] == SasColumnType.CHARACTER) {
+						if (len > 0) {
+							final int start = IO.trimStart(page, off, off
+									+ len);
+							final int end = IO.trimEnd(page, start, off + len);
+							batch.setString(i, index, start, end - start);
+						} else {
+							batch.setString(i, index, 0, 0);
+							batch.setMissing(i, index);
+						}
+					} else {
+						if (len > 0) {
+							batch.setDouble(i, index,
+									IO.readTruncatedDouble(page, off, len));
+						} else {
+							batch.setDouble(i, index, Double.NaN);
+						}
+					}
+				}
+			}
+			base = base + _rowLength;
+		}
+		return rowCount;
+	}
+
+	/**
+	 * Decodes the rows of consecutive data pages that pass the row filter.
+	 * Compressed pages are decompressed first.
+	 * 
+	 * @param pages
+	 * @param firstRowNumber
+	 *            the row number of the first row on the first page
+	 * @return
+	 */
+	public DecodedRows decodePages(List<ByteBuffer> pages, int firstRowNumber) {
+		final DecodedRows rows = new DecodedRows();
+		SasRowDecompressor decompressor = null;
+		int rowNumber = firstRowNumber;
+		for (ByteBuffer page : pages) {
+			byte pageType = getPageType(page, _u64);
+			if (pageType != 1 && isCompressed(page, pageType)) {
+				if (decompressor == null) {
+					decompressor = createDecompressor();
+				}
+				page = decompressor.decompress(page);
+				pageType = 1;
+			}
+			rowNumber += decodePage(page, pageType, rowNumber, rows);
+		}
+		return rows;
+	}
+
+	/**
+	 * Decoded rows along with their row numbers.
+	 */
+	static final class DecodedRows {
+
+		private final List<Object[]> _rows = new ArrayList<Object[]>();
+		private int[] _rowNumbers = new int[16];
+
+		public void add(int rowNumber, Object[] rowData) {
+			final int index = _rows.size();
+			if (index == _rowNumbers.length) {
+				_rowNumbers = Arrays.copyOf(_rowNumbers, index * 2);
+			}
+			_rowNumbers[index] = rowNumber;
+			_rows.add(rowData);
+		}
+
+		public int size() {
+			return _rows.size();
+		}
+
+		public int getRowNumber(int index) {
+			return _rowNumbers[index];
+		}
+
+		public Object[] getRowData(int index) {
+			return _rows.get(index);
+		}
+	}
+}
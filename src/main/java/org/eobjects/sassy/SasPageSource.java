@@ -0,0 +1,63 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Provides the raw bytes of a sas7bdat file to the {@link SasReader}. The
+ * reader consumes a page source sequentially: first the file header, then one
+ * page at a time. A page source is used for a single pass over the data and
+ * is closed by the reader afterwards.
+ * 
+ * Implementations are available for files ({@link FileSasPageSource},
+ * {@link MappedFileSasPageSource}), channels (
+ * {@link SeekableByteChannelSasPageSource}), in-memory buffers (
+ * {@link ByteBufferSasPageSource}) and streams (
+ * {@link InputStreamSasPageSource}).
+ * 
+ * @author Kasper Sørensen
+ */
+public interface SasPageSource extends Closeable {
+
+	/**
+	 * Reads the next block of bytes.
+	 * 
+	 * @param length
+	 *            the amount of bytes to read
+	 * @return a little endian buffer with position 0 and a limit equal to the
+	 *         amount of bytes available (which is only less than the requested
+	 *         length at the end of the file), or null if no more bytes are
+	 *         available.
+	 * @throws IOException
+	 */
+	public ByteBuffer read(int length) throws IOException;
+
+	/**
+	 * Determines if the buffers returned by {@link #read(int)} stay valid after
+	 * subsequent reads. If not, the reader will copy any data it needs to
+	 * retain beyond the current page.
+	 * 
+	 * @return true if buffers are never overwritten by the page source.
+	 */
+	public boolean isRetainingBuffers();
+}
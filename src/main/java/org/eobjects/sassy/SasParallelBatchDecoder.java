@@ -0,0 +1,164 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes data pages into columnar batches on an {@link ExecutorService} and
+ * delivers each batch to one of several partition callbacks, on the thread
+ * that decoded it. A partition (its callback and its batch) is only used by
+ * one thread at a time, so callbacks need not be thread-safe, but the
+ * batches of a partition come from any thread and in no particular order.
+ * 
+ * @see SasReader#readPartitioned(SasColumnarCallback...)
+ * 
+ * @author Kasper Sørensen
+ */
+final class SasParallelBatchDecoder {
+
+	private static final class Partition {
+		final SasColumnarCallback callback;
+		final SasColumnBatch batch;
+
+		Partition(SasColumnarCallback callback, SasColumnBatch batch) {
+			this.callback = callback;
+			this.batch = batch;
+		}
+	}
+
+	private final SasPageDecoder _decoder;
+	private final ExecutorService _executor;
+	private final boolean _shutdownExecutor;
+	private final int _maxTasksInFlight;
+	private final BlockingQueue<Partition> _partitions;
+	private final CompletionService<Boolean> _completionService;
+	private int _tasksInFlight;
+	private volatile boolean _stopped;
+
+	public SasParallelBatchDecoder(SasPageDecoder decoder,
+			ExecutorService executor, boolean shutdownExecutor,
+			int maxTasksInFlight, SasColumnarCallback[] callbacks) {
+		_decoder = decoder;
+		_executor = executor;
+		_shutdownExecutor = shutdownExecutor;
+		_maxTasksInFlight = maxTasksInFlight;
+		_partitions = new ArrayBlockingQueue<Partition>(callbacks.length);
+		for (SasColumnarCallback callback : callbacks) {
+			_partitions.add(new Partition(callback, decoder.createBatch()));
+		}
+		_completionService = new ExecutorCompletionService<Boolean>(executor);
+		_tasksInFlight = 0;
+		_stopped = false;
+	}
+
+	/**
+	 * Adds a data page to be decoded.
+	 * 
+	 * @param page
+	 *            the page, which must not be overwritten afterwards
+	 * @param pageType
+	 * @param pageNumber
+	 * @param rowNumber
+	 *            the row number of the first row on the page
+	 * @return true if more pages should be added, false if a callback
+	 *         decided to stop the iteration
+	 * @throws Exception
+	 */
+	public boolean add(final ByteBuffer page, final byte pageType,
+			final int pageNumber, final int rowNumber) throws Exception {
+		_completionService.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				if (_stopped) {
+					return false;
+				}
+				// there are never more tasks running than partitions
+				final Partition partition = _partitions.take();
+				try {
+					_decoder.decodePage(page, pageType, rowNumber,
+							partition.batch);
+					partition.batch.setPageNumber(pageNumber);
+					if (partition.batch.getRowCount() > 0
+							&& !partition.callback.batch(partition.batch)) {
+						_stopped = true;
+					}
+				} finally {
+					_partitions.add(partition);
+				}
+				return !_stopped;
+			}
+		});
+		_tasksInFlight++;
+		while (_tasksInFlight > _maxTasksInFlight) {
+			complete(_completionService.take());
+		}
+		return !_stopped;
+	}
+
+	/**
+	 * Waits for all added pages to be decoded and delivered.
+	 * 
+	 * @return false if a callback decided to stop the iteration
+	 * @throws Exception
+	 */
+	public boolean finish() throws Exception {
+		while (_tasksInFlight > 0) {
+			complete(_completionService.take());
+		}
+		return !_stopped;
+	}
+
+	/**
+	 * Stops outstanding work and releases the executor, if owned.
+	 */
+	public void close() {
+		_stopped = true;
+		if (_shutdownExecutor) {
+			_executor.shutdownNow();
+		}
+	}
+
+	private void complete(Future<Boolean> future) throws Exception {
+		_tasksInFlight--;
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			_stopped = true;
+			final Throwable cause = e.getCause();
+			if (cause instanceof SasReaderException) {
+				throw (SasReaderException) cause;
+			}
+			if (cause instanceof Exception) {
+				throw new SasReaderException("Failed to decode pages",
+						(Exception) cause);
+			}
+			throw e;
+		}
+	}
+}
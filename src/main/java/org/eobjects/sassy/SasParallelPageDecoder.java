@@ -0,0 +1,233 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.eobjects.sassy.SasPageDecoder.DecodedRows;
+
+/**
+ * Decodes ranges of data pages on an {@link ExecutorService} and delivers the
+ * decoded rows to a {@link SasReaderCallback}. All callback invocations happen
+ * on the thread that reads the pages, so callbacks need not be thread-safe.
+ * 
+ * In ordered mode rows are delivered in file order. In unordered mode page
+ * ranges are delivered as soon as they are decoded, but row numbers still
+ * refer to the position of the row in the file.
+ * 
+ * @author Kasper Sørensen
+ */
+final class SasParallelPageDecoder {
+
+	private final SasPageDecoder _decoder;
+	private final ExecutorService _executor;
+	private final boolean _shutdownExecutor;
+	private final int _maxTasksInFlight;
+	private final int _pagesPerTask;
+	private final boolean _ordered;
+	private final SasReaderCallback _callback;
+
+	private final LinkedList<Future<DecodedRows>> _orderedTasks;
+	private final CompletionService<DecodedRows> _completionService;
+	private final List<Future<DecodedRows>> _unorderedTasks;
+	private int _unorderedTasksInFlight;
+
+	private List<ByteBuffer> _pages;
+	private int _pagesRowNumber;
+	private int _rowCount;
+	private boolean _stopped;
+
+	public SasParallelPageDecoder(SasPageDecoder decoder,
+			ExecutorService executor, boolean shutdownExecutor,
+			int maxTasksInFlight, int pagesPerTask, boolean ordered,
+			SasReaderCallback callback) {
+		_decoder = decoder;
+		_executor = executor;
+		_shutdownExecutor = shutdownExecutor;
+		_maxTasksInFlight = maxTasksInFlight;
+		_pagesPerTask = pagesPerTask;
+		_ordered = ordered;
+		_callback = callback;
+
+		_orderedTasks = new LinkedList<Future<DecodedRows>>();
+		_completionService = new ExecutorCompletionService<DecodedRows>(
+				executor);
+		_unorderedTasks = new ArrayList<Future<DecodedRows>>();
+		_unorderedTasksInFlight = 0;
+
+		_pages = new ArrayList<ByteBuffer>(pagesPerTask);
+		_pagesRowNumber = 1;
+		_rowCount = 0;
+		_stopped = false;
+	}
+
+	/**
+	 * Adds a data page to be decoded.
+	 * 
+	 * @param page
+	 *            the page, which must not be overwritten afterwards
+	 * @param pageRowCount
+	 *            the amount of rows on the page
+	 * @return true if more pages should be added, false if the callback
+	 *         decided to stop the iteration
+	 * @throws Exception
+	 */
+	public boolean add(ByteBuffer page, int pageRowCount) throws Exception {
+		_pages.add(page);
+		_rowCount += pageRowCount;
+		if (_pages.size() >= _pagesPerTask) {
+			submit();
+		}
+		deliver(false);
+		return !_stopped;
+	}
+
+	/**
+	 * Skips a data page without decoding it, so that the rows of later pages
+	 * keep their row numbers.
+	 * 
+	 * @param pageRowCount
+	 *            the amount of rows on the page
+	 */
+	public void skip(int pageRowCount) {
+		if (!_pages.isEmpty()) {
+			submit();
+		}
+		_rowCount += pageRowCount;
+		_pagesRowNumber = _rowCount + 1;
+	}
+
+	/**
+	 * Decodes any remaining pages and delivers all outstanding rows.
+	 * 
+	 * @return false if the callback decided to stop the iteration
+	 * @throws Exception
+	 */
+	public boolean finish() throws Exception {
+		if (!_pages.isEmpty()) {
+			submit();
+		}
+		deliver(true);
+		return !_stopped;
+	}
+
+	/**
+	 * Cancels any outstanding work and releases the executor, if owned.
+	 */
+	public void close() {
+		for (Future<DecodedRows> future : _orderedTasks) {
+			future.cancel(true);
+		}
+		for (Future<DecodedRows> future : _unorderedTasks) {
+			future.cancel(true);
+		}
+		_orderedTasks.clear();
+		_unorderedTasks.clear();
+		if (_shutdownExecutor) {
+			_executor.shutdownNow();
+		}
+	}
+
+	private void submit() {
+		final List<ByteBuffer> pages = _pages;
+		final int firstRowNumber = _pagesRowNumber;
+		final Callable<DecodedRows> task = new Callable<DecodedRows>() {
+			@Override
+			public DecodedRows call() throws Exception {
+				return _decoder.decodePages(pages, firstRowNumber);
+			}
+		};
+
+		if (_ordered) {
+			_orderedTasks.add(_executor.submit(task));
+		} else {
+			_unorderedTasks.add(_completionService.submit(task));
+			_unorderedTasksInFlight++;
+		}
+
+		_pages = new ArrayList<ByteBuffer>(_pagesPerTask);
+		_pagesRowNumber = _rowCount + 1;
+	}
+
+	private void deliver(boolean all) throws Exception {
+		if (_ordered) {
+			while (!_stopped && !_orderedTasks.isEmpty()) {
+				Future<DecodedRows> head = _orderedTasks.getFirst();
+				if (!all && !head.isDone()
+						&& _orderedTasks.size() <= _maxTasksInFlight) {
+					break;
+				}
+				_orderedTasks.removeFirst();
+				deliver(get(head));
+			}
+		} else {
+			while (!_stopped && _unorderedTasksInFlight > 0) {
+				final Future<DecodedRows> future;
+				if (all || _unorderedTasksInFlight > _maxTasksInFlight) {
+					future = _completionService.take();
+				} else {
+					future = _completionService.poll();
+					if (future == null) {
+						break;
+					}
+				}
+				_unorderedTasks.remove(future);
+				_unorderedTasksInFlight--;
+				deliver(get(future));
+			}
+		}
+	}
+
+	private void deliver(DecodedRows decodedRows) {
+		final int size = decodedRows.size();
+		for (int i = 0; i < size; i++) {
+			if (!_callback.row(decodedRows.getRowNumber(i),
+					decodedRows.getRowData(i))) {
+				_stopped = true;
+				return;
+			}
+		}
+	}
+
+	private DecodedRows get(Future<DecodedRows> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof SasReaderException) {
+				throw (SasReaderException) cause;
+			}
+			if (cause instanceof Exception) {
+				throw new SasReaderException("Failed to decode pages",
+						(Exception) cause);
+			}
+			throw e;
+		}
+	}
+}
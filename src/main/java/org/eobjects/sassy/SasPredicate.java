@@ -0,0 +1,172 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.util.Arrays;
+
+/**
+ * A condition on the value of a single column, which a {@link SasReader} can
+ * evaluate on the raw bytes of a row before decoding it. Rows that do not
+ * satisfy all predicates of a reader are skipped without being decoded.
+ * 
+ * Predicates follow the semantics of the decoded values: NUMERIC values are
+ * compared as doubles (where missing values are NaN and greater than any
+ * other number), CHARACTER values are compared as trimmed strings and only
+ * columns of length 0 have null values.
+ * 
+ * @author Kasper Sørensen
+ */
+public final class SasPredicate {
+
+	/**
+	 * The operators of predicates.
+	 */
+	public static enum Operator {
+		EQUALS_TO, DIFFERENT_FROM, LESS_THAN, GREATER_THAN, IN, IS_NULL,
+		IS_NOT_NULL, STARTS_WITH;
+	}
+
+	private final int _columnIndex;
+	private final String _columnName;
+	private final Operator _operator;
+	private final Object[] _operands;
+
+	private SasPredicate(int columnIndex, String columnName,
+			Operator operator, Object[] operands) {
+		if (operator == null) {
+			throw new IllegalArgumentException("operator cannot be null");
+		}
+		if (operands == null) {
+			operands = new Object[0];
+		}
+		switch (operator) {
+		case IS_NULL:
+		case IS_NOT_NULL:
+			if (operands.length != 0) {
+				throw new IllegalArgumentException(operator
+						+ " does not take any operands");
+			}
+			break;
+		case IN:
+			for (Object operand : operands) {
+				if (operand == null) {
+					throw new IllegalArgumentException(
+							"IN operands cannot be null");
+				}
+			}
+			break;
+		case STARTS_WITH:
+			if (operands.length != 1 || !(operands[0] instanceof String)) {
+				throw new IllegalArgumentException(
+						"STARTS_WITH takes a single string operand");
+			}
+			break;
+		default:
+			if (operands.length != 1 || operands[0] == null) {
+				throw new IllegalArgumentException(operator
+						+ " takes a single non-null operand");
+			}
+		}
+		_columnIndex = columnIndex;
+		_columnName = columnName;
+		_operator = operator;
+		_operands = operands;
+	}
+
+	/**
+	 * Creates a predicate on a column, by index.
+	 * 
+	 * @param columnIndex
+	 *            the index (0-based) of the column
+	 * @param operator
+	 * @param operands
+	 *            the operands, which must be numbers for NUMERIC columns,
+	 *            numbers (SAS values) or {@link java.util.Date}s for DATE,
+	 *            DATETIME and TIME columns and strings for CHARACTER columns
+	 */
+	public SasPredicate(int columnIndex, Operator operator, Object... operands) {
+		this(columnIndex, null, operator, operands);
+		if (columnIndex < 0) {
+			throw new IllegalArgumentException(
+					"column index cannot be negative");
+		}
+	}
+
+	/**
+	 * Creates a predicate on a column, by name.
+	 * 
+	 * @see #SasPredicate(int, Operator, Object...)
+	 * 
+	 * @param columnName
+	 * @param operator
+	 * @param operands
+	 */
+	public SasPredicate(String columnName, Operator operator,
+			Object... operands) {
+		this(-1, columnName, operator, operands);
+		if (columnName == null) {
+			throw new IllegalArgumentException("column name cannot be null");
+		}
+	}
+
+	/**
+	 * Gets the index of the column, or -1 if the predicate refers to the
+	 * column by name.
+	 * 
+	 * @return
+	 */
+	public int getColumnIndex() {
+		return _columnIndex;
+	}
+
+	/**
+	 * Gets the name of the column, or null if the predicate refers to the
+	 * column by index.
+	 * 
+	 * @return
+	 */
+	public String getColumnName() {
+		return _columnName;
+	}
+
+	public Operator getOperator() {
+		return _operator;
+	}
+
+	public Object[] getOperands() {
+		return _operands.clone();
+	}
+
+	Object getOperand() {
+		return _operands[0];
+	}
+
+	Object[] getOperandsInternal() {
+		return _operands;
+	}
+
+	@Override
+	public String toString() {
+		final Object column = (_columnName == null ? _columnIndex
+				: _columnName);
+		return "SasPredicate[" + column + " " + _operator + " "
+				+ Arrays.toString(_operands) + "]";
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+/**
+ * A {@link SasReaderCallback} that only needs some of the columns of a
+ * dataset. Columns outside of the projection are never decoded by the
+ * {@link SasReader}.
+ * 
+ * @author Kasper Sørensen
+ */
+public interface SasProjectingReaderCallback extends SasReaderCallback {
+
+	/**
+	 * Gets the indices of the columns that this callback needs. Invoked after
+	 * all columns have been passed to
+	 * {@link #column(int, String, String, SasColumnType, String, int)} and
+	 * before the first row is read.
+	 * 
+	 * @return the indices (0-based) of the needed columns, in the order they
+	 *         should appear in the row data passed to
+	 *         {@link #row(int, Object[])}, or null if all columns are needed.
+	 */
+	public int[] getColumnProjection();
+}
@@ -20,13 +20,18 @@
 package org.eobjects.sassy;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,40 +47,213 @@ public class SasReader {
 			.getLogger(SasReader.class);
 
 	// Subheader 'signatures'
-	private static final byte[] SUBH_ROWSIZE = IO.toBytes(0xf7, 0xf7, 0xf7,
+	static final byte[] SUBH_ROWSIZE = IO.toBytes(0xf7, 0xf7, 0xf7,
 			0xf7);
-	private static final byte[] SUBH_COLSIZE = IO.toBytes(0xf6, 0xf6, 0xf6,
+	static final byte[] SUBH_COLSIZE = IO.toBytes(0xf6, 0xf6, 0xf6,
 			0xf6);
-	private static final byte[] SUBH_COLTEXT = IO.toBytes(0xFD, 0xFF, 0xFF,
+	static final byte[] SUBH_COLTEXT = IO.toBytes(0xFD, 0xFF, 0xFF,
 			0xFF);
-	private static final byte[] SUBH_COLATTR = IO.toBytes(0xFC, 0xFF, 0xFF,
+	static final byte[] SUBH_COLATTR = IO.toBytes(0xFC, 0xFF, 0xFF,
 			0xFF);
-	private static final byte[] SUBH_COLNAME = IO.toBytes(0xFF, 0xFF, 0xFF,
+	static final byte[] SUBH_COLNAME = IO.toBytes(0xFF, 0xFF, 0xFF,
 			0xFF);
-	private static final byte[] SUBH_COLLABS = IO.toBytes(0xFE, 0xFB, 0xFF,
+	static final byte[] SUBH_COLLABS = IO.toBytes(0xFE, 0xFB, 0xFF,
 			0xFF);
 
+	// Compression literals, found in the column text sub header
+	static final byte[] COMPRESSION_CHAR = IO.toBytes('S', 'A', 'S', 'Y',
+			'Z', 'C', 'R', 'L');
+	static final byte[] COMPRESSION_BINARY = IO.toBytes('S', 'A', 'S', 'Y',
+			'Z', 'C', 'R', '2');
+
 	/**
 	 * Magic number
 	 */
-	private static final byte[] MAGIC = IO.toBytes(0x0, 0x0, 0x0, 0x0, 0x0,
+	static final byte[] MAGIC = IO.toBytes(0x0, 0x0, 0x0, 0x0, 0x0,
 			0x0, 0x0, 0x0, 0x0, 0x0, 0x0, 0x0, 0xc2, 0xea, 0x81, 0x60, 0xb3,
 			0x14, 0x11, 0xcf, 0xbd, 0x92, 0x8, 0x0, 0x9, 0xc7, 0x31, 0x8c,
 			0x18, 0x1f, 0x10, 0x11);
 
+	/**
+	 * The approximate amount of page bytes decoded by a single task when
+	 * decoding in parallel.
+	 */
+	private static final int PARALLEL_TASK_SIZE = 64 * 1024;
+
+	/**
+	 * The default maximum amount of distinct values of a dictionary column
+	 */
+	public static final int DEFAULT_DICTIONARY_SIZE = 1024;
+
 	private final File _file;
+	private final String _name;
+	private SasPageSource _pageSource;
+	private boolean _memoryMapped;
+	private int _readAhead;
+	private int _parallelism;
+	private ExecutorService _executorService;
+	private boolean _orderedDelivery;
+	private int[] _columnProjection;
+	private String[] _columnProjectionNames;
+	private List<SasPredicate> _predicates;
+	private int[] _dictionaryColumns;
+	private String[] _dictionaryColumnNames;
+	private int _dictionarySize;
+	private boolean _lazyStrings;
+	private boolean _usingZoneMap;
+	private Charset _encoding;
+	private Charset _fallbackEncoding;
+	private SasTemporalValues _temporalValues;
 
 	public SasReader(File file) {
 		if (file == null) {
 			throw new IllegalArgumentException("file cannot be null");
 		}
 		_file = file;
+		_name = file.toString();
+		_pageSource = null;
+		_memoryMapped = false;
+		_parallelism = 1;
+		_fallbackEncoding = SasCharset.DEFAULT_CHARSET;
+		_executorService = null;
+		_orderedDelivery = true;
+		_predicates = Collections.emptyList();
+		_dictionarySize = DEFAULT_DICTIONARY_SIZE;
+		_temporalValues = SasTemporalValues.NUMBERS;
+	}
+
+	/**
+	 * Creates a reader for a sas7bdat file that is held in memory. The reader
+	 * can only be read once.
+	 * 
+	 * @param buffer
+	 */
+	public SasReader(ByteBuffer buffer) {
+		this(new ByteBufferSasPageSource(buffer));
+	}
+
+	/**
+	 * Creates a reader for a sas7bdat file, starting at the current position
+	 * of the channel. The reader can only be read once, and the channel is
+	 * not closed by the reader.
+	 * 
+	 * @param channel
+	 */
+	public SasReader(SeekableByteChannel channel) {
+		this(new SeekableByteChannelSasPageSource(channel));
+	}
+
+	/**
+	 * Creates a reader for a sas7bdat file provided as a stream. Since the
+	 * stream can only be consumed once, so can the reader. The stream is not
+	 * closed by the reader.
+	 * 
+	 * @param inputStream
+	 */
+	public SasReader(InputStream inputStream) {
+		this(new InputStreamSasPageSource(inputStream));
+	}
+
+	/**
+	 * Creates a reader for a custom {@link SasPageSource}. The page source is
+	 * consumed (and closed) by the first read, so the reader can only be read
+	 * once.
+	 * 
+	 * @param pageSource
+	 */
+	public SasReader(SasPageSource pageSource) {
+		if (pageSource == null) {
+			throw new IllegalArgumentException("page source cannot be null");
+		}
+		_file = null;
+		_name = pageSource.toString();
+		_pageSource = pageSource;
+		_memoryMapped = false;
+		_parallelism = 1;
+		_fallbackEncoding = SasCharset.DEFAULT_CHARSET;
+		_executorService = null;
+		_orderedDelivery = true;
+		_predicates = Collections.emptyList();
+		_dictionarySize = DEFAULT_DICTIONARY_SIZE;
+		_temporalValues = SasTemporalValues.NUMBERS;
 	}
 
+	/**
+	 * Gets the file that this reader reads, if any.
+	 * 
+	 * @return the file, or null if the reader was created with a
+	 *         {@link SasPageSource}, a buffer, a channel or a stream.
+	 */
 	public File getFile() {
 		return _file;
 	}
 
+	/**
+	 * Determines if the file is read through a memory mapping.
+	 * 
+	 * @return
+	 */
+	public boolean isMemoryMapped() {
+		return _memoryMapped;
+	}
+
+	/**
+	 * Sets whether the file should be read through a memory mapping instead of
+	 * a regular input stream. When memory mapped, headers, sub headers and
+	 * rows are decoded directly from the mapping, without copying pages onto
+	 * the heap. Only applies to readers created with a {@link File}.
+	 * 
+	 * @param memoryMapped
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		_memoryMapped = memoryMapped;
+	}
+
+	/**
+	 * Gets the amount of pages read ahead of decoding, 0 if pages are read
+	 * on demand.
+	 * 
+	 * @return
+	 */
+	public int getReadAhead() {
+		return _readAhead;
+	}
+
+	/**
+	 * Sets the amount of pages to read ahead of decoding. When positive, data
+	 * pages are read by a background thread into a ring of buffers, so that
+	 * reads from slow storage overlap with decoding. Applies to
+	 * {@link #read(SasReaderCallback)}, {@link #read(SasColumnarCallback)}
+	 * and {@link #openCursor()}.
+	 * 
+	 * @param readAhead
+	 *            the amount of pages, or 0 to read pages on demand
+	 */
+	public void setReadAhead(int readAhead) {
+		if (readAhead < 0) {
+			throw new IllegalArgumentException(
+					"readAhead cannot be negative");
+		}
+		_readAhead = readAhead;
+	}
+
+	/**
+	 * Decorates a page source that is positioned at the first page, so that
+	 * pages are read ahead if configured.
+	 * 
+	 * @param source
+	 * @param header
+	 * @return
+	 */
+	SasPageSource createReadAheadSource(SasPageSource source, SasHeader header) {
+		if (_readAhead == 0 || header.getPageCount() <= 1) {
+			return source;
+		}
+		logger.info("({}) Reading {} pages ahead", _name, _readAhead);
+		return new ReadAheadSasPageSource(source, header.getPageSize(),
+				Math.min(_readAhead, header.getPageCount()), _name);
+	}
+
 	protected static boolean isMagicNumber(int[] data) {
 		return isMagicNumber(IO.toBytes(data));
 	}
@@ -97,319 +275,1065 @@ public class SasReader {
 		return Arrays.equals(expected, comparedBytes);
 	}
 
+	/**
+	 * Gets the amount of threads used to decode data pages.
+	 * 
+	 * @return
+	 */
+	public int getParallelism() {
+		return _parallelism;
+	}
+
+	/**
+	 * Sets the amount of threads used to decode data pages. When larger than
+	 * 1 (and no executor service has been set), each read decodes ranges of
+	 * data pages on a {@link ForkJoinPool} of this size. The callback is
+	 * still invoked on the reading thread only.
+	 * 
+	 * @param parallelism
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException(
+					"parallelism must be a positive number");
+		}
+		_parallelism = parallelism;
+	}
+
+	public ExecutorService getExecutorService() {
+		return _executorService;
+	}
+
+	/**
+	 * Sets an executor service to decode data pages in parallel on. The
+	 * executor service is not shut down by the reader.
+	 * 
+	 * @param executorService
+	 *            the executor service, or null to decode on the reading
+	 *            thread (or on a {@link ForkJoinPool}, see
+	 *            {@link #setParallelism(int)})
+	 */
+	public void setExecutorService(ExecutorService executorService) {
+		_executorService = executorService;
+	}
+
+	public boolean isOrderedDelivery() {
+		return _orderedDelivery;
+	}
+
+	/**
+	 * Sets whether rows decoded in parallel are delivered to the callback in
+	 * file order (the default). Callbacks that do not depend on the order of
+	 * rows may turn this off, to have ranges of rows delivered as soon as
+	 * they have been decoded. Row numbers always refer to the position of the
+	 * row in the file.
+	 * 
+	 * @param orderedDelivery
+	 */
+	public void setOrderedDelivery(boolean orderedDelivery) {
+		_orderedDelivery = orderedDelivery;
+	}
+
+	/**
+	 * Sets the columns to read, by index. Only these columns are decoded, and
+	 * the row data passed to {@link SasReaderCallback#row(int, Object[])}
+	 * contains the values of these columns only, in the order given here. The
+	 * callback is still informed about all columns of the dataset.
+	 * 
+	 * @param columnIndices
+	 *            the indices (0-based) of the columns to read, or null to read
+	 *            all columns
+	 */
+	public void setColumnProjection(int... columnIndices) {
+		_columnProjection = columnIndices;
+		_columnProjectionNames = null;
+	}
+
+	/**
+	 * Sets the columns to read, by name.
+	 * 
+	 * @see #setColumnProjection(int...)
+	 * 
+	 * @param columnNames
+	 *            the names of the columns to read, or null to read all
+	 *            columns
+	 */
+	public void setColumnProjection(String... columnNames) {
+		_columnProjection = null;
+		_columnProjectionNames = columnNames;
+	}
+
+	/**
+	 * Sets predicates that rows must satisfy (all of them) to be read. The
+	 * predicates are evaluated on the raw bytes of each row, and only rows
+	 * that satisfy them are decoded and passed to the callback. Row numbers
+	 * still refer to the position of the row in the file.
+	 * 
+	 * @param predicates
+	 *            the predicates, or none to read all rows
+	 */
+	public void setPredicates(SasPredicate... predicates) {
+		if (predicates == null) {
+			_predicates = Collections.emptyList();
+		} else {
+			_predicates = Collections.unmodifiableList(Arrays
+					.asList(predicates.clone()));
+		}
+	}
+
+	public List<SasPredicate> getPredicates() {
+		return _predicates;
+	}
+
+	/**
+	 * Sets the CHARACTER columns whose values are looked up in a dictionary,
+	 * by index. Each distinct value of such a column is decoded once, and
+	 * repeated values are returned as the same string instance. This suits low
+	 * cardinality columns like codes, flags and categories. A column with
+	 * more distinct values than the dictionary size falls back to decoding
+	 * every value.
+	 * 
+	 * @see #setDictionarySize(int)
+	 * 
+	 * @param columnIndices
+	 *            the indices (0-based) of the columns, or null for no
+	 *            dictionaries
+	 */
+	public void setDictionaryColumns(int... columnIndices) {
+		_dictionaryColumns = columnIndices;
+		_dictionaryColumnNames = null;
+	}
+
+	/**
+	 * Sets the CHARACTER columns whose values are looked up in a dictionary,
+	 * by name.
+	 * 
+	 * @see #setDictionaryColumns(int...)
+	 * 
+	 * @param columnNames
+	 *            the names of the columns, or null for no dictionaries
+	 */
+	public void setDictionaryColumns(String... columnNames) {
+		_dictionaryColumns = null;
+		_dictionaryColumnNames = columnNames;
+	}
+
+	public int getDictionarySize() {
+		return _dictionarySize;
+	}
+
+	/**
+	 * Sets the maximum amount of distinct values held by the dictionary of
+	 * each dictionary column. Defaults to {@link #DEFAULT_DICTIONARY_SIZE}.
+	 * 
+	 * @param dictionarySize
+	 */
+	public void setDictionarySize(int dictionarySize) {
+		if (dictionarySize < 1 || dictionarySize > SasStringDictionary.MAX_SIZE) {
+			throw new IllegalArgumentException(
+					"dictionary size must be between 1 and "
+							+ SasStringDictionary.MAX_SIZE);
+		}
+		_dictionarySize = dictionarySize;
+	}
+
+	public Charset getEncoding() {
+		return _encoding;
+	}
+
+	/**
+	 * Sets the charset to decode CHARACTER values, column names and labels
+	 * with, overriding the encoding given in the file header. By default the
+	 * encoding of the header is used, or the fallback encoding if the header
+	 * does not specify a (known) encoding.
+	 * 
+	 * @see #setFallbackEncoding(Charset)
+	 * 
+	 * @param encoding
+	 *            the charset, or null to use the encoding of the header
+	 */
+	public void setEncoding(Charset encoding) {
+		_encoding = encoding;
+	}
+
+	public Charset getFallbackEncoding() {
+		return _fallbackEncoding;
+	}
+
+	/**
+	 * Sets the charset to decode with when the header of the file does not
+	 * specify a (known) encoding, which is the case for the encoding code 0
+	 * of many files. Defaults to GBK.
+	 * 
+	 * @param fallbackEncoding
+	 */
+	public void setFallbackEncoding(Charset fallbackEncoding) {
+		if (fallbackEncoding == null) {
+			throw new IllegalArgumentException(
+					"fallbackEncoding cannot be null");
+		}
+		_fallbackEncoding = fallbackEncoding;
+	}
+
+	public boolean isLazyStrings() {
+		return _lazyStrings;
+	}
+
+	/**
+	 * Sets whether CHARACTER values are passed to
+	 * {@link SasReaderCallback#row(int, Object[])} as {@link SasString}s
+	 * instead of strings. A {@link SasString} holds the trimmed bytes of the
+	 * value and only decodes them when its characters are needed, which saves
+	 * the decoding for values that are only checked, compared or passed on
+	 * (e.g. to a {@link SasWriter}). Columns with a dictionary (see
+	 * {@link #setDictionaryColumns(int...)}) still produce strings.
+	 * 
+	 * @param lazyStrings
+	 */
+	public void setLazyStrings(boolean lazyStrings) {
+		_lazyStrings = lazyStrings;
+	}
+
+	public boolean isUsingZoneMap() {
+		return _usingZoneMap;
+	}
+
+	/**
+	 * Sets whether the zone map of the file is used to skip data pages that
+	 * hold no rows that can satisfy the predicates, without decoding them.
+	 * The zone map is loaded from the sidecar file (see
+	 * {@link SasZoneMap#index(File)}) and only used if it is up to date, so
+	 * reads of files without a (valid) sidecar are unaffected. Only readers
+	 * of files that decode with the encoding of the header (or the default
+	 * fallback encoding) use zone maps.
+	 * 
+	 * @param usingZoneMap
+	 */
+	public void setUsingZoneMap(boolean usingZoneMap) {
+		_usingZoneMap = usingZoneMap;
+	}
+
+	public SasTemporalValues getTemporalValues() {
+		return _temporalValues;
+	}
+
+	/**
+	 * Sets how the values of DATE, DATETIME and TIME columns are passed to
+	 * {@link SasReaderCallback#row(int, Object[])}. By default they are
+	 * passed as stored, as Doubles relative to the SAS epoch. Columnar
+	 * batches and cursors always hold the stored values, but can convert them
+	 * (see {@link SasColumnBatch#getEpochValues(int)}).
+	 * 
+	 * @param temporalValues
+	 */
+	public void setTemporalValues(SasTemporalValues temporalValues) {
+		if (temporalValues == null) {
+			throw new IllegalArgumentException(
+					"temporalValues cannot be null");
+		}
+		_temporalValues = temporalValues;
+	}
+
+	private SasStringDictionary[] createDictionaries(SasMetadata metadata) {
+		if (_dictionaryColumns == null && _dictionaryColumnNames == null) {
+			return null;
+		}
+		final List<SasColumn> columns = metadata.getColumns();
+		final SasStringDictionary[] dictionaries = new SasStringDictionary[columns
+				.size()];
+		if (_dictionaryColumnNames != null) {
+			for (String columnName : _dictionaryColumnNames) {
+				final SasColumn column = metadata.getColumn(columnName);
+				if (column == null) {
+					throw new SasReaderException("No such column: "
+							+ columnName);
+				}
+				addDictionary(dictionaries, metadata, column);
+			}
+		} else {
+			for (int columnIndex : _dictionaryColumns) {
+				if (columnIndex < 0 || columnIndex >= columns.size()) {
+					throw new SasReaderException("Dictionary column index "
+							+ columnIndex + " out of range, column count is "
+							+ columns.size());
+				}
+				addDictionary(dictionaries, metadata, columns.get(columnIndex));
+			}
+		}
+		return dictionaries;
+	}
+
+	private void addDictionary(SasStringDictionary[] dictionaries,
+			SasMetadata metadata, SasColumn column) {
+		if (column.getType() != SasColumnType.CHARACTER) {
+			throw new SasReaderException("Dictionary column "
+					+ column.getName() + " is not a CHARACTER column");
+		}
+		dictionaries[column.getIndex()] = new SasStringDictionary(
+				_dictionarySize, SasCharset.get(metadata.getEncoding()));
+	}
+
+	private int[] getColumnProjection(SasMetadata metadata,
+			SasReaderCallback callback) {
+		if (_columnProjectionNames != null) {
+			final int[] columnProjection = new int[_columnProjectionNames.length];
+			for (int i = 0; i < columnProjection.length; i++) {
+				final SasColumn column = metadata
+						.getColumn(_columnProjectionNames[i]);
+				if (column == null) {
+					throw new SasReaderException("No such column: "
+							+ _columnProjectionNames[i]);
+				}
+				columnProjection[i] = column.getIndex();
+			}
+			return columnProjection;
+		}
+		if (_columnProjection != null) {
+			return _columnProjection;
+		}
+		if (callback instanceof SasProjectingReaderCallback) {
+			return ((SasProjectingReaderCallback) callback)
+					.getColumnProjection();
+		}
+		return null;
+	}
+
+	/**
+	 * Creates a decoder for the projected columns of the rows that satisfy
+	 * the predicates of this reader.
+	 * 
+	 * @param metadata
+	 * @param callback
+	 *            the callback, which may provide a projection, or null
+	 * @return
+	 */
+	SasPageDecoder createPageDecoder(SasMetadata metadata,
+			SasReaderCallback callback) {
+		final SasRowFilter filter;
+		if (_predicates.isEmpty()) {
+			filter = null;
+		} else {
+			filter = new SasRowFilter(metadata, _predicates);
+		}
+		return new SasPageDecoder(metadata, getColumnProjection(metadata,
+				callback), filter, createDictionaries(metadata), _lazyStrings,
+				_temporalValues);
+	}
+
+	private boolean isParallel() {
+		return _executorService != null || _parallelism > 1;
+	}
+
+	private SasParallelPageDecoder createParallelPageDecoder(
+			SasPageDecoder decoder, int pageSize, SasReaderCallback callback) {
+		final ExecutorService executor;
+		final boolean shutdownExecutor;
+		final int threads;
+		if (_executorService == null) {
+			executor = new ForkJoinPool(_parallelism);
+			shutdownExecutor = true;
+			threads = _parallelism;
+		} else {
+			executor = _executorService;
+			shutdownExecutor = false;
+			threads = (_parallelism > 1 ? _parallelism : Runtime.getRuntime()
+					.availableProcessors());
+		}
+		final int pagesPerTask = Math.max(1, PARALLEL_TASK_SIZE / pageSize);
+		logger.info("({}) Decoding {} pages per task on {} threads",
+				new Object[] { _name, pagesPerTask, threads });
+		return new SasParallelPageDecoder(decoder, executor, shutdownExecutor,
+				2 * threads, pagesPerTask, _orderedDelivery, callback);
+	}
+
+	private SasParallelBatchDecoder createParallelBatchDecoder(
+			SasPageDecoder decoder, SasColumnarCallback[] partitions) {
+		final ExecutorService executor;
+		final boolean shutdownExecutor;
+		if (_executorService == null) {
+			executor = new ForkJoinPool(Math.min(_parallelism,
+					partitions.length));
+			shutdownExecutor = true;
+		} else {
+			executor = _executorService;
+			shutdownExecutor = false;
+		}
+		logger.info("({}) Decoding batches into {} partitions", _name,
+				partitions.length);
+		return new SasParallelBatchDecoder(decoder, executor,
+				shutdownExecutor, 2 * partitions.length, partitions);
+	}
+
 	public void read(SasReaderCallback callback) throws SasReaderException {
-		FileInputStream is = null;
+		read(callback, null);
+	}
+
+	/**
+	 * Reads the file, delivering the rows to a columnar callback in batches
+	 * of (typically) one page. Projections and predicates apply like they do
+	 * for regular reads. Columnar reads into a single callback always decode
+	 * on the reading thread, regardless of the parallelism of the reader, see
+	 * {@link #readPartitioned(SasColumnarCallback...)}.
+	 * 
+	 * @param callback
+	 * @throws SasReaderException
+	 */
+	public void read(SasColumnarCallback callback) throws SasReaderException {
+		readPartitioned(callback);
+	}
+
+	/**
+	 * Reads the file, delivering the rows to several columnar callbacks, for
+	 * aggregations that combine partial results afterwards. When the reader
+	 * is parallel (see {@link #setParallelism(int)}), pages are decoded on
+	 * several threads, and each batch is delivered to one of the callbacks on
+	 * the thread that decoded it. A callback is only used by one thread at a
+	 * time, so callbacks need not be thread-safe, but they receive batches in
+	 * no particular order. Otherwise all batches are delivered to the first
+	 * callback, in file order.
+	 * 
+	 * All callbacks are informed about the columns, and the first callback
+	 * decides whether data is read.
+	 * 
+	 * @param partitions
+	 *            the callbacks, typically one per thread
+	 * @throws SasReaderException
+	 */
+	public void readPartitioned(final SasColumnarCallback... partitions)
+			throws SasReaderException {
+		if (partitions.length == 0) {
+			throw new IllegalArgumentException(
+					"At least one callback is required");
+		}
+		read(new SasReaderCallback() {
+			@Override
+			public void column(int columnIndex, String columnName,
+					String columnLabel, SasColumnType columnType,
+					String format, int columnLength) {
+				for (SasColumnarCallback callback : partitions) {
+					callback.column(columnIndex, columnName, columnLabel,
+							columnType, format, columnLength);
+				}
+			}
+
+			@Override
+			public boolean readData() {
+				return partitions[0].readData();
+			}
+
+			@Override
+			public boolean row(int rowNumber, Object[] rowData) {
+				throw new IllegalStateException(
+						"Rows are delivered in columnar batches");
+			}
+		}, partitions);
+	}
+
+	private void read(SasReaderCallback callback,
+			SasColumnarCallback[] columnarCallbacks) throws SasReaderException {
+		SasPageSource source = null;
 		try {
-			is = new FileInputStream(_file);
+			source = openPageSource();
 
-			SasHeader header = readHeader(is);
-			logger.info("({}) Header: {}", _file, header);
+			SasHeader header = readHeader(source);
+			logger.info("({}) Header: {}", _name, header);
 
-			readPages(is, header, callback);
+			source = createReadAheadSource(source, header);
+			readPages(source, header, callback, columnarCallbacks);
 
-			logger.info("({}) Done!", _file);
+			logger.info("({}) Done!", _name);
 		} catch (Exception e) {
-			if (e instanceof SasReaderException) {
-				throw (SasReaderException) e;
-			}
-			throw new SasReaderException(
-					"Unhandled exception occurred while reading sas7bdat file!",
-					e);
+			throw wrapException(e);
 		} finally {
-			if (is != null) {
-				try {
-					is.close();
-				} catch (IOException e) {
-					// do nothing
+			close(source);
+		}
+	}
+
+	/**
+	 * Reads the metadata of the file: the row count, row length, page layout
+	 * and column descriptors. Only the file header and the pages containing
+	 * metadata sub headers are read, no rows are decoded.
+	 * 
+	 * @return
+	 * @throws SasReaderException
+	 */
+	public SasMetadata readMetadata() throws SasReaderException {
+		SasPageSource source = null;
+		try {
+			source = openPageSource();
+
+			final SasHeader header = readHeader(source);
+			final List<SasSubHeader> subHeaders = new ArrayList<SasSubHeader>();
+			final boolean u64 = header.isU64();
+
+			for (int pageNumber = 0; pageNumber < header.getPageCount(); pageNumber++) {
+				final ByteBuffer pageData = source.read(header.getPageSize());
+				if (pageData == null
+						|| pageData.limit() < header.getPageSize()) {
+					break;
 				}
+
+				final byte pageType = readPageType(pageData, u64, pageNumber);
+				if (pageType == 0 || pageType == 2) {
+					readSubHeaders(source, pageData, u64, subHeaders);
+				}
+				if (pageType == 1 || pageType == 2
+						|| SasRowDecompressor.getRowCount(pageData, pageType,
+								u64, findCompression(subHeaders)) > 0) {
+					break;
+				}
+			}
+
+			return parseSubHeaders(header, subHeaders);
+		} catch (Exception e) {
+			throw wrapException(e);
+		} finally {
+			close(source);
+		}
+	}
+
+	/**
+	 * Opens a pull-style cursor over the rows of the file. Projections and
+	 * predicates apply like they do for {@link #read(SasReaderCallback)}. The
+	 * cursor reuses its buffers for the whole scan, so reading numbers and
+	 * bytes through it does not create any objects per row.
+	 * 
+	 * The cursor must be closed after use.
+	 * 
+	 * @return
+	 * @throws SasReaderException
+	 */
+	public SasRowCursor openCursor() throws SasReaderException {
+		SasPageSource source = null;
+		try {
+			source = openPageSource();
+			return new SasRowCursor(this, source);
+		} catch (Exception e) {
+			close(source);
+			throw wrapException(e);
+		}
+	}
+
+	SasReaderException wrapException(Exception e) {
+		if (e instanceof SasReaderException) {
+			return (SasReaderException) e;
+		}
+		return new SasReaderException(
+				"Unhandled exception occurred while reading sas7bdat file!", e);
+	}
+
+	void close(SasPageSource source) {
+		if (source != null) {
+			try {
+				source.close();
+			} catch (IOException e) {
+				// do nothing
 			}
 		}
 	}
 
-	private void readPages(FileInputStream is, SasHeader header,
-			SasReaderCallback callback) throws Exception {
+	private SasPageSource openPageSource() throws IOException {
+		if (_file == null) {
+			if (_pageSource == null) {
+				throw new SasReaderException("Page source of " + _name
+						+ " has already been consumed");
+			}
+			SasPageSource pageSource = _pageSource;
+			_pageSource = null;
+			return pageSource;
+		}
+		if (_memoryMapped) {
+			return new MappedFileSasPageSource(_file);
+		}
+		return new FileSasPageSource(_file);
+	}
+
+	private void readPages(SasPageSource source, SasHeader header,
+			SasReaderCallback callback, SasColumnarCallback[] columnarCallbacks)
+			throws Exception {
+		final SasColumnarCallback columnarCallback = columnarCallbacks == null ? null
+				: columnarCallbacks[0];
+		final boolean partitioned = columnarCallbacks != null
+				&& columnarCallbacks.length > 1 && isParallel();
 		final List<SasSubHeader> subHeaders = new ArrayList<SasSubHeader>();
-		final List<Integer> columnOffsets = new ArrayList<Integer>();
-		final List<Integer> columnLengths = new ArrayList<Integer>();
-		final List<SasColumnType> columnTypes = new ArrayList<SasColumnType>();
-		boolean subHeadersParsed = false;
+		SasPageDecoder decoder = null;
+		SasParallelPageDecoder parallelDecoder = null;
+		SasParallelBatchDecoder batchDecoder = null;
+		SasRowDecompressor decompressor = null;
+		SasColumnBatch batch = null;
+		BitSet skippedPages = null;
 
 		int rowCount = 0;
 
 		final int pageSize = header.getPageSize();
 		final int pageCount = header.getPageCount();
+		final boolean u64 = header.isU64();
 
-		// these variables will define the default amount of rows per page and
-		// other defaults
-		int row_count = -1;
-		int row_count_fp = -1;
-		int row_length = -1;
-		int col_count = -1;
-
-		for (int pageNumber = 0; pageNumber < pageCount; pageNumber++) {
-			logger.info("({}) Reading page no. {}", _file, pageNumber);
-			final byte[] pageData = new byte[pageSize];
-			int read = is.read(pageData);
-			if (read == -1) {
-				// reached end of file
-				break;
-			}
+		try {
+			for (int pageNumber = 0; pageNumber < pageCount; pageNumber++) {
+				logger.info("({}) Reading page no. {}", _name, pageNumber);
+				final ByteBuffer pageData = source.read(pageSize);
+				if (pageData == null) {
+					// reached end of file
+					break;
+				}
+				if (pageData.limit() < pageSize) {
+					logger.warn("({}) Page no. {} is truncated, stopping",
+							_name, pageNumber);
+					break;
+				}
 
-			boolean u64 = header.isU64();
-			byte pageType = IO.readByte(pageData, u64 ? 33 : 17);
-
-			switch (pageType) {
-			case 0:
-			case 1:
-			case 2:
-				// accepted type
-				logger.info("({}) page type supported: {}", _file, pageType);
-				break;
-			case 4:
-				// accepted but not supported
-				logger.info("({}) page type not fully supported: {}", _file,
-						pageType);
-				break;
-			default:
-				throw new SasReaderException("Page " + pageNumber
-						+ " has unknown type: " + pageType);
-			}
+				byte pageType = readPageType(pageData, u64, pageNumber);
 
-			if (pageType == 0 || pageType == 2) {
-				// Read subheaders
-				int subhCount = IO.readInt(pageData, u64 ? 36 : 20);
-				 //page offset of subheader pointers
-				    int oshp= u64 ? 40 : 24;
-				 //length of subheader pointers
-				   int lshp=  u64 ? 24 : 12;
-				   //length of first two subheader fields
-				    int lshf=  u64 ? 8  : 4;
-				for (int subHeaderNumber = 0; subHeaderNumber < subhCount; subHeaderNumber++) {
-					int base = oshp + subHeaderNumber * lshp;
-
-					int offset = IO.readNumber2(pageData, base,lshf).intValue();
-					int length = IO.readNumber2(pageData, base + lshf,lshf).intValue();
-
-					if (length > 0) {
-						byte[] rawData = IO.readBytes(pageData, offset, length);
-						byte[] signatureData = IO.readBytes(rawData, 0, 4);
-						SasSubHeader subHeader = new SasSubHeader(rawData,
-								signatureData);
-						subHeaders.add(subHeader);
-					}
+				if (decoder == null && (pageType == 0 || pageType == 2)) {
+					readSubHeaders(source, pageData, u64, subHeaders);
 				}
-			}
 
-			if ((pageType == 1 || pageType == 2)) {
-
-				if (!subHeadersParsed) {
-					// Parse subheaders
-					int offp =  u64 ? 8  : 4;
-					SasSubHeader rowSize = getSubHeader(subHeaders,
-							SUBH_ROWSIZE, "ROWSIZE");
-					row_length = IO.readNumber2(rowSize.getRawData(), u64?40 : 20,offp).intValue();
-					row_count = IO.readNumber2(rowSize.getRawData(), u64? 48 : 24,offp).intValue();
-					int col_count_7 = IO.readNumber2(rowSize.getRawData(), u64? 72 : 36,offp).intValue();
-					row_count_fp = IO.readNumber2(rowSize.getRawData(), u64?120 : 60,offp).intValue();
-
-					SasSubHeader colSize = getSubHeader(subHeaders,
-							SUBH_COLSIZE, "COLSIZE");
-					int col_count_6 = IO.readNumber2(colSize.getRawData(), u64? 8 : 4,offp).intValue();
-					col_count = col_count_6;
-
-					if (col_count_7 != col_count_6) {
-						logger.warn(
-								"({}) Column count mismatch: {} vs. {}",
-								new Object[] { _file, col_count_6, col_count_7 });
+				// compressed files keep their rows in sub headers
+				final boolean compressed = SasRowDecompressor.getRowCount(
+						pageData, pageType, u64,
+						decoder == null ? findCompression(subHeaders)
+								: decoder.getCompression()) > 0;
+
+				if (pageType == 1 || pageType == 2 || compressed) {
+
+					if (decoder == null) {
+						final SasMetadata metadata = parseSubHeaders(header,
+								subHeaders);
+						for (SasColumn column : metadata.getColumns()) {
+							callback.column(column.getIndex(),
+									column.getName(), column.getLabel(),
+									column.getType(), column.getFormat(),
+									column.getLength());
+						}
+						decoder = createPageDecoder(metadata, callback);
+						skippedPages = getSkippedPages(metadata);
 					}
 
-					SasSubHeader colText = getSubHeader(subHeaders,
-							SUBH_COLTEXT, "COLTEXT");
-
-					List<SasSubHeader> colAttrHeaders = getSubHeaders(
-							subHeaders, SUBH_COLATTR, "COLATTR");
-					final SasSubHeader colAttr;
-					if (colAttrHeaders.isEmpty()) {
-						throw new SasReaderException(
-								"No column attribute subheader found");
-					} else if (colAttrHeaders.size() == 1) {
-						colAttr = colAttrHeaders.get(0);
-					} else {
-						colAttr = spliceColAttrSubHeaders(colAttrHeaders);
+					if (!callback.readData()) {
+						logger.info("({}) Callback decided to not read data",
+								_name);
+						return;
 					}
 
-					SasSubHeader colName = getSubHeader(subHeaders,
-							SUBH_COLNAME, "COLNAME");
+					if (decoder.isRejectingAll()) {
+						logger.info("({}) No rows can satisfy predicates {}",
+								_name, _predicates);
+						return;
+					}
 
-					List<SasSubHeader> colLabels = getSubHeaders(subHeaders,
-							SUBH_COLLABS, "COLLABS");
-					if (!colLabels.isEmpty() && colLabels.size() != col_count) {
-						throw new SasReaderException(
-								"Unexpected column label count ("
-										+ colLabels.size() + ") expected 0 or "
-										+ col_count);
+					if (skippedPages != null
+							&& skippedPages.get(pageNumber)) {
+						logger.info("({}) Skipping page no. {} by zone map",
+								_name, pageNumber);
+						final int pageRowCount = decoder.getRowCount(
+								pageData, pageType);
+						if (columnarCallback == null && isParallel()) {
+							// the parallel decoder numbers the rows itself
+							if (parallelDecoder == null) {
+								parallelDecoder = createParallelPageDecoder(
+										decoder, pageSize, callback);
+							}
+							parallelDecoder.skip(pageRowCount);
+						}
+						rowCount += pageRowCount;
+						continue;
 					}
 
-					for (int i = 0; i < col_count; i++) {
-						int base = u64 ? 16  : 12 + i * 8;
-
-						final String columnName;
-						byte amd = IO.readByte(colName.getRawData(), base);
-						if (amd == 0) {
-							int off = IO.readShort(colName.getRawData(),
-									base + 2) + 4;
-							int len = IO.readShort(colName.getRawData(),
-									base + 4);
-							columnName = IO.readString(colText.getRawData(),
-									off, len);
-						} else {
-							columnName = "COL" + i;
+					ByteBuffer page = pageData;
+					if (compressed && (columnarCallback != null || !isParallel())) {
+						// parallel decoders decompress pages themselves
+						if (decompressor == null) {
+							decompressor = decoder.createDecompressor();
 						}
+						page = decompressor.decompress(pageData);
+						pageType = 1;
+					}
 
-						// Read column labels
-						final String label;
-						String format = null;
-						if (colLabels != null && !colLabels.isEmpty()) {
-							base = u64?52 : 40;
-							byte[] rawData = colLabels.get(i).getRawData();
-							int off = IO.readShort(rawData, base+2);
-							short len = IO.readShort(rawData, base + 4);
-							if (len > 0) {
-								label = IO.readString(colText.getRawData(),
-										off+ offp, len);
-							} else {
-								label = null;
-							}
-							
-							base = u64? 46 : 34;
-					        off = IO.readShort(rawData, base + 2);
-					        len = IO.readShort(rawData, base + 4);
-					        if(len > 0)
-					        	format =  IO.readString(colText.getRawData(),
-	                                    off + offp, len);
-						} else {
-							label = null;
+					if (partitioned) {
+						if (batchDecoder == null) {
+							batchDecoder = createParallelBatchDecoder(decoder,
+									columnarCallbacks);
 						}
-						
-						
-						
-						int lcav = u64? 16 : 12;
-						// Read column offset, width, type (required)
-						base = lcav + i * lcav;
 
-						int offset =IO.readNumber2(colAttr.getRawData(), base,u64?8:4).intValue();
-						columnOffsets.add(offset);
+						if (page != pageData || !source.isRetainingBuffers()) {
+							page = IO.copy(page, 0, page.limit());
+						}
+						if (!batchDecoder.add(page, pageType, pageNumber,
+								rowCount + 1)) {
+							logger.info(
+									"({}) Callback decided to stop iteration",
+									_name);
+							return;
+						}
+						rowCount += decoder.getRowCount(page, pageType);
+						continue;
+					}
 
-						int length =  IO.readNumber2(colAttr.getRawData(), base + 4,u64?8:4).intValue();
-						columnLengths.add(length);
+					if (columnarCallback != null) {
+						if (batch == null) {
+							batch = decoder.createBatch();
+						}
+						rowCount += decoder.decodePage(page, pageType,
+								rowCount + 1, batch);
+						batch.setPageNumber(pageNumber);
+						if (batch.getRowCount() > 0
+								&& !columnarCallback.batch(batch)) {
+							logger.info(
+									"({}) Callback decided to stop iteration",
+									_name);
+							return;
+						}
+						continue;
+					}
 
-						short columnTypeCode = IO.readShort(
-								colAttr.getRawData(), base + (u64? 14: 10));
-						SasColumnType columnType = (columnTypeCode == 1 ? SasColumnType.NUMERIC
-								: SasColumnType.CHARACTER);
-						columnTypes.add(columnType);
+					if (isParallel()) {
+						if (parallelDecoder == null) {
+							parallelDecoder = createParallelPageDecoder(
+									decoder, pageSize, callback);
+						}
 
+						if (!source.isRetainingBuffers()) {
+							page = IO.copy(pageData, 0, pageData.limit());
+						}
+						if (!parallelDecoder.add(page,
+								decoder.getRowCount(pageData, pageType))) {
 							logger.info(
-									"({}) column no. {} read: name={},label={},type={},format={},length={}",
-									new Object[] { _file, i, columnName, label,
-											columnType,format, length });
-						callback.column(i, columnName, label, columnType,format,
-								length);
+									"({}) Callback decided to stop iteration",
+									_name);
+							return;
+						}
+						continue;
 					}
 
-					subHeadersParsed = true;
-				}
+					// Read data
+					final int row_count_p = decoder.getRowCount(page,
+							pageType);
+					int base = decoder.getRowOffset(page, pageType);
 
-				if (!callback.readData()) {
-					logger.info("({}) Callback decided to not read data", _file);
-					return;
-				}
+					for (int row = 0; row < row_count_p; row++) {
+						rowCount++;
 
-				// Read data
-				int row_count_p;
-				int base =(u64? 32 : 16) + 8;
-				if (pageType == 2) {
-					row_count_p = row_count_fp;
-					int subhCount = IO.readInt(pageData, 20);
-					base = base  + subhCount * (u64? 24 : 12);
-					base = base + base % 8;
-				} else {
-					row_count_p = IO.readInt(pageData, u64? 34 : 18);
-				}
-				base= ((base+7) / 8) * 8 + base % 8;
-				
-				if (row_count_p > row_count) {
-					row_count_p = row_count;
-				}
+						if (decoder.accept(page, base)) {
+							Object[] rowData = decoder.decodeRow(page, base);
 
-				for (int row = 0; row < row_count_p; row++) {
-					Object[] rowData = new Object[col_count];
-					for (int col = 0; col < col_count; col++) {
-						int off = base + columnOffsets.get(col);
-						int len = columnLengths.get(col);
-
-						SasColumnType columnType = columnTypes.get(col);
-						if (len > 0) {
-							byte[] raw = IO.readBytes(pageData, off, len);
-							if (columnType == SasColumnType.NUMERIC && len < 8) {
-								ByteBuffer bb = ByteBuffer.allocate(8);
-								for (int j = 0; j < 8 - len; j++) {
-									bb.put((byte) 0x00);
-								}
-								bb.put(raw);
-								raw = bb.array();
-
-								// col$length <- 8
-								len = 8;
+							if (logger.isDebugEnabled()) {
+								logger.debug("({}) row no. {} read: {}",
+										new Object[] { _name, row, rowData });
 							}
 
-							final Object value;
-							if (columnType == SasColumnType.CHARACTER) {
-								String str = IO.readString(raw, 0, len);
-								str = str.trim();
-								value = str;
-							} else {
-								value = IO.readNumber(raw, 0, len);
+							boolean next = callback.row(rowCount, rowData);
+							if (!next) {
+								logger.info(
+										"({}) Callback decided to stop iteration",
+										_name);
+								return;
 							}
-							rowData[col] = value;
 						}
-					}
 
-					if (logger.isDebugEnabled()) {
-						logger.debug("({}) row no. {} read: {}", new Object[] {
-								_file, row, rowData });
+						base = base + decoder.getRowLength();
 					}
+				}
+			}
 
-					rowCount++;
-					boolean next = callback.row(rowCount, rowData);
-					if (!next) {
-						logger.info("({}) Callback decided to stop iteration",
-								_file);
-						return;
-					}
+			if (parallelDecoder != null && !parallelDecoder.finish()) {
+				logger.info("({}) Callback decided to stop iteration", _name);
+			}
+			if (batchDecoder != null && !batchDecoder.finish()) {
+				logger.info("({}) Callback decided to stop iteration", _name);
+			}
+		} finally {
+			if (parallelDecoder != null) {
+				parallelDecoder.close();
+			}
+			if (batchDecoder != null) {
+				batchDecoder.close();
+			}
+		}
+	}
+
+	/**
+	 * Finds the pages that the zone map of the file rules out for the
+	 * predicates of this reader.
+	 * 
+	 * @param metadata
+	 * @return the numbers of the pages to skip, or null if no pages are
+	 *         skipped
+	 */
+	private BitSet getSkippedPages(SasMetadata metadata) {
+		if (!_usingZoneMap || _file == null || _encoding != null
+				|| !_fallbackEncoding.equals(SasCharset.DEFAULT_CHARSET)
+				|| _predicates.isEmpty()) {
+			return null;
+		}
+		final SasZoneMap zoneMap = SasZoneMap.load(_file);
+		if (zoneMap == null) {
+			return null;
+		}
+		final BitSet skippedPages = zoneMap.getSkippedPages(metadata,
+				_predicates);
+		logger.info("({}) Zone map rules out {} of {} pages", new Object[] {
+				_name, skippedPages.cardinality(), zoneMap.getPageCount() });
+		return skippedPages.isEmpty() ? null : skippedPages;
+	}
+
+	byte readPageType(ByteBuffer pageData, boolean u64, int pageNumber) {
+		byte pageType = SasPageDecoder.getPageType(pageData, u64);
+
+		switch (pageType) {
+		case 0:
+		case 1:
+		case 2:
+			// accepted type
+			logger.info("({}) page type supported: {}", _name, pageType);
+			break;
+		case 4:
+			// an amendment page, only rows of compressed files are read from it
+			logger.info("({}) page type partially supported: {}", _name,
+					pageType);
+			break;
+		case -112:
+			// 0x90, compressed metadata, which is skipped
+			logger.info("({}) page type skipped: {}", _name, pageType);
+			break;
+		default:
+			throw new SasReaderException("Page " + pageNumber
+					+ " has unknown type: " + pageType);
+		}
+		return pageType;
+	}
+
+	void readSubHeaders(SasPageSource source, ByteBuffer pageData,
+			boolean u64, List<SasSubHeader> subHeaders) {
+		int subhCount = IO.readInt(pageData, u64 ? 36 : 20);
+		// page offset of subheader pointers
+		int oshp = u64 ? 40 : 24;
+		// length of subheader pointers
+		int lshp = u64 ? 24 : 12;
+		// length of first two subheader fields
+		int lshf = u64 ? 8 : 4;
+		for (int subHeaderNumber = 0; subHeaderNumber < subhCount; subHeaderNumber++) {
+			int base = oshp + subHeaderNumber * lshp;
+
+			int offset = IO.readNumber2(pageData, base, lshf).intValue();
+			int length = IO.readNumber2(pageData, base + lshf, lshf)
+					.intValue();
+
+			if (SasRowDecompressor.isTruncated(pageData, base, u64)
+					|| SasRowDecompressor.isRow(pageData, base, u64,
+							SasCompression.NONE)) {
+				// not metadata
+				continue;
+			}
 
-					base = base + row_length;
+			if (length > 0) {
+				final ByteBuffer rawData;
+				if (source.isRetainingBuffers()) {
+					rawData = IO.slice(pageData, offset, length);
+				} else {
+					rawData = IO.copy(pageData, offset, length);
 				}
+				byte[] signatureData = IO.readBytes(rawData, 0, 4);
+				SasSubHeader subHeader = new SasSubHeader(rawData,
+						signatureData);
+				subHeaders.add(subHeader);
 			}
 		}
 	}
 
+	SasMetadata parseSubHeaders(SasHeader header,
+			List<SasSubHeader> subHeaders) {
+		final boolean u64 = header.isU64();
+		int offp =  u64 ? 8  : 4;
+		SasSubHeader rowSize = getSubHeader(subHeaders,
+				SUBH_ROWSIZE, "ROWSIZE");
+		int row_length = IO.readNumber2(rowSize.getRawData(), u64?40 : 20,offp).intValue();
+		int row_count = IO.readNumber2(rowSize.getRawData(), u64? 48 : 24,offp).intValue();
+		int col_count_7 = IO.readNumber2(rowSize.getRawData(), u64? 72 : 36,offp).intValue();
+		int row_count_fp = IO.readNumber2(rowSize.getRawData(), u64?120 : 60,offp).intValue();
+
+		SasSubHeader colSize = getSubHeader(subHeaders,
+				SUBH_COLSIZE, "COLSIZE");
+		int col_count_6 = IO.readNumber2(colSize.getRawData(), u64? 8 : 4,offp).intValue();
+		int col_count = col_count_6;
+
+		if (col_count_7 != col_count_6) {
+			logger.warn(
+					"({}) Column count mismatch: {} vs. {}",
+					new Object[] { _name, col_count_6, col_count_7 });
+		}
+
+		SasSubHeader colText = getSubHeader(subHeaders,
+				SUBH_COLTEXT, "COLTEXT");
+
+		final Charset encoding = getEncoding(header);
+		final SasCharset charset = SasCharset.get(encoding);
+		logger.info("({}) encoding: {}", _name, encoding);
+
+		List<SasSubHeader> colAttrHeaders = getSubHeaders(
+				subHeaders, SUBH_COLATTR, "COLATTR");
+		final SasSubHeader colAttr;
+		if (colAttrHeaders.isEmpty()) {
+			throw new SasReaderException(
+					"No column attribute subheader found");
+		} else if (colAttrHeaders.size() == 1) {
+			colAttr = colAttrHeaders.get(0);
+		} else {
+			colAttr = spliceColAttrSubHeaders(colAttrHeaders);
+		}
+
+		SasSubHeader colName = getSubHeader(subHeaders,
+				SUBH_COLNAME, "COLNAME");
+
+		List<SasSubHeader> colLabels = getSubHeaders(subHeaders,
+				SUBH_COLLABS, "COLLABS");
+		if (!colLabels.isEmpty() && colLabels.size() != col_count) {
+			throw new SasReaderException(
+					"Unexpected column label count ("
+							+ colLabels.size() + ") expected 0 or "
+							+ col_count);
+		}
+
+		final List<SasColumn> columns = new ArrayList<SasColumn>(col_count);
+		for (int i = 0; i < col_count; i++) {
+			int base = u64 ? 16  : 12 + i * 8;
+
+			final String columnName;
+			byte amd = IO.readByte(colName.getRawData(), base);
+			if (amd == 0) {
+				int off = IO.readShort(colName.getRawData(),
+						base + 2) + 4;
+				int len = IO.readShort(colName.getRawData(),
+						base + 4);
+				columnName = charset.decode(colText.getRawData(),
+						off, len);
+			} else {
+				columnName = "COL" + i;
+			}
+
+			// Read column labels
+			final String label;
+			String format = null;
+			if (colLabels != null && !colLabels.isEmpty()) {
+				base = u64?52 : 40;
+				ByteBuffer rawData = colLabels.get(i).getRawData();
+				int off = IO.readShort(rawData, base+2);
+				short len = IO.readShort(rawData, base + 4);
+				if (len > 0) {
+					label = charset.decode(colText.getRawData(),
+							off+ offp, len);
+				} else {
+					label = null;
+				}
+				
+				base = u64? 46 : 34;
+		        off = IO.readShort(rawData, base + 2);
+		        len = IO.readShort(rawData, base + 4);
+		        if(len > 0)
+		        	format =  charset.decode(colText.getRawData(),
+	                                    off + offp, len);
+			} else {
+				label = null;
+			}
+			
+			
+			
+			int lcav = u64? 16 : 12;
+			// Read column offset, width, type (required)
+			base = lcav + i * lcav;
+
+			int offset =IO.readNumber2(colAttr.getRawData(), base,u64?8:4).intValue();
+
+			int length =  IO.readNumber2(colAttr.getRawData(), base + 4,u64?8:4).intValue();
+
+			short columnTypeCode = IO.readShort(
+					colAttr.getRawData(), base + (u64? 14: 10));
+			SasColumnType columnType = (columnTypeCode == 1 ? SasColumnType
+					.getNumericType(format) : SasColumnType.CHARACTER);
+
+				logger.info(
+						"({}) column no. {} read: name={},label={},type={},format={},length={}",
+						new Object[] { _name, i, columnName, label,
+								columnType,format, length });
+			columns.add(new SasColumn(i, columnName, label, columnType,
+					format, offset, length));
+		}
+
+		final SasCompression compression = findCompression(subHeaders);
+		logger.info("({}) compression: {}", _name, compression);
+
+		return new SasMetadata(u64, header.getHeaderLength(),
+				header.getPageSize(), header.getPageCount(), row_count,
+				row_length, row_count_fp, compression, encoding, columns);
+	}
+
+	private Charset getEncoding(SasHeader header) {
+		if (_encoding != null) {
+			return _encoding;
+		}
+		final Charset encoding = header.getEncoding();
+		if (encoding == null) {
+			if (header.getEncodingCode() != 0) {
+				logger.warn("({}) Unknown encoding code {}, using {}",
+						new Object[] { _name, header.getEncodingCode(),
+								_fallbackEncoding });
+			}
+			return _fallbackEncoding;
+		}
+		return encoding;
+	}
+
+	/**
+	 * Finds the compression of a file by looking for a compression literal at
+	 * the start of the column text sub header.
+	 * 
+	 * @param subHeaders
+	 * @return
+	 */
+	SasCompression findCompression(List<SasSubHeader> subHeaders) {
+		for (SasSubHeader colText : getSubHeaders(subHeaders, SUBH_COLTEXT,
+				"COLTEXT")) {
+			final ByteBuffer rawData = colText.getRawData();
+			final int end = Math.min(rawData.limit(), 64);
+			for (int i = 4; i + COMPRESSION_CHAR.length <= end; i++) {
+				if (startsWith(rawData, i, COMPRESSION_CHAR)) {
+					return SasCompression.CHAR;
+				}
+				if (startsWith(rawData, i, COMPRESSION_BINARY)) {
+					return SasCompression.BINARY;
+				}
+			}
+		}
+		return SasCompression.NONE;
+	}
+
+	private static boolean startsWith(ByteBuffer buffer, int off,
+			byte[] prefix) {
+		for (int i = 0; i < prefix.length; i++) {
+			if (buffer.get(off + i) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private SasSubHeader spliceColAttrSubHeaders(
 			List<SasSubHeader> colAttrHeaders) {
 		final int colAttrHeadersSize = colAttrHeaders.size();
-		logger.info("({}) Splicing {} column attribute headers", _file,
+		logger.info("({}) Splicing {} column attribute headers", _name,
 				colAttrHeadersSize);
 
-		byte[] result = IO.readBytes(colAttrHeaders.get(0).getRawData(), 0,
-				colAttrHeaders.get(0).getRawData().length - 8);
+		ByteBuffer firstRawData = colAttrHeaders.get(0).getRawData();
+		byte[] result = IO.readBytes(firstRawData, 0,
+				firstRawData.limit() - 8);
 
 		for (int i = 1; i < colAttrHeadersSize; i++) {
-			byte[] rawData = colAttrHeaders.get(i).getRawData();
+			ByteBuffer rawData = colAttrHeaders.get(i).getRawData();
 			result = IO.concat(result,
-					IO.readBytes(rawData, 12, rawData.length - 20));
+					IO.readBytes(rawData, 12, rawData.limit() - 20));
 		}
 
-		return new SasSubHeader(result, null);
+		return new SasSubHeader(IO.wrap(result), null);
 	}
 
 	private List<SasSubHeader> getSubHeaders(List<SasSubHeader> subHeaders,
@@ -436,15 +1360,18 @@ public class SasReader {
 		return result.get(0);
 	}
 
-	private SasHeader readHeader(InputStream is) throws Exception {
-		byte[] header = new byte[288];
-		int read = is.read(header);
+	SasHeader readHeader(SasPageSource source) throws Exception {
+		ByteBuffer header = source.read(288);
+		int read = (header == null ? -1 : header.limit());
 		if (read != 288) {
 			throw new SasReaderException(
 					"Header too short (not a sas7bdat file?): " + read);
 		}
+		if (!source.isRetainingBuffers()) {
+			header = IO.copy(header, 0, 288);
+		}
 
-		if (!isMagicNumber(header)) {
+		if (!isMagicNumber(IO.readBytes(header, 0, MAGIC.length))) {
 			throw new SasReaderException("Magic number mismatch!");
 		}
 
@@ -481,18 +1408,18 @@ public class SasReader {
 	    } else {
 	        winunix="unknown";
 	    }
-	    int header_length = IO.readInt(header, 196 + align2);
-	    byte[] leftHeadByte = new byte[header_length-288]; 
-	    read = is.read(leftHeadByte);
-	    byte[] total = new byte[header_length];
-	    System.arraycopy(header, 0, total, 0, 288);
-	    System.arraycopy(leftHeadByte, 0, total, 288, header_length-288);
-		final int pageSize = IO.readInt(header, 200 + align2);
+	    int header_length = header.getInt(196 + align2);
+	    ByteBuffer leftHead = source.read(header_length - 288);
+	    ByteBuffer total = ByteBuffer.allocate(header_length);
+	    total.order(header.order());
+	    total.put(IO.readBytes(header, 0, 288));
+	    total.put(IO.readBytes(leftHead, 0, leftHead.limit()));
+		final int pageSize = header.getInt(200 + align2);
 		if (pageSize < 0) {
 			throw new SasReaderException("Page size is negative: " + pageSize);
 		}
 
-		final int pageCount = IO.readInt(header, 204 + align2);
+		final int pageCount = header.getInt(204 + align2);
 		if (pageCount < 1) {
 			throw new SasReaderException("Page count is not positive: "
 					+ pageCount);
@@ -507,7 +1434,7 @@ public class SasReader {
 	    String OS_maker=IO.readString(total, 256 + align1 + align2, 16) ;
 	    String OS_name=IO.readString(total, 272+ align1 + align2, 16) ;
 	    
-		logger.info("({}) page size={}, page count={}", new Object[] { _file,
+		logger.info("({}) page size={}, page count={}", new Object[] { _name,
 				pageSize, pageCount });
 
 		final String sasRelease = IO.readString(header, 216, 8);
@@ -516,12 +1443,14 @@ public class SasReader {
 		sasheader.setAlign1(align1);
 		sasheader.setAlign2(align2);
 		sasheader.setU64(u64);
+		sasheader.setHeaderLength(header_length);
 		sasheader.setEndian(endian);
 		sasheader.setSAS_host(SAS_host);
 		sasheader.setOS_maker(OS_maker);
 		sasheader.setOS_name(OS_name);
 		sasheader.setOS_version(OS_version);
 		sasheader.setSAS_release(SAS_release);
+		sasheader.setEncodingCode(header.get(70) & 0xff);
 		return sasheader;
 	}
 }
@@ -0,0 +1,228 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+/**
+ * Compresses rows for {@link SasWriter}, in the formats that
+ * {@link SasRowDecompressor} decompresses.
+ * 
+ * @author Kasper Sørensen
+ */
+final class SasRowCompressor {
+
+	private static final int MAX_RLE_RUN = 4112;
+	private static final int MAX_RDC_RUN = 4114;
+	private static final int MAX_RDC_PATTERN = 271;
+	private static final int MAX_RDC_OFFSET = 4098;
+
+	/**
+	 * The size of the hash table used for finding patterns
+	 */
+	public static final int RDC_HASH_TABLE_SIZE = 4096;
+
+	private SasRowCompressor() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Compresses data with run length encoding (SASYZCRL).
+	 * 
+	 * @param src
+	 * @param off
+	 * @param len
+	 * @param dst
+	 * @return the length of the compressed data, or -1 if it does not fit in
+	 *         dst
+	 */
+	public static int compressRle(byte[] src, int off, int len, byte[] dst) {
+		final int end = off + len;
+		int in = off;
+		int out = 0;
+		int literal = off;
+		while (in < end) {
+			final byte b = src[in];
+			int run = 1;
+			while (in + run < end && src[in + run] == b && run < MAX_RLE_RUN) {
+				run++;
+			}
+			final boolean filler = (b == ' ' || b == '@' || b == 0);
+			if (run < (filler ? 2 : 3)) {
+				in += run;
+				continue;
+			}
+			out = putRleLiteral(src, literal, in, dst, out);
+			if (out == -1 || out + 3 > dst.length) {
+				return -1;
+			}
+			if (filler) {
+				final int command = (b == ' ' ? 6 : (b == '@' ? 5 : 7));
+				if (run <= 17) {
+					dst[out++] = (byte) (((command + 8) << 4) | (run - 2));
+				} else {
+					dst[out++] = (byte) ((command << 4) | ((run - 17) >>> 8));
+					dst[out++] = (byte) (run - 17);
+				}
+			} else {
+				if (run <= 18) {
+					dst[out++] = (byte) (0xc0 | (run - 3));
+				} else {
+					dst[out++] = (byte) (0x40 | ((run - 18) >>> 8));
+					dst[out++] = (byte) (run - 18);
+				}
+				dst[out++] = b;
+			}
+			in += run;
+			literal = in;
+		}
+		return putRleLiteral(src, literal, end, dst, out);
+	}
+
+	private static int putRleLiteral(byte[] src, int start, int end,
+			byte[] dst, int out) {
+		while (start < end) {
+			final int length = Math.min(end - start, 64);
+			if (out + 1 + length > dst.length) {
+				return -1;
+			}
+			// copy commands 8 to 11 copy 1-16, 17-32, 33-48 and 49-64 bytes
+			dst[out++] = (byte) (((8 + (length - 1) / 16) << 4) | ((length - 1) % 16));
+			System.arraycopy(src, start, dst, out, length);
+			out += length;
+			start += length;
+		}
+		return out;
+	}
+
+	/**
+	 * Compresses data with Ross Data Compression (SASYZCR2).
+	 * 
+	 * @param src
+	 * @param off
+	 * @param len
+	 * @param dst
+	 * @param hashTable
+	 *            a table of {@link #RDC_HASH_TABLE_SIZE} entries, which may be
+	 *            reused between calls
+	 * @return the length of the compressed data, or -1 if it does not fit in
+	 *         dst
+	 */
+	public static int compressRdc(byte[] src, int off, int len, byte[] dst,
+			int[] hashTable) {
+		final int end = off + len;
+		int in = off;
+		int out = 0;
+		int controlOffset = -1;
+		int controlBits = 0;
+		int items = 16;
+		while (in < end) {
+			if (items == 16) {
+				putControlBits(dst, controlOffset, controlBits);
+				controlOffset = out;
+				out += 2;
+				controlBits = 0;
+				items = 0;
+			}
+			if (out + 3 > dst.length) {
+				return -1;
+			}
+
+			final byte b = src[in];
+			int run = 1;
+			while (in + run < end && src[in + run] == b && run < MAX_RDC_RUN) {
+				run++;
+			}
+			if (run >= 3) {
+				controlBits |= 0x8000 >>> items;
+				if (run <= 18) {
+					dst[out++] = (byte) (run - 3);
+				} else {
+					dst[out++] = (byte) (0x10 | ((run - 19) & 0x0f));
+					dst[out++] = (byte) ((run - 19) >>> 4);
+				}
+				dst[out++] = b;
+				in += run;
+			} else {
+				int match = 0;
+				int candidate = 0;
+				if (in + 3 <= end) {
+					final int hash = hash(src, in);
+					candidate = hashTable[hash];
+					hashTable[hash] = in;
+					match = matchLength(src, off, candidate, in, end);
+				}
+				if (match >= 3) {
+					controlBits |= 0x8000 >>> items;
+					putPattern(dst, out, in - candidate - 3, match);
+					out += (match <= 15 ? 2 : 3);
+					in += match;
+				} else {
+					dst[out++] = src[in++];
+				}
+			}
+			items++;
+		}
+		putControlBits(dst, controlOffset, controlBits);
+		return out;
+	}
+
+	/**
+	 * Determines how many bytes at the current position are equal to the bytes
+	 * at a candidate position remembered in the hash table.
+	 */
+	private static int matchLength(byte[] src, int off, int candidate,
+			int in, int end) {
+		final int distance = in - candidate;
+		if (candidate < off || distance < 3 || distance > MAX_RDC_OFFSET) {
+			return 0;
+		}
+		final int max = Math.min(MAX_RDC_PATTERN, end - in);
+		int length = 0;
+		while (length < max && src[candidate + length] == src[in + length]) {
+			length++;
+		}
+		return length;
+	}
+
+	private static void putPattern(byte[] dst, int out, int offset, int length) {
+		if (length <= 15) {
+			// short pattern, the command is the length
+			dst[out] = (byte) ((length << 4) | (offset & 0x0f));
+			dst[out + 1] = (byte) (offset >>> 4);
+		} else {
+			dst[out] = (byte) (0x20 | (offset & 0x0f));
+			dst[out + 1] = (byte) (offset >>> 4);
+			dst[out + 2] = (byte) (length - 16);
+		}
+	}
+
+	private static void putControlBits(byte[] dst, int controlOffset,
+			int controlBits) {
+		if (controlOffset != -1) {
+			dst[controlOffset] = (byte) (controlBits >>> 8);
+			dst[controlOffset + 1] = (byte) controlBits;
+		}
+	}
+
+	private static int hash(byte[] src, int off) {
+		final int value = ((src[off] & 0xff) << 16)
+				| ((src[off + 1] & 0xff) << 8) | (src[off + 2] & 0xff);
+		return (value * 0x9e3779b1) >>> 20;
+	}
+}
@@ -0,0 +1,403 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A pull-style cursor over the rows of a sas7bdat file, as opened by
+ * {@link SasReader#openCursor()}. The cursor is positioned before the first
+ * row; each call to {@link #next()} moves it to the next row that satisfies
+ * the reader's predicates.
+ * 
+ * Values are read directly from the current page, so {@link #getDouble(int)},
+ * {@link #getEpochValue(int)}, {@link #isMissing(int)} and
+ * {@link #getBytes(int, byte[])} do not create any objects. Column indices
+ * refer to the projected columns of the reader (all columns if there is no
+ * projection).
+ * 
+ * @author Kasper Sørensen
+ */
+public final class SasRowCursor implements Closeable {
+
+	private final SasReader _reader;
+	private final SasPageSource _source;
+	private final SasHeader _header;
+	private final SasMetadata _metadata;
+	private final SasPageDecoder _decoder;
+	private final SasRowDecompressor _decompressor;
+	private final int[] _columnOffsets;
+	private final int[] _columnLengths;
+	private final SasColumnType[] _columnTypes;
+	private final SasStringDictionary[] _dictionaries;
+	private final int _rowLength;
+
+	private int _pageNumber;
+	private ByteBuffer _page;
+	private int _pageRowCount;
+	private int _pageRowIndex;
+	private int _nextRowBase;
+	private int _rowBase;
+	private int _rowNumber;
+	private boolean _closed;
+
+	SasRowCursor(SasReader reader, SasPageSource source) throws Exception {
+		_reader = reader;
+		_header = reader.readHeader(source);
+		_source = reader.createReadAheadSource(source, _header);
+		try {
+			final boolean u64 = _header.isU64();
+			final List<SasSubHeader> subHeaders = new ArrayList<SasSubHeader>();
+			ByteBuffer firstDataPage = null;
+			byte firstDataPageType = 0;
+			_pageNumber = 0;
+			while (firstDataPage == null
+					&& _pageNumber < _header.getPageCount()) {
+				final ByteBuffer pageData = readPage();
+				if (pageData == null) {
+					break;
+				}
+				final byte pageType = reader.readPageType(pageData, u64,
+						_pageNumber - 1);
+				if (pageType == 0 || pageType == 2) {
+					reader.readSubHeaders(_source, pageData, u64,
+							subHeaders);
+				}
+				if (pageType == 1
+						|| pageType == 2
+						|| SasRowDecompressor.getRowCount(pageData, pageType,
+								u64, reader.findCompression(subHeaders)) > 0) {
+					firstDataPage = pageData;
+					firstDataPageType = pageType;
+				}
+			}
+
+			_metadata = reader.parseSubHeaders(_header, subHeaders);
+			_decoder = reader.createPageDecoder(_metadata, null);
+			_decompressor = _decoder.createDecompressor();
+			_rowLength = _decoder.getRowLength();
+
+			final int[] projection = _decoder.getProjection();
+			_columnOffsets = new int[projection.length];
+			_columnLengths = new int[projection.length];
+			_columnTypes = new SasColumnType[projection.length];
+			_dictionaries = new SasStringDictionary[projection.length];
+			for (int i = 0; i < projection.length; i++) {
+				_dictionaries[i] = _decoder.getDictionary(projection[i]);
+				final SasColumn column = _metadata.getColumns().get(
+						projection[i]);
+				_columnOffsets[i] = column.getOffset();
+				_columnLengths[i] = column.getLength();
+				_columnTypes[i] = column.getType();
+			}
+
+			_rowBase = -1;
+			_rowNumber = 0;
+			_closed = false;
+			if (firstDataPage != null && !_decoder.isRejectingAll()) {
+				setPage(firstDataPage, firstDataPageType);
+			}
+		} catch (Exception e) {
+			if (_source != source) {
+				// stop reading ahead
+				reader.close(_source);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the metadata of the file.
+	 * 
+	 * @return
+	 */
+	public SasMetadata getMetadata() {
+		return _metadata;
+	}
+
+	/**
+	 * Gets the amount of (projected) columns of the cursor.
+	 * 
+	 * @return
+	 */
+	public int getColumnCount() {
+		return _columnTypes.length;
+	}
+
+	public SasColumnType getColumnType(int column) {
+		return _columnTypes[column];
+	}
+
+	/**
+	 * Moves the cursor to the next row.
+	 * 
+	 * @return true if the cursor is positioned on a row, false if there are no
+	 *         more rows
+	 * @throws SasReaderException
+	 */
+	public boolean next() throws SasReaderException {
+		if (_closed) {
+			throw new IllegalStateException("Cursor is closed");
+		}
+		try {
+			while (_page != null) {
+				while (_pageRowIndex < _pageRowCount) {
+					final int base = _nextRowBase;
+					_pageRowIndex++;
+					_rowNumber++;
+					_nextRowBase = base + _rowLength;
+					if (_decoder.accept(_page, base)) {
+						_rowBase = base;
+						return true;
+					}
+				}
+				readNextDataPage();
+			}
+		} catch (Exception e) {
+			throw _reader.wrapException(e);
+		}
+		_rowBase = -1;
+		return false;
+	}
+
+	/**
+	 * Gets the row number of the current row, which refers to the position
+	 * of the row in the file.
+	 * 
+	 * @return
+	 */
+	public int getRowNumber() {
+		checkRow();
+		return _rowNumber;
+	}
+
+	/**
+	 * Gets the value of a NUMERIC, DATE, DATETIME or TIME column in the
+	 * current row. Values of DATE, DATETIME and TIME columns are relative to
+	 * the SAS epoch.
+	 * 
+	 * @param column
+	 * @return the value, which is NaN for missing and null values
+	 */
+	public double getDouble(int column) {
+		checkRow();
+		if (!_columnTypes[column].isNumeric()) {
+			throw new IllegalArgumentException("Column " + column
+					+ " is not NUMERIC but " + _columnTypes[column]);
+		}
+		final int length = _columnLengths[column];
+		if (length == 0) {
+			return Double.NaN;
+		}
+		return IO.readTruncatedDouble(_page, _rowBase
+				+ _columnOffsets[column], length);
+	}
+
+	/**
+	 * Gets the value of a DATE, DATETIME or TIME column in the current row as
+	 * an epoch value, see {@link SasTemporalValues#EPOCH}.
+	 * 
+	 * @param column
+	 * @return the value, which is 0 for missing and null values
+	 */
+	public long getEpochValue(int column) {
+		final double value = getTemporalValue(column);
+		if (Double.isNaN(value)) {
+			return 0;
+		}
+		return SasDates.toEpochValue(_columnTypes[column], value);
+	}
+
+	/**
+	 * Gets the value of a DATE, DATETIME or TIME column in the current row as
+	 * a date, see {@link SasTemporalValues#DATES}.
+	 * 
+	 * @param column
+	 * @return the value, or null if the value is missing or null
+	 */
+	public Date getDate(int column) {
+		final double value = getTemporalValue(column);
+		if (Double.isNaN(value)) {
+			return null;
+		}
+		return SasDates.toDate(_columnTypes[column], value);
+	}
+
+	private double getTemporalValue(int column) {
+		checkRow();
+		if (!_columnTypes[column].isTemporal()) {
+			throw new IllegalArgumentException("Column " + column
+					+ " is not temporal but " + _columnTypes[column]);
+		}
+		final int length = _columnLengths[column];
+		if (length == 0) {
+			return Double.NaN;
+		}
+		return IO.readTruncatedDouble(_page, _rowBase
+				+ _columnOffsets[column], length);
+	}
+
+	/**
+	 * Determines if the value of a column in the current row is missing. A
+	 * NUMERIC value is missing if it is NaN or null, a CHARACTER value if it
+	 * is null.
+	 * 
+	 * @param column
+	 * @return
+	 */
+	public boolean isMissing(int column) {
+		checkRow();
+		final int length = _columnLengths[column];
+		if (length == 0) {
+			return true;
+		}
+		if (_columnTypes[column].isNumeric()) {
+			return Double.isNaN(IO.readTruncatedDouble(_page, _rowBase
+					+ _columnOffsets[column], length));
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the (trimmed) value of a CHARACTER column in the current row.
+	 * This creates a string, see {@link #getBytes(int, byte[])} for a way to
+	 * read values without doing so.
+	 * 
+	 * @param column
+	 * @return the value, or null if the value is null
+	 */
+	public String getString(int column) {
+		checkRow();
+		checkType(column, SasColumnType.CHARACTER);
+		final int length = _columnLengths[column];
+		if (length == 0) {
+			return null;
+		}
+		final int cellStart = _rowBase + _columnOffsets[column];
+		final int start = IO.trimStart(_page, cellStart, cellStart + length);
+		final int end = IO.trimEnd(_page, start, cellStart + length);
+		if (start == end) {
+			return "";
+		}
+		final SasStringDictionary dictionary = _dictionaries[column];
+		if (dictionary != null) {
+			return dictionary.get(_page, start, end - start);
+		}
+		return _decoder.getCharset().decode(_page, start, end - start);
+	}
+
+	/**
+	 * Copies the encoded bytes of the (trimmed) value of a CHARACTER column in
+	 * the current row.
+	 * 
+	 * @param column
+	 * @param dst
+	 *            the array to copy the bytes to, which should be at least as
+	 *            long as the column
+	 * @return the amount of bytes copied
+	 */
+	public int getBytes(int column, byte[] dst) {
+		checkRow();
+		checkType(column, SasColumnType.CHARACTER);
+		final int cellStart = _rowBase + _columnOffsets[column];
+		final int cellEnd = cellStart + _columnLengths[column];
+		final int start = IO.trimStart(_page, cellStart, cellEnd);
+		final int end = IO.trimEnd(_page, start, cellEnd);
+		final int length = end - start;
+		if (dst.length < length) {
+			throw new IllegalArgumentException("Value of column " + column
+					+ " is " + length + " bytes, destination is only "
+					+ dst.length);
+		}
+		for (int i = 0; i < length; i++) {
+			dst[i] = _page.get(start + i);
+		}
+		return length;
+	}
+
+	/**
+	 * Closes the cursor and the underlying page source.
+	 */
+	@Override
+	public void close() {
+		if (!_closed) {
+			_closed = true;
+			_page = null;
+			_rowBase = -1;
+			_reader.close(_source);
+		}
+	}
+
+	private ByteBuffer readPage() throws Exception {
+		final int pageSize = _header.getPageSize();
+		final ByteBuffer pageData = _source.read(pageSize);
+		_pageNumber++;
+		if (pageData == null || pageData.limit() < pageSize) {
+			return null;
+		}
+		return pageData;
+	}
+
+	private void readNextDataPage() throws Exception {
+		_page = null;
+		_rowBase = -1;
+		while (_pageNumber < _header.getPageCount()) {
+			final ByteBuffer pageData = readPage();
+			if (pageData == null) {
+				return;
+			}
+			final byte pageType = _reader.readPageType(pageData,
+					_header.isU64(), _pageNumber - 1);
+			if (pageType == 1 || pageType == 2
+					|| _decoder.isCompressed(pageData, pageType)) {
+				setPage(pageData, pageType);
+				return;
+			}
+		}
+	}
+
+	private void setPage(ByteBuffer page, byte pageType) {
+		if (pageType != 1 && _decoder.isCompressed(page, pageType)) {
+			page = _decompressor.decompress(page);
+			pageType = 1;
+		}
+		_page = page;
+		_pageRowCount = _decoder.getRowCount(page, pageType);
+		_pageRowIndex = 0;
+		_nextRowBase = _decoder.getRowOffset(page, pageType);
+	}
+
+	private void checkRow() {
+		if (_rowBase == -1) {
+			throw new IllegalStateException("Cursor is not positioned on a row");
+		}
+	}
+
+	private void checkType(int column, SasColumnType type) {
+		if (_columnTypes[column] != type) {
+			throw new IllegalArgumentException("Column " + column
+					+ " is not " + type + " but " + _columnTypes[column]);
+		}
+	}
+}
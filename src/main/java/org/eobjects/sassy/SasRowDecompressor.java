@@ -0,0 +1,414 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Decompresses the rows of compressed sas7bdat files. Such files do not have
+ * data pages, instead every row is stored in a sub header of its own, which is
+ * compressed with either run length encoding ({@link SasCompression#CHAR}) or
+ * Ross Data Compression ({@link SasCompression#BINARY}), or is stored as is if
+ * compression did not make it any shorter.
+ * 
+ * The rows of a page are decompressed into a reused buffer that is laid out
+ * like an uncompressed data page, so that it can be decoded by the
+ * {@link SasPageDecoder} like any other data page. Instances are not
+ * thread-safe.
+ * 
+ * @author Kasper Sørensen
+ */
+final class SasRowDecompressor {
+
+	private static final byte SUBHEADER_TRUNCATED = 1;
+	private static final byte SUBHEADER_COMPRESSED = 4;
+	private static final byte SUBHEADER_TYPE_ROW = 1;
+
+	private final boolean _u64;
+	private final SasCompression _compression;
+	private final int _rowLength;
+	private final int _rowOffset;
+	private ByteBuffer _page;
+
+	public SasRowDecompressor(boolean u64, SasCompression compression,
+			int rowLength) {
+		_u64 = u64;
+		_compression = compression;
+		_rowLength = rowLength;
+		// the offset of the first row on a data page, see
+		// SasPageDecoder.getRowOffset(...)
+		_rowOffset = u64 ? 40 : 24;
+		_page = ByteBuffer.allocate(_rowOffset).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Determines if a sub header pointer points to a truncated sub header,
+	 * which should be ignored.
+	 * 
+	 * @param page
+	 * @param pointer
+	 *            the offset of the sub header pointer within the page
+	 * @param u64
+	 * @return
+	 */
+	public static boolean isTruncated(ByteBuffer page, int pointer,
+			boolean u64) {
+		return page.get(pointer + (u64 ? 16 : 8)) == SUBHEADER_TRUNCATED;
+	}
+
+	/**
+	 * Determines if a sub header pointer points to a row, rather than to
+	 * metadata.
+	 * 
+	 * @param page
+	 * @param pointer
+	 *            the offset of the sub header pointer within the page
+	 * @param u64
+	 * @param compression
+	 *            the compression of the file
+	 * @return
+	 */
+	public static boolean isRow(ByteBuffer page, int pointer, boolean u64,
+			SasCompression compression) {
+		final int flagsOffset = pointer + (u64 ? 16 : 8);
+		final byte subHeaderCompression = page.get(flagsOffset);
+		if (subHeaderCompression == SUBHEADER_COMPRESSED) {
+			return true;
+		}
+		if (subHeaderCompression != 0 || compression == SasCompression.NONE
+				|| page.get(flagsOffset + 1) != SUBHEADER_TYPE_ROW) {
+			return false;
+		}
+		// an uncompressed row in a compressed file, unless the sub header
+		// has a metadata signature
+		final int offset = readPointerField(page, pointer, u64);
+		final int signature = page.getInt(offset);
+		return signature != 0xf7f7f7f7 && signature != 0xf6f6f6f6
+				&& signature != 0xfffffc00 && (signature & 0xfffff000) != 0xfffff000;
+	}
+
+	/**
+	 * Reads the offset or length field of a sub header pointer, which is 8
+	 * bytes wide in 64 bit files and 4 bytes wide otherwise.
+	 * 
+	 * @param page
+	 * @param offset
+	 *            the offset of the field within the page
+	 * @param u64
+	 * @return
+	 */
+	private static int readPointerField(ByteBuffer page, int offset,
+			boolean u64) {
+		return u64 ? (int) page.getLong(offset) : IO.readInt(page, offset);
+	}
+
+	/**
+	 * Gets the amount of rows stored in the sub headers of a page.
+	 * 
+	 * @param page
+	 * @param pageType
+	 * @param u64
+	 * @param compression
+	 *            the compression of the file
+	 * @return
+	 */
+	public static int getRowCount(ByteBuffer page, byte pageType,
+			boolean u64, SasCompression compression) {
+		if (compression == SasCompression.NONE
+				|| (pageType != 0 && pageType != 2 && pageType != 4)) {
+			return 0;
+		}
+		final int subHeaderCount = IO.readInt(page, u64 ? 36 : 20);
+		final int pointerOffset = u64 ? 40 : 24;
+		final int pointerLength = u64 ? 24 : 12;
+		int rowCount = 0;
+		for (int i = 0; i < subHeaderCount; i++) {
+			if (isRow(page, pointerOffset + i * pointerLength, u64,
+					compression)) {
+				rowCount++;
+			}
+		}
+		return rowCount;
+	}
+
+	/**
+	 * Decompresses the rows stored in the sub headers of a page.
+	 * 
+	 * @param page
+	 * @return a data page with the decompressed rows, which is overwritten by
+	 *         the next call
+	 */
+	public ByteBuffer decompress(ByteBuffer page) {
+		final int subHeaderCount = IO.readInt(page, _u64 ? 36 : 20);
+		final int pointerOffset = _u64 ? 40 : 24;
+		final int pointerLength = _u64 ? 24 : 12;
+		final int fieldLength = _u64 ? 8 : 4;
+
+		int rowCount = 0;
+		for (int i = 0; i < subHeaderCount; i++) {
+			if (isRow(page, pointerOffset + i * pointerLength, _u64,
+					_compression)) {
+				rowCount++;
+			}
+		}
+
+		final int length = _rowOffset + rowCount * _rowLength;
+		if (_page.capacity() < length) {
+			_page = ByteBuffer.allocate(Math.max(length,
+					_page.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		final byte[] data = _page.array();
+
+		int base = _rowOffset;
+		for (int i = 0; i < subHeaderCount; i++) {
+			final int pointer = pointerOffset + i * pointerLength;
+			if (!isRow(page, pointer, _u64, _compression)) {
+				continue;
+			}
+			final int offset = readPointerField(page, pointer, _u64);
+			final int subHeaderLength = readPointerField(page, pointer
+					+ fieldLength, _u64);
+			final boolean compressed = page.get(pointer + 2 * fieldLength) == SUBHEADER_COMPRESSED
+					&& subHeaderLength < _rowLength;
+			final int decompressed;
+			if (!compressed) {
+				decompressed = copy(page, offset, subHeaderLength, data, base,
+						_rowLength);
+			} else if (_compression == SasCompression.BINARY) {
+				decompressed = decompressRdc(page, offset, subHeaderLength,
+						data, base, _rowLength);
+			} else {
+				decompressed = decompressRle(page, offset, subHeaderLength,
+						data, base, _rowLength);
+			}
+			if (decompressed != _rowLength) {
+				throw new SasReaderException("Row sub header of "
+						+ subHeaderLength + " bytes holds " + decompressed
+						+ " bytes, expected row length " + _rowLength);
+			}
+			base += _rowLength;
+		}
+
+		Arrays.fill(data, 0, _rowOffset, (byte) 0);
+		_page.put(_u64 ? 33 : 17, (byte) 1);
+		_page.putInt(_u64 ? 34 : 18, rowCount);
+		_page.limit(length);
+		return _page;
+	}
+
+	private static int copy(ByteBuffer src, int off, int len, byte[] dst,
+			int dstOff, int dstLen) {
+		checkOutput(dstOff, dstLen, dstOff + len);
+		copyBytes(src, off, dst, dstOff, len);
+		return len;
+	}
+
+	/**
+	 * Decompresses run length encoded (SASYZCRL) data.
+	 * 
+	 * @param src
+	 * @param off
+	 * @param len
+	 * @param dst
+	 * @param dstOff
+	 * @param dstLen
+	 *            the maximum amount of bytes to decompress
+	 * @return the amount of decompressed bytes
+	 */
+	public static int decompressRle(ByteBuffer src, int off, int len,
+			byte[] dst, int dstOff, int dstLen) {
+		final int end = off + len;
+		int in = off;
+		int out = dstOff;
+		while (in < end) {
+			final int control = src.get(in++) & 0xff;
+			final int command = control >>> 4;
+			final int length = control & 0x0f;
+			int copy = 0;
+			int insert = 0;
+			byte insertByte = 0;
+			switch (command) {
+			case 0:
+				copy = (src.get(in++) & 0xff) + 64 + length * 256;
+				break;
+			case 1:
+				copy = (src.get(in++) & 0xff) + 64 + length * 256 + 4096;
+				break;
+			case 2:
+				copy = length + 96;
+				break;
+			case 4:
+				insert = (src.get(in++) & 0xff) + 18 + length * 256;
+				insertByte = src.get(in++);
+				break;
+			case 5:
+				insert = (src.get(in++) & 0xff) + 17 + length * 256;
+				insertByte = '@';
+				break;
+			case 6:
+				insert = (src.get(in++) & 0xff) + 17 + length * 256;
+				insertByte = ' ';
+				break;
+			case 7:
+				insert = (src.get(in++) & 0xff) + 17 + length * 256;
+				break;
+			case 8:
+				copy = length + 1;
+				break;
+			case 9:
+				copy = length + 17;
+				break;
+			case 10:
+				copy = length + 33;
+				break;
+			case 11:
+				copy = length + 49;
+				break;
+			case 12:
+				insert = length + 3;
+				insertByte = src.get(in++);
+				break;
+			case 13:
+				insert = length + 2;
+				insertByte = '@';
+				break;
+			case 14:
+				insert = length + 2;
+				insertByte = ' ';
+				break;
+			case 15:
+				insert = length + 2;
+				break;
+			default:
+				throw new SasReaderException("Unknown RLE command " + command
+						+ " at offset " + (in - 1));
+			}
+			if (copy > 0) {
+				if (in + copy > end) {
+					throw new SasReaderException("RLE copy of " + copy
+							+ " bytes exceeds the compressed data");
+				}
+				checkOutput(dstOff, dstLen, out + copy);
+				copyBytes(src, in, dst, out, copy);
+				in += copy;
+				out += copy;
+			} else {
+				checkOutput(dstOff, dstLen, out + insert);
+				Arrays.fill(dst, out, out + insert, insertByte);
+				out += insert;
+			}
+		}
+		return out - dstOff;
+	}
+
+	/**
+	 * Decompresses Ross Data Compressed (SASYZCR2) data.
+	 * 
+	 * @param src
+	 * @param off
+	 * @param len
+	 * @param dst
+	 * @param dstOff
+	 * @param dstLen
+	 *            the maximum amount of bytes to decompress
+	 * @return the amount of decompressed bytes
+	 */
+	public static int decompressRdc(ByteBuffer src, int off, int len,
+			byte[] dst, int dstOff, int dstLen) {
+		final int end = off + len;
+		int in = off;
+		int out = dstOff;
+		int controlBits = 0;
+		int controlMask = 0;
+		while (in < end) {
+			controlMask = controlMask >>> 1;
+			if (controlMask == 0) {
+				controlBits = ((src.get(in) & 0xff) << 8)
+						| (src.get(in + 1) & 0xff);
+				in += 2;
+				controlMask = 0x8000;
+				if (in >= end) {
+					break;
+				}
+			}
+			if ((controlBits & controlMask) == 0) {
+				// a literal byte
+				checkOutput(dstOff, dstLen, out + 1);
+				dst[out++] = src.get(in++);
+				continue;
+			}
+			final int command = (src.get(in) >>> 4) & 0x0f;
+			int count = src.get(in++) & 0x0f;
+			if (command == 0) {
+				// short run
+				count += 3;
+				checkOutput(dstOff, dstLen, out + count);
+				Arrays.fill(dst, out, out + count, src.get(in++));
+				out += count;
+			} else if (command == 1) {
+				// long run
+				count += (src.get(in++) & 0xff) << 4;
+				count += 19;
+				checkOutput(dstOff, dstLen, out + count);
+				Arrays.fill(dst, out, out + count, src.get(in++));
+				out += count;
+			} else {
+				// a pattern, copied from earlier output
+				final int offset = count + 3 + ((src.get(in++) & 0xff) << 4);
+				if (command == 2) {
+					count = (src.get(in++) & 0xff) + 16;
+				} else {
+					count = command;
+				}
+				if (offset > out - dstOff) {
+					throw new SasReaderException("RDC pattern offset "
+							+ offset + " precedes the decompressed data");
+				}
+				checkOutput(dstOff, dstLen, out + count);
+				for (int i = 0; i < count; i++) {
+					dst[out] = dst[out - offset];
+					out++;
+				}
+			}
+		}
+		return out - dstOff;
+	}
+
+	private static void checkOutput(int dstOff, int dstLen, int end) {
+		if (end > dstOff + dstLen) {
+			throw new SasReaderException("Decompressed row exceeds "
+					+ dstLen + " bytes");
+		}
+	}
+
+	private static void copyBytes(ByteBuffer src, int off, byte[] dst,
+			int dstOff, int len) {
+		if (src.hasArray()) {
+			System.arraycopy(src.array(), src.arrayOffset() + off, dst,
+					dstOff, len);
+		} else {
+			for (int i = 0; i < len; i++) {
+				dst[dstOff + i] = src.get(off + i);
+			}
+		}
+	}
+}
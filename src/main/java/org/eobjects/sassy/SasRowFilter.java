@@ -0,0 +1,382 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.eobjects.sassy.SasPredicate.Operator;
+
+/**
+ * Evaluates a conjunction of {@link SasPredicate}s on the raw bytes of rows.
+ * NUMERIC cells are compared as primitive doubles (as are DATE, DATETIME and
+ * TIME cells, whose date operands are converted to SAS values up front) and
+ * CHARACTER cells are mostly compared byte by byte (after trimming), so rows
+ * are only decoded if they pass the filter. A filter holds no mutable state
+ * and can be shared between threads.
+ * 
+ * @author Kasper Sørensen
+ */
+final class SasRowFilter {
+
+	private static final Condition ALWAYS = new Condition(0, 0) {
+		@Override
+		public boolean matches(ByteBuffer page, int base) {
+			return true;
+		}
+	};
+
+	private static final Condition NEVER = new Condition(0, 0) {
+		@Override
+		public boolean matches(ByteBuffer page, int base) {
+			return false;
+		}
+	};
+
+	private final Condition[] _conditions;
+	private final boolean _rejectingAll;
+
+	public SasRowFilter(SasMetadata metadata, List<SasPredicate> predicates) {
+		final List<Condition> conditions = new ArrayList<Condition>(
+				predicates.size());
+		boolean rejectingAll = false;
+		final SasCharset charset = SasCharset.get(metadata.getEncoding());
+		for (SasPredicate predicate : predicates) {
+			final SasColumn column = getColumn(metadata, predicate);
+			final Condition condition = createCondition(column, predicate,
+					charset);
+			if (condition == NEVER) {
+				rejectingAll = true;
+			} else if (condition != ALWAYS) {
+				conditions.add(condition);
+			}
+		}
+		_conditions = conditions.toArray(new Condition[conditions.size()]);
+		_rejectingAll = rejectingAll;
+	}
+
+	/**
+	 * Determines if the predicates cannot be satisfied by any row, eg.
+	 * because they compare a column of length 0 (which only holds nulls) to a
+	 * value.
+	 * 
+	 * @return
+	 */
+	public boolean isRejectingAll() {
+		return _rejectingAll;
+	}
+
+	/**
+	 * Determines if a row satisfies all predicates.
+	 * 
+	 * @param page
+	 * @param base
+	 *            the offset of the row within the page
+	 * @return
+	 */
+	public boolean matches(ByteBuffer page, int base) {
+		if (_rejectingAll) {
+			return false;
+		}
+		for (Condition condition : _conditions) {
+			if (!condition.matches(page, base)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static SasColumn getColumn(SasMetadata metadata,
+			SasPredicate predicate) {
+		final String columnName = predicate.getColumnName();
+		if (columnName != null) {
+			final SasColumn column = metadata.getColumn(columnName);
+			if (column == null) {
+				throw new SasReaderException("No such column: " + columnName);
+			}
+			return column;
+		}
+		final int columnIndex = predicate.getColumnIndex();
+		if (columnIndex >= metadata.getColumnCount()) {
+			throw new SasReaderException("Predicate column index "
+					+ columnIndex + " out of range, column count is "
+					+ metadata.getColumnCount());
+		}
+		return metadata.getColumns().get(columnIndex);
+	}
+
+	private static Condition createCondition(SasColumn column,
+			SasPredicate predicate, SasCharset charset) {
+		final Operator operator = predicate.getOperator();
+		final int offset = column.getOffset();
+		final int length = column.getLength();
+
+		if (length <= 0) {
+			// values of empty columns are always null
+			if (operator == Operator.IS_NULL
+					|| operator == Operator.DIFFERENT_FROM) {
+				return ALWAYS;
+			}
+			return NEVER;
+		}
+
+		switch (operator) {
+		case IS_NULL:
+			return NEVER;
+		case IS_NOT_NULL:
+			return ALWAYS;
+		default:
+			break;
+		}
+
+		final Object[] operands = predicate.getOperandsInternal();
+
+		final SasColumnType type = column.getType();
+		if (type.isNumeric()) {
+			if (operator == Operator.STARTS_WITH) {
+				throw new SasReaderException("STARTS_WITH cannot be applied to "
+						+ type + " column: " + column.getName());
+			}
+			final double[] values = new double[operands.length];
+			for (int i = 0; i < values.length; i++) {
+				if (operands[i] instanceof Number) {
+					values[i] = ((Number) operands[i]).doubleValue();
+				} else if (type.isTemporal() && operands[i] instanceof Date) {
+					values[i] = SasDates.toSasValue(type, (Date) operands[i]);
+				} else {
+					throw new SasReaderException("Operand of predicate on "
+							+ type + " column " + column.getName()
+							+ " is not a number"
+							+ (type.isTemporal() ? " or date" : "") + ": "
+							+ operands[i]);
+				}
+			}
+			if (operator == Operator.IN) {
+				Arrays.sort(values);
+				return new NumericInCondition(offset, length, values);
+			}
+			return new NumericCondition(offset, length, operator, values[0]);
+		}
+
+		for (Object operand : operands) {
+			if (!(operand instanceof String)) {
+				throw new SasReaderException("Operand of predicate on "
+						+ "CHARACTER column " + column.getName()
+						+ " is not a string: " + operand);
+			}
+		}
+
+		switch (operator) {
+		case EQUALS_TO:
+		case DIFFERENT_FROM: {
+			final boolean negated = (operator == Operator.DIFFERENT_FROM);
+			final byte[] bytes = charset.encode((String) operands[0]);
+			if (bytes == null) {
+				// no cell can hold this value
+				return negated ? ALWAYS : NEVER;
+			}
+			return new CharacterEqualsCondition(offset, length,
+					new byte[][] { bytes }, negated);
+		}
+		case IN: {
+			final List<byte[]> values = new ArrayList<byte[]>(
+					operands.length);
+			for (Object operand : operands) {
+				final byte[] bytes = charset.encode((String) operand);
+				if (bytes != null) {
+					values.add(bytes);
+				}
+			}
+			if (values.isEmpty()) {
+				return NEVER;
+			}
+			return new CharacterEqualsCondition(offset, length,
+					values.toArray(new byte[values.size()][]), false);
+		}
+		case STARTS_WITH: {
+			final byte[] bytes = charset.encode((String) operands[0]);
+			if (bytes == null) {
+				return NEVER;
+			}
+			return new CharacterPrefixCondition(offset, length, bytes);
+		}
+		default:
+			return new CharacterCompareCondition(offset, length, operator,
+					(String) operands[0], charset);
+		}
+	}
+
+	private static boolean startsWith(ByteBuffer page, int start, byte[] bytes) {
+		for (int i = 0; i < bytes.length; i++) {
+			if (page.get(start + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static abstract class Condition {
+
+		protected final int _offset;
+		protected final int _length;
+
+		public Condition(int offset, int length) {
+			_offset = offset;
+			_length = length;
+		}
+
+		public abstract boolean matches(ByteBuffer page, int base);
+	}
+
+	private static final class NumericCondition extends Condition {
+
+		private final Operator _operator;
+		private final double _operand;
+
+		public NumericCondition(int offset, int length, Operator operator,
+				double operand) {
+			super(offset, length);
+			_operator = operator;
+			_operand = operand;
+		}
+
+		@Override
+		public boolean matches(ByteBuffer page, int base) {
+			final double value = IO.readTruncatedDouble(page, base + _offset,
+					_length);
+			final int comparison = Double.compare(value, _operand);
+			switch (_operator) {
+			case EQUALS_TO:
+				return comparison == 0;
+			case DIFFERENT_FROM:
+				return comparison != 0;
+			case LESS_THAN:
+				return comparison < 0;
+			case GREATER_THAN:
+				return comparison > 0;
+			default:
+				throw new IllegalStateException("Unexpected operator: "
+						+ _operator);
+			}
+		}
+	}
+
+	private static final class NumericInCondition extends Condition {
+
+		private final double[] _sortedOperands;
+
+		public NumericInCondition(int offset, int length,
+				double[] sortedOperands) {
+			super(offset, length);
+			_sortedOperands = sortedOperands;
+		}
+
+		@Override
+		public boolean matches(ByteBuffer page, int base) {
+			final double value = IO.readTruncatedDouble(page, base + _offset,
+					_length);
+			return Arrays.binarySearch(_sortedOperands, value) >= 0;
+		}
+	}
+
+	private static final class CharacterEqualsCondition extends Condition {
+
+		private final byte[][] _operands;
+		private final boolean _negated;
+
+		public CharacterEqualsCondition(int offset, int length,
+				byte[][] operands, boolean negated) {
+			super(offset, length);
+			_operands = operands;
+			_negated = negated;
+		}
+
+		@Override
+		public boolean matches(ByteBuffer page, int base) {
+			final int cellStart = base + _offset;
+			final int cellEnd = cellStart + _length;
+			final int start = IO.trimStart(page, cellStart, cellEnd);
+			final int end = IO.trimEnd(page, start, cellEnd);
+			final int length = end - start;
+			for (byte[] operand : _operands) {
+				if (operand.length == length && startsWith(page, start, operand)) {
+					return !_negated;
+				}
+			}
+			return _negated;
+		}
+	}
+
+	private static final class CharacterPrefixCondition extends Condition {
+
+		private final byte[] _prefix;
+
+		public CharacterPrefixCondition(int offset, int length, byte[] prefix) {
+			super(offset, length);
+			_prefix = prefix;
+		}
+
+		@Override
+		public boolean matches(ByteBuffer page, int base) {
+			final int cellStart = base + _offset;
+			final int cellEnd = cellStart + _length;
+			final int start = IO.trimStart(page, cellStart, cellEnd);
+			if (cellEnd - start < _prefix.length) {
+				return false;
+			}
+			if (!startsWith(page, start, _prefix)) {
+				return false;
+			}
+			// the prefix must not end with characters that are trimmed
+			return IO.trimEnd(page, start, cellEnd) >= start + _prefix.length;
+		}
+	}
+
+	/**
+	 * Compares CHARACTER values by their natural string order, which (unlike
+	 * equality) cannot be determined from the encoded bytes, so the cell is
+	 * decoded.
+	 */
+	private static final class CharacterCompareCondition extends Condition {
+
+		private final boolean _lessThan;
+		private final String _operand;
+		private final SasCharset _charset;
+
+		public CharacterCompareCondition(int offset, int length,
+				Operator operator, String operand, SasCharset charset) {
+			super(offset, length);
+			_lessThan = (operator == Operator.LESS_THAN);
+			_operand = operand;
+			_charset = charset;
+		}
+
+		@Override
+		public boolean matches(ByteBuffer page, int base) {
+			final String value = _charset.decode(page, base + _offset,
+					_length).trim();
+			final int comparison = value.compareTo(_operand);
+			return _lessThan ? comparison < 0 : comparison > 0;
+		}
+	}
+}
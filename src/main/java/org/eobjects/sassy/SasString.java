@@ -0,0 +1,190 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The value of a CHARACTER cell, kept as its encoded (and trimmed) bytes. The
+ * bytes are only decoded when the characters are first needed, e.g. by
+ * {@link #toString()} or {@link #charAt(int)}, so values that are only
+ * checked for emptiness, compared or passed on are never decoded.
+ * 
+ * Values are handed out by a {@link SasReader} with lazy strings enabled, see
+ * {@link SasReader#setLazyStrings(boolean)}.
+ * 
+ * @author Kasper Sørensen
+ */
+public final class SasString implements CharSequence {
+
+	/**
+	 * The empty (or blank) value
+	 */
+	public static final SasString EMPTY = new SasString(new byte[0], null);
+
+	private final byte[] _bytes;
+	private final SasCharset _charset;
+	private String _string;
+
+	SasString(byte[] bytes, SasCharset charset) {
+		_bytes = bytes;
+		_charset = charset;
+		if (bytes.length == 0) {
+			_string = "";
+		}
+	}
+
+	/**
+	 * Gets the charset of the encoded bytes.
+	 * 
+	 * @return the charset, or null for the {@link #EMPTY} value
+	 */
+	public Charset getEncoding() {
+		return _charset == null ? null : _charset.getCharset();
+	}
+
+	/**
+	 * Determines if the value is empty, without decoding it.
+	 * 
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return _bytes.length == 0;
+	}
+
+	/**
+	 * Gets the amount of encoded bytes of the value, without decoding it.
+	 * 
+	 * @return
+	 */
+	public int getByteLength() {
+		return _bytes.length;
+	}
+
+	/**
+	 * Gets a copy of the encoded bytes of the value.
+	 * 
+	 * @return
+	 */
+	public byte[] getBytes() {
+		return _bytes.clone();
+	}
+
+	/**
+	 * Copies the encoded bytes of the value.
+	 * 
+	 * @param dst
+	 * @param dstOff
+	 * @return the amount of bytes copied
+	 */
+	public int getBytes(byte[] dst, int dstOff) {
+		System.arraycopy(_bytes, 0, dst, dstOff, _bytes.length);
+		return _bytes.length;
+	}
+
+	/**
+	 * Determines if the value has the same characters as a string. ASCII
+	 * strings are compared without decoding the value, if the charset allows
+	 * it.
+	 * 
+	 * @param str
+	 * @return
+	 */
+	public boolean contentEquals(CharSequence str) {
+		if (str instanceof SasString) {
+			return equals(str);
+		}
+		if (_charset == null) {
+			return str.length() == 0;
+		}
+		if (!_charset.isAsciiCompatible()) {
+			return toString().contentEquals(str);
+		}
+		final int length = str.length();
+		if (length == _bytes.length) {
+			int i = 0;
+			while (i < length && str.charAt(i) < 0x80
+					&& str.charAt(i) == _bytes[i]) {
+				i++;
+			}
+			if (i == length) {
+				return true;
+			}
+			if (str.charAt(i) < 0x80 && _bytes[i] >= 0) {
+				// an ASCII character that differs
+				return false;
+			}
+		} else if (length > _bytes.length) {
+			// a character is encoded as at least one byte
+			return false;
+		}
+		return toString().contentEquals(str);
+	}
+
+	@Override
+	public int length() {
+		return toString().length();
+	}
+
+	@Override
+	public char charAt(int index) {
+		return toString().charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().subSequence(start, end);
+	}
+
+	@Override
+	public String toString() {
+		String string = _string;
+		if (string == null) {
+			// racing threads may decode twice, which is harmless
+			string = _charset.decode(_bytes, 0, _bytes.length);
+			_string = string;
+		}
+		return string;
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(_bytes);
+	}
+
+	/**
+	 * Two values are equal if they have the same encoded bytes in the same
+	 * charset. Use
+	 * {@link #contentEquals(CharSequence)} to compare with a string.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj instanceof SasString) {
+			final SasString other = (SasString) obj;
+			return Arrays.equals(_bytes, other._bytes)
+					&& (_bytes.length == 0 || _charset == other._charset);
+		}
+		return false;
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Maps the encoded bytes of CHARACTER values to canonical strings, so that
+ * the repeated values of a low cardinality column are only decoded and
+ * allocated once. A dictionary holds a bounded amount of values. When a
+ * column turns out to have more distinct values than that, the dictionary
+ * disables itself and values are decoded as usual.
+ * 
+ * Lookups are lock free, so a dictionary can be shared by the threads that
+ * decode pages in parallel.
+ * 
+ * @author Kasper Sørensen
+ */
+final class SasStringDictionary {
+
+	/**
+	 * An immutable entry, which is safely published through its final fields
+	 */
+	private static final class Entry {
+		final int hash;
+		final byte[] key;
+		final String value;
+
+		Entry(int hash, byte[] key, String value) {
+			this.hash = hash;
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * The largest supported dictionary size
+	 */
+	public static final int MAX_SIZE = 1 << 24;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final int _maxSize;
+	private final SasCharset _charset;
+	private volatile Entry[] _entries;
+	private int _size;
+
+	/**
+	 * Creates a dictionary
+	 * 
+	 * @param maxSize
+	 *            the maximum amount of distinct values
+	 * @param charset
+	 */
+	public SasStringDictionary(int maxSize, SasCharset charset) {
+		if (maxSize < 1 || maxSize > MAX_SIZE) {
+			throw new IllegalArgumentException(
+					"Dictionary size must be between 1 and " + MAX_SIZE + ": "
+							+ maxSize);
+		}
+		_maxSize = maxSize;
+		_charset = charset;
+		// grown as values are added, since most columns turn out to have
+		// far fewer distinct values than the maximum (or far more)
+		_entries = new Entry[Math.min(INITIAL_CAPACITY,
+				Integer.highestOneBit(maxSize) * 4)];
+	}
+
+	/**
+	 * Gets the string of a value, decoding and adding it if the dictionary
+	 * does not hold it yet.
+	 * 
+	 * @param buffer
+	 * @param off
+	 * @param len
+	 *            the length of the (trimmed) value
+	 * @return
+	 */
+	public String get(ByteBuffer buffer, int off, int len) {
+		final Entry[] entries = _entries;
+		if (entries == null) {
+			return _charset.decode(buffer, off, len);
+		}
+		final int hash = hash(buffer, off, len);
+		final Entry entry = find(entries, hash, buffer, off, len);
+		if (entry != null) {
+			return entry.value;
+		}
+		return add(hash, buffer, off, len);
+	}
+
+	/**
+	 * Determines if the dictionary has given up on its column because it has
+	 * too many distinct values.
+	 * 
+	 * @return
+	 */
+	public boolean isDisabled() {
+		return _entries == null;
+	}
+
+	public synchronized int size() {
+		return _size;
+	}
+
+	public int getMaxSize() {
+		return _maxSize;
+	}
+
+	private synchronized String add(int hash, ByteBuffer buffer, int off,
+			int len) {
+		final Entry[] entries = _entries;
+		if (entries == null) {
+			return _charset.decode(buffer, off, len);
+		}
+		// another thread may have added the value in the meantime
+		final Entry existing = find(entries, hash, buffer, off, len);
+		if (existing != null) {
+			return existing.value;
+		}
+		final String value = _charset.decode(buffer, off, len);
+		if (_size == _maxSize) {
+			// a high cardinality column, let go of the entries
+			_entries = null;
+			return value;
+		}
+		final byte[] key = new byte[len];
+		for (int i = 0; i < len; i++) {
+			key[i] = buffer.get(off + i);
+		}
+		final Entry entry = new Entry(hash, key, value);
+		_size++;
+		// a load factor of at most 0.5 keeps probe sequences short
+		if (_size * 2 > entries.length) {
+			final Entry[] grownEntries = new Entry[entries.length * 2];
+			for (Entry existingEntry : entries) {
+				if (existingEntry != null) {
+					insert(grownEntries, existingEntry);
+				}
+			}
+			insert(grownEntries, entry);
+			// published once complete, lookups use either table
+			_entries = grownEntries;
+		} else {
+			insert(entries, entry);
+		}
+		return value;
+	}
+
+	private static void insert(Entry[] entries, Entry entry) {
+		final int mask = entries.length - 1;
+		int slot = entry.hash & mask;
+		while (entries[slot] != null) {
+			slot = (slot + 1) & mask;
+		}
+		entries[slot] = entry;
+	}
+
+	private static Entry find(Entry[] entries, int hash, ByteBuffer buffer,
+			int off, int len) {
+		final int mask = entries.length - 1;
+		for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+			final Entry entry = entries[slot];
+			if (entry == null) {
+				return null;
+			}
+			if (entry.hash == hash && equals(entry.key, buffer, off, len)) {
+				return entry;
+			}
+		}
+	}
+
+	private static boolean equals(byte[] key, ByteBuffer buffer, int off,
+			int len) {
+		if (key.length != len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (key[i] != buffer.get(off + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash(ByteBuffer buffer, int off, int len) {
+		int hash = len;
+		if (buffer.hasArray()) {
+			final byte[] array = buffer.array();
+			final int start = buffer.arrayOffset() + off;
+			for (int i = 0; i < len; i++) {
+				hash = 31 * hash + array[start + i];
+			}
+		} else {
+			for (int i = 0; i < len; i++) {
+				hash = 31 * hash + buffer.get(off + i);
+			}
+		}
+		// spread the bits, since the low bits select the slot
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -19,6 +19,8 @@
  */
 package org.eobjects.sassy;
 
+import java.nio.ByteBuffer;
+
 /**
  * Represents a "sub header" of a sas7bdat file.
  * 
@@ -26,10 +28,10 @@ package org.eobjects.sassy;
  */
 final class SasSubHeader {
 
-	private final byte[] _rawData;
+	private final ByteBuffer _rawData;
 	private final byte[] _signatureData;
 
-	public SasSubHeader(byte[] rawData, byte[] signatureData) {
+	public SasSubHeader(ByteBuffer rawData, byte[] signatureData) {
 		_rawData = rawData;
 		_signatureData = signatureData;
 	}
@@ -38,7 +40,13 @@ final class SasSubHeader {
 		return _signatureData;
 	}
 
-	public byte[] getRawData() {
+	/**
+	 * Gets the raw data of the sub header, as a little endian buffer. Depending
+	 * on the page source this may be a view directly into the file mapping.
+	 * 
+	 * @return
+	 */
+	public ByteBuffer getRawData() {
 		return _rawData;
 	}
 }
@@ -0,0 +1,51 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+/**
+ * Represents how the values of DATE, DATETIME and TIME columns are delivered
+ * in rows. SAS dates and times carry no time zone, so they are converted as
+ * if they were UTC.
+ * 
+ * @see SasReader#setTemporalValues(SasTemporalValues)
+ * 
+ * @author Kasper Sørensen
+ */
+public enum SasTemporalValues {
+
+	/**
+	 * Values are delivered as stored, as Doubles holding days (DATE) or
+	 * seconds (DATETIME and TIME) since the SAS epoch, 1960-01-01
+	 */
+	NUMBERS,
+
+	/**
+	 * Values are delivered as Longs holding days since 1970-01-01 (DATE),
+	 * milliseconds since 1970-01-01 00:00 (DATETIME) or milliseconds since
+	 * midnight (TIME). Missing values are delivered as null.
+	 */
+	EPOCH,
+
+	/**
+	 * Values are delivered as {@link java.util.Date}s, with TIME values on
+	 * 1970-01-01. Missing values are delivered as null.
+	 */
+	DATES;
+}
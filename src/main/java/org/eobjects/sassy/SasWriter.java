@@ -0,0 +1,832 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Writes sas7bdat files in the 32 bit, little endian layout that
+ * {@link SasReader} reads: the file header, meta pages with the ROWSIZE,
+ * COLSIZE, COLTEXT, COLNAME, COLATTR and column format/label sub headers, and
+ * then uncompressed data pages.
+ * 
+ * Rows are streamed to disk a page at a time, so the memory used does not
+ * depend on the amount of rows written. The page and row counts are patched
+ * into the file when the writer is closed, so the file is not readable before
+ * that.
+ * 
+ * Columns must be added before the first row is written.
+ * 
+ * @author Kasper Sørensen
+ */
+public final class SasWriter implements Closeable {
+
+	private static final int DEFAULT_PAGE_SIZE = 64 * 1024;
+	private static final int HEADER_LENGTH = 1024;
+	private static final int PAGE_HEADER_LENGTH = 24;
+	private static final int SUBHEADER_POINTER_LENGTH = 12;
+	private static final int MAX_SUBHEADER_LENGTH = Short.MAX_VALUE;
+
+	private static final short PAGE_TYPE_META = 0;
+	private static final short PAGE_TYPE_DATA = 256;
+
+	private static final int ROWSIZE_LENGTH = 480;
+	private static final int COLSIZE_LENGTH = 12;
+	private static final int COLLABS_LENGTH = 52;
+	private static final int COLTEXT_FIRST_OFFSET = 20;
+	private static final int COLTEXT_COMPRESSION_OFFSET = 12;
+
+	private static final byte SUBHEADER_COMPRESSED = 4;
+	private static final byte SUBHEADER_TYPE_ROW = 1;
+
+	/**
+	 * The bits of the standard SAS missing value (.), which is a NaN
+	 */
+	private static final long MISSING_BITS = 0xfffffe0000000000L;
+
+	/**
+	 * The default encoding of written files
+	 */
+	public static final Charset DEFAULT_ENCODING = Charset.forName("UTF-8");
+
+	private final String _name;
+	private final SeekableByteChannel _channel;
+	private final boolean _closeChannel;
+	private final List<SasColumn> _columns;
+	private SasCharset _charset;
+	private CharsetEncoder _encoder;
+	private int _pageSize;
+	private String _datasetName;
+	private SasCompression _compression;
+	private int _rowLength;
+
+	private ByteBuffer _page;
+	private ByteBuffer _row;
+	private byte[] _compressedRow;
+	private int[] _hashTable;
+	private int _rowsPerPage;
+	private int _pageRowCount;
+	private int _pageSubHeaderCount;
+	private int _pageDataOffset;
+	private int _pageCount;
+	private int _rowCount;
+	private long _rowSizePosition;
+	private boolean _closed;
+
+	/**
+	 * Creates a writer for a file. An existing file is overwritten.
+	 * 
+	 * @param file
+	 */
+	public SasWriter(File file) {
+		if (file == null) {
+			throw new IllegalArgumentException("file cannot be null");
+		}
+		try {
+			_channel = Files.newByteChannel(file.toPath(),
+					StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			throw new SasWriterException("Could not open " + file
+					+ " for writing", e);
+		}
+		_name = file.toString();
+		_closeChannel = true;
+		_columns = new ArrayList<SasColumn>();
+		_charset = SasCharset.get(DEFAULT_ENCODING);
+		_encoder = _charset.newEncoder();
+		_pageSize = DEFAULT_PAGE_SIZE;
+		_datasetName = createDatasetName(file);
+		_compression = SasCompression.NONE;
+	}
+
+	/**
+	 * Creates a writer that writes a sas7bdat file to a channel, starting at
+	 * position 0. The channel is not closed by the writer.
+	 * 
+	 * @param channel
+	 */
+	public SasWriter(SeekableByteChannel channel) {
+		if (channel == null) {
+			throw new IllegalArgumentException("channel cannot be null");
+		}
+		_channel = channel;
+		_name = channel.toString();
+		_closeChannel = false;
+		_columns = new ArrayList<SasColumn>();
+		_charset = SasCharset.get(DEFAULT_ENCODING);
+		_encoder = _charset.newEncoder();
+		_pageSize = DEFAULT_PAGE_SIZE;
+		_datasetName = "";
+		_compression = SasCompression.NONE;
+	}
+
+	private static String createDatasetName(File file) {
+		String name = file.getName();
+		if (name.endsWith(".sas7bdat")) {
+			name = name.substring(0, name.length() - 9);
+		}
+		return name;
+	}
+
+	public int getPageSize() {
+		return _pageSize;
+	}
+
+	/**
+	 * Sets the page size of the file. Must be a multiple of 1024, and large
+	 * enough to hold a row. Defaults to 64 KB.
+	 * 
+	 * @param pageSize
+	 */
+	public void setPageSize(int pageSize) {
+		checkNotStarted();
+		if (pageSize < 1024 || pageSize % 1024 != 0) {
+			throw new IllegalArgumentException(
+					"Page size must be a positive multiple of 1024: "
+							+ pageSize);
+		}
+		_pageSize = pageSize;
+	}
+
+	public String getDatasetName() {
+		return _datasetName;
+	}
+
+	/**
+	 * Sets the dataset name stored in the file header. Defaults to the file
+	 * name without extension.
+	 * 
+	 * @param datasetName
+	 */
+	public void setDatasetName(String datasetName) {
+		checkNotStarted();
+		_datasetName = (datasetName == null ? "" : datasetName);
+	}
+
+	/**
+	 * Sets the compression of the rows. Compressed rows are stored one by one
+	 * in the sub headers of meta pages, and only if compressing them saves
+	 * space. The default is {@link SasCompression#NONE}.
+	 * 
+	 * @param compression
+	 */
+	public void setCompression(SasCompression compression) {
+		checkNotStarted();
+		if (compression == null) {
+			throw new IllegalArgumentException("compression cannot be null");
+		}
+		_compression = compression;
+	}
+
+	public SasCompression getCompression() {
+		return _compression;
+	}
+
+	public Charset getEncoding() {
+		return _charset.getCharset();
+	}
+
+	/**
+	 * Sets the charset that CHARACTER values, column names and labels are
+	 * encoded with. The encoding is written to the file header, so only
+	 * charsets that have a SAS encoding code are supported. The default is
+	 * {@link #DEFAULT_ENCODING}.
+	 * 
+	 * @param encoding
+	 */
+	public void setEncoding(Charset encoding) {
+		checkNotStarted();
+		if (encoding == null) {
+			throw new IllegalArgumentException("encoding cannot be null");
+		}
+		if (SasCharset.getCode(encoding) == -1) {
+			throw new IllegalArgumentException("Encoding " + encoding
+					+ " has no SAS encoding code");
+		}
+		_charset = SasCharset.get(encoding);
+		_encoder = _charset.newEncoder();
+	}
+
+	public void addColumn(String name, SasColumnType type, int length) {
+		addColumn(name, null, type, null, length);
+	}
+
+	/**
+	 * Adds a column with the same name, label, type, format and length as an
+	 * existing column, e.g. from the {@link SasMetadata} of a file that a
+	 * subset is extracted from.
+	 * 
+	 * @param column
+	 */
+	public void addColumn(SasColumn column) {
+		addColumn(column.getName(), column.getLabel(), column.getType(),
+				column.getFormat(), column.getLength());
+	}
+
+	/**
+	 * Adds a column. Columns are laid out in the order they are added.
+	 * 
+	 * @param name
+	 * @param label
+	 *            the label of the column, or null
+	 * @param type
+	 * @param format
+	 *            the format of the column, or null. The format of a DATE,
+	 *            DATETIME or TIME column defaults to the format of that name,
+	 *            and the format of a NUMERIC column determines the type that
+	 *            the column is read as.
+	 * @param length
+	 *            the length (in bytes) of the column's values. NUMERIC, DATE,
+	 *            DATETIME and TIME columns are stored as doubles truncated to
+	 *            between 3 and 8 bytes.
+	 */
+	public void addColumn(String name, String label, SasColumnType type,
+			String format, int length) {
+		checkNotStarted();
+		if (name == null || name.length() == 0) {
+			throw new IllegalArgumentException("Column name cannot be empty");
+		}
+		if (type == null) {
+			throw new IllegalArgumentException("Type of column " + name
+					+ " cannot be null");
+		}
+		if (type.isNumeric() && (length < 3 || length > 8)) {
+			throw new IllegalArgumentException("Length of " + type
+					+ " column " + name + " must be between 3 and 8: "
+					+ length);
+		}
+		if (type.isTemporal()) {
+			if (format == null) {
+				format = type.name();
+			} else if (SasColumnType.getNumericType(format) != type) {
+				throw new IllegalArgumentException("Format of " + type
+						+ " column " + name + " is not a " + type
+						+ " format: " + format);
+			}
+		} else if (type == SasColumnType.NUMERIC) {
+			type = SasColumnType.getNumericType(format);
+		}
+		if (type == SasColumnType.CHARACTER
+				&& (length < 1 || length > Short.MAX_VALUE)) {
+			throw new IllegalArgumentException("Length of CHARACTER column "
+					+ name + " must be between 1 and " + Short.MAX_VALUE
+					+ ": " + length);
+		}
+		_columns.add(new SasColumn(_columns.size(), name, label, type, format,
+				_rowLength, length));
+		_rowLength += length;
+	}
+
+	/**
+	 * Gets the columns added to the writer, with their offsets within a row.
+	 * 
+	 * @return
+	 */
+	public List<SasColumn> getColumns() {
+		return Collections.unmodifiableList(_columns);
+	}
+
+	/**
+	 * Gets the amount of rows written so far.
+	 * 
+	 * @return
+	 */
+	public int getRowCount() {
+		return _rowCount;
+	}
+
+	/**
+	 * Writes a row. Values of NUMERIC columns must be {@link Number}s, values
+	 * of DATE, DATETIME and TIME columns {@link Number}s (SAS values) or
+	 * {@link Date}s, values of CHARACTER columns {@link CharSequence}s.
+	 * {@link SasString}s are written as they were read, without decoding
+	 * them. Null is written as a missing number or a blank string.
+	 * 
+	 * @param values
+	 *            a value for each column
+	 * @throws SasWriterException
+	 */
+	public void writeRow(Object... values) throws SasWriterException {
+		if (_closed) {
+			throw new IllegalStateException("Writer of " + _name
+					+ " has been closed");
+		}
+		if (values.length != _columns.size()) {
+			throw new IllegalArgumentException("Expected " + _columns.size()
+					+ " values, got " + values.length);
+		}
+		if (_rowCount == Integer.MAX_VALUE) {
+			throw new SasWriterException("Row count limit reached: "
+					+ _rowCount);
+		}
+		try {
+			if (_page == null) {
+				start();
+			}
+			final boolean compress = (_compression != SasCompression.NONE);
+			final ByteBuffer buffer = (compress ? _row : _page);
+			final int base = (compress ? 0 : PAGE_HEADER_LENGTH
+					+ _pageRowCount * _rowLength);
+			for (int i = 0; i < values.length; i++) {
+				final SasColumn column = _columns.get(i);
+				if (column.getType().isNumeric()) {
+					writeNumber(buffer, column, base + column.getOffset(),
+							values[i]);
+				} else {
+					writeString(buffer, column, base + column.getOffset(),
+							values[i]);
+				}
+			}
+			_rowCount++;
+			if (compress) {
+				writeCompressedRow();
+			} else {
+				_pageRowCount++;
+				if (_pageRowCount == _rowsPerPage) {
+					writeDataPage();
+				}
+			}
+		} catch (IOException e) {
+			throw new SasWriterException("Could not write to " + _name, e);
+		}
+	}
+
+	private void writeCompressedRow() throws IOException {
+		final byte[] row = _row.array();
+		final int length;
+		if (_compression == SasCompression.CHAR) {
+			length = SasRowCompressor.compressRle(row, 0, _rowLength,
+					_compressedRow);
+		} else {
+			length = SasRowCompressor.compressRdc(row, 0, _rowLength,
+					_compressedRow, _hashTable);
+		}
+		if (length == -1 || length >= _rowLength) {
+			addSubHeader(row, _rowLength, (byte) 0, SUBHEADER_TYPE_ROW);
+		} else {
+			addSubHeader(_compressedRow, length, SUBHEADER_COMPRESSED,
+					SUBHEADER_TYPE_ROW);
+		}
+	}
+
+	private void writeNumber(ByteBuffer buffer, SasColumn column, int off,
+			Object value) {
+		final long bits;
+		if (value == null) {
+			bits = MISSING_BITS;
+		} else if (value instanceof Number) {
+			bits = Double.doubleToRawLongBits(((Number) value).doubleValue());
+		} else if (value instanceof Date && column.getType().isTemporal()) {
+			bits = Double.doubleToRawLongBits(SasDates.toSasValue(
+					column.getType(), (Date) value));
+		} else if (column.getType().isTemporal()) {
+			throw new IllegalArgumentException("Value of "
+					+ column.getType() + " column " + column.getName()
+					+ " is not a number or date: " + value);
+		} else {
+			throw new IllegalArgumentException("Value of NUMERIC column "
+					+ column.getName() + " is not a number: " + value);
+		}
+		// a truncated double keeps the most significant bytes
+		final int len = column.getLength();
+		final int shift = (8 - len) * 8;
+		for (int i = 0; i < len; i++) {
+			buffer.put(off + i, (byte) (bits >>> (shift + i * 8)));
+		}
+	}
+
+	private void writeString(ByteBuffer buffer, SasColumn column, int off,
+			Object value) {
+		final int len = column.getLength();
+		buffer.limit(off + len);
+		buffer.position(off);
+		try {
+			if (value != null) {
+				if (value instanceof SasString
+						&& isEncodedAsWritten((SasString) value)) {
+					writeBytes(buffer, column, (SasString) value);
+					return;
+				}
+				if (!(value instanceof CharSequence)) {
+					throw new IllegalArgumentException(
+							"Value of CHARACTER column " + column.getName()
+									+ " is not a string: " + value);
+				}
+				_encoder.reset();
+				final CharBuffer chars = CharBuffer.wrap((CharSequence) value);
+				CoderResult result = _encoder.encode(chars, buffer, true);
+				if (result.isUnderflow()) {
+					result = _encoder.flush(buffer);
+				}
+				if (result.isOverflow()) {
+					throw new IllegalArgumentException(
+							"Value of CHARACTER column " + column.getName()
+									+ " is longer than " + len + " bytes: "
+									+ value);
+				} else if (result.isError()) {
+					throw new IllegalArgumentException(
+							"Value of CHARACTER column " + column.getName()
+									+ " cannot be encoded: " + value);
+				}
+			}
+			while (buffer.hasRemaining()) {
+				buffer.put((byte) ' ');
+			}
+		} finally {
+			buffer.clear();
+		}
+	}
+
+	private boolean isEncodedAsWritten(SasString value) {
+		final Charset encoding = value.getEncoding();
+		return encoding == null || encoding.equals(_charset.getCharset());
+	}
+
+	/**
+	 * Writes a value that was read by a {@link SasReader} without decoding and
+	 * encoding it.
+	 */
+	private void writeBytes(ByteBuffer buffer, SasColumn column,
+			SasString value) {
+		final int len = value.getByteLength();
+		if (len > buffer.remaining()) {
+			throw new IllegalArgumentException("Value of CHARACTER column "
+					+ column.getName() + " is longer than " + column.getLength()
+					+ " bytes: " + value);
+		}
+		// the buffers of the writer are heap buffers
+		final int position = buffer.position();
+		value.getBytes(buffer.array(), buffer.arrayOffset() + position);
+		buffer.position(position + len);
+		while (buffer.hasRemaining()) {
+			buffer.put((byte) ' ');
+		}
+	}
+
+	/**
+	 * Writes the last data page and the final page and row counts, and closes
+	 * the file. A writer with columns but no rows writes a file with an empty
+	 * table.
+	 */
+	@Override
+	public void close() throws SasWriterException {
+		if (_closed) {
+			return;
+		}
+		_closed = true;
+		try {
+			if (_page == null && !_columns.isEmpty()) {
+				start();
+			}
+			if (_page != null) {
+				if (_pageRowCount > 0) {
+					writeDataPage();
+				}
+				if (_pageSubHeaderCount > 0) {
+					writeMetaPage();
+				}
+				final ByteBuffer count = ByteBuffer.allocate(4).order(
+						ByteOrder.LITTLE_ENDIAN);
+				count.putInt(0, _pageCount);
+				write(count, 204);
+				count.putInt(0, _rowCount);
+				write(count, _rowSizePosition + 24);
+			}
+		} catch (IOException e) {
+			throw new SasWriterException("Could not write to " + _name, e);
+		} finally {
+			if (_closeChannel) {
+				try {
+					_channel.close();
+				} catch (IOException e) {
+					// do nothing
+				}
+			}
+		}
+	}
+
+	private void checkNotStarted() {
+		if (_page != null || _closed) {
+			throw new IllegalStateException(
+					"Writer has already started writing " + _name);
+		}
+	}
+
+	private void start() throws IOException {
+		if (_columns.isEmpty()) {
+			throw new IllegalStateException("No columns have been added");
+		}
+		_rowsPerPage = Math.min((_pageSize - PAGE_HEADER_LENGTH)
+				/ _rowLength, Short.MAX_VALUE);
+		if (_rowsPerPage < 1
+				|| (_compression != SasCompression.NONE && _rowLength > _pageSize
+						- PAGE_HEADER_LENGTH - SUBHEADER_POINTER_LENGTH - 8)) {
+			throw new SasWriterException("Row length " + _rowLength
+					+ " does not fit in page size " + _pageSize);
+		}
+		_page = ByteBuffer.allocate(_pageSize).order(ByteOrder.LITTLE_ENDIAN);
+		_pageDataOffset = _pageSize;
+		if (_compression != SasCompression.NONE) {
+			_row = ByteBuffer.allocate(_rowLength).order(
+					ByteOrder.LITTLE_ENDIAN);
+			_compressedRow = new byte[_rowLength];
+			if (_compression == SasCompression.BINARY) {
+				_hashTable = new int[SasRowCompressor.RDC_HASH_TABLE_SIZE];
+			}
+		}
+		writeHeader();
+		writeMetaPages();
+	}
+
+	private void writeHeader() throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(
+				ByteOrder.LITTLE_ENDIAN);
+		header.put(SasReader.MAGIC);
+		// 32 bit, no extra alignment, little endian, unix
+		header.put(32, (byte) 0x22);
+		header.put(35, (byte) 0x22);
+		header.put(37, (byte) 0x01);
+		header.put(39, (byte) '1');
+		header.put(70, (byte) SasCharset.getCode(_charset.getCharset()));
+		putText(header, 84, 8, "SAS FILE");
+		putText(header, 92, 64, _datasetName);
+		putText(header, 156, 8, "DATA");
+		final double timestamp = System.currentTimeMillis() / 1000d
+				+ SasDates.EPOCH_SECOND_OFFSET;
+		header.putDouble(164, timestamp);
+		header.putDouble(172, timestamp);
+		header.putInt(196, HEADER_LENGTH);
+		header.putInt(200, _pageSize);
+		// the page count is written when closing
+		header.putInt(204, 0);
+		putText(header, 216, 8, "9.0401M0");
+		putText(header, 224, 16, "");
+		putText(header, 240, 48, "");
+		write(header, 0);
+	}
+
+	/**
+	 * Writes the metadata sub headers. When rows are compressed the last meta
+	 * page is kept open for the first rows.
+	 */
+	private void writeMetaPages() throws IOException {
+		final List<ByteBuffer> subHeaders = createSubHeaders();
+		for (int i = 0; i < subHeaders.size(); i++) {
+			final ByteBuffer subHeader = subHeaders.get(i);
+			final long position = addSubHeader(subHeader.array(),
+					subHeader.capacity(), (byte) 0, (byte) 0);
+			if (i == 0) {
+				_rowSizePosition = position;
+			}
+		}
+		if (_compression == SasCompression.NONE) {
+			writeMetaPage();
+		}
+	}
+
+	/**
+	 * Adds a sub header to the current meta page, writing the page first if
+	 * the sub header does not fit.
+	 * 
+	 * @return the position of the sub header in the file
+	 */
+	private long addSubHeader(byte[] data, int length, byte compression,
+			byte type) throws IOException {
+		int offset = (_pageDataOffset - length) & ~7;
+		if (offset < PAGE_HEADER_LENGTH + (_pageSubHeaderCount + 1)
+				* SUBHEADER_POINTER_LENGTH) {
+			if (_pageSubHeaderCount == 0) {
+				throw new SasWriterException("Sub header of " + length
+						+ " bytes does not fit in page size " + _pageSize);
+			}
+			writeMetaPage();
+			offset = (_pageDataOffset - length) & ~7;
+		}
+		System.arraycopy(data, 0, _page.array(), offset, length);
+		final int pointer = PAGE_HEADER_LENGTH + _pageSubHeaderCount
+				* SUBHEADER_POINTER_LENGTH;
+		_page.putInt(pointer, offset);
+		_page.putInt(pointer + 4, length);
+		_page.put(pointer + 8, compression);
+		_page.put(pointer + 9, type);
+		_pageDataOffset = offset;
+		_pageSubHeaderCount++;
+		return HEADER_LENGTH + (long) _pageCount * _pageSize + offset;
+	}
+
+	private void writeMetaPage() throws IOException {
+		writePage(PAGE_TYPE_META, _pageSubHeaderCount, _pageSubHeaderCount);
+		_pageSubHeaderCount = 0;
+		_pageDataOffset = _pageSize;
+	}
+
+	/**
+	 * Creates the metadata sub headers, with the ROWSIZE sub header first.
+	 */
+	private List<ByteBuffer> createSubHeaders() {
+		final int columnCount = _columns.size();
+		final List<ByteBuffer> result = new ArrayList<ByteBuffer>();
+
+		final ByteBuffer rowSize = newSubHeader(SasReader.SUBH_ROWSIZE,
+				ROWSIZE_LENGTH);
+		rowSize.putInt(20, _rowLength);
+		// the row count is written when closing
+		rowSize.putInt(24, 0);
+		rowSize.putInt(36, columnCount);
+		rowSize.putInt(60, 0);
+		result.add(rowSize);
+
+		final ByteBuffer colSize = newSubHeader(SasReader.SUBH_COLSIZE,
+				COLSIZE_LENGTH);
+		colSize.putInt(4, columnCount);
+		result.add(colSize);
+
+		// column names, formats and labels, as offset/length pairs into the
+		// COLTEXT sub header (offsets are relative to its signature's end)
+		final int[] names = new int[columnCount * 2];
+		final int[] formats = new int[columnCount * 2];
+		final int[] labels = new int[columnCount * 2];
+		final List<byte[]> texts = new ArrayList<byte[]>();
+		int textLength = COLTEXT_FIRST_OFFSET;
+		for (int i = 0; i < columnCount; i++) {
+			final SasColumn column = _columns.get(i);
+			textLength = addText(texts, textLength, column.getName(), names,
+					i);
+			textLength = addText(texts, textLength, column.getFormat(),
+					formats, i);
+			textLength = addText(texts, textLength, column.getLabel(), labels,
+					i);
+		}
+		if (textLength > MAX_SUBHEADER_LENGTH) {
+			throw new SasWriterException(
+					"Column names, formats and labels take up " + textLength
+							+ " bytes, at most " + MAX_SUBHEADER_LENGTH
+							+ " are supported");
+		}
+		final ByteBuffer colText = newSubHeader(SasReader.SUBH_COLTEXT,
+				textLength);
+		colText.putShort(4, (short) (textLength - 4));
+		if (_compression == SasCompression.CHAR) {
+			colText.position(COLTEXT_COMPRESSION_OFFSET);
+			colText.put(SasReader.COMPRESSION_CHAR);
+		} else if (_compression == SasCompression.BINARY) {
+			colText.position(COLTEXT_COMPRESSION_OFFSET);
+			colText.put(SasReader.COMPRESSION_BINARY);
+		}
+		colText.position(COLTEXT_FIRST_OFFSET);
+		for (byte[] text : texts) {
+			colText.put(text);
+		}
+		colText.clear();
+		result.add(colText);
+
+		final int colNameLength = 12 + columnCount * 8 + 8;
+		if (colNameLength > MAX_SUBHEADER_LENGTH) {
+			throw new SasWriterException("Too many columns: " + columnCount
+					+ ", at most " + ((MAX_SUBHEADER_LENGTH - 20) / 8)
+					+ " are supported");
+		}
+		final ByteBuffer colName = newSubHeader(SasReader.SUBH_COLNAME,
+				colNameLength);
+		colName.putShort(4, (short) (colNameLength - 12));
+		for (int i = 0; i < columnCount; i++) {
+			putTextPointer(colName, 12 + i * 8, names, i);
+		}
+		result.add(colName);
+
+		// column attributes are split over several sub headers if needed
+		final int maxLength = Math.min(MAX_SUBHEADER_LENGTH, _pageSize
+				- PAGE_HEADER_LENGTH - SUBHEADER_POINTER_LENGTH);
+		final int attributesPerSubHeader = (maxLength - 20) / 12;
+		for (int first = 0; first < columnCount; first += attributesPerSubHeader) {
+			final int count = Math.min(attributesPerSubHeader, columnCount
+					- first);
+			final int colAttrLength = 12 + count * 12 + 8;
+			final ByteBuffer colAttr = newSubHeader(SasReader.SUBH_COLATTR,
+					colAttrLength);
+			colAttr.putShort(4, (short) (colAttrLength - 12));
+			for (int i = 0; i < count; i++) {
+				final SasColumn column = _columns.get(first + i);
+				final int base = 12 + i * 12;
+				colAttr.putInt(base, column.getOffset());
+				colAttr.putInt(base + 4, column.getLength());
+				colAttr.putShort(base + 10,
+						(short) (column.getType().isNumeric() ? 1 : 2));
+			}
+			result.add(colAttr);
+		}
+
+		for (int i = 0; i < columnCount; i++) {
+			final ByteBuffer colLabs = newSubHeader(SasReader.SUBH_COLLABS,
+					COLLABS_LENGTH);
+			putTextPointer(colLabs, 34, formats, i);
+			putTextPointer(colLabs, 40, labels, i);
+			result.add(colLabs);
+		}
+
+		return result;
+	}
+
+	private int addText(List<byte[]> texts, int textLength, String text,
+			int[] pointers, int index) {
+		if (text == null || text.length() == 0) {
+			return textLength;
+		}
+		final byte[] bytes = _charset.encode(text);
+		if (bytes == null) {
+			throw new IllegalArgumentException("Column text cannot be encoded: "
+					+ text);
+		}
+		pointers[index * 2] = textLength - 4;
+		pointers[index * 2 + 1] = bytes.length;
+		// texts are padded to a multiple of 4 bytes
+		texts.add(Arrays.copyOf(bytes, (bytes.length + 3) & ~3));
+		return textLength + ((bytes.length + 3) & ~3);
+	}
+
+	private static void putTextPointer(ByteBuffer subHeader, int base,
+			int[] pointers, int index) {
+		// the first two bytes index the COLTEXT sub header, which is always 0
+		subHeader.putShort(base + 2, (short) pointers[index * 2]);
+		subHeader.putShort(base + 4, (short) pointers[index * 2 + 1]);
+	}
+
+	private static ByteBuffer newSubHeader(byte[] signature, int length) {
+		final ByteBuffer subHeader = ByteBuffer.allocate(length).order(
+				ByteOrder.LITTLE_ENDIAN);
+		subHeader.put(signature);
+		subHeader.clear();
+		return subHeader;
+	}
+
+	private void putText(ByteBuffer buffer, int off, int len, String text) {
+		buffer.limit(off + len);
+		buffer.position(off);
+		_encoder.reset();
+		// texts that are too long are truncated
+		_encoder.encode(CharBuffer.wrap(text), buffer, true);
+		while (buffer.hasRemaining()) {
+			buffer.put((byte) ' ');
+		}
+		buffer.clear();
+	}
+
+	private void writeDataPage() throws IOException {
+		writePage(PAGE_TYPE_DATA, _pageRowCount, 0);
+		_pageRowCount = 0;
+	}
+
+	private void writePage(short pageType, int blockCount, int subHeaderCount)
+			throws IOException {
+		_page.putShort(16, pageType);
+		_page.putShort(18, (short) blockCount);
+		_page.putShort(20, (short) subHeaderCount);
+		write(_page, HEADER_LENGTH + (long) _pageCount * _pageSize);
+		_pageCount++;
+		Arrays.fill(_page.array(), (byte) 0);
+	}
+
+	private void write(ByteBuffer buffer, long position) throws IOException {
+		buffer.clear();
+		_channel.position(position);
+		while (buffer.hasRemaining()) {
+			_channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,39 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+/**
+ * Represents an exception thrown while writing a sas7bdat file.
+ * 
+ * @author Kasper Sørensen
+ */
+public class SasWriterException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public SasWriterException(String string) {
+		super(string);
+	}
+
+	public SasWriterException(String string, Exception e) {
+		super(string, e);
+	}
+
+}
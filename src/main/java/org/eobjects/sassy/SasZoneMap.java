@@ -0,0 +1,644 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+
+import org.eobjects.sassy.SasPredicate.Operator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A zone map of a sas7bdat file: the value ranges of the columns on each data
+ * page, so that a {@link SasReader} can skip pages whose values cannot
+ * satisfy its predicates without decoding them. For NUMERIC, DATE, DATETIME
+ * and TIME columns the minimum, maximum and amount of missing values of a
+ * page are recorded, for CHARACTER columns the minimum and maximum
+ * (truncated to a prefix of {@link #PREFIX_LENGTH} characters).
+ * 
+ * A zone map is built in one pass over the file and stored in a sidecar file
+ * next to it (see {@link #getSidecarFile(File)}). Like the catalog of a data
+ * context, the sidecar is only valid while the size and last modification
+ * time of the file are unchanged, and it is ignored otherwise.
+ * 
+ * @see SasReader#setUsingZoneMap(boolean)
+ * 
+ * @author Kasper Sørensen
+ */
+public final class SasZoneMap {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(SasZoneMap.class);
+
+	/**
+	 * The suffix of the sidecar file of a sas7bdat file
+	 */
+	public static final String SIDECAR_SUFFIX = ".zmap";
+
+	/**
+	 * The amount of characters of the minimum and maximum CHARACTER values
+	 * that are recorded
+	 */
+	public static final int PREFIX_LENGTH = 16;
+
+	private static final int MAGIC = 0x5A4D4150;
+	private static final int VERSION = 1;
+
+	private final File _file;
+	private final long _size;
+	private final long _lastModified;
+	private final SasColumnType[] _columnTypes;
+	private final int _zoneCount;
+	private final int[] _pageNumbers;
+	private final int[] _rowCounts;
+	private final int[][] _missingCounts;
+	private final double[][] _minimums;
+	private final double[][] _maximums;
+	private final String[][] _minimumPrefixes;
+	private final String[][] _maximumPrefixes;
+
+	private SasZoneMap(File file, long size, long lastModified,
+			SasColumnType[] columnTypes, int zoneCount) {
+		_file = file;
+		_size = size;
+		_lastModified = lastModified;
+		_columnTypes = columnTypes;
+		_zoneCount = zoneCount;
+		_pageNumbers = new int[zoneCount];
+		_rowCounts = new int[zoneCount];
+		_missingCounts = new int[columnTypes.length][zoneCount];
+		_minimums = new double[columnTypes.length][];
+		_maximums = new double[columnTypes.length][];
+		_minimumPrefixes = new String[columnTypes.length][];
+		_maximumPrefixes = new String[columnTypes.length][];
+		for (int i = 0; i < columnTypes.length; i++) {
+			if (columnTypes[i].isNumeric()) {
+				_minimums[i] = new double[zoneCount];
+				_maximums[i] = new double[zoneCount];
+			} else {
+				_minimumPrefixes[i] = new String[zoneCount];
+				_maximumPrefixes[i] = new String[zoneCount];
+			}
+		}
+	}
+
+	/**
+	 * Gets the sidecar file that holds the zone map of a sas7bdat file.
+	 * 
+	 * @param file
+	 * @return
+	 */
+	public static File getSidecarFile(File file) {
+		return new File(file.getPath() + SIDECAR_SUFFIX);
+	}
+
+	/**
+	 * Builds the zone map of a file by reading all of its rows, without
+	 * storing it.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws SasReaderException
+	 */
+	public static SasZoneMap build(File file) throws SasReaderException {
+		// stamped before reading, so changes during the read make it stale
+		final long size = file.length();
+		final long lastModified = file.lastModified();
+		final Builder builder = new Builder();
+		new SasReader(file).read(builder);
+		return builder.toZoneMap(file, size, lastModified);
+	}
+
+	/**
+	 * Builds the zone map of a file and stores it in its sidecar file,
+	 * replacing any previous sidecar.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws SasReaderException
+	 */
+	public static SasZoneMap index(File file) throws SasReaderException {
+		final SasZoneMap zoneMap = build(file);
+		try {
+			zoneMap.write(getSidecarFile(file));
+		} catch (IOException e) {
+			throw new SasReaderException("Could not write zone map of "
+					+ file, e);
+		}
+		return zoneMap;
+	}
+
+	/**
+	 * Loads the zone map of a file from its sidecar file.
+	 * 
+	 * @param file
+	 * @return the zone map, or null if there is no sidecar, or it cannot be
+	 *         read, or the file has changed since it was built
+	 */
+	public static SasZoneMap load(File file) {
+		final File sidecarFile = getSidecarFile(file);
+		if (!sidecarFile.exists()) {
+			return null;
+		}
+		final SasZoneMap zoneMap;
+		try {
+			zoneMap = read(file, sidecarFile);
+		} catch (IOException e) {
+			logger.warn("Could not read zone map " + sidecarFile, e);
+			return null;
+		}
+		if (zoneMap.isStale()) {
+			logger.info("Ignoring stale zone map {}", sidecarFile);
+			return null;
+		}
+		return zoneMap;
+	}
+
+	public File getFile() {
+		return _file;
+	}
+
+	/**
+	 * Determines if the file has changed since the zone map was built.
+	 * 
+	 * @return
+	 */
+	public boolean isStale() {
+		return _file.length() != _size || _file.lastModified() != _lastModified;
+	}
+
+	/**
+	 * Gets the amount of pages with rows in the zone map.
+	 * 
+	 * @return
+	 */
+	public int getPageCount() {
+		return _zoneCount;
+	}
+
+	/**
+	 * Finds the pages that hold no rows that satisfy all predicates. Pages
+	 * that are not in the zone map are never skipped.
+	 * 
+	 * @param metadata
+	 *            the metadata of the file
+	 * @param predicates
+	 * @return the numbers of the pages that can be skipped
+	 */
+	BitSet getSkippedPages(SasMetadata metadata, List<SasPredicate> predicates) {
+		final BitSet skippedPages = new BitSet();
+		if (metadata.getColumnCount() != _columnTypes.length) {
+			return skippedPages;
+		}
+		for (SasPredicate predicate : predicates) {
+			final SasColumn column = SasRowFilter.getColumn(metadata,
+					predicate);
+			final int index = column.getIndex();
+			if (column.getLength() <= 0
+					|| column.getType() != _columnTypes[index]) {
+				// empty columns are handled by the row filter
+				continue;
+			}
+			final Operator operator = predicate.getOperator();
+			final Object[] operands = predicate.getOperandsInternal();
+			if (column.getType().isNumeric()) {
+				final double[] values = toSasValues(column.getType(),
+						operands);
+				if (values == null) {
+					continue;
+				}
+				for (int zone = 0; zone < _zoneCount; zone++) {
+					if (!matchesNumeric(index, zone, operator, values)) {
+						skippedPages.set(_pageNumbers[zone]);
+					}
+				}
+			} else {
+				final String[] values = toStrings(operands);
+				if (values == null) {
+					continue;
+				}
+				for (int zone = 0; zone < _zoneCount; zone++) {
+					if (!matchesCharacter(index, zone, operator, values)) {
+						skippedPages.set(_pageNumbers[zone]);
+					}
+				}
+			}
+		}
+		return skippedPages;
+	}
+
+	/**
+	 * Determines if a page may hold NUMERIC values that satisfy a predicate,
+	 * following the semantics of the row filter: values are compared with
+	 * {@link Double#compare(double, double)}, so missing values (NaN) are
+	 * greater than any other number.
+	 */
+	private boolean matchesNumeric(int column, int zone, Operator operator,
+			double[] operands) {
+		final int missingCount = _missingCounts[column][zone];
+		final boolean hasValues = missingCount < _rowCounts[zone];
+		final double minimum = _minimums[column][zone];
+		final double maximum = _maximums[column][zone];
+		switch (operator) {
+		case EQUALS_TO:
+		case IN:
+			for (double operand : operands) {
+				if (Double.isNaN(operand) ? missingCount > 0 : hasValues
+						&& Double.compare(minimum, operand) <= 0
+						&& Double.compare(maximum, operand) >= 0) {
+					return true;
+				}
+			}
+			return false;
+		case DIFFERENT_FROM:
+			if (Double.isNaN(operands[0])) {
+				return hasValues;
+			}
+			return missingCount > 0
+					|| Double.compare(minimum, operands[0]) != 0
+					|| Double.compare(maximum, operands[0]) != 0;
+		case LESS_THAN:
+			return hasValues && Double.compare(minimum, operands[0]) < 0;
+		case GREATER_THAN:
+			return (hasValues && Double.compare(maximum, operands[0]) > 0)
+					|| (missingCount > 0 && !Double.isNaN(operands[0]));
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Determines if a page may hold CHARACTER values that satisfy a
+	 * predicate. Truncating values to a prefix preserves their order, so an
+	 * operand can only be within the range of a page if its prefix is within
+	 * the range of prefixes.
+	 */
+	private boolean matchesCharacter(int column, int zone, Operator operator,
+			String[] operands) {
+		final String minimum = _minimumPrefixes[column][zone];
+		final String maximum = _maximumPrefixes[column][zone];
+		if (minimum == null) {
+			// only null values
+			return operator == Operator.DIFFERENT_FROM
+					|| operator == Operator.IS_NULL
+					|| operator == Operator.IS_NOT_NULL;
+		}
+		switch (operator) {
+		case EQUALS_TO:
+		case IN:
+			for (String operand : operands) {
+				final String prefix = toPrefix(operand);
+				if (minimum.compareTo(prefix) <= 0
+						&& maximum.compareTo(prefix) >= 0) {
+					return true;
+				}
+			}
+			return false;
+		case DIFFERENT_FROM:
+			// minimum and maximum are complete values if shorter than a prefix
+			return _missingCounts[column][zone] > 0
+					|| minimum.length() >= PREFIX_LENGTH
+					|| !minimum.equals(maximum)
+					|| !minimum.equals(operands[0]);
+		case STARTS_WITH: {
+			final String prefix = toPrefix(operands[0]);
+			return maximum.compareTo(prefix) >= 0
+					&& (minimum.compareTo(prefix) <= 0 || minimum
+							.startsWith(prefix));
+		}
+		case LESS_THAN:
+			return minimum.compareTo(toPrefix(operands[0])) <= 0;
+		case GREATER_THAN:
+			return maximum.compareTo(toPrefix(operands[0])) >= 0;
+		default:
+			return true;
+		}
+	}
+
+	private static double[] toSasValues(SasColumnType type, Object[] operands) {
+		final double[] values = new double[operands.length];
+		for (int i = 0; i < operands.length; i++) {
+			if (operands[i] instanceof Number) {
+				values[i] = ((Number) operands[i]).doubleValue();
+			} else if (type.isTemporal() && operands[i] instanceof Date) {
+				values[i] = SasDates.toSasValue(type, (Date) operands[i]);
+			} else {
+				return null;
+			}
+		}
+		return values;
+	}
+
+	private static String[] toStrings(Object[] operands) {
+		final String[] values = new String[operands.length];
+		for (int i = 0; i < operands.length; i++) {
+			if (!(operands[i] instanceof String)) {
+				return null;
+			}
+			values[i] = (String) operands[i];
+		}
+		return values;
+	}
+
+	private static String toPrefix(String value) {
+		if (value.length() <= PREFIX_LENGTH) {
+			return value;
+		}
+		return value.substring(0, PREFIX_LENGTH);
+	}
+
+	private void write(File sidecarFile) throws IOException {
+		final File directory = sidecarFile.getAbsoluteFile().getParentFile();
+		final File tempFile = File.createTempFile(sidecarFile.getName(),
+				".tmp", directory);
+		try {
+			final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(_size);
+				out.writeLong(_lastModified);
+				out.writeInt(_columnTypes.length);
+				for (SasColumnType columnType : _columnTypes) {
+					out.writeUTF(columnType.name());
+				}
+				out.writeInt(_zoneCount);
+				for (int zone = 0; zone < _zoneCount; zone++) {
+					out.writeInt(_pageNumbers[zone]);
+					out.writeInt(_rowCounts[zone]);
+					for (int i = 0; i < _columnTypes.length; i++) {
+						out.writeInt(_missingCounts[i][zone]);
+						if (_columnTypes[i].isNumeric()) {
+							out.writeDouble(_minimums[i][zone]);
+							out.writeDouble(_maximums[i][zone]);
+						} else {
+							final String minimum = _minimumPrefixes[i][zone];
+							out.writeBoolean(minimum != null);
+							if (minimum != null) {
+								out.writeUTF(minimum);
+								out.writeUTF(_maximumPrefixes[i][zone]);
+							}
+						}
+					}
+				}
+			} finally {
+				out.close();
+			}
+			Files.move(tempFile.toPath(), sidecarFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	private static SasZoneMap read(File file, File sidecarFile)
+			throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(sidecarFile)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a zone map file");
+			}
+			final int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported zone map version: "
+						+ version);
+			}
+			final long size = in.readLong();
+			final long lastModified = in.readLong();
+			final SasColumnType[] columnTypes = new SasColumnType[in
+					.readInt()];
+			for (int i = 0; i < columnTypes.length; i++) {
+				try {
+					columnTypes[i] = SasColumnType.valueOf(in.readUTF());
+				} catch (IllegalArgumentException e) {
+					throw new IOException("Unknown column type", e);
+				}
+			}
+			final int zoneCount = in.readInt();
+			final SasZoneMap zoneMap = new SasZoneMap(file, size,
+					lastModified, columnTypes, zoneCount);
+			for (int zone = 0; zone < zoneCount; zone++) {
+				zoneMap._pageNumbers[zone] = in.readInt();
+				zoneMap._rowCounts[zone] = in.readInt();
+				for (int i = 0; i < columnTypes.length; i++) {
+					zoneMap._missingCounts[i][zone] = in.readInt();
+					if (columnTypes[i].isNumeric()) {
+						zoneMap._minimums[i][zone] = in.readDouble();
+						zoneMap._maximums[i][zone] = in.readDouble();
+					} else if (in.readBoolean()) {
+						zoneMap._minimumPrefixes[i][zone] = in.readUTF();
+						zoneMap._maximumPrefixes[i][zone] = in.readUTF();
+					}
+				}
+			}
+			return zoneMap;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Collects the zones of the pages while the file is read, in growable
+	 * primitive arrays.
+	 */
+	private static final class Builder implements SasColumnarCallback {
+
+		private final List<SasColumnType> _columnTypes = new ArrayList<SasColumnType>();
+		private int _zoneCount;
+		private int[] _pageNumbers = new int[16];
+		private int[] _rowCounts = new int[16];
+		private int[][] _missingCounts;
+		private double[][] _minimums;
+		private double[][] _maximums;
+		private String[][] _minimumPrefixes;
+		private String[][] _maximumPrefixes;
+
+		@Override
+		public void column(int columnIndex, String columnName,
+				String columnLabel, SasColumnType columnType, String format,
+				int columnLength) {
+			_columnTypes.add(columnType);
+		}
+
+		@Override
+		public boolean readData() {
+			// asked again for every data page
+			if (_missingCounts == null) {
+				allocate();
+			}
+			return true;
+		}
+
+		private void allocate() {
+			final int columnCount = _columnTypes.size();
+			_missingCounts = new int[columnCount][16];
+			_minimums = new double[columnCount][];
+			_maximums = new double[columnCount][];
+			_minimumPrefixes = new String[columnCount][];
+			_maximumPrefixes = new String[columnCount][];
+			for (int i = 0; i < columnCount; i++) {
+				if (_columnTypes.get(i).isNumeric()) {
+					_minimums[i] = new double[16];
+					_maximums[i] = new double[16];
+				} else {
+					_minimumPrefixes[i] = new String[16];
+					_maximumPrefixes[i] = new String[16];
+				}
+			}
+		}
+
+		@Override
+		public boolean batch(SasColumnBatch batch) {
+			final int zone = addZone(batch.getPageNumber());
+			final int rowCount = batch.getRowCount();
+			_rowCounts[zone] += rowCount;
+			for (int column = 0; column < batch.getColumnCount(); column++) {
+				final int i = batch.getColumnIndex(column);
+				int missingCount = 0;
+				if (batch.getColumnType(column).isNumeric()) {
+					final double[] values = batch.getDoubles(column);
+					double minimum = _minimums[i][zone];
+					double maximum = _maximums[i][zone];
+					for (int row = 0; row < rowCount; row++) {
+						if (batch.isMissing(column, row)) {
+							missingCount++;
+							continue;
+						}
+						final double value = values[row];
+						if (Double.isNaN(minimum)
+								|| Double.compare(value, minimum) < 0) {
+							minimum = value;
+						}
+						if (Double.isNaN(maximum)
+								|| Double.compare(value, maximum) > 0) {
+							maximum = value;
+						}
+					}
+					_minimums[i][zone] = minimum;
+					_maximums[i][zone] = maximum;
+				} else {
+					String minimum = _minimumPrefixes[i][zone];
+					String maximum = _maximumPrefixes[i][zone];
+					for (int row = 0; row < rowCount; row++) {
+						final String value = batch.getString(column, row);
+						if (value == null) {
+							missingCount++;
+							continue;
+						}
+						final String prefix = toPrefix(value);
+						if (minimum == null || prefix.compareTo(minimum) < 0) {
+							minimum = prefix;
+						}
+						if (maximum == null || prefix.compareTo(maximum) > 0) {
+							maximum = prefix;
+						}
+					}
+					_minimumPrefixes[i][zone] = minimum;
+					_maximumPrefixes[i][zone] = maximum;
+				}
+				_missingCounts[i][zone] += missingCount;
+			}
+			return true;
+		}
+
+		/**
+		 * Gets the zone of a page, adding it unless it is the last zone.
+		 */
+		private int addZone(int pageNumber) {
+			if (_zoneCount > 0 && _pageNumbers[_zoneCount - 1] == pageNumber) {
+				return _zoneCount - 1;
+			}
+			if (_zoneCount == _pageNumbers.length) {
+				final int capacity = 2 * _zoneCount;
+				_pageNumbers = Arrays.copyOf(_pageNumbers, capacity);
+				_rowCounts = Arrays.copyOf(_rowCounts, capacity);
+				for (int i = 0; i < _missingCounts.length; i++) {
+					_missingCounts[i] = Arrays.copyOf(_missingCounts[i],
+							capacity);
+					if (_minimums[i] != null) {
+						_minimums[i] = Arrays.copyOf(_minimums[i], capacity);
+						_maximums[i] = Arrays.copyOf(_maximums[i], capacity);
+					} else {
+						_minimumPrefixes[i] = Arrays.copyOf(
+								_minimumPrefixes[i], capacity);
+						_maximumPrefixes[i] = Arrays.copyOf(
+								_maximumPrefixes[i], capacity);
+					}
+				}
+			}
+			final int zone = _zoneCount++;
+			_pageNumbers[zone] = pageNumber;
+			for (int i = 0; i < _minimums.length; i++) {
+				if (_minimums[i] != null) {
+					_minimums[i][zone] = Double.NaN;
+					_maximums[i][zone] = Double.NaN;
+				}
+			}
+			return zone;
+		}
+
+		public SasZoneMap toZoneMap(File file, long size, long lastModified) {
+			if (_missingCounts == null) {
+				// no data pages were read
+				allocate();
+			}
+			final SasColumnType[] columnTypes = _columnTypes
+					.toArray(new SasColumnType[_columnTypes.size()]);
+			final SasZoneMap zoneMap = new SasZoneMap(file, size,
+					lastModified, columnTypes, _zoneCount);
+			System.arraycopy(_pageNumbers, 0, zoneMap._pageNumbers, 0,
+					_zoneCount);
+			System.arraycopy(_rowCounts, 0, zoneMap._rowCounts, 0, _zoneCount);
+			for (int i = 0; i < columnTypes.length; i++) {
+				System.arraycopy(_missingCounts[i], 0,
+						zoneMap._missingCounts[i], 0, _zoneCount);
+				if (columnTypes[i].isNumeric()) {
+					System.arraycopy(_minimums[i], 0, zoneMap._minimums[i],
+							0, _zoneCount);
+					System.arraycopy(_maximums[i], 0, zoneMap._maximums[i],
+							0, _zoneCount);
+				} else {
+					System.arraycopy(_minimumPrefixes[i], 0,
+							zoneMap._minimumPrefixes[i], 0, _zoneCount);
+					System.arraycopy(_maximumPrefixes[i], 0,
+							zoneMap._maximumPrefixes[i], 0, _zoneCount);
+				}
+			}
+			return zoneMap;
+		}
+	}
+}
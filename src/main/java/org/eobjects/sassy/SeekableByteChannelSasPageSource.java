@@ -0,0 +1,90 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * {@link SasPageSource} that reads from a {@link SeekableByteChannel}, eg. a
+ * file channel or an entry of a zip file system. Reading starts at the
+ * position of the channel when the page source is created. A single buffer is
+ * reused for all pages of the same size, so buffers are not retained.
+ * 
+ * The channel is not closed when the page source is closed.
+ * 
+ * @author Kasper Sørensen
+ */
+public final class SeekableByteChannelSasPageSource implements SasPageSource {
+
+	private final SeekableByteChannel _channel;
+	private final long _start;
+	private ByteBuffer _buffer;
+
+	public SeekableByteChannelSasPageSource(SeekableByteChannel channel) {
+		if (channel == null) {
+			throw new IllegalArgumentException("channel cannot be null");
+		}
+		_channel = channel;
+		try {
+			_start = channel.position();
+		} catch (IOException e) {
+			throw new SasReaderException("Could not get channel position", e);
+		}
+	}
+
+	@Override
+	public ByteBuffer read(int length) throws IOException {
+		if (_buffer == null || _buffer.capacity() != length) {
+			_buffer = ByteBuffer.allocate(length);
+			_buffer.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		_buffer.clear();
+
+		while (_buffer.hasRemaining()) {
+			if (_channel.read(_buffer) == -1) {
+				break;
+			}
+		}
+		_buffer.flip();
+
+		if (!_buffer.hasRemaining() && length > 0) {
+			return null;
+		}
+		return _buffer;
+	}
+
+	@Override
+	public boolean isRetainingBuffers() {
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "SeekableByteChannelSasPageSource[start=" + _start + "]";
+	}
+
+	@Override
+	public void close() {
+		// the channel is owned by the caller
+	}
+}
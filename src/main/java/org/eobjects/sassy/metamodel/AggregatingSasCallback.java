@@ -0,0 +1,214 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.metamodel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eobjects.metamodel.query.FunctionType;
+import org.eobjects.metamodel.query.SelectItem;
+import org.eobjects.metamodel.schema.Column;
+import org.eobjects.metamodel.schema.ColumnType;
+import org.eobjects.sassy.SasColumnBatch;
+import org.eobjects.sassy.SasColumnType;
+import org.eobjects.sassy.SasColumnarCallback;
+import org.eobjects.sassy.SasReader;
+
+/**
+ * Computes ungrouped aggregates (COUNT, SUM, MIN, MAX, AVG) of NUMERIC columns
+ * on the double vectors of columnar batches, so that no values are boxed.
+ * Missing (NaN) values are skipped, like nulls in SQL. The reader is expected
+ * to have the column projection of {@link #getColumnProjection()}.
+ */
+final class AggregatingSasCallback implements SasColumnarCallback {
+
+	private final SelectItem[] _selectItems;
+	/**
+	 * The index of the column of each select item within the batches, or -1
+	 * for COUNT(*)
+	 */
+	private final int[] _batchColumns;
+	private final int[] _columnProjection;
+	private final long[] _counts;
+	private final double[] _sums;
+	private final double[] _mins;
+	private final double[] _maxs;
+	private long _rowCount;
+
+	public AggregatingSasCallback(SelectItem[] selectItems) {
+		_selectItems = selectItems;
+		_batchColumns = new int[selectItems.length];
+		final List<Integer> columnProjection = new ArrayList<Integer>();
+		for (int i = 0; i < selectItems.length; i++) {
+			final Column column = selectItems[i].getColumn();
+			if (column == null) {
+				_batchColumns[i] = -1;
+			} else {
+				final Integer columnNumber = column.getColumnNumber();
+				int batchColumn = columnProjection.indexOf(columnNumber);
+				if (batchColumn == -1) {
+					batchColumn = columnProjection.size();
+					columnProjection.add(columnNumber);
+				}
+				_batchColumns[i] = batchColumn;
+			}
+		}
+		_columnProjection = new int[columnProjection.size()];
+		for (int i = 0; i < _columnProjection.length; i++) {
+			_columnProjection[i] = columnProjection.get(i);
+		}
+		_counts = new long[_columnProjection.length];
+		_sums = new double[_columnProjection.length];
+		_mins = new double[_columnProjection.length];
+		_maxs = new double[_columnProjection.length];
+		for (int i = 0; i < _columnProjection.length; i++) {
+			_mins[i] = Double.POSITIVE_INFINITY;
+			_maxs[i] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * Determines if a select item can be computed by this callback.
+	 * 
+	 * @param selectItem
+	 * @return
+	 */
+	public static boolean isAggregatable(SelectItem selectItem) {
+		final FunctionType function = selectItem.getFunction();
+		if (function == null || selectItem.getSubQuerySelectItem() != null) {
+			return false;
+		}
+		if (SelectItem.isCountAllItem(selectItem)) {
+			return true;
+		}
+		final Column column = selectItem.getColumn();
+		return column != null
+				&& column.getType() == ColumnType.NUMERIC
+				&& column.getTable() instanceof SasTable;
+	}
+
+	/**
+	 * Gets the indices of the columns that the reader should read.
+	 * 
+	 * @see SasReader#setColumnProjection(int...)
+	 * 
+	 * @return
+	 */
+	public int[] getColumnProjection() {
+		return _columnProjection;
+	}
+
+	@Override
+	public void column(int columnIndex, String columnName, String columnLabel,
+			SasColumnType columnType, String format, int columnLength) {
+		// do nothing
+	}
+
+	@Override
+	public boolean readData() {
+		return true;
+	}
+
+	@Override
+	public boolean batch(SasColumnBatch batch) {
+		final int rowCount = batch.getRowCount();
+		_rowCount += rowCount;
+		for (int column = 0; column < _columnProjection.length; column++) {
+			final double[] values = batch.getDoubles(column);
+			long count = 0;
+			double sum = 0;
+			double min = _mins[column];
+			double max = _maxs[column];
+			for (int row = 0; row < rowCount; row++) {
+				final double value = values[row];
+				if (value == value) {
+					// not missing (NaN)
+					count++;
+					sum += value;
+					if (value < min) {
+						min = value;
+					}
+					if (value > max) {
+						max = value;
+					}
+				}
+			}
+			_counts[column] += count;
+			_sums[column] += sum;
+			_mins[column] = min;
+			_maxs[column] = max;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the aggregates, in the order of the select items. The values have
+	 * the same types as the aggregates computed by MetaModel: COUNT is a
+	 * {@link Long}, the others are {@link Double}s. MIN and MAX are null if
+	 * there were no values.
+	 * 
+	 * @return
+	 */
+	public Object[] getValues() {
+		final Object[] values = new Object[_selectItems.length];
+		for (int i = 0; i < values.length; i++) {
+			final int column = _batchColumns[i];
+			if (column == -1) {
+				values[i] = _rowCount;
+				continue;
+			}
+			values[i] = getAggregate(_selectItems[i].getFunction(),
+					_counts[column], _sums[column], _mins[column],
+					_maxs[column]);
+		}
+		return values;
+	}
+
+	/**
+	 * Gets the value of an aggregate of a column, with the same type as the
+	 * aggregate computed by MetaModel.
+	 * 
+	 * @param function
+	 * @param count
+	 *            the amount of values that are not missing
+	 * @param sum
+	 * @param min
+	 * @param max
+	 * @return
+	 */
+	static Object getAggregate(FunctionType function, long count, double sum,
+			double min, double max) {
+		switch (function) {
+		case COUNT:
+			return count;
+		case SUM:
+			return sum;
+		case AVG:
+			return count == 0 ? 0d : sum / count;
+		case MIN:
+			return count == 0 ? null : min;
+		case MAX:
+			return count == 0 ? null : max;
+		default:
+			throw new UnsupportedOperationException("Unsupported function: "
+					+ function);
+		}
+	}
+}
@@ -20,20 +20,22 @@
 package org.eobjects.sassy.metamodel;
 
 import org.eobjects.metamodel.data.RowPublisher;
-import org.eobjects.metamodel.schema.Column;
 import org.eobjects.sassy.SasColumnType;
+import org.eobjects.sassy.SasReader;
 import org.eobjects.sassy.SasReaderCallback;
 
+/**
+ * Publishes rows read by a {@link SasReader}. The reader is expected to have a
+ * column projection matching the published columns.
+ */
 final class DataBuildingSasCallback implements SasReaderCallback {
 
-	private final Column[] _columns;
 	private final int _maxRows;
 	private RowPublisher _publisher;
+	private int _publishedRows;
 
-	public DataBuildingSasCallback(RowPublisher publisher, Column[] columns,
-			int maxRows) {
+	public DataBuildingSasCallback(RowPublisher publisher, int maxRows) {
 		_publisher = publisher;
-		_columns = columns;
 		_maxRows = maxRows;
 	}
 
@@ -50,19 +52,16 @@ final class DataBuildingSasCallback implements SasReaderCallback {
 
 	@Override
 	public boolean row(int row, Object[] rowData) {
-		if (_maxRows > 0 && row > _maxRows) {
+		_publisher.publish(rowData);
+		_publishedRows++;
+
+		// rows may have been skipped by predicates, so count published rows
+		// rather than relying on the row number
+		if (_maxRows > 0 && _publishedRows >= _maxRows) {
 			// don't read any more rows
 			return false;
 		}
 
-		Object[] result = new Object[_columns.length];
-		for (int i = 0; i < result.length; i++) {
-			int columnNumber = _columns[i].getColumnNumber();
-			result[i] = rowData[columnNumber];
-		}
-
-		_publisher.publish(result);
-
 		return true;
 	}
 
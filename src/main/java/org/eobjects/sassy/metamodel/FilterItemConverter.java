@@ -0,0 +1,170 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.metamodel;
+
+import java.util.Date;
+import java.util.List;
+
+import org.eobjects.metamodel.query.FilterItem;
+import org.eobjects.metamodel.query.OperatorType;
+import org.eobjects.metamodel.query.SelectItem;
+import org.eobjects.metamodel.schema.Column;
+import org.eobjects.metamodel.schema.ColumnType;
+import org.eobjects.metamodel.schema.Table;
+import org.eobjects.metamodel.util.CollectionUtils;
+import org.eobjects.sassy.SasPredicate;
+import org.eobjects.sassy.SasPredicate.Operator;
+
+/**
+ * Converts simple {@link FilterItem}s into {@link SasPredicate}s that can be
+ * pushed down into a {@link org.eobjects.sassy.SasReader}. Only filter items
+ * that the reader evaluates exactly like MetaModel would are converted.
+ */
+final class FilterItemConverter {
+
+	private FilterItemConverter() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Converts a filter item into a predicate.
+	 * 
+	 * @param table
+	 *            the table being queried
+	 * @param filterItem
+	 * @return the predicate, or null if the filter item cannot be pushed
+	 *         down
+	 */
+	public static SasPredicate toPredicate(Table table, FilterItem filterItem) {
+		if (filterItem.isCompoundFilter() || filterItem.getExpression() != null) {
+			return null;
+		}
+
+		final SelectItem selectItem = filterItem.getSelectItem();
+		final Column column = selectItem.getColumn();
+		if (column == null || selectItem.getFunction() != null
+				|| selectItem.getSubQuerySelectItem() != null
+				|| column.getTable() != table || column.getType() == null) {
+			return null;
+		}
+
+		final boolean numeric = column.getType().isNumber();
+		final boolean temporal = column.getType().isTimeBased();
+		if (!numeric && !temporal && !column.getType().isLiteral()) {
+			return null;
+		}
+		final Object operand = filterItem.getOperand();
+		if (operand instanceof SelectItem) {
+			// comparison of two columns
+			return null;
+		}
+
+		final OperatorType operator = filterItem.getOperator();
+		final int columnIndex = column.getColumnNumber();
+
+		if (operator == OperatorType.EQUALS_TO && operand == null) {
+			return new SasPredicate(columnIndex, Operator.IS_NULL);
+		}
+		if (operator == OperatorType.DIFFERENT_FROM && operand == null) {
+			return new SasPredicate(columnIndex, Operator.IS_NOT_NULL);
+		}
+
+		if (operator == OperatorType.IN) {
+			if (operand == null) {
+				return null;
+			}
+			// MetaModel evaluates IN by set membership, so numbers only match
+			// Double operands
+			final List<?> operands = CollectionUtils.toList(operand);
+			for (Object o : operands) {
+				if (temporal ? !isDate(o) : numeric ? !(o instanceof Double)
+						: !(o instanceof String)) {
+					return null;
+				}
+			}
+			return new SasPredicate(columnIndex, Operator.IN,
+					operands.toArray());
+		}
+
+		if (temporal) {
+			if (!isDate(operand)) {
+				return null;
+			}
+		} else if (numeric) {
+			if (!(operand instanceof Number)) {
+				return null;
+			}
+		} else {
+			if (!(operand instanceof String) || isBooleanLiteral(operand)) {
+				// MetaModel compares "true" and "false" case insensitively
+				return null;
+			}
+		}
+
+		// LIKE is left to MetaModel, which matches wildcard patterns anywhere
+		// in a value rather than only at its start
+		final Operator comparisonOperator = toComparisonOperator(operator);
+		if (comparisonOperator == null) {
+			return null;
+		}
+		return new SasPredicate(columnIndex, comparisonOperator, operand);
+	}
+
+	/**
+	 * Maps a comparison operator, including the deprecated aliases
+	 * LOWER_THAN and HIGHER_THAN that older clients still use.
+	 * 
+	 * @param operator
+	 * @return the operator of the predicate, or null if it is not a
+	 *         comparison operator
+	 */
+	@SuppressWarnings("deprecation")
+	private static Operator toComparisonOperator(OperatorType operator) {
+		if (operator == OperatorType.EQUALS_TO) {
+			return Operator.EQUALS_TO;
+		}
+		if (operator == OperatorType.DIFFERENT_FROM) {
+			return Operator.DIFFERENT_FROM;
+		}
+		if (operator == OperatorType.LESS_THAN
+				|| operator == OperatorType.LOWER_THAN) {
+			return Operator.LESS_THAN;
+		}
+		if (operator == OperatorType.GREATER_THAN
+				|| operator == OperatorType.HIGHER_THAN) {
+			return Operator.GREATER_THAN;
+		}
+		return null;
+	}
+
+	/**
+	 * Determines if an operand is a plain date. Subclasses such as
+	 * {@link java.sql.Timestamp} are not equal to dates of the same time, so
+	 * they are left to MetaModel.
+	 */
+	private static boolean isDate(Object operand) {
+		return operand != null && operand.getClass() == Date.class;
+	}
+
+	private static boolean isBooleanLiteral(Object operand) {
+		return "true".equalsIgnoreCase((String) operand)
+				|| "false".equalsIgnoreCase((String) operand);
+	}
+}
@@ -0,0 +1,502 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.metamodel;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eobjects.metamodel.data.DefaultRow;
+import org.eobjects.metamodel.data.Row;
+import org.eobjects.metamodel.query.SelectItem;
+import org.eobjects.metamodel.schema.Column;
+import org.eobjects.sassy.SasColumnBatch;
+import org.eobjects.sassy.SasColumnType;
+import org.eobjects.sassy.SasColumnarCallback;
+import org.eobjects.sassy.SasReader;
+
+/**
+ * Computes aggregates (COUNT, SUM, MIN, MAX, AVG) of NUMERIC columns per
+ * group of rows, on the vectors of columnar batches. Groups are found in an
+ * open addressing hash table, keyed by the bits of the value when grouping by
+ * a single NUMERIC (or temporal) column, and otherwise by the bytes of the
+ * values within the page. So rows are never materialized, and memory only
+ * grows with the amount of groups.
+ * 
+ * A callback is used by one thread at a time. When reading in parallel (see
+ * {@link SasReader#readPartitioned(SasColumnarCallback...)}), each partition
+ * has its own callback, and the groups of the partitions are merged
+ * afterwards, see {@link #merge(GroupingSasCallback[])}.
+ */
+final class GroupingSasCallback implements SasColumnarCallback {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final SelectItem[] _selectItems;
+	private final int _groupColumnCount;
+	/**
+	 * For each select item, the index of its group column, or -1 if it is an
+	 * aggregate
+	 */
+	private final int[] _itemGroupColumns;
+	/**
+	 * For each select item, the index of its aggregated column, or -1 if it
+	 * is a group column or COUNT(*)
+	 */
+	private final int[] _itemAggregateColumns;
+	private final int _aggregateColumnCount;
+	private final int[] _columnProjection;
+
+	// the groups
+	private int _groupCount;
+	private final List<Object[]> _groupValues;
+	private int[] _groupHashes;
+	private long[] _groupLongKeys;
+	private byte[] _keyBytes;
+	private int _keyBytesLength;
+	private int[] _keyOffsets;
+	private int[] _keyLengths;
+	private byte[] _scratch;
+
+	// the hash table, of group indices (-1 for free slots)
+	private int[] _slots;
+
+	// the aggregates, per group (and aggregated column)
+	private long[] _rowCounts;
+	private long[] _counts;
+	private double[] _sums;
+	private double[] _mins;
+	private double[] _maxs;
+
+	private Boolean _longKeys;
+	private int[] _rowGroups;
+
+	/**
+	 * Creates a callback.
+	 * 
+	 * @param selectItems
+	 *            the select items of the grouped rows, which are either
+	 *            columns that are grouped by or aggregates that are
+	 *            {@link AggregatingSasCallback#isAggregatable(SelectItem)}
+	 * @param groupColumns
+	 *            the columns that are grouped by
+	 */
+	public GroupingSasCallback(SelectItem[] selectItems, Column[] groupColumns) {
+		_selectItems = selectItems;
+		_groupColumnCount = groupColumns.length;
+		_itemGroupColumns = new int[selectItems.length];
+		_itemAggregateColumns = new int[selectItems.length];
+
+		// group columns first, then the aggregated columns
+		final List<Integer> columnProjection = new ArrayList<Integer>();
+		for (Column column : groupColumns) {
+			columnProjection.add(column.getColumnNumber());
+		}
+		for (int i = 0; i < selectItems.length; i++) {
+			final SelectItem selectItem = selectItems[i];
+			final Column column = selectItem.getColumn();
+			if (selectItem.getFunction() == null) {
+				_itemGroupColumns[i] = Arrays.asList(groupColumns).indexOf(
+						column);
+				_itemAggregateColumns[i] = -1;
+			} else if (column == null) {
+				// COUNT(*)
+				_itemGroupColumns[i] = -1;
+				_itemAggregateColumns[i] = -1;
+			} else {
+				final Integer columnNumber = column.getColumnNumber();
+				int batchColumn = columnProjection.subList(_groupColumnCount,
+						columnProjection.size()).indexOf(columnNumber);
+				if (batchColumn == -1) {
+					batchColumn = columnProjection.size() - _groupColumnCount;
+					columnProjection.add(columnNumber);
+				}
+				_itemGroupColumns[i] = -1;
+				_itemAggregateColumns[i] = batchColumn;
+			}
+		}
+		_columnProjection = new int[columnProjection.size()];
+		for (int i = 0; i < _columnProjection.length; i++) {
+			_columnProjection[i] = columnProjection.get(i);
+		}
+		_aggregateColumnCount = _columnProjection.length - _groupColumnCount;
+
+		_groupValues = new ArrayList<Object[]>();
+		_groupHashes = new int[INITIAL_CAPACITY];
+		_slots = new int[INITIAL_CAPACITY * 2];
+		Arrays.fill(_slots, -1);
+		_rowCounts = new long[INITIAL_CAPACITY];
+		_counts = new long[INITIAL_CAPACITY * _aggregateColumnCount];
+		_sums = new double[INITIAL_CAPACITY * _aggregateColumnCount];
+		_mins = new double[INITIAL_CAPACITY * _aggregateColumnCount];
+		_maxs = new double[INITIAL_CAPACITY * _aggregateColumnCount];
+		_rowGroups = new int[0];
+	}
+
+	/**
+	 * Gets the indices of the columns that the reader should read.
+	 * 
+	 * @see SasReader#setColumnProjection(int...)
+	 * 
+	 * @return
+	 */
+	public int[] getColumnProjection() {
+		return _columnProjection;
+	}
+
+	public int getGroupCount() {
+		return _groupCount;
+	}
+
+	@Override
+	public void column(int columnIndex, String columnName, String columnLabel,
+			SasColumnType columnType, String format, int columnLength) {
+		// do nothing
+	}
+
+	@Override
+	public boolean readData() {
+		return true;
+	}
+
+	@Override
+	public boolean batch(SasColumnBatch batch) {
+		final int rowCount = batch.getRowCount();
+		if (_longKeys == null) {
+			_longKeys = _groupColumnCount == 1
+					&& batch.getColumnType(0).isNumeric();
+			if (_longKeys) {
+				_groupLongKeys = new long[INITIAL_CAPACITY];
+			} else {
+				_keyBytes = new byte[1024];
+				_keyOffsets = new int[INITIAL_CAPACITY];
+				_keyLengths = new int[INITIAL_CAPACITY];
+				_scratch = new byte[64];
+			}
+		}
+		if (_rowGroups.length < rowCount) {
+			_rowGroups = new int[rowCount];
+		}
+
+		final int[] rowGroups = _rowGroups;
+		if (_longKeys) {
+			final double[] keys = batch.getDoubles(0);
+			for (int row = 0; row < rowCount; row++) {
+				rowGroups[row] = findGroup(batch, row,
+						Double.doubleToLongBits(keys[row]));
+			}
+		} else {
+			for (int row = 0; row < rowCount; row++) {
+				rowGroups[row] = findGroup(batch, row);
+			}
+		}
+
+		for (int row = 0; row < rowCount; row++) {
+			_rowCounts[rowGroups[row]]++;
+		}
+		final int n = _aggregateColumnCount;
+		for (int column = 0; column < n; column++) {
+			final double[] values = batch.getDoubles(_groupColumnCount
+					+ column);
+			for (int row = 0; row < rowCount; row++) {
+				final double value = values[row];
+				if (value == value) {
+					// not missing (NaN)
+					final int index = rowGroups[row] * n + column;
+					_counts[index]++;
+					_sums[index] += value;
+					if (value < _mins[index]) {
+						_mins[index] = value;
+					}
+					if (value > _maxs[index]) {
+						_maxs[index] = value;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private int findGroup(SasColumnBatch batch, int row, long key) {
+		final int hash = mix((int) (key ^ (key >>> 32)));
+		final int mask = _slots.length - 1;
+		int slot = hash & mask;
+		while (true) {
+			final int group = _slots[slot];
+			if (group == -1) {
+				break;
+			}
+			if (_groupLongKeys[group] == key) {
+				return group;
+			}
+			slot = (slot + 1) & mask;
+		}
+		final int group = addGroup(batch, row, hash, slot);
+		_groupLongKeys[group] = key;
+		return group;
+	}
+
+	private int findGroup(SasColumnBatch batch, int row) {
+		final int keyLength = writeKey(batch, row);
+		final byte[] scratch = _scratch;
+		int h = 1;
+		for (int i = 0; i < keyLength; i++) {
+			h = 31 * h + scratch[i];
+		}
+		final int hash = mix(h);
+		final int mask = _slots.length - 1;
+		int slot = hash & mask;
+		while (true) {
+			final int group = _slots[slot];
+			if (group == -1) {
+				break;
+			}
+			if (_groupHashes[group] == hash && _keyLengths[group] == keyLength
+					&& keyEquals(_keyOffsets[group], keyLength)) {
+				return group;
+			}
+			slot = (slot + 1) & mask;
+		}
+		final int group = addGroup(batch, row, hash, slot);
+		if (_keyBytesLength + keyLength > _keyBytes.length) {
+			_keyBytes = Arrays.copyOf(_keyBytes, Math.max(_keyBytesLength
+					+ keyLength, _keyBytes.length * 2));
+		}
+		System.arraycopy(scratch, 0, _keyBytes, _keyBytesLength, keyLength);
+		_keyOffsets[group] = _keyBytesLength;
+		_keyLengths[group] = keyLength;
+		_keyBytesLength += keyLength;
+		return group;
+	}
+
+	private boolean keyEquals(int offset, int length) {
+		final byte[] keyBytes = _keyBytes;
+		final byte[] scratch = _scratch;
+		for (int i = 0; i < length; i++) {
+			if (keyBytes[offset + i] != scratch[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the key of a row to the scratch buffer: the bits of NUMERIC
+	 * values and the (trimmed) bytes of CHARACTER values, prefixed by their
+	 * length or -1 for nulls.
+	 * 
+	 * @return the length of the key
+	 */
+	private int writeKey(SasColumnBatch batch, int row) {
+		int length = 0;
+		for (int column = 0; column < _groupColumnCount; column++) {
+			if (batch.getColumnType(column).isNumeric()) {
+				length = ensureScratch(length, 8);
+				final long bits = Double.doubleToLongBits(batch
+						.getDoubles(column)[row]);
+				for (int i = 0; i < 8; i++) {
+					_scratch[length++] = (byte) (bits >>> (i * 8));
+				}
+			} else {
+				final int valueLength = batch.isMissing(column, row) ? -1
+						: batch.getLengths(column)[row];
+				length = ensureScratch(length, 4 + Math.max(0, valueLength));
+				for (int i = 0; i < 4; i++) {
+					_scratch[length++] = (byte) (valueLength >>> (i * 8));
+				}
+				if (valueLength > 0) {
+					final ByteBuffer page = batch.getPage();
+					final int offset = batch.getOffsets(column)[row];
+					for (int i = 0; i < valueLength; i++) {
+						_scratch[length++] = page.get(offset + i);
+					}
+				}
+			}
+		}
+		return length;
+	}
+
+	private int ensureScratch(int length, int extra) {
+		if (length + extra > _scratch.length) {
+			_scratch = Arrays.copyOf(_scratch, Math.max(length + extra,
+					_scratch.length * 2));
+		}
+		return length;
+	}
+
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private int addGroup(SasColumnBatch batch, int row, int hash, int slot) {
+		final Object[] values = new Object[_groupColumnCount];
+		for (int column = 0; column < values.length; column++) {
+			values[column] = getGroupValue(batch, column, row);
+		}
+		final int group = addGroup(values, hash);
+		_slots[slot] = group;
+		if (_groupCount * 2 > _slots.length) {
+			rehash();
+		}
+		return group;
+	}
+
+	/**
+	 * Adds a group, without adding it to the hash table.
+	 */
+	private int addGroup(Object[] values, int hash) {
+		final int group = _groupCount++;
+		if (group == _rowCounts.length) {
+			final int capacity = group * 2;
+			_groupHashes = Arrays.copyOf(_groupHashes, capacity);
+			if (_groupLongKeys != null) {
+				_groupLongKeys = Arrays.copyOf(_groupLongKeys, capacity);
+			}
+			if (_keyOffsets != null) {
+				_keyOffsets = Arrays.copyOf(_keyOffsets, capacity);
+				_keyLengths = Arrays.copyOf(_keyLengths, capacity);
+			}
+			_rowCounts = Arrays.copyOf(_rowCounts, capacity);
+			final int n = _aggregateColumnCount;
+			_counts = Arrays.copyOf(_counts, capacity * n);
+			_sums = Arrays.copyOf(_sums, capacity * n);
+			_mins = Arrays.copyOf(_mins, capacity * n);
+			_maxs = Arrays.copyOf(_maxs, capacity * n);
+		}
+		_groupValues.add(values);
+		_groupHashes[group] = hash;
+		final int n = _aggregateColumnCount;
+		Arrays.fill(_mins, group * n, group * n + n, Double.POSITIVE_INFINITY);
+		Arrays.fill(_maxs, group * n, group * n + n, Double.NEGATIVE_INFINITY);
+		return group;
+	}
+
+	private void rehash() {
+		_slots = new int[_slots.length * 2];
+		Arrays.fill(_slots, -1);
+		final int mask = _slots.length - 1;
+		for (int group = 0; group < _groupCount; group++) {
+			int slot = _groupHashes[group] & mask;
+			while (_slots[slot] != -1) {
+				slot = (slot + 1) & mask;
+			}
+			_slots[slot] = group;
+		}
+	}
+
+	/**
+	 * Gets a group value, as it would be delivered in rows by a
+	 * {@link SasReader} that delivers dates.
+	 */
+	private Object getGroupValue(SasColumnBatch batch, int column, int row) {
+		final SasColumnType type = batch.getColumnType(column);
+		if (type == SasColumnType.CHARACTER) {
+			return batch.getString(column, row);
+		}
+		if (type.isTemporal()) {
+			if (batch.isMissing(column, row)) {
+				return null;
+			}
+			final long epochValue = batch.getEpochValues(column)[row];
+			if (type == SasColumnType.DATE) {
+				return new Date(epochValue * 86400000L);
+			}
+			return new Date(epochValue);
+		}
+		return batch.getDoubles(column)[row];
+	}
+
+	/**
+	 * Merges the groups of the partitions of a parallel read.
+	 * 
+	 * @param partitions
+	 * @return the first partition, which holds all groups
+	 */
+	public static GroupingSasCallback merge(GroupingSasCallback[] partitions) {
+		final GroupingSasCallback target = partitions[0];
+		if (partitions.length == 1) {
+			return target;
+		}
+		final Map<List<Object>, Integer> groups = new HashMap<List<Object>, Integer>();
+		for (int group = 0; group < target._groupCount; group++) {
+			groups.put(Arrays.asList(target._groupValues.get(group)), group);
+		}
+		final int n = target._aggregateColumnCount;
+		for (int p = 1; p < partitions.length; p++) {
+			final GroupingSasCallback partition = partitions[p];
+			for (int group = 0; group < partition._groupCount; group++) {
+				final Object[] values = partition._groupValues.get(group);
+				final List<Object> key = Arrays.asList(values);
+				Integer targetGroup = groups.get(key);
+				if (targetGroup == null) {
+					// the hash table of the target is not used anymore
+					targetGroup = target.addGroup(values, 0);
+					groups.put(key, targetGroup);
+				}
+				target._rowCounts[targetGroup] += partition._rowCounts[group];
+				for (int column = 0; column < n; column++) {
+					final int from = group * n + column;
+					final int to = targetGroup * n + column;
+					target._counts[to] += partition._counts[from];
+					target._sums[to] += partition._sums[from];
+					target._mins[to] = Math.min(target._mins[to],
+							partition._mins[from]);
+					target._maxs[to] = Math.max(target._maxs[to],
+							partition._maxs[from]);
+				}
+			}
+		}
+		return target;
+	}
+
+	/**
+	 * Gets the rows of the groups, with the values of the select items.
+	 * 
+	 * @return
+	 */
+	public List<Row> getRows() {
+		final List<Row> rows = new ArrayList<Row>(_groupCount);
+		final int n = _aggregateColumnCount;
+		for (int group = 0; group < _groupCount; group++) {
+			final Object[] values = new Object[_selectItems.length];
+			for (int i = 0; i < values.length; i++) {
+				final int groupColumn = _itemGroupColumns[i];
+				final int aggregateColumn = _itemAggregateColumns[i];
+				if (groupColumn != -1) {
+					values[i] = _groupValues.get(group)[groupColumn];
+				} else if (aggregateColumn == -1) {
+					values[i] = _rowCounts[group];
+				} else {
+					final int index = group * n + aggregateColumn;
+					values[i] = AggregatingSasCallback.getAggregate(
+							_selectItems[i].getFunction(), _counts[index],
+							_sums[index], _mins[index], _maxs[index]);
+				}
+			}
+			rows.add(new DefaultRow(_selectItems, values));
+		}
+		return rows;
+	}
+}
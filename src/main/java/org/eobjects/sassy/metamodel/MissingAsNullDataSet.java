@@ -0,0 +1,86 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.metamodel;
+
+import java.util.Collection;
+
+import org.eobjects.metamodel.data.AbstractDataSet;
+import org.eobjects.metamodel.data.DataSet;
+import org.eobjects.metamodel.data.DefaultRow;
+import org.eobjects.metamodel.data.Row;
+import org.eobjects.metamodel.query.SelectItem;
+import org.eobjects.metamodel.schema.Column;
+
+/**
+ * {@link DataSet} that replaces the missing (NaN) values of some columns of
+ * another data set by nulls, so that the aggregates that MetaModel computes
+ * skip them, like {@link AggregatingSasCallback} and
+ * {@link GroupingSasCallback} do.
+ */
+final class MissingAsNullDataSet extends AbstractDataSet {
+
+	private final DataSet _dataSet;
+	private final SelectItem[] _selectItems;
+	private final boolean[] _replaced;
+	private Row _row;
+
+	public MissingAsNullDataSet(DataSet dataSet, Collection<Column> columns) {
+		_dataSet = dataSet;
+		_selectItems = dataSet.getSelectItems();
+		_replaced = new boolean[_selectItems.length];
+		for (int i = 0; i < _selectItems.length; i++) {
+			_replaced[i] = _selectItems[i].getFunction() == null
+					&& columns.contains(_selectItems[i].getColumn());
+		}
+	}
+
+	@Override
+	public SelectItem[] getSelectItems() {
+		return _selectItems;
+	}
+
+	@Override
+	public boolean next() {
+		if (!_dataSet.next()) {
+			_row = null;
+			return false;
+		}
+		final Row row = _dataSet.getRow();
+		final Object[] values = row.getValues().clone();
+		for (int i = 0; i < values.length; i++) {
+			if (_replaced[i] && values[i] instanceof Double
+					&& ((Double) values[i]).isNaN()) {
+				values[i] = null;
+			}
+		}
+		_row = new DefaultRow(_selectItems, values);
+		return true;
+	}
+
+	@Override
+	public Row getRow() {
+		return _row;
+	}
+
+	@Override
+	public void close() {
+		_dataSet.close();
+	}
+}
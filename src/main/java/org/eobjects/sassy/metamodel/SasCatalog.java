@@ -0,0 +1,350 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.metamodel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eobjects.sassy.SasColumn;
+import org.eobjects.sassy.SasColumnType;
+import org.eobjects.sassy.SasMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An on-disk catalog of the columns and row counts of sas7bdat files, so that
+ * a {@link SasDataContext} does not have to read the metadata of files that
+ * have not changed since it was cataloged. Entries are keyed by the absolute
+ * path of a file and are only valid while the size and last modification
+ * time of the file are unchanged.
+ * 
+ * The catalog is written after a batch of files has been cataloged, by
+ * writing a temporary file and moving it in place. A catalog that cannot be
+ * read is ignored (and rebuilt), since it only caches what the files hold.
+ * 
+ * @author Kasper Sørensen
+ */
+final class SasCatalog {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(SasCatalog.class);
+
+	private static final int MAGIC = 0x53415343;
+	private static final int VERSION = 1;
+
+	/**
+	 * The cataloged metadata of a file.
+	 */
+	static final class Entry {
+
+		private final long _size;
+		private final long _lastModified;
+		private final int _rowCount;
+		private final List<SasColumn> _columns;
+
+		Entry(long size, long lastModified, int rowCount,
+				List<SasColumn> columns) {
+			_size = size;
+			_lastModified = lastModified;
+			_rowCount = rowCount;
+			_columns = Collections.unmodifiableList(columns);
+		}
+
+		public int getRowCount() {
+			return _rowCount;
+		}
+
+		public List<SasColumn> getColumns() {
+			return _columns;
+		}
+
+		private boolean isValid(File file) {
+			return file.length() == _size
+					&& file.lastModified() == _lastModified;
+		}
+	}
+
+	private final File _file;
+	private final Map<String, Entry> _entries;
+	private final AtomicInteger _pendingLoads;
+	private volatile boolean _dirty;
+
+	private SasCatalog(File file) {
+		_file = file;
+		_entries = new ConcurrentHashMap<String, Entry>();
+		_pendingLoads = new AtomicInteger();
+		_dirty = false;
+	}
+
+	/**
+	 * Loads a catalog, or creates an empty one if the file does not exist or
+	 * cannot be read.
+	 * 
+	 * @param file
+	 * @return
+	 */
+	public static SasCatalog load(File file) {
+		final SasCatalog catalog = new SasCatalog(file);
+		if (file.exists()) {
+			try {
+				catalog.read();
+			} catch (IOException e) {
+				logger.warn("Could not read catalog " + file
+						+ ", rebuilding it", e);
+				catalog._entries.clear();
+				catalog._dirty = true;
+			}
+		}
+		return catalog;
+	}
+
+	public File getFile() {
+		return _file;
+	}
+
+	/**
+	 * Gets the entry of a file, if the file has not changed since it was
+	 * cataloged.
+	 * 
+	 * @param file
+	 * @return the entry, or null if the file is not cataloged or has changed
+	 */
+	public Entry get(File file) {
+		final Entry entry = _entries.get(getKey(file));
+		if (entry == null || !entry.isValid(file)) {
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Catalogs the metadata of a file.
+	 * 
+	 * @param file
+	 * @param size
+	 *            the size of the file before its metadata was read
+	 * @param lastModified
+	 *            the last modification time of the file before its metadata
+	 *            was read
+	 * @param metadata
+	 */
+	public void put(File file, long size, long lastModified,
+			SasMetadata metadata) {
+		_entries.put(getKey(file), new Entry(size, lastModified,
+				metadata.getRowCount(), new ArrayList<SasColumn>(
+						metadata.getColumns())));
+		_dirty = true;
+	}
+
+	/**
+	 * Removes the entries of files in a directory that are not among the
+	 * given files, ie. files that have been deleted. Entries of files in
+	 * other directories are kept, since a catalog may be shared.
+	 * 
+	 * @param directory
+	 * @param files
+	 *            the files that are in the directory
+	 */
+	public void retain(File directory, Collection<File> files) {
+		final Set<String> keys = new HashSet<String>();
+		for (File file : files) {
+			keys.add(getKey(file));
+		}
+		final String directoryPath = directory.getAbsolutePath();
+		for (Iterator<String> it = _entries.keySet().iterator(); it.hasNext();) {
+			final String key = it.next();
+			if (!keys.contains(key)
+					&& directoryPath.equals(new File(key).getParent())) {
+				it.remove();
+				_dirty = true;
+			}
+		}
+	}
+
+	/**
+	 * Registers files that are about to be cataloged in the background. The
+	 * catalog is saved when the last of them is done.
+	 * 
+	 * @param count
+	 */
+	public void beginLoads(int count) {
+		_pendingLoads.addAndGet(count);
+	}
+
+	/**
+	 * Marks a file registered by {@link #beginLoads(int)} as done (cataloged
+	 * or not).
+	 */
+	public void loadDone() {
+		if (_pendingLoads.decrementAndGet() == 0) {
+			save();
+		}
+	}
+
+	/**
+	 * Saves the catalog if it has changed and no files are being cataloged
+	 * in the background (which saves the catalog when done).
+	 */
+	public void saveIfIdle() {
+		if (_pendingLoads.get() == 0) {
+			save();
+		}
+	}
+
+	/**
+	 * Saves the catalog if it has changed. Failures are logged, since the
+	 * catalog is only a cache.
+	 */
+	public synchronized void save() {
+		if (!_dirty) {
+			return;
+		}
+		_dirty = false;
+		try {
+			write();
+		} catch (IOException e) {
+			_dirty = true;
+			logger.warn("Could not write catalog " + _file, e);
+		}
+	}
+
+	private static String getKey(File file) {
+		return file.getAbsolutePath();
+	}
+
+	private void read() throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(_file)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a catalog file");
+			}
+			final int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported catalog version: "
+						+ version);
+			}
+			final int entryCount = in.readInt();
+			for (int i = 0; i < entryCount; i++) {
+				final String key = in.readUTF();
+				final long size = in.readLong();
+				final long lastModified = in.readLong();
+				final int rowCount = in.readInt();
+				final int columnCount = in.readInt();
+				final List<SasColumn> columns = new ArrayList<SasColumn>(
+						columnCount);
+				for (int j = 0; j < columnCount; j++) {
+					final String name = in.readUTF();
+					final String label = readNullableString(in);
+					final SasColumnType type;
+					try {
+						type = SasColumnType.valueOf(in.readUTF());
+					} catch (IllegalArgumentException e) {
+						throw new IOException("Unknown column type", e);
+					}
+					final String format = readNullableString(in);
+					final int offset = in.readInt();
+					final int length = in.readInt();
+					columns.add(new SasColumn(j, name, label, type, format,
+							offset, length));
+				}
+				_entries.put(key, new Entry(size, lastModified, rowCount,
+						columns));
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private void write() throws IOException {
+		final File directory = _file.getAbsoluteFile().getParentFile();
+		final File tempFile = File.createTempFile(_file.getName(), ".tmp",
+				directory);
+		try {
+			final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				// a snapshot, since entries may be added concurrently
+				final List<Map.Entry<String, Entry>> entries = new ArrayList<Map.Entry<String, Entry>>(
+						_entries.entrySet());
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(entries.size());
+				for (Map.Entry<String, Entry> mapEntry : entries) {
+					final Entry entry = mapEntry.getValue();
+					out.writeUTF(mapEntry.getKey());
+					out.writeLong(entry._size);
+					out.writeLong(entry._lastModified);
+					out.writeInt(entry._rowCount);
+					out.writeInt(entry._columns.size());
+					for (SasColumn column : entry._columns) {
+						out.writeUTF(column.getName());
+						writeNullableString(out, column.getLabel());
+						out.writeUTF(column.getType().name());
+						writeNullableString(out, column.getFormat());
+						out.writeInt(column.getOffset());
+						out.writeInt(column.getLength());
+					}
+				}
+			} finally {
+				out.close();
+			}
+			Files.move(tempFile.toPath(), _file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	private static String readNullableString(DataInputStream in)
+			throws IOException {
+		if (in.readBoolean()) {
+			return in.readUTF();
+		}
+		return null;
+	}
+
+	private static void writeNullableString(DataOutputStream out, String str)
+			throws IOException {
+		out.writeBoolean(str != null);
+		if (str != null) {
+			out.writeUTF(str);
+		}
+	}
+}
@@ -0,0 +1,608 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.metamodel;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eobjects.sassy.SasColumn;
+import org.eobjects.sassy.SasColumnBatch;
+import org.eobjects.sassy.SasColumnType;
+import org.eobjects.sassy.SasColumnarCallback;
+import org.eobjects.sassy.SasMetadata;
+import org.eobjects.sassy.SasReader;
+
+/**
+ * An in-memory, columnar copy of a sas7bdat file, held in direct (off-heap)
+ * buffers so that it does not add to the work of the garbage collector.
+ * NUMERIC columns are held as doubles and DATE, DATETIME and TIME columns as
+ * epoch milliseconds, each with a bitmap of missing values. CHARACTER columns
+ * are dictionary encoded when they have few distinct values, and otherwise
+ * held as UTF-8 bytes with the offset of each value.
+ * 
+ * A store is only valid while the size and last modification time of the
+ * file are unchanged, see {@link #isStale()}.
+ * 
+ * @author Kasper Sørensen
+ */
+final class SasColumnStore {
+
+	/**
+	 * The maximum amount of distinct values of a dictionary encoded column
+	 */
+	private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File _file;
+	private final long _fileSize;
+	private final long _lastModified;
+	private final int _rowCount;
+	private final StoredColumn[] _columns;
+	private final long _size;
+
+	private SasColumnStore(File file, long fileSize, long lastModified,
+			int rowCount, StoredColumn[] columns) {
+		_file = file;
+		_fileSize = fileSize;
+		_lastModified = lastModified;
+		_rowCount = rowCount;
+		_columns = columns;
+		long size = 0;
+		for (StoredColumn column : columns) {
+			size += column.getSize();
+		}
+		_size = size;
+	}
+
+	/**
+	 * Reads all rows of a file into a store, unless the store would hold more
+	 * than a maximum amount of bytes. The size is estimated from the metadata
+	 * before any rows are read, and tracked while the rows are collected, so
+	 * that an oversized file is abandoned before it has been copied into
+	 * buffers.
+	 * 
+	 * @param file
+	 * @param maxSize
+	 *            the maximum amount of bytes
+	 * @return the store, or null if the file does not fit
+	 */
+	public static SasColumnStore load(File file, long maxSize) {
+		final long fileSize = file.length();
+		final long lastModified = file.lastModified();
+		final SasReader reader = new SasReader(file);
+		if (getMinimumSize(reader.readMetadata()) > maxSize) {
+			return null;
+		}
+		final StoreBuildingCallback callback = new StoreBuildingCallback(
+				maxSize);
+		reader.read(callback);
+		if (callback._oversized) {
+			return null;
+		}
+		final SasColumnStore store = new SasColumnStore(file, fileSize,
+				lastModified, callback._rowCount, callback.build());
+		if (store.getSize() > maxSize) {
+			return null;
+		}
+		return store;
+	}
+
+	/**
+	 * Gets the least amount of bytes that a store of a file can hold: 8 bytes
+	 * per value of NUMERIC, DATE, DATETIME and TIME columns (plus their
+	 * bitmaps) and 4 bytes per value of CHARACTER columns, which is the size
+	 * of a dictionary code.
+	 * 
+	 * @param metadata
+	 * @return
+	 */
+	private static long getMinimumSize(SasMetadata metadata) {
+		final long rowCount = metadata.getRowCount();
+		long size = 0;
+		for (SasColumn column : metadata.getColumns()) {
+			if (column.getLength() == 0) {
+				continue;
+			}
+			if (column.getType() == SasColumnType.CHARACTER) {
+				size += rowCount * 4;
+			} else {
+				size += rowCount * 8 + ((rowCount + 63) >>> 6) * 8;
+			}
+		}
+		return size;
+	}
+
+	public File getFile() {
+		return _file;
+	}
+
+	/**
+	 * Determines if the file has changed (or has been deleted) since it was
+	 * read into the store.
+	 * 
+	 * @return
+	 */
+	public boolean isStale() {
+		return _file.length() != _fileSize
+				|| _file.lastModified() != _lastModified;
+	}
+
+	public int getRowCount() {
+		return _rowCount;
+	}
+
+	/**
+	 * Gets the amount of bytes held by the store, mostly off-heap.
+	 * 
+	 * @return
+	 */
+	public long getSize() {
+		return _size;
+	}
+
+	/**
+	 * Gets a value, as it would be delivered in rows by a {@link SasReader}
+	 * that delivers dates.
+	 * 
+	 * @param column
+	 *            the index (0-based) of the column within the file
+	 * @param row
+	 * @return
+	 */
+	public Object getValue(int column, int row) {
+		return _columns[column].getValue(row);
+	}
+
+	private static ByteBuffer allocate(long bytes) {
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalStateException(
+					"Column is too large to be stored: " + bytes + " bytes");
+		}
+		return ByteBuffer.allocateDirect((int) bytes).order(
+				ByteOrder.nativeOrder());
+	}
+
+	private static LongBuffer toMissingBuffer(long[] missing, int rowCount) {
+		final int length = (rowCount + 63) >>> 6;
+		final LongBuffer buffer = allocate(length * 8L).asLongBuffer();
+		buffer.put(missing, 0, length);
+		return buffer;
+	}
+
+	private static boolean isMissing(LongBuffer missing, int row) {
+		return (missing.get(row >>> 6) & (1L << row)) != 0;
+	}
+
+	private static abstract class StoredColumn {
+
+		public abstract Object getValue(int row);
+
+		/**
+		 * Gets the amount of bytes held by the column.
+		 * 
+		 * @return
+		 */
+		public abstract long getSize();
+	}
+
+	private static final class NullColumn extends StoredColumn {
+
+		@Override
+		public Object getValue(int row) {
+			return null;
+		}
+
+		@Override
+		public long getSize() {
+			return 0;
+		}
+	}
+
+	private static final class DoubleColumn extends StoredColumn {
+
+		private final DoubleBuffer _values;
+		private final LongBuffer _missing;
+
+		public DoubleColumn(DoubleBuffer values, LongBuffer missing) {
+			_values = values;
+			_missing = missing;
+		}
+
+		@Override
+		public Object getValue(int row) {
+			// missing values are NaN, like in rows
+			return _values.get(row);
+		}
+
+		@Override
+		public long getSize() {
+			return _values.capacity() * 8L + _missing.capacity() * 8L;
+		}
+	}
+
+	private static final class DateColumn extends StoredColumn {
+
+		private final LongBuffer _millis;
+		private final LongBuffer _missing;
+
+		public DateColumn(LongBuffer millis, LongBuffer missing) {
+			_millis = millis;
+			_missing = missing;
+		}
+
+		@Override
+		public Object getValue(int row) {
+			if (isMissing(_missing, row)) {
+				return null;
+			}
+			return new Date(_millis.get(row));
+		}
+
+		@Override
+		public long getSize() {
+			return _millis.capacity() * 8L + _missing.capacity() * 8L;
+		}
+	}
+
+	private static final class DictionaryColumn extends StoredColumn {
+
+		private final String[] _dictionary;
+		/**
+		 * Codes of the values, -1 for null
+		 */
+		private final IntBuffer _codes;
+
+		public DictionaryColumn(String[] dictionary, IntBuffer codes) {
+			_dictionary = dictionary;
+			_codes = codes;
+		}
+
+		@Override
+		public Object getValue(int row) {
+			final int code = _codes.get(row);
+			if (code == -1) {
+				return null;
+			}
+			return _dictionary[code];
+		}
+
+		@Override
+		public long getSize() {
+			long size = _codes.capacity() * 4L;
+			for (String value : _dictionary) {
+				size += 40 + value.length() * 2;
+			}
+			return size;
+		}
+	}
+
+	private static final class OffsetColumn extends StoredColumn {
+
+		private final ByteBuffer _bytes;
+		/**
+		 * Offsets of the values within the bytes, with the end offset of the
+		 * last value at the end
+		 */
+		private final IntBuffer _offsets;
+		private final LongBuffer _missing;
+
+		public OffsetColumn(ByteBuffer bytes, IntBuffer offsets,
+				LongBuffer missing) {
+			_bytes = bytes;
+			_offsets = offsets;
+			_missing = missing;
+		}
+
+		@Override
+		public Object getValue(int row) {
+			if (isMissing(_missing, row)) {
+				return null;
+			}
+			final int offset = _offsets.get(row);
+			final byte[] value = new byte[_offsets.get(row + 1) - offset];
+			final ByteBuffer bytes = _bytes.duplicate();
+			bytes.position(offset);
+			bytes.get(value);
+			return new String(value, UTF8);
+		}
+
+		@Override
+		public long getSize() {
+			return _bytes.capacity() + _offsets.capacity() * 4L
+					+ _missing.capacity() * 8L;
+		}
+	}
+
+	/**
+	 * Collects the values of a column on the heap, in primitive arrays, until
+	 * the whole file has been read.
+	 */
+	private static final class ColumnBuilder {
+
+		private final SasColumnType _type;
+		private final boolean _null;
+		private long[] _missing = new long[1];
+
+		// NUMERIC, DATE, DATETIME and TIME values
+		private double[] _doubles;
+		private long[] _millis;
+
+		// CHARACTER values, either dictionary encoded or as bytes
+		private Map<String, Integer> _dictionary;
+		private List<String> _dictionaryValues;
+		private long _dictionaryValuesSize;
+		private int[] _codes;
+		private byte[] _bytes;
+		private int _byteCount;
+		private int[] _offsets;
+
+		public ColumnBuilder(SasColumnType type, int columnLength) {
+			_type = type;
+			// columns without a length only hold nulls
+			_null = columnLength == 0;
+			if (type == SasColumnType.CHARACTER) {
+				_dictionary = new HashMap<String, Integer>();
+				_dictionaryValues = new ArrayList<String>();
+				_codes = new int[1024];
+			} else if (type.isTemporal()) {
+				_millis = new long[1024];
+			} else {
+				_doubles = new double[1024];
+			}
+		}
+
+		public void add(SasColumnBatch batch, int column, int rowOffset) {
+			final int rowCount = batch.getRowCount();
+			ensureCapacity(rowOffset + rowCount);
+			for (int i = 0; i < rowCount; i++) {
+				if (batch.isMissing(column, i)) {
+					final int row = rowOffset + i;
+					_missing[row >>> 6] |= 1L << row;
+				}
+			}
+			if (_type == SasColumnType.CHARACTER) {
+				for (int i = 0; i < rowCount; i++) {
+					addString(rowOffset + i, batch.getString(column, i));
+				}
+			} else if (_type.isTemporal()) {
+				final long[] epochValues = batch.getEpochValues(column);
+				final long factor = _type == SasColumnType.DATE ? 86400000L
+						: 1L;
+				for (int i = 0; i < rowCount; i++) {
+					_millis[rowOffset + i] = epochValues[i] * factor;
+				}
+			} else {
+				System.arraycopy(batch.getDoubles(column), 0, _doubles,
+						rowOffset, rowCount);
+			}
+		}
+
+		private void ensureCapacity(int rowCount) {
+			final int missingLength = (rowCount + 63) >>> 6;
+			if (_missing.length < missingLength) {
+				_missing = Arrays.copyOf(_missing,
+						Math.max(missingLength, _missing.length * 2));
+			}
+			if (_doubles != null && _doubles.length < rowCount) {
+				_doubles = Arrays.copyOf(_doubles,
+						Math.max(rowCount, _doubles.length * 2));
+			}
+			if (_millis != null && _millis.length < rowCount) {
+				_millis = Arrays.copyOf(_millis,
+						Math.max(rowCount, _millis.length * 2));
+			}
+			if (_codes != null && _codes.length < rowCount) {
+				_codes = Arrays.copyOf(_codes,
+						Math.max(rowCount, _codes.length * 2));
+			}
+			if (_offsets != null && _offsets.length < rowCount + 1) {
+				_offsets = Arrays.copyOf(_offsets,
+						Math.max(rowCount + 1, _offsets.length * 2));
+			}
+		}
+
+		private void addString(int row, String value) {
+			if (_dictionary != null) {
+				if (value == null) {
+					_codes[row] = -1;
+					return;
+				}
+				Integer code = _dictionary.get(value);
+				if (code == null) {
+					if (_dictionary.size() == MAX_DICTIONARY_SIZE) {
+						toOffsets(row);
+						addString(row, value);
+						return;
+					}
+					code = _dictionaryValues.size();
+					_dictionary.put(value, code);
+					_dictionaryValues.add(value);
+					_dictionaryValuesSize += 40 + value.length() * 2;
+				}
+				_codes[row] = code;
+			} else {
+				_offsets[row] = _byteCount;
+				if (value != null) {
+					final byte[] bytes = value.getBytes(UTF8);
+					if (_byteCount + bytes.length > _bytes.length) {
+						_bytes = Arrays.copyOf(_bytes, Math.max(_byteCount
+								+ bytes.length, _bytes.length * 2));
+					}
+					System.arraycopy(bytes, 0, _bytes, _byteCount,
+							bytes.length);
+					_byteCount += bytes.length;
+				}
+				_offsets[row + 1] = _byteCount;
+			}
+		}
+
+		/**
+		 * Switches from dictionary encoding to offsets
+		 * 
+		 * @param rowCount
+		 *            the amount of rows that have been added
+		 */
+		private void toOffsets(int rowCount) {
+			final int[] codes = _codes;
+			final List<String> dictionaryValues = _dictionaryValues;
+			_dictionary = null;
+			_dictionaryValues = null;
+			_dictionaryValuesSize = 0;
+			_codes = null;
+			_bytes = new byte[4096];
+			_byteCount = 0;
+			_offsets = new int[codes.length + 1];
+			for (int row = 0; row < rowCount; row++) {
+				final int code = codes[row];
+				addString(row, code == -1 ? null : dictionaryValues.get(code));
+			}
+		}
+
+		/**
+		 * Gets the least amount of bytes that the column will hold when it is
+		 * built.
+		 * 
+		 * @param rowCount
+		 *            the amount of rows that have been added
+		 * @return
+		 */
+		public long getSize(int rowCount) {
+			if (_null) {
+				return 0;
+			}
+			final long missingSize = ((rowCount + 63) >>> 6) * 8L;
+			if (_doubles != null || _millis != null) {
+				return rowCount * 8L + missingSize;
+			}
+			if (_dictionary != null) {
+				// the column may still be built with offsets, which take at
+				// least 4 bytes per row
+				return Math.min(rowCount * 4L + _dictionaryValuesSize,
+						(rowCount + 1) * 4L + missingSize);
+			}
+			return _byteCount + (rowCount + 1) * 4L + missingSize;
+		}
+
+		public StoredColumn build(int rowCount) {
+			if (_null) {
+				return new NullColumn();
+			}
+			if (_dictionary != null
+					&& _dictionary.size() > Math.max(256, rowCount / 2)) {
+				// mostly distinct values are smaller as bytes
+				toOffsets(rowCount);
+			}
+
+			final LongBuffer missing = toMissingBuffer(_missing, rowCount);
+			if (_doubles != null) {
+				final DoubleBuffer values = allocate(rowCount * 8L)
+						.asDoubleBuffer();
+				values.put(_doubles, 0, rowCount);
+				return new DoubleColumn(values, missing);
+			}
+			if (_millis != null) {
+				final LongBuffer millis = allocate(rowCount * 8L)
+						.asLongBuffer();
+				millis.put(_millis, 0, rowCount);
+				return new DateColumn(millis, missing);
+			}
+			if (_dictionary != null) {
+				final IntBuffer codes = allocate(rowCount * 4L).asIntBuffer();
+				codes.put(_codes, 0, rowCount);
+				return new DictionaryColumn(
+						_dictionaryValues.toArray(new String[_dictionaryValues
+								.size()]), codes);
+			}
+			final ByteBuffer bytes = allocate(_byteCount);
+			bytes.put(_bytes, 0, _byteCount);
+			final IntBuffer offsets = allocate((rowCount + 1) * 4L)
+					.asIntBuffer();
+			if (rowCount == 0) {
+				offsets.put(0);
+			} else {
+				offsets.put(_offsets, 0, rowCount + 1);
+			}
+			return new OffsetColumn(bytes, offsets, missing);
+		}
+	}
+
+	private static final class StoreBuildingCallback implements
+			SasColumnarCallback {
+
+		private final List<ColumnBuilder> _builders = new ArrayList<ColumnBuilder>();
+		private final long _maxSize;
+		private int _rowCount;
+		private boolean _oversized;
+
+		public StoreBuildingCallback(long maxSize) {
+			_maxSize = maxSize;
+		}
+
+		@Override
+		public void column(int columnIndex, String columnName,
+				String columnLabel, SasColumnType columnType, String format,
+				int columnLength) {
+			_builders.add(new ColumnBuilder(columnType, columnLength));
+		}
+
+		@Override
+		public boolean readData() {
+			return true;
+		}
+
+		@Override
+		public boolean batch(SasColumnBatch batch) {
+			for (int i = 0; i < _builders.size(); i++) {
+				_builders.get(i).add(batch, i, _rowCount);
+			}
+			_rowCount += batch.getRowCount();
+			long size = 0;
+			for (ColumnBuilder builder : _builders) {
+				size += builder.getSize(_rowCount);
+			}
+			if (size > _maxSize) {
+				// stop reading before the heap copies grow any further
+				_oversized = true;
+				return false;
+			}
+			return true;
+		}
+
+		public StoredColumn[] build() {
+			final StoredColumn[] columns = new StoredColumn[_builders.size()];
+			for (int i = 0; i < columns.length; i++) {
+				columns[i] = _builders.get(i).build(_rowCount);
+			}
+			return columns;
+		}
+	}
+}
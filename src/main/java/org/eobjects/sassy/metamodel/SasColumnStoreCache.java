@@ -0,0 +1,146 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.metamodel;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link SasColumnStore}s of the pinned tables of a
+ * {@link SasDataContext}, with a budget of bytes in memory. Stores are loaded
+ * when first used and reloaded when their file has changed. When the budget
+ * is exceeded, the least recently used stores are evicted. Files that are
+ * larger than the budget are remembered, so that they are not loaded again
+ * until they change.
+ * 
+ * @author Kasper Sørensen
+ */
+final class SasColumnStoreCache {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(SasColumnStoreCache.class);
+
+	private final long _maxSize;
+	private final LinkedHashMap<File, SasColumnStore> _stores;
+	private final Map<File, long[]> _oversizedFiles;
+	private long _size;
+
+	public SasColumnStoreCache(long maxSize) {
+		_maxSize = maxSize;
+		// access order, so that the eldest store is the least recently used
+		_stores = new LinkedHashMap<File, SasColumnStore>(16, 0.75f, true);
+		_oversizedFiles = new HashMap<File, long[]>();
+	}
+
+	public long getMaxSize() {
+		return _maxSize;
+	}
+
+	/**
+	 * Gets the amount of bytes held by the stores.
+	 * 
+	 * @return
+	 */
+	public synchronized long getSize() {
+		return _size;
+	}
+
+	/**
+	 * Gets the store of a file, loading it if it is not loaded or has become
+	 * stale.
+	 * 
+	 * @param file
+	 * @return the store, or null if the file does not fit in the budget
+	 */
+	public SasColumnStore get(File file) {
+		final long[] fingerprint = new long[] { file.length(),
+				file.lastModified() };
+		synchronized (this) {
+			final SasColumnStore store = _stores.get(file);
+			if (store != null) {
+				if (!store.isStale()) {
+					return store;
+				}
+				remove(file);
+			}
+			if (Arrays.equals(_oversizedFiles.get(file), fingerprint)) {
+				return null;
+			}
+		}
+
+		// loaded without holding the lock, so that other tables can be used
+		// in the meantime
+		final long start = System.currentTimeMillis();
+		final SasColumnStore store = SasColumnStore.load(file, _maxSize);
+
+		synchronized (this) {
+			if (store == null) {
+				logger.warn("Table file {} does not fit in {} bytes", file,
+						_maxSize);
+				_oversizedFiles.put(file, fingerprint);
+				return null;
+			}
+			logger.info("Loaded {} rows of {} into {} bytes in {} ms",
+					new Object[] { store.getRowCount(), file,
+							store.getSize(),
+							System.currentTimeMillis() - start });
+			final SasColumnStore previousStore = _stores.put(file, store);
+			if (previousStore != null) {
+				_size -= previousStore.getSize();
+			}
+			_size += store.getSize();
+			final Iterator<SasColumnStore> it = _stores.values().iterator();
+			while (_size > _maxSize) {
+				final SasColumnStore eldestStore = it.next();
+				it.remove();
+				_size -= eldestStore.getSize();
+				logger.info("Evicted {}", eldestStore.getFile());
+			}
+			return store;
+		}
+	}
+
+	/**
+	 * Removes the store of a file. Its buffers are freed once it is no longer
+	 * used by running queries.
+	 * 
+	 * @param file
+	 */
+	public synchronized void remove(File file) {
+		final SasColumnStore store = _stores.remove(file);
+		if (store != null) {
+			_size -= store.getSize();
+		}
+		_oversizedFiles.remove(file);
+	}
+
+	public synchronized void clear() {
+		_stores.clear();
+		_oversizedFiles.clear();
+		_size = 0;
+	}
+}
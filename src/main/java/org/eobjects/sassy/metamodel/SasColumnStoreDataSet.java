@@ -0,0 +1,84 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.metamodel;
+
+import org.eobjects.metamodel.data.AbstractDataSet;
+import org.eobjects.metamodel.data.DataSet;
+import org.eobjects.metamodel.data.DefaultRow;
+import org.eobjects.metamodel.data.Row;
+import org.eobjects.metamodel.query.SelectItem;
+import org.eobjects.metamodel.schema.Column;
+
+/**
+ * {@link DataSet} of the rows of a {@link SasColumnStore}.
+ * 
+ * @author Kasper Sørensen
+ */
+final class SasColumnStoreDataSet extends AbstractDataSet {
+
+	private final SasColumnStore _store;
+	private final SelectItem[] _selectItems;
+	private final int[] _columnNumbers;
+	private final int _rowCount;
+	private int _row;
+	private Row _currentRow;
+
+	public SasColumnStoreDataSet(SasColumnStore store, Column[] columns,
+			int maxRows) {
+		_store = store;
+		_selectItems = new SelectItem[columns.length];
+		_columnNumbers = new int[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			_selectItems[i] = new SelectItem(columns[i]);
+			_columnNumbers[i] = columns[i].getColumnNumber();
+		}
+		if (maxRows > 0) {
+			_rowCount = Math.min(maxRows, store.getRowCount());
+		} else {
+			_rowCount = store.getRowCount();
+		}
+		_row = -1;
+	}
+
+	@Override
+	public SelectItem[] getSelectItems() {
+		return _selectItems;
+	}
+
+	@Override
+	public boolean next() {
+		_row++;
+		if (_row >= _rowCount) {
+			_currentRow = null;
+			return false;
+		}
+		final Object[] values = new Object[_columnNumbers.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = _store.getValue(_columnNumbers[i], _row);
+		}
+		_currentRow = new DefaultRow(_selectItems, values);
+		return true;
+	}
+
+	@Override
+	public Row getRow() {
+		return _currentRow;
+	}
+}
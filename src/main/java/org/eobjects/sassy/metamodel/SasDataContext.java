@@ -19,25 +19,58 @@
  */
 package org.eobjects.sassy.metamodel;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eobjects.metamodel.DataContext;
 import org.eobjects.metamodel.MetaModelException;
 import org.eobjects.metamodel.QueryPostprocessDataContext;
+import org.eobjects.metamodel.MetaModelHelper;
 import org.eobjects.metamodel.data.DataSet;
+import org.eobjects.metamodel.data.DefaultRow;
+import org.eobjects.metamodel.data.EmptyDataSet;
+import org.eobjects.metamodel.data.FirstRowDataSet;
+import org.eobjects.metamodel.data.InMemoryDataSet;
+import org.eobjects.metamodel.data.MaxRowsDataSet;
+import org.eobjects.metamodel.data.Row;
 import org.eobjects.metamodel.data.RowPublisherDataSet;
+import org.eobjects.metamodel.query.FilterClause;
 import org.eobjects.metamodel.query.FilterItem;
+import org.eobjects.metamodel.query.FromItem;
+import org.eobjects.metamodel.query.GroupByItem;
+import org.eobjects.metamodel.query.OrderByItem;
+import org.eobjects.metamodel.query.Query;
 import org.eobjects.metamodel.query.SelectItem;
 import org.eobjects.metamodel.schema.Column;
-import org.eobjects.metamodel.schema.MutableSchema;
 import org.eobjects.metamodel.schema.Schema;
 import org.eobjects.metamodel.schema.Table;
 import org.eobjects.sassy.CountReaderCallback;
 import org.eobjects.sassy.SasFilenameFilter;
+import org.eobjects.sassy.SasPredicate;
 import org.eobjects.sassy.SasReader;
+import org.eobjects.sassy.SasTemporalValues;
+import org.eobjects.sassy.SasZoneMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,12 +80,40 @@ import org.slf4j.LoggerFactory;
  * 
  * @author Kasper Sørensen
  */
-public final class SasDataContext extends QueryPostprocessDataContext {
+public final class SasDataContext extends QueryPostprocessDataContext
+		implements Closeable {
 
 	private static final Logger logger = LoggerFactory
 			.getLogger(SasDataContext.class);
 
+	/**
+	 * The conventional name of a catalog file within the directory of the
+	 * tables
+	 * 
+	 * @see #setCatalogFile(File)
+	 */
+	public static final String DEFAULT_CATALOG_FILENAME = ".sassy-catalog";
+
 	private final File _directory;
+	private int _schemaLoadingParallelism;
+	private int _groupingParallelism;
+	private boolean _usingZoneMaps;
+	private File _catalogFile;
+
+	private volatile SasQueryCache _queryCache;
+	private volatile SasColumnStoreCache _columnStores;
+	private final Set<String> _pinnedTableNames;
+	private volatile SasSchema _schema;
+	private volatile SasCatalog _catalog;
+	private boolean _watching;
+	private WatchService _watchService;
+	private Thread _watcherThread;
+
+	/**
+	 * Predicates that have been pushed down from the WHERE clause of the
+	 * query that is being executed on the current thread.
+	 */
+	private final ThreadLocal<List<SasPredicate>> _pushedDownPredicates;
 
 	public SasDataContext(String directoryPath) {
 		this(new File(directoryPath));
@@ -70,60 +131,1127 @@ public final class SasDataContext extends QueryPostprocessDataContext {
 					+ " is not a directory");
 		}
 		_directory = directory;
+		_pushedDownPredicates = new ThreadLocal<List<SasPredicate>>();
+		_schemaLoadingParallelism = 1;
+		_groupingParallelism = 1;
+		_pinnedTableNames = new CopyOnWriteArraySet<String>();
+	}
+
+	/**
+	 * Gets the amount of threads that load the columns of tables when the
+	 * schema is built.
+	 * 
+	 * @return
+	 */
+	public int getSchemaLoadingParallelism() {
+		return _schemaLoadingParallelism;
+	}
+
+	/**
+	 * Sets the amount of threads that load the columns of tables when the
+	 * schema is built. When 1 (the default), the columns of a table are only
+	 * loaded when the table is first accessed. When larger, the columns of
+	 * all tables are loaded in the background by a pool of this size, so that
+	 * tables are mostly ready when accessed. A table that is accessed before
+	 * its columns have been loaded loads them itself (or waits for the thread
+	 * that is loading them).
+	 * 
+	 * @param schemaLoadingParallelism
+	 */
+	public void setSchemaLoadingParallelism(int schemaLoadingParallelism) {
+		if (schemaLoadingParallelism < 1) {
+			throw new IllegalArgumentException(
+					"schemaLoadingParallelism must be a positive number");
+		}
+		_schemaLoadingParallelism = schemaLoadingParallelism;
+	}
+
+	/**
+	 * Gets the amount of threads that decode pages for GROUP BY queries.
+	 * 
+	 * @return
+	 */
+	public int getGroupingParallelism() {
+		return _groupingParallelism;
+	}
+
+	/**
+	 * Sets the amount of threads that decode pages for GROUP BY queries that
+	 * are computed by the reader. Each thread groups the rows of the pages it
+	 * decodes, and the groups of the threads are merged at the end.
+	 * 
+	 * @param groupingParallelism
+	 */
+	public void setGroupingParallelism(int groupingParallelism) {
+		if (groupingParallelism < 1) {
+			throw new IllegalArgumentException(
+					"groupingParallelism must be a positive number");
+		}
+		_groupingParallelism = groupingParallelism;
+	}
+
+	public boolean isUsingZoneMaps() {
+		return _usingZoneMaps;
+	}
+
+	/**
+	 * Sets whether queries with pushed down predicates skip the pages that
+	 * the zone maps of the tables rule out. Tables get a zone map when they
+	 * are indexed (see {@link #indexTable(String)}), and a zone map is
+	 * ignored once its table has changed.
+	 * 
+	 * @param usingZoneMaps
+	 */
+	public void setUsingZoneMaps(boolean usingZoneMaps) {
+		_usingZoneMaps = usingZoneMaps;
+	}
+
+	/**
+	 * Indexes a table by building its zone map and storing it in a sidecar
+	 * file next to the table, replacing any previous zone map.
+	 * 
+	 * @see SasZoneMap
+	 * 
+	 * @param tableName
+	 */
+	public void indexTable(String tableName) {
+		SasZoneMap.index(new File(_directory, tableName + ".sas7bdat"));
+	}
+
+	public File getCatalogFile() {
+		return _catalogFile;
+	}
+
+	/**
+	 * Sets the file of a catalog that stores the columns and row counts of
+	 * the tables, so that the metadata of files that have not changed is not
+	 * read again by later data contexts. The conventional location is
+	 * {@link #DEFAULT_CATALOG_FILENAME} within the directory, but a catalog
+	 * can be kept elsewhere and shared by several directories.
+	 * 
+	 * When the schema is built, tables that are not cataloged (or whose files
+	 * have changed) are cataloged in the background, on as many threads as
+	 * the schema loading parallelism, and the catalog is saved once they are
+	 * done.
+	 * 
+	 * @param catalogFile
+	 *            the catalog file, or null to not use a catalog (the default)
+	 */
+	public void setCatalogFile(File catalogFile) {
+		_catalogFile = catalogFile;
+	}
+
+	/**
+	 * Gets the budget of the query result cache, in (estimated) bytes.
+	 * 
+	 * @return the budget, or 0 if results are not cached
+	 */
+	public long getQueryCacheSize() {
+		final SasQueryCache cache = _queryCache;
+		if (cache == null) {
+			return 0;
+		}
+		return cache.getMaxSize();
+	}
+
+	/**
+	 * Sets the budget of a cache of query results, in (estimated) bytes. When
+	 * positive, the results of queries on the tables of the directory are
+	 * held in memory and returned again for the same query, as long as the
+	 * files of the queried tables keep their size and last modification time.
+	 * The least recently used results are evicted when the budget is
+	 * exceeded, and results that are larger than the budget are not cached.
+	 * 
+	 * Setting the budget discards the results that are cached.
+	 * 
+	 * @param queryCacheSize
+	 *            the budget, or 0 to not cache results (the default)
+	 */
+	public void setQueryCacheSize(long queryCacheSize) {
+		if (queryCacheSize < 0) {
+			throw new IllegalArgumentException(
+					"queryCacheSize cannot be negative");
+		}
+		if (queryCacheSize == 0) {
+			_queryCache = null;
+		} else {
+			_queryCache = new SasQueryCache(queryCacheSize);
+		}
+	}
+
+	/**
+	 * Gets the amount of queries whose result was served from the query
+	 * result cache.
+	 * 
+	 * @return
+	 */
+	public long getQueryCacheHits() {
+		final SasQueryCache cache = _queryCache;
+		return cache == null ? 0 : cache.getHits();
+	}
+
+	/**
+	 * Gets the amount of cacheable queries whose result was not cached (or
+	 * was stale).
+	 * 
+	 * @return
+	 */
+	public long getQueryCacheMisses() {
+		final SasQueryCache cache = _queryCache;
+		return cache == null ? 0 : cache.getMisses();
+	}
+
+	/**
+	 * Gets the amount of results that have been evicted from the query result
+	 * cache to stay within its budget.
+	 * 
+	 * @return
+	 */
+	public long getQueryCacheEvictions() {
+		final SasQueryCache cache = _queryCache;
+		return cache == null ? 0 : cache.getEvictions();
+	}
+
+	/**
+	 * Discards the results of the query result cache.
+	 */
+	public void clearQueryCache() {
+		final SasQueryCache cache = _queryCache;
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Gets the budget of the column store of pinned tables, in bytes.
+	 * 
+	 * @return the budget, or 0 if pinned tables are not stored
+	 */
+	public long getColumnStoreSize() {
+		final SasColumnStoreCache columnStores = _columnStores;
+		if (columnStores == null) {
+			return 0;
+		}
+		return columnStores.getMaxSize();
+	}
+
+	/**
+	 * Sets the budget of an in-memory store of the rows of pinned tables, in
+	 * bytes. Pinned tables are read into the store when first queried and
+	 * queries on them are then served from memory, until their file changes.
+	 * The values are held in columnar form in direct buffers, outside of the
+	 * heap. The least recently used tables are evicted when the budget is
+	 * exceeded, and tables that are larger than the budget are not stored.
+	 * 
+	 * Setting the budget discards the tables that are stored.
+	 * 
+	 * @see #pinTable(String)
+	 * 
+	 * @param columnStoreSize
+	 *            the budget, or 0 to not store tables (the default)
+	 */
+	public void setColumnStoreSize(long columnStoreSize) {
+		if (columnStoreSize < 0) {
+			throw new IllegalArgumentException(
+					"columnStoreSize cannot be negative");
+		}
+		if (columnStoreSize == 0) {
+			_columnStores = null;
+		} else {
+			_columnStores = new SasColumnStoreCache(columnStoreSize);
+		}
+	}
+
+	/**
+	 * Gets the amount of bytes held by the column store of pinned tables.
+	 * 
+	 * @return
+	 */
+	public long getColumnStoreUsage() {
+		final SasColumnStoreCache columnStores = _columnStores;
+		return columnStores == null ? 0 : columnStores.getSize();
+	}
+
+	/**
+	 * Pins a table, so that queries on it are served from the column store.
+	 * 
+	 * @see #setColumnStoreSize(long)
+	 * 
+	 * @param tableName
+	 */
+	public void pinTable(String tableName) {
+		_pinnedTableNames.add(tableName);
+	}
+
+	/**
+	 * Unpins a table, removing it from the column store.
+	 * 
+	 * @param tableName
+	 */
+	public void unpinTable(String tableName) {
+		if (_pinnedTableNames.remove(tableName)) {
+			final SasColumnStoreCache columnStores = _columnStores;
+			if (columnStores != null) {
+				columnStores.remove(new File(_directory, tableName
+						+ ".sas7bdat"));
+			}
+		}
+	}
+
+	public boolean isPinned(String tableName) {
+		return _pinnedTableNames.contains(tableName);
+	}
+
+	/**
+	 * Gets the column store of a table, loading it if necessary.
+	 * 
+	 * @param table
+	 * @return the store, or null if the table is not pinned or does not fit
+	 *         in the budget
+	 */
+	private SasColumnStore getColumnStore(Table table) {
+		final SasColumnStoreCache columnStores = _columnStores;
+		if (columnStores == null || !(table instanceof SasTable)
+				|| !_pinnedTableNames.contains(table.getName())) {
+			return null;
+		}
+		return columnStores.get(((SasTable) table).getFile());
+	}
+
+	public synchronized boolean isWatching() {
+		return _watching;
+	}
+
+	/**
+	 * Sets whether the directory is watched for changes. When watching, a
+	 * background thread adds tables for new files, replaces the tables of
+	 * changed files and removes the tables of deleted files, without
+	 * rebuilding the rest of the schema. Tables of files that have not
+	 * changed stay the same {@link Table} objects.
+	 * 
+	 * Watching is off by default. Turn it off again (or {@link #close()} the
+	 * data context) to end the background thread.
+	 * 
+	 * @param watching
+	 */
+	public synchronized void setWatching(boolean watching) {
+		if (watching == _watching) {
+			return;
+		}
+		if (watching) {
+			final Path path = _directory.toPath();
+			try {
+				_watchService = path.getFileSystem().newWatchService();
+				// registered before the schema is built, so that no changes
+				// are missed in between
+				path.register(_watchService,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+			} catch (IOException e) {
+				closeWatchService();
+				throw new MetaModelException("Could not watch directory "
+						+ _directory, e);
+			}
+			_watching = true;
+			if (_schema != null) {
+				startWatcherThread();
+			}
+		} else {
+			_watching = false;
+			closeWatchService();
+			if (_watcherThread != null) {
+				try {
+					_watcherThread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				_watcherThread = null;
+			}
+		}
+	}
+
+	/**
+	 * Stops watching the directory, if it is watched.
+	 */
+	@Override
+	public void close() {
+		setWatching(false);
+	}
+
+	private void closeWatchService() {
+		if (_watchService != null) {
+			try {
+				_watchService.close();
+			} catch (IOException e) {
+				logger.warn("Could not close watch service", e);
+			}
+			_watchService = null;
+		}
+	}
+
+	private void startWatcherThread() {
+		final WatchService watchService = _watchService;
+		_watcherThread = new Thread("sassy-watcher (" + _directory.getName()
+				+ ")") {
+			@Override
+			public void run() {
+				watch(watchService);
+			}
+		};
+		_watcherThread.setDaemon(true);
+		_watcherThread.start();
+	}
+
+	private void watch(WatchService watchService) {
+		logger.info("Watching directory for changes: {}", _directory);
+		final FilenameFilter filter = new SasFilenameFilter();
+		while (true) {
+			final WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (ClosedWatchServiceException e) {
+				return;
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			boolean overflow = false;
+			final Set<String> filenames = new LinkedHashSet<String>();
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					overflow = true;
+				} else {
+					final String filename = event.context().toString();
+					if (filter.accept(_directory, filename)) {
+						filenames.add(filename);
+					}
+				}
+			}
+
+			try {
+				if (overflow) {
+					// events were lost, compare the schema to the directory
+					refreshTables();
+				} else {
+					for (String filename : filenames) {
+						refreshTable(new File(_directory, filename));
+					}
+				}
+			} catch (RuntimeException e) {
+				logger.warn("Could not refresh tables of directory "
+						+ _directory, e);
+			}
+
+			if (!key.reset()) {
+				logger.warn("Directory can no longer be watched: {}",
+						_directory);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Adds, replaces or removes the table of a file, depending on whether the
+	 * file exists and has changed.
+	 * 
+	 * @param file
+	 */
+	private void refreshTable(File file) {
+		final SasSchema schema = _schema;
+		final String name = SasTable.createName(file);
+		if (file.exists()) {
+			final SasTable existingTable = schema.getSasTable(name);
+			if (existingTable != null && !existingTable.isChanged()) {
+				return;
+			}
+			schema.putTable(new SasTable(file, schema, _catalog));
+			if (existingTable == null) {
+				logger.info("Added table {}", name);
+			} else {
+				logger.info("Replaced table {}", name);
+			}
+		} else if (schema.removeTable(name) != null) {
+			logger.info("Removed table {}", name);
+		}
+	}
+
+	private void refreshTables() {
+		final List<File> tableFiles = listTableFiles();
+		final Set<String> names = new HashSet<String>();
+		for (File file : tableFiles) {
+			names.add(SasTable.createName(file));
+			refreshTable(file);
+		}
+		for (Table table : _schema.getTables()) {
+			if (!names.contains(table.getName())
+					&& _schema.removeTable(table.getName()) != null) {
+				logger.info("Removed table {}", table.getName());
+			}
+		}
 	}
 
 	@Override
 	protected Schema getMainSchema() throws MetaModelException {
-		MutableSchema schema = new MutableSchema(getMainSchemaName());
-		File[] tableFiles = _directory.listFiles(new SasFilenameFilter());
+		final SasSchema schema = new SasSchema(getMainSchemaName());
+		List<File> tableFiles = listTableFiles();
 
-		if (tableFiles.length == 0) {
+		if (tableFiles.isEmpty()) {
 			logger.warn("Directory did not contain any SAS tables: {}",
 					_directory);
 		}
 
-		Arrays.sort(tableFiles);
+		Collections.sort(tableFiles);
 
+		final SasCatalog catalog;
+		if (_catalogFile == null) {
+			catalog = null;
+		} else {
+			catalog = SasCatalog.load(_catalogFile);
+			catalog.retain(_directory, tableFiles);
+		}
+
+		final List<SasTable> tables = new ArrayList<SasTable>(
+				tableFiles.size());
 		for (File file : tableFiles) {
-			SasTable table = new SasTable(file, schema);
-			schema.addTable(table);
+			tables.add(new SasTable(file, schema, catalog));
 		}
+		schema.addTables(tables);
 
+		if (catalog != null) {
+			final List<SasTable> uncatalogedTables = new ArrayList<SasTable>();
+			for (SasTable table : tables) {
+				if (!table.isCataloged()) {
+					uncatalogedTables.add(table);
+				}
+			}
+			logger.info("{} of {} tables are cataloged in {}", new Object[] {
+					tables.size() - uncatalogedTables.size(), tables.size(),
+					_catalogFile });
+			if (uncatalogedTables.isEmpty()) {
+				// removed entries of deleted files
+				catalog.save();
+			} else {
+				loadColumns(uncatalogedTables, catalog);
+			}
+		} else if (_schemaLoadingParallelism > 1 && tables.size() > 1) {
+			loadColumns(tables, null);
+		}
+
+		synchronized (this) {
+			_schema = schema;
+			_catalog = catalog;
+			if (_watching && _watcherThread == null) {
+				startWatcherThread();
+			}
+		}
 		return schema;
 	}
 
+	private List<File> listTableFiles() throws MetaModelException {
+		final List<File> files = new ArrayList<File>();
+		try {
+			final DirectoryStream<Path> stream = SasFilenameFilter
+					.newDirectoryStream(_directory);
+			try {
+				for (Path path : stream) {
+					files.add(path.toFile());
+				}
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			throw new MetaModelException("Could not list directory "
+					+ _directory, e);
+		}
+		return files;
+	}
+
+	/**
+	 * Loads the columns of tables in the background, without waiting for it
+	 * to finish.
+	 * 
+	 * @param tables
+	 * @param catalog
+	 *            the catalog that the tables are cataloged in, which is saved
+	 *            when all tables are done, or null
+	 */
+	private void loadColumns(List<SasTable> tables, final SasCatalog catalog) {
+		final int threadCount = Math.min(_schemaLoadingParallelism,
+				tables.size());
+		logger.info("Loading columns of {} tables on {} threads",
+				tables.size(), threadCount);
+		final ExecutorService executor = Executors.newFixedThreadPool(
+				threadCount, new ThreadFactory() {
+					private final AtomicInteger _threadNumber = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						final Thread thread = new Thread(runnable,
+								"sassy-schema-loader-"
+										+ _threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		if (catalog != null) {
+			catalog.beginLoads(tables.size());
+		}
+		for (final SasTable table : tables) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						table.loadColumns();
+					} catch (RuntimeException e) {
+						// the table tries again when it is accessed
+						logger.warn("Could not load columns of table "
+								+ table.getName(), e);
+					} finally {
+						if (catalog != null) {
+							catalog.loadDone();
+						}
+					}
+				}
+			});
+		}
+		// lets the queued tasks finish, then ends the threads
+		executor.shutdown();
+	}
+
 	@Override
 	protected String getMainSchemaName() throws MetaModelException {
 		return _directory.getName();
 	}
 	
+	/**
+	 * Executes a query, serving it from the query result cache when possible.
+	 * 
+	 * @see #setQueryCacheSize(long)
+	 */
+	@Override
+	public DataSet executeQuery(Query query) {
+		final SasQueryCache cache = _queryCache;
+		if (cache != null) {
+			final long[] fingerprint = getFingerprint(query);
+			if (fingerprint != null) {
+				// the SQL does not include the paging of the query
+				final String key = query.toSql() + " FIRST "
+						+ query.getFirstRow() + " MAX " + query.getMaxRows();
+				final DataSet dataSet = cache.get(key, fingerprint);
+				if (dataSet != null) {
+					return dataSet;
+				}
+				return cache.put(key, fingerprint, executePushedDownQuery(query));
+			}
+		}
+		return executePushedDownQuery(query);
+	}
+
+	/**
+	 * Gets the size and last modification time of the files of the tables
+	 * that a query reads.
+	 * 
+	 * @param query
+	 * @return the fingerprint, or null if the query does not only read tables
+	 *         of this data context (and cannot be cached)
+	 */
+	private long[] getFingerprint(Query query) {
+		final List<File> files = new ArrayList<File>();
+		for (FromItem fromItem : query.getFromClause().getItems()) {
+			if (!addFiles(fromItem, files)) {
+				return null;
+			}
+		}
+		final long[] fingerprint = new long[files.size() * 2];
+		for (int i = 0; i < files.size(); i++) {
+			final File file = files.get(i);
+			fingerprint[i * 2] = file.length();
+			fingerprint[i * 2 + 1] = file.lastModified();
+		}
+		return fingerprint;
+	}
+
+	private boolean addFiles(FromItem fromItem, List<File> files) {
+		if (fromItem.getTable() != null) {
+			if (!(fromItem.getTable() instanceof SasTable)) {
+				return false;
+			}
+			files.add(((SasTable) fromItem.getTable()).getFile());
+			return true;
+		}
+		if (fromItem.getSubQuery() != null) {
+			for (FromItem subItem : fromItem.getSubQuery().getFromClause()
+					.getItems()) {
+				if (!addFiles(subItem, files)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (fromItem.getLeftSide() != null && fromItem.getRightSide() != null) {
+			return addFiles(fromItem.getLeftSide(), files)
+					&& addFiles(fromItem.getRightSide(), files);
+		}
+		return false;
+	}
+
+	/**
+	 * Executes a query, pushing the WHERE items that the {@link SasReader} can
+	 * evaluate on raw row bytes down into the reader. The remaining items are
+	 * evaluated by MetaModel, as usual.
+	 */
+	private DataSet executePushedDownQuery(Query query) {
+		final List<FromItem> fromItems = query.getFromClause().getItems();
+		if (fromItems.size() != 1
+				|| !(fromItems.get(0).getTable() instanceof SasTable)) {
+			return super.executeQuery(query);
+		}
+
+		final SasTable table = (SasTable) fromItems.get(0).getTable();
+		final SasColumnStore store = getColumnStore(table);
+		final List<FilterItem> whereItems = query.getWhereClause().getItems();
+		final List<SasPredicate> predicates = new ArrayList<SasPredicate>();
+		final boolean[] pushedDown = new boolean[whereItems.size()];
+		if (store == null) {
+			// stored rows are filtered by MetaModel, there's no scan to skip
+			for (int i = 0; i < pushedDown.length; i++) {
+				final SasPredicate predicate = FilterItemConverter
+						.toPredicate(table, whereItems.get(i));
+				if (predicate != null) {
+					predicates.add(predicate);
+					pushedDown[i] = true;
+				}
+			}
+		}
+
+		if (store == null && predicates.size() == whereItems.size()) {
+			final DataSet dataSet;
+			if (query.getGroupByClause().isEmpty()) {
+				dataSet = executeAggregateQuery(table, query, predicates);
+			} else {
+				dataSet = executeGroupedQuery(table, query, predicates);
+			}
+			if (dataSet != null) {
+				return dataSet;
+			}
+		}
+
+		final DataSet dataSet = executeRowAggregateQuery(table, store, query,
+				predicates, pushedDown);
+		if (dataSet != null) {
+			return dataSet;
+		}
+
+		if (predicates.isEmpty()) {
+			return super.executeQuery(query);
+		}
+
+		logger.debug("Pushing down predicates: {}", predicates);
+
+		final Query pushedDownQuery = query.clone();
+		final FilterClause whereClause = pushedDownQuery.getWhereClause();
+		for (int i = pushedDown.length - 1; i >= 0; i--) {
+			if (pushedDown[i]) {
+				whereClause.removeItem(i);
+			}
+		}
+
+		_pushedDownPredicates.set(predicates);
+		try {
+			return super.executeQuery(pushedDownQuery);
+		} finally {
+			_pushedDownPredicates.remove();
+		}
+	}
+
+	/**
+	 * Executes an ungrouped query of aggregates of NUMERIC columns (and
+	 * COUNT(*)) in a single columnar pass of the reader, without creating
+	 * rows.
+	 * 
+	 * @param table
+	 * @param query
+	 * @param predicates
+	 *            the predicates of the complete WHERE clause
+	 * @return the single row result, or null if the query is not such a query
+	 */
+	private DataSet executeAggregateQuery(SasTable table, Query query,
+			List<SasPredicate> predicates) {
+		if (!query.getGroupByClause().isEmpty()
+				|| !query.getHavingClause().isEmpty()
+				|| (query.getFirstRow() != null && query.getFirstRow() > 1)
+				|| (query.getMaxRows() != null && query.getMaxRows() < 1)) {
+			return null;
+		}
+		final List<SelectItem> selectItems = query.getSelectClause()
+				.getItems();
+		boolean countAllOnly = true;
+		for (SelectItem selectItem : selectItems) {
+			if (!AggregatingSasCallback.isAggregatable(selectItem)) {
+				return null;
+			}
+			if (!SelectItem.isCountAllItem(selectItem)) {
+				countAllOnly = false;
+			}
+		}
+		if (selectItems.isEmpty() || countAllOnly) {
+			// counts are handled by executeCountQuery(...)
+			return null;
+		}
+
+		logger.debug("Computing aggregates in reader: {}", selectItems);
+
+		final SelectItem[] items = selectItems
+				.toArray(new SelectItem[selectItems.size()]);
+		final AggregatingSasCallback callback = new AggregatingSasCallback(
+				items);
+		final SasReader sasReader = createReader(table.getFile());
+		sasReader.setColumnProjection(callback.getColumnProjection());
+		sasReader.setPredicates(predicates.toArray(new SasPredicate[predicates
+				.size()]));
+		sasReader.read(callback);
+		return new InMemoryDataSet(new DefaultRow(items, callback.getValues()));
+	}
+
+	/**
+	 * Executes a GROUP BY query of columns of the table and aggregates of
+	 * NUMERIC columns (and COUNT(*)) by grouping in the reader, on as many
+	 * threads as the grouping parallelism. HAVING, DISTINCT, ORDER BY and
+	 * paging are applied to the groups like MetaModel does.
+	 * 
+	 * @param table
+	 * @param query
+	 * @param predicates
+	 *            the predicates of the complete WHERE clause
+	 * @return the result, or null if the query is not such a query
+	 */
+	private DataSet executeGroupedQuery(SasTable table, Query query,
+			List<SasPredicate> predicates) {
+		final List<GroupByItem> groupByItems = query.getGroupByClause()
+				.getItems();
+		final Column[] groupColumns = new Column[groupByItems.size()];
+		for (int i = 0; i < groupColumns.length; i++) {
+			final SelectItem selectItem = groupByItems.get(i).getSelectItem();
+			final Column column = selectItem.getColumn();
+			if (column == null || selectItem.getFunction() != null
+					|| selectItem.getSubQuerySelectItem() != null
+					|| column.getTable() != table || column.getType() == null) {
+				return null;
+			}
+			groupColumns[i] = column;
+		}
+
+		// the grouped rows have the items that are selected, filtered on
+		// (HAVING) and ordered by
+		final List<SelectItem> selectItems = query.getSelectClause()
+				.getItems();
+		final List<SelectItem> items = new ArrayList<SelectItem>(selectItems);
+		for (FilterItem havingItem : query.getHavingClause().getItems()) {
+			if (havingItem.isCompoundFilter()
+					|| havingItem.getSelectItem() == null) {
+				return null;
+			}
+			if (!items.contains(havingItem.getSelectItem())) {
+				items.add(havingItem.getSelectItem());
+			}
+		}
+		final List<OrderByItem> orderByItems = query.getOrderByClause()
+				.getItems();
+		for (OrderByItem orderByItem : orderByItems) {
+			if (!items.contains(orderByItem.getSelectItem())) {
+				items.add(orderByItem.getSelectItem());
+			}
+		}
+		for (SelectItem item : items) {
+			if (item.getFunction() == null) {
+				if (item.getSubQuerySelectItem() != null
+						|| !Arrays.asList(groupColumns).contains(
+								item.getColumn())) {
+					return null;
+				}
+			} else if (!AggregatingSasCallback.isAggregatable(item)) {
+				return null;
+			}
+		}
+
+		logger.debug("Grouping in reader: {}", query);
+
+		final SelectItem[] itemArray = items.toArray(new SelectItem[items
+				.size()]);
+		final GroupingSasCallback[] partitions = new GroupingSasCallback[_groupingParallelism];
+		for (int i = 0; i < partitions.length; i++) {
+			partitions[i] = new GroupingSasCallback(itemArray, groupColumns);
+		}
+		final SasReader sasReader = createReader(table.getFile());
+		sasReader.setColumnProjection(partitions[0].getColumnProjection());
+		sasReader.setPredicates(predicates.toArray(new SasPredicate[predicates
+				.size()]));
+		sasReader.setParallelism(_groupingParallelism);
+		sasReader.readPartitioned(partitions);
+
+		final List<Row> rows = GroupingSasCallback.merge(partitions)
+				.getRows();
+		DataSet dataSet;
+		if (rows.isEmpty()) {
+			dataSet = new EmptyDataSet(itemArray);
+		} else {
+			dataSet = new InMemoryDataSet(rows);
+		}
+
+		return postProcess(dataSet, query);
+	}
+
+	/**
+	 * Executes a query of a single table that computes aggregates of NUMERIC
+	 * columns, but cannot be computed by
+	 * {@link #executeAggregateQuery(SasTable, Query, List)} or
+	 * {@link #executeGroupedQuery(SasTable, Query, List)}, because the table
+	 * is pinned, some WHERE items cannot be pushed down or the query is
+	 * paged. The rows are grouped and aggregated by MetaModel, but with
+	 * missing (NaN) values of the aggregated columns replaced by nulls, so
+	 * that the aggregates skip them like the aggregates computed in the
+	 * reader do.
+	 * 
+	 * @param table
+	 * @param store
+	 *            the column store of the table, or null if it is not pinned
+	 * @param query
+	 * @param predicates
+	 *            the predicates of the WHERE items that can be pushed down
+	 * @param pushedDown
+	 *            whether each WHERE item is pushed down
+	 * @return the result, or null if the query is not such a query
+	 */
+	private DataSet executeRowAggregateQuery(SasTable table,
+			SasColumnStore store, Query query, List<SasPredicate> predicates,
+			boolean[] pushedDown) {
+		final List<SelectItem> selectItems = query.getSelectClause()
+				.getItems();
+		final List<SelectItem> items = new ArrayList<SelectItem>(selectItems);
+		for (FilterItem havingItem : query.getHavingClause().getItems()) {
+			if (havingItem.isCompoundFilter()
+					|| havingItem.getSelectItem() == null) {
+				return null;
+			}
+			if (!items.contains(havingItem.getSelectItem())) {
+				items.add(havingItem.getSelectItem());
+			}
+		}
+		final List<OrderByItem> orderByItems = query.getOrderByClause()
+				.getItems();
+		for (OrderByItem orderByItem : orderByItems) {
+			if (!items.contains(orderByItem.getSelectItem())) {
+				items.add(orderByItem.getSelectItem());
+			}
+		}
+
+		final Set<Column> columns = new LinkedHashSet<Column>();
+		final Set<Column> aggregatedColumns = new HashSet<Column>();
+		for (SelectItem item : items) {
+			if (SelectItem.isCountAllItem(item)) {
+				continue;
+			}
+			final Column column = item.getColumn();
+			if (column == null || item.getSubQuerySelectItem() != null
+					|| column.getTable() != table) {
+				return null;
+			}
+			columns.add(column);
+			if (item.getFunction() != null && AggregatingSasCallback
+					.isAggregatable(item)) {
+				aggregatedColumns.add(column);
+			}
+		}
+		final List<GroupByItem> groupByItems = query.getGroupByClause()
+				.getItems();
+		for (GroupByItem groupByItem : groupByItems) {
+			final SelectItem selectItem = groupByItem.getSelectItem();
+			if (selectItem.getFunction() != null
+					|| selectItem.getColumn() == null
+					|| selectItem.getColumn().getTable() != table) {
+				return null;
+			}
+			columns.add(selectItem.getColumn());
+			// missing group values are groups of their own
+			aggregatedColumns.remove(selectItem.getColumn());
+		}
+		if (aggregatedColumns.isEmpty()) {
+			return null;
+		}
+
+		final List<FilterItem> whereItems = new ArrayList<FilterItem>();
+		for (int i = 0; i < pushedDown.length; i++) {
+			if (!pushedDown[i]) {
+				whereItems.add(query.getWhereClause().getItem(i));
+			}
+		}
+		for (FilterItem whereItem : whereItems) {
+			addColumns(whereItem, columns);
+		}
+		if (columns.contains(null)) {
+			return null;
+		}
+
+		logger.debug("Aggregating rows without missing values: {}", query);
+
+		final Column[] columnArray = columns
+				.toArray(new Column[columns.size()]);
+		DataSet dataSet;
+		if (store != null) {
+			dataSet = new SasColumnStoreDataSet(store, columnArray, -1);
+		} else {
+			dataSet = materializeTable(table, columnArray, predicates, -1);
+		}
+		dataSet = MetaModelHelper.getFiltered(dataSet, whereItems);
+		dataSet = new MissingAsNullDataSet(dataSet, aggregatedColumns);
+		if (groupByItems.isEmpty()) {
+			dataSet = MetaModelHelper.getAggregated(items, dataSet);
+		} else {
+			dataSet = MetaModelHelper.getGrouped(items, dataSet, groupByItems);
+		}
+		return postProcess(dataSet, query);
+	}
+
+	/**
+	 * Applies HAVING, DISTINCT, ORDER BY and paging to grouped or aggregated
+	 * rows, and selects the select items of the query, like
+	 * QueryPostprocessDataContext does.
+	 */
+	private static DataSet postProcess(DataSet dataSet, Query query) {
+		final List<SelectItem> selectItems = query.getSelectClause()
+				.getItems();
+		final List<OrderByItem> orderByItems = query.getOrderByClause()
+				.getItems();
+		dataSet = MetaModelHelper.getFiltered(dataSet, query.getHavingClause()
+				.getItems());
+		if (query.getSelectClause().isDistinct()) {
+			dataSet = MetaModelHelper.getSelection(selectItems, dataSet);
+			dataSet = MetaModelHelper.getDistinct(dataSet);
+			dataSet = MetaModelHelper.getOrdered(dataSet, orderByItems);
+		} else {
+			dataSet = MetaModelHelper.getOrdered(dataSet, orderByItems);
+			dataSet = MetaModelHelper.getSelection(selectItems, dataSet);
+		}
+		if (query.getFirstRow() != null) {
+			dataSet = new FirstRowDataSet(dataSet, query.getFirstRow());
+		}
+		if (query.getMaxRows() != null) {
+			dataSet = new MaxRowsDataSet(dataSet, query.getMaxRows());
+		}
+		return dataSet;
+	}
+
+	private SasReader createReader(File file) {
+		final SasReader sasReader = new SasReader(file);
+		sasReader.setUsingZoneMap(_usingZoneMaps);
+		return sasReader;
+	}
+
+	private List<SasPredicate> getPushedDownPredicates() {
+		final List<SasPredicate> predicates = _pushedDownPredicates.get();
+		if (predicates == null) {
+			return Collections.emptyList();
+		}
+		return predicates;
+	}
+
 	@Override
 	protected Number executeCountQuery(Table table, List<FilterItem> whereItems, boolean functionApproximationAllowed) {
 	    if (whereItems.isEmpty()) {
 	        SasTable sasTable = (SasTable) table;
 	        File file = sasTable.getFile();
-	        
-	        SasReader sasReader = new SasReader(file);
+	        SasReader sasReader = createReader(file);
+
+	        final List<SasPredicate> predicates = getPushedDownPredicates();
+	        if (predicates.isEmpty()) {
+	            final SasColumnStore store = getColumnStore(sasTable);
+	            if (store != null) {
+	                return store.getRowCount();
+	            }
+	            final int catalogedRowCount = sasTable.getCatalogedRowCount();
+	            if (catalogedRowCount != -1) {
+	                return catalogedRowCount;
+	            }
+	            // the row count is part of the metadata, no need to scan the rows
+	            return sasReader.readMetadata().getRowCount();
+	        }
+
+	        // count the rows that satisfy the predicates, without decoding them
 	        CountReaderCallback callback = new CountReaderCallback();
-            sasReader.read(callback);
-            int count = callback.getCount();
-            return count;
+	        sasReader.setPredicates(predicates.toArray(new SasPredicate[predicates.size()]));
+	        sasReader.read(callback);
+	        return callback.getCount();
 	    }
-	    return super.executeCountQuery(table, whereItems, functionApproximationAllowed);
+
+	    // MetaModel repeats the count for every row when it filters the rows
+	    // itself, so the rows are filtered and counted here instead
+	    final Set<Column> columns = new LinkedHashSet<Column>();
+	    for (FilterItem whereItem : whereItems) {
+	        addColumns(whereItem, columns);
+	    }
+	    if (columns.contains(null)) {
+	        return super.executeCountQuery(table, whereItems, functionApproximationAllowed);
+	    }
+	    DataSet dataSet = materializeMainSchemaTable(table, columns.toArray(new Column[columns.size()]), -1);
+	    dataSet = MetaModelHelper.getFiltered(dataSet, whereItems);
+	    long count = 0;
+	    try {
+	        while (dataSet.next()) {
+	            count++;
+	        }
+	    } finally {
+	        dataSet.close();
+	    }
+	    return count;
+	}
+
+	/**
+	 * Adds the columns that a filter item evaluates, or null if it evaluates
+	 * something else than a column.
+	 */
+	private static void addColumns(FilterItem filterItem, Set<Column> columns) {
+		if (filterItem.isCompoundFilter()) {
+			for (FilterItem childItem : filterItem.getChildItems()) {
+				addColumns(childItem, columns);
+			}
+			return;
+		}
+		final SelectItem selectItem = filterItem.getSelectItem();
+		if (selectItem == null || selectItem.getFunction() != null) {
+			columns.add(null);
+			return;
+		}
+		columns.add(selectItem.getColumn());
+		if (filterItem.getOperand() instanceof SelectItem) {
+			columns.add(((SelectItem) filterItem.getOperand()).getColumn());
+		}
 	}
 
 	@Override
 	protected DataSet materializeMainSchemaTable(Table table, Column[] columns,
 			int maxRows) {
-		SasTable sasTable = (SasTable) table;
-		File file = sasTable.getFile();
+		final SasColumnStore store = getColumnStore(table);
+		if (store != null) {
+			return new SasColumnStoreDataSet(store, columns, maxRows);
+		}
+
+		return materializeTable((SasTable) table, columns,
+				getPushedDownPredicates(), maxRows);
+	}
 
+	private DataSet materializeTable(SasTable table, Column[] columns,
+			List<SasPredicate> predicates, int maxRows) {
 		List<SelectItem> selectItems = new ArrayList<SelectItem>(columns.length);
 		for (int i = 0; i < columns.length; i++) {
 			selectItems.add(new SelectItem(columns[i]));
 		}
 
-		SasReader sasReader = new SasReader(file);
+		SasReader sasReader = createReader(table.getFile());
+		// DATE, TIMESTAMP and TIME columns hold dates
+		sasReader.setTemporalValues(SasTemporalValues.DATES);
+		sasReader.setPredicates(predicates.toArray(new SasPredicate[predicates
+				.size()]));
 		return new RowPublisherDataSet(
 				selectItems.toArray(new SelectItem[selectItems.size()]),
 				maxRows, new SasRowPublisherAction(sasReader, columns, maxRows));
@@ -0,0 +1,280 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.metamodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eobjects.metamodel.data.AbstractDataSet;
+import org.eobjects.metamodel.data.DataSet;
+import org.eobjects.metamodel.data.EmptyDataSet;
+import org.eobjects.metamodel.data.InMemoryDataSet;
+import org.eobjects.metamodel.data.Row;
+import org.eobjects.metamodel.query.SelectItem;
+
+/**
+ * A cache of query results, with a budget of (estimated) bytes in memory.
+ * Results are keyed by the query and are only valid while the size and last
+ * modification time of the files of the queried tables are unchanged (the
+ * fingerprint of the query). When the budget is exceeded, the least recently
+ * used results are evicted.
+ * 
+ * @author Kasper Sørensen
+ */
+final class SasQueryCache {
+
+	private static final int ENTRY_OVERHEAD = 96;
+	private static final int ROW_OVERHEAD = 48;
+	private static final int REFERENCE_SIZE = 8;
+
+	/**
+	 * The maximum amount of queries that are remembered to have results
+	 * larger than the budget
+	 */
+	private static final int MAX_OVERSIZED_KEYS = 1000;
+
+	private static final class Entry {
+
+		private final long[] _fingerprint;
+		private final SelectItem[] _selectItems;
+		private final List<Row> _rows;
+		private final long _size;
+
+		public Entry(long[] fingerprint, SelectItem[] selectItems,
+				List<Row> rows, long size) {
+			_fingerprint = fingerprint;
+			_selectItems = selectItems;
+			_rows = rows;
+			_size = size;
+		}
+	}
+
+	private final long _maxSize;
+	private final LinkedHashMap<String, Entry> _entries;
+	private final Map<String, long[]> _oversizedKeys;
+	private long _size;
+	private long _hits;
+	private long _misses;
+	private long _evictions;
+
+	public SasQueryCache(long maxSize) {
+		_maxSize = maxSize;
+		// access order, so that the eldest entry is the least recently used
+		_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		_oversizedKeys = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, long[]> eldest) {
+				return size() > MAX_OVERSIZED_KEYS;
+			}
+		};
+	}
+
+	public long getMaxSize() {
+		return _maxSize;
+	}
+
+	/**
+	 * Gets the cached result of a query.
+	 * 
+	 * @param key
+	 *            the query
+	 * @param fingerprint
+	 *            the fingerprint of the files that the query reads
+	 * @return a data set of the cached result, or null if the result is not
+	 *         cached or the files have changed since it was
+	 */
+	public synchronized DataSet get(String key, long[] fingerprint) {
+		final Entry entry = _entries.get(key);
+		if (entry == null) {
+			_misses++;
+			return null;
+		}
+		if (!Arrays.equals(entry._fingerprint, fingerprint)) {
+			_entries.remove(key);
+			_size -= entry._size;
+			_misses++;
+			return null;
+		}
+		_hits++;
+		if (entry._rows.isEmpty()) {
+			return new EmptyDataSet(entry._selectItems);
+		}
+		return new InMemoryDataSet(entry._rows);
+	}
+
+	/**
+	 * Caches the result of a query, while it is being read. The rows are
+	 * collected as the caller iterates the returned data set, and the result
+	 * is cached once it has been read completely. Results larger than the
+	 * budget of the cache are not cached, and are remembered (while the
+	 * fingerprint is unchanged) so that they are not collected again.
+	 * 
+	 * @param key
+	 *            the query
+	 * @param fingerprint
+	 *            the fingerprint of the files that the query reads
+	 * @param dataSet
+	 *            the result of the query
+	 * @return a data set of the same rows as the result
+	 */
+	public DataSet put(String key, long[] fingerprint, DataSet dataSet) {
+		synchronized (this) {
+			if (Arrays.equals(_oversizedKeys.get(key), fingerprint)) {
+				return dataSet;
+			}
+		}
+		return new CachingDataSet(key, fingerprint, dataSet);
+	}
+
+	private synchronized void add(String key, Entry entry) {
+		final Entry previousEntry = _entries.put(key, entry);
+		if (previousEntry != null) {
+			_size -= previousEntry._size;
+		}
+		_size += entry._size;
+		final Iterator<Entry> it = _entries.values().iterator();
+		while (_size > _maxSize) {
+			final Entry eldestEntry = it.next();
+			it.remove();
+			_size -= eldestEntry._size;
+			_evictions++;
+		}
+	}
+
+	private synchronized void addOversized(String key, long[] fingerprint) {
+		_oversizedKeys.put(key, fingerprint);
+	}
+
+	public synchronized void clear() {
+		_entries.clear();
+		_oversizedKeys.clear();
+		_size = 0;
+	}
+
+	/**
+	 * Gets the estimated amount of bytes held by the cached results.
+	 * 
+	 * @return
+	 */
+	public synchronized long getSize() {
+		return _size;
+	}
+
+	public synchronized long getHits() {
+		return _hits;
+	}
+
+	public synchronized long getMisses() {
+		return _misses;
+	}
+
+	public synchronized long getEvictions() {
+		return _evictions;
+	}
+
+	private static long estimateSize(Row row) {
+		final Object[] values = row.getValues();
+		long size = ROW_OVERHEAD + values.length * REFERENCE_SIZE;
+		for (Object value : values) {
+			if (value instanceof String) {
+				size += 40 + ((String) value).length() * 2;
+			} else if (value instanceof Date) {
+				size += 24;
+			} else if (value != null) {
+				size += 16;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * A data set that collects the rows of a result as they are read, and
+	 * caches them when the result has been read completely. Collecting stops
+	 * (and the collected rows are released) when the result exceeds the
+	 * budget.
+	 */
+	private final class CachingDataSet extends AbstractDataSet {
+
+		private final String _key;
+		private final long[] _fingerprint;
+		private final DataSet _dataSet;
+		private List<Row> _rows;
+		private long _size;
+		private Row _row;
+
+		public CachingDataSet(String key, long[] fingerprint, DataSet dataSet) {
+			_key = key;
+			_fingerprint = fingerprint;
+			_dataSet = dataSet;
+			_rows = new ArrayList<Row>();
+			_size = ENTRY_OVERHEAD + key.length() * 2;
+		}
+
+		@Override
+		public SelectItem[] getSelectItems() {
+			return _dataSet.getSelectItems();
+		}
+
+		@Override
+		public boolean next() {
+			if (!_dataSet.next()) {
+				_row = null;
+				if (_rows != null) {
+					add(_key, new Entry(_fingerprint, getSelectItems(),
+							Collections.unmodifiableList(_rows), _size));
+					_rows = null;
+				}
+				return false;
+			}
+			_row = _dataSet.getRow();
+			if (_rows != null) {
+				_rows.add(_row);
+				_size += estimateSize(_row);
+				if (_size > _maxSize) {
+					// too large to be cached
+					_rows = null;
+					addOversized(_key, _fingerprint);
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public Row getRow() {
+			return _row;
+		}
+
+		@Override
+		public void close() {
+			// a result that is not read completely is not cached
+			_rows = null;
+			_dataSet.close();
+		}
+	}
+}
@@ -39,8 +39,12 @@ public final  class SasRowPublisherAction implements Action<RowPublisher> {
 
 	@Override
 	public void run(RowPublisher publisher) throws Exception {
-		_sasReader.read(new DataBuildingSasCallback(publisher, _columns,
-				_maxRows));
+		final int[] columnProjection = new int[_columns.length];
+		for (int i = 0; i < columnProjection.length; i++) {
+			columnProjection[i] = _columns[i].getColumnNumber();
+		}
+		_sasReader.setColumnProjection(columnProjection);
+		_sasReader.read(new DataBuildingSasCallback(publisher, _maxRows));
 		publisher.finished();
 	}
 
@@ -0,0 +1,126 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.metamodel;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eobjects.metamodel.schema.AbstractSchema;
+import org.eobjects.metamodel.schema.Schema;
+import org.eobjects.metamodel.schema.Table;
+
+/**
+ * {@link Schema} of the tables in a directory, ordered by name. Tables can be
+ * added, replaced and removed while the schema is being used (when the
+ * directory is watched), so readers always see a consistent set of tables.
+ * 
+ * @author Kasper Sørensen
+ */
+final class SasSchema extends AbstractSchema implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String _name;
+	private final List<SasTable> _tables;
+
+	public SasSchema(String name) {
+		_name = name;
+		_tables = new CopyOnWriteArrayList<SasTable>();
+	}
+
+	@Override
+	public String getName() {
+		return _name;
+	}
+
+	@Override
+	public String getQuote() {
+		return null;
+	}
+
+	@Override
+	public Table[] getTables() {
+		return _tables.toArray(new Table[0]);
+	}
+
+	/**
+	 * Gets a table by name, without the case insensitive fallback of
+	 * {@link #getTableByName(String)}.
+	 * 
+	 * @param name
+	 * @return the table, or null if there is no table of that name
+	 */
+	public SasTable getSasTable(String name) {
+		for (SasTable table : _tables) {
+			if (table.getName().equals(name)) {
+				return table;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the tables of a directory listing, in order of name.
+	 * 
+	 * @param tables
+	 *            tables sorted by name
+	 */
+	public synchronized void addTables(List<SasTable> tables) {
+		_tables.addAll(tables);
+	}
+
+	/**
+	 * Adds a table in order of name, replacing any table of the same name.
+	 * 
+	 * @param table
+	 */
+	public synchronized void putTable(SasTable table) {
+		final String name = table.getName();
+		int index = 0;
+		while (index < _tables.size()) {
+			final int comparison = _tables.get(index).getName()
+					.compareTo(name);
+			if (comparison == 0) {
+				_tables.set(index, table);
+				return;
+			}
+			if (comparison > 0) {
+				break;
+			}
+			index++;
+		}
+		_tables.add(index, table);
+	}
+
+	/**
+	 * Removes a table by name.
+	 * 
+	 * @param name
+	 * @return the removed table, or null if there was no table of that name
+	 */
+	public synchronized SasTable removeTable(String name) {
+		final SasTable table = getSasTable(name);
+		if (table != null) {
+			_tables.remove(table);
+		}
+		return table;
+	}
+}
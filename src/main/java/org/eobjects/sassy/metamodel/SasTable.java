@@ -29,6 +29,8 @@ import org.eobjects.metamodel.schema.MutableTable;
 import org.eobjects.metamodel.schema.Schema;
 import org.eobjects.metamodel.schema.Table;
 import org.eobjects.metamodel.schema.TableType;
+import org.eobjects.sassy.SasColumn;
+import org.eobjects.sassy.SasMetadata;
 import org.eobjects.sassy.SasReader;
 
 /**
@@ -41,17 +43,32 @@ final class SasTable extends MutableTable implements Serializable {
 	private static final long serialVersionUID = 1L;
 
 	private final File _file;
+	private final long _size;
+	private final long _lastModified;
+	private final transient SasCatalog _catalog;
 	private final List<Column> _columns;
-	private boolean _columnsLoaded;
+	private volatile boolean _columnsLoaded;
 
-	public SasTable(File file, Schema schema) {
+	/**
+	 * Creates a table
+	 * 
+	 * @param file
+	 * @param schema
+	 * @param catalog
+	 *            the catalog to load the columns from (if the file has not
+	 *            changed) and to catalog the file in, or null
+	 */
+	public SasTable(File file, Schema schema, SasCatalog catalog) {
 		super(createName(file), TableType.TABLE, schema);
 		_file = file;
+		_size = file.length();
+		_lastModified = file.lastModified();
+		_catalog = catalog;
 		_columns = new ArrayList<Column>();
 		_columnsLoaded = false;
 	}
 
-	private static String createName(File file) {
+	static String createName(File file) {
 		String name = file.getName();
 		if (name.endsWith(".sas7bdat")) {
 			name = name.substring(0, name.length() - 9);
@@ -66,10 +83,83 @@ final class SasTable extends MutableTable implements Serializable {
 	@Override
 	protected List<Column> getColumnsInternal() {
 		if (!_columnsLoaded) {
-			_columnsLoaded = true;
-			SasReader sasReader = new SasReader(_file);
-			sasReader.read(new ColumnBuildingSasCallback(this, _columns));
+			loadColumns();
 		}
 		return _columns;
 	}
+
+	/**
+	 * Determines if the file has changed (or has been deleted) since the
+	 * table was created.
+	 * 
+	 * @return
+	 */
+	boolean isChanged() {
+		return _file.length() != _size || _file.lastModified() != _lastModified;
+	}
+
+	/**
+	 * Gets the row count of the table from the catalog, if the file has not
+	 * changed since it was cataloged.
+	 * 
+	 * @return the row count, or -1 if it is not known
+	 */
+	public int getCatalogedRowCount() {
+		if (_catalog == null) {
+			return -1;
+		}
+		final SasCatalog.Entry entry = _catalog.get(_file);
+		if (entry == null) {
+			return -1;
+		}
+		return entry.getRowCount();
+	}
+
+	/**
+	 * Determines if the columns of the table can be loaded from the catalog.
+	 * 
+	 * @return
+	 */
+	boolean isCataloged() {
+		return _catalog != null && _catalog.get(_file) != null;
+	}
+
+	/**
+	 * Reads the columns of the table from the catalog or the file, unless
+	 * that has been done already. Called on first access as well as by the
+	 * schema loading threads of the {@link SasDataContext}, so the columns
+	 * are read once.
+	 */
+	synchronized void loadColumns() {
+		if (_columnsLoaded) {
+			return;
+		}
+		final List<SasColumn> sasColumns;
+		final SasCatalog.Entry entry = (_catalog == null ? null : _catalog
+				.get(_file));
+		if (entry == null) {
+			// stat before reading, so a concurrent change invalidates the entry
+			final long size = _file.length();
+			final long lastModified = _file.lastModified();
+			final SasMetadata metadata = new SasReader(_file).readMetadata();
+			sasColumns = metadata.getColumns();
+			if (_catalog != null) {
+				_catalog.put(_file, size, lastModified, metadata);
+				_catalog.saveIfIdle();
+			}
+		} else {
+			sasColumns = entry.getColumns();
+		}
+
+		final List<Column> columns = new ArrayList<Column>();
+		final ColumnBuildingSasCallback callback = new ColumnBuildingSasCallback(
+				this, columns);
+		for (SasColumn column : sasColumns) {
+			callback.column(column.getIndex(), column.getName(),
+					column.getLabel(), column.getType(), column.getFormat(),
+					column.getLength());
+		}
+		_columns.addAll(columns);
+		_columnsLoaded = true;
+	}
 }
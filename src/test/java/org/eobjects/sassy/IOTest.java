@@ -45,6 +45,43 @@ public class IOTest extends TestCase {
 		assertEquals(562.3, IO.readDouble(bytes, 6));
 	}
 
+	public void testReadNegativeNumbers() throws Exception {
+		ByteBuffer bb = ByteBuffer.allocate(14);
+		bb.order(ByteOrder.LITTLE_ENDIAN);
+
+		bb.putInt(-12);
+		bb.putShort((short) -3);
+		bb.putLong(-1234567890123L);
+
+		byte[] bytes = bb.array();
+		assertEquals(-12, IO.readInt(bytes, 0));
+		assertEquals(-3, IO.readShort(bytes, 4));
+		assertEquals(-1234567890123L, IO.readLong(bytes, 6));
+		assertEquals(-1234567890123L, IO.readNumber2(bytes, 6, 8));
+	}
+
+	public void testReadString() throws Exception {
+		// header fields, see SasCharsetTest for the decoding of cells
+		byte[] ascii = "  hello world ".getBytes("US-ASCII");
+		assertEquals("hello", IO.readString(ascii, 2, 5));
+		assertEquals("", IO.readString(ascii, 0, 0));
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(ascii.length);
+		direct.put(ascii);
+		assertEquals("world", IO.readString(direct, 8, 5));
+	}
+
+	public void testReadTruncatedDouble() throws Exception {
+		ByteBuffer bb = ByteBuffer.allocate(8);
+		bb.order(ByteOrder.LITTLE_ENDIAN);
+		bb.putDouble(0, 1.5);
+
+		// a truncated number keeps only the most significant bytes
+		ByteBuffer truncated = IO.slice(bb, 5, 3);
+		assertEquals(1.5, IO.readTruncatedDouble(truncated, 0, 3));
+		assertEquals(1.5, IO.readTruncatedDouble(bb, 0, 8));
+	}
+
 	public void testGetBytes() throws Exception {
 		byte[] bytes = new byte[] { 0, 2, 4, 6, 8, 10, 12 };
 
@@ -0,0 +1,50 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Ignore;
+
+@Ignore
+class RowCollectingSasReaderCallback implements SasReaderCallback {
+
+	final List<Object[]> rows = new ArrayList<Object[]>();
+	final List<Integer> rowNumbers = new ArrayList<Integer>();
+	int maxRows = -1;
+
+	@Override
+	public void column(int columnIndex, String columnName, String columnLabel,
+			SasColumnType columnType, String format, int columnLength) {
+	}
+
+	@Override
+	public boolean readData() {
+		return true;
+	}
+
+	@Override
+	public boolean row(int rowNumber, Object[] rowData) {
+		rowNumbers.add(rowNumber);
+		rows.add(rowData);
+		return maxRows == -1 || rows.size() < maxRows;
+	}
+}
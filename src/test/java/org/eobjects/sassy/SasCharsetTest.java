@@ -0,0 +1,166 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SasCharsetTest extends TestCase {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Charset GBK = Charset.forName("GBK");
+	private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+	private static final Charset WINDOWS_1252 = Charset
+			.forName("windows-1252");
+
+	public void testCodes() throws Exception {
+		assertEquals(UTF8, SasCharset.getCharset(20));
+		assertEquals(LATIN1, SasCharset.getCharset(29));
+		assertEquals(WINDOWS_1252, SasCharset.getCharset(62));
+		assertEquals(GBK, SasCharset.getCharset(126));
+		assertNull(SasCharset.getCharset(0));
+		assertNull(SasCharset.getCharset(255));
+
+		assertEquals(20, SasCharset.getCode(UTF8));
+		assertEquals(62, SasCharset.getCode(WINDOWS_1252));
+		assertEquals(-1, SasCharset.getCode(Charset.forName("UTF-16")));
+	}
+
+	public void testSingleByteCharsets() throws Exception {
+		final byte[] bytes = new byte[] { 'a', (byte) 0x80, (byte) 0xe6 };
+		assertEquals("a€æ", SasCharset.get(WINDOWS_1252).decode(
+				bytes, 0, 3));
+		assertEquals("a\u0080æ", SasCharset.get(LATIN1).decode(bytes,
+				0, 3));
+		assertTrue(SasCharset.get(WINDOWS_1252).isAsciiCompatible());
+	}
+
+	public void testUtf8() throws Exception {
+		final SasCharset charset = SasCharset.get(UTF8);
+		final String str = "aæ你😀z";
+		final byte[] bytes = str.getBytes(UTF8);
+		assertEquals(str, charset.decode(bytes, 0, bytes.length));
+		assertEquals("æ你", charset.decode(bytes, 1, 5));
+
+		// malformed input is replaced, like the JDK does
+		final byte[][] malformed = new byte[][] { { 'a', (byte) 0xc3 },
+				{ (byte) 0xc0, (byte) 0x80 }, { (byte) 0xed, (byte) 0xa0,
+						(byte) 0x80 }, { (byte) 0xe4, 'a', 'b' },
+				{ (byte) 0xff } };
+		for (byte[] b : malformed) {
+			assertEquals(new String(b, UTF8), charset.decode(b, 0, b.length));
+		}
+	}
+
+	public void testGbk() throws Exception {
+		final SasCharset charset = SasCharset.get(GBK);
+		byte[] ascii = "  hello world ".getBytes(GBK);
+		assertEquals("hello", charset.decode(ascii, 2, 5));
+		assertEquals("", charset.decode(ascii, 0, 0));
+
+		byte[] chinese = "你好, world".getBytes(GBK);
+		assertEquals("你好, world",
+				charset.decode(chinese, 0, chinese.length));
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(chinese.length);
+		direct.put(chinese);
+		assertEquals("你好", charset.decode(direct, 0, 4));
+		assertEquals("world", charset.decode(direct, 6, 5));
+
+		// long values grow the reused buffers
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			sb.append("你a");
+		}
+		byte[] longValue = sb.toString().getBytes(GBK);
+		assertEquals(sb.toString(),
+				charset.decode(longValue, 0, longValue.length));
+	}
+
+	public void testSameAsJdk() throws Exception {
+		final Random random = new Random(1);
+		final String[] names = new String[] { "UTF-8", "US-ASCII",
+				"ISO-8859-1", "windows-1252", "windows-1251", "GBK",
+				"EUC-JP" };
+		for (String name : names) {
+			final Charset charset = Charset.forName(name);
+			final SasCharset sasCharset = SasCharset.get(charset);
+			for (int i = 0; i < 200; i++) {
+				final byte[] bytes = new byte[random.nextInt(40)];
+				for (int j = 0; j < bytes.length; j++) {
+					// mostly ASCII
+					bytes[j] = (byte) (random.nextInt(4) == 0 ? random
+							.nextInt(256) : random.nextInt(128));
+				}
+				assertEquals(name, new String(bytes, charset),
+						sasCharset.decode(bytes, 0, bytes.length));
+				assertEquals(name, new String(bytes, charset),
+						sasCharset.decode(ByteBuffer.wrap(bytes), 0,
+								bytes.length));
+			}
+		}
+	}
+
+	public void testEncodingFromHeader() throws Exception {
+		final SasReader reader = new SasReader(new File(
+				"src/test/resources/charset_mostly_latin.sas7bdat"));
+		assertEquals(WINDOWS_1252, reader.readMetadata().getEncoding());
+	}
+
+	public void testFallbackEncoding() throws Exception {
+		// the header of this file has encoding code 0
+		final File file = new File(
+				"src/test/resources/mathattitudes.sas7bdat");
+		final SasReader reader = new SasReader(file);
+		assertEquals(GBK, reader.getFallbackEncoding());
+		assertEquals(GBK, reader.readMetadata().getEncoding());
+
+		reader.setFallbackEncoding(WINDOWS_1252);
+		assertEquals(WINDOWS_1252, reader.readMetadata().getEncoding());
+
+		final SasReader latinReader = new SasReader(new File(
+				"src/test/resources/charset_mostly_latin.sas7bdat"));
+		latinReader.setFallbackEncoding(LATIN1);
+		assertEquals(WINDOWS_1252, latinReader.readMetadata().getEncoding());
+	}
+
+	public void testEncodingOverride() throws Exception {
+		final File file = new File(
+				"src/test/resources/charset_mostly_latin.sas7bdat");
+		RowCollectingSasReaderCallback windows1252 = new RowCollectingSasReaderCallback();
+		new SasReader(file).read(windows1252);
+
+		final SasReader reader = new SasReader(file);
+		reader.setEncoding(LATIN1);
+		assertEquals(LATIN1, reader.readMetadata().getEncoding());
+		RowCollectingSasReaderCallback latin1 = new RowCollectingSasReaderCallback();
+		reader.read(latin1);
+
+		assertEquals(windows1252.rows.size(), latin1.rows.size());
+		final String value = (String) windows1252.rows.get(3)[0];
+		assertTrue(value, value.contains("€"));
+		assertEquals(value.replace('€', '\u0080'),
+				latin1.rows.get(3)[0]);
+	}
+}
@@ -20,6 +20,11 @@
 package org.eobjects.sassy;
 
 import java.io.File;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -29,5 +34,25 @@ public class SasFilenameFilterTest extends TestCase {
 		assertTrue(SasFilenameFilter.isSasDirectory(new File(
 				"src/test/resources")));
 		assertFalse(SasFilenameFilter.isSasDirectory(new File("src/test")));
+		assertFalse(SasFilenameFilter.isSasDirectory(new File(
+				"src/test/resources/pizza.sas7bdat")));
+		assertFalse(SasFilenameFilter.isSasDirectory(null));
+	}
+
+	public void testNewDirectoryStream() throws Exception {
+		final List<String> names = new ArrayList<String>();
+		final DirectoryStream<Path> stream = SasFilenameFilter
+				.newDirectoryStream(new File("src/test/resources"));
+		try {
+			for (Path path : stream) {
+				names.add(path.getFileName().toString());
+			}
+		} finally {
+			stream.close();
+		}
+		assertEquals(Arrays.asList(new File("src/test/resources")
+				.list(new SasFilenameFilter())).size(), names.size());
+		assertTrue(names.contains("pizza.sas7bdat"));
+		assertFalse(names.contains("pizza.tsv"));
 	}
 }
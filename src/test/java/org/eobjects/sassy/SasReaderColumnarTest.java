@@ -0,0 +1,208 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eobjects.sassy.SasPredicate.Operator;
+
+public class SasReaderColumnarTest extends TestCase {
+
+	private static class BatchCollectingCallback implements
+			SasColumnarCallback {
+
+		final List<Object[]> rows = new ArrayList<Object[]>();
+		final List<Integer> rowNumbers = new ArrayList<Integer>();
+		int columnCount = 0;
+		int batchCount = 0;
+		int maxBatches = -1;
+
+		@Override
+		public void column(int columnIndex, String columnName,
+				String columnLabel, SasColumnType columnType, String format,
+				int columnLength) {
+			columnCount++;
+		}
+
+		@Override
+		public boolean readData() {
+			return true;
+		}
+
+		@Override
+		public boolean batch(SasColumnBatch batch) {
+			batchCount++;
+			for (int row = 0; row < batch.getRowCount(); row++) {
+				Object[] rowData = new Object[batch.getColumnCount()];
+				for (int col = 0; col < rowData.length; col++) {
+					if (batch.getColumnType(col) == SasColumnType.NUMERIC) {
+						double value = batch.getDoubles(col)[row];
+						assertEquals(Double.isNaN(value),
+								batch.isMissing(col, row));
+						rowData[col] = value;
+					} else {
+						rowData[col] = batch.getString(col, row);
+					}
+				}
+				rows.add(rowData);
+				rowNumbers.add(batch.getRowNumber(row));
+			}
+			return maxBatches == -1 || batchCount < maxBatches;
+		}
+	}
+
+	public void testReadMathAttitudes() throws Exception {
+		File file = new File("src/test/resources/mathattitudes.sas7bdat");
+		RowCollectingSasReaderCallback expected = new RowCollectingSasReaderCallback();
+		new SasReader(file).read(expected);
+
+		BatchCollectingCallback callback = new BatchCollectingCallback();
+		new SasReader(file).read(callback);
+
+		assertEquals(15, callback.columnCount);
+		assertEquals(1907, callback.rows.size());
+		assertTrue(callback.batchCount > 1);
+		assertEquals(expected.rowNumbers, callback.rowNumbers);
+		for (int i = 0; i < callback.rows.size(); i++) {
+			assertEquals(expected.rows.get(i).length,
+					callback.rows.get(i).length);
+			for (int j = 0; j < callback.rows.get(i).length; j++) {
+				assertEquals(expected.rows.get(i)[j], callback.rows.get(i)[j]);
+			}
+		}
+	}
+
+	public void testProjectionAndPredicates() throws Exception {
+		File file = new File("src/test/resources/pizza.sas7bdat");
+		SasReader reader = new SasReader(file);
+		reader.setColumnProjection("brand", "mois", "id");
+		reader.setPredicates(new SasPredicate("brand", Operator.IN, "b", "c"));
+		RowCollectingSasReaderCallback expected = new RowCollectingSasReaderCallback();
+		reader.read(expected);
+
+		reader = new SasReader(file);
+		reader.setColumnProjection("brand", "mois", "id");
+		reader.setPredicates(new SasPredicate("brand", Operator.IN, "b", "c"));
+		BatchCollectingCallback callback = new BatchCollectingCallback();
+		reader.read(callback);
+
+		assertEquals(58, callback.rows.size());
+		assertEquals(expected.rowNumbers, callback.rowNumbers);
+		for (int i = 0; i < callback.rows.size(); i++) {
+			assertEquals(expected.rows.get(i)[0], callback.rows.get(i)[0]);
+			assertEquals(expected.rows.get(i)[1], callback.rows.get(i)[1]);
+			assertEquals(expected.rows.get(i)[2], callback.rows.get(i)[2]);
+		}
+	}
+
+	public void testReadPartitioned() throws Exception {
+		File file = new File("src/test/resources/mathattitudes.sas7bdat");
+		RowCollectingSasReaderCallback expected = new RowCollectingSasReaderCallback();
+		new SasReader(file).read(expected);
+
+		BatchCollectingCallback[] partitions = new BatchCollectingCallback[3];
+		for (int i = 0; i < partitions.length; i++) {
+			partitions[i] = new BatchCollectingCallback();
+		}
+		SasReader reader = new SasReader(file);
+		reader.setParallelism(3);
+		reader.readPartitioned(partitions);
+
+		// combine the partitions in order of row number
+		Object[][] rows = new Object[expected.rows.size()][];
+		for (BatchCollectingCallback partition : partitions) {
+			assertEquals(15, partition.columnCount);
+			for (int i = 0; i < partition.rows.size(); i++) {
+				int index = partition.rowNumbers.get(i) - 1;
+				assertNull(rows[index]);
+				rows[index] = partition.rows.get(i);
+			}
+		}
+		for (int i = 0; i < rows.length; i++) {
+			assertEquals(expected.rowNumbers.get(i).intValue(), i + 1);
+			assertNotNull(rows[i]);
+			for (int j = 0; j < rows[i].length; j++) {
+				assertEquals(expected.rows.get(i)[j], rows[i][j]);
+			}
+		}
+
+		// without parallelism, all batches go to the first partition
+		partitions = new BatchCollectingCallback[] {
+				new BatchCollectingCallback(), new BatchCollectingCallback() };
+		new SasReader(file).readPartitioned(partitions);
+		assertEquals(1907, partitions[0].rows.size());
+		assertEquals(0, partitions[1].rows.size());
+	}
+
+	public void testStopIteration() throws Exception {
+		File file = new File("src/test/resources/mathattitudes.sas7bdat");
+		BatchCollectingCallback callback = new BatchCollectingCallback();
+		callback.maxBatches = 2;
+		new SasReader(file).read(callback);
+		assertEquals(2, callback.batchCount);
+		assertTrue(callback.rows.size() < 1907);
+	}
+
+	public void testDecodeEmptyPage() throws Exception {
+		SasMetadata metadata = new SasReader(new File(
+				"src/test/resources/pizza.sas7bdat")).readMetadata();
+		SasPageDecoder decoder = new SasPageDecoder(metadata, null, null,
+				null, false, SasTemporalValues.NUMBERS);
+		SasColumnBatch batch = decoder.createBatch();
+
+		// a data page without rows, twice to reuse the batch
+		ByteBuffer page = ByteBuffer.allocate(metadata.getPageSize());
+		for (int i = 0; i < 2; i++) {
+			assertEquals(0, decoder.decodePage(page, (byte) 1, 0, batch));
+			assertEquals(0, batch.getRowCount());
+			assertEquals(0, batch.getMissing(1).length);
+			assertEquals(0, batch.getDoubles(1).length);
+			assertEquals(0, batch.getOffsets(0).length);
+		}
+	}
+
+	public void testBatchTypeMismatch() throws Exception {
+		File file = new File("src/test/resources/pizza.sas7bdat");
+		SasReader reader = new SasReader(file);
+		reader.setColumnProjection("brand");
+		reader.read(new BatchCollectingCallback() {
+			@Override
+			public boolean batch(SasColumnBatch batch) {
+				try {
+					batch.getDoubles(0);
+					fail("Exception expected");
+				} catch (IllegalArgumentException e) {
+					assertEquals(
+							"Column 0 of batch is not NUMERIC but CHARACTER",
+							e.getMessage());
+				}
+				assertEquals(8, batch.getColumnIndex(0));
+				assertEquals(1, batch.getLengths(0)[0]);
+				assertEquals('a', batch.getPage().get(batch.getOffsets(0)[0]));
+				return false;
+			}
+		});
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SasReaderCompressionTest extends TestCase {
+
+	private static final File PIZZA = new File(
+			"src/test/resources/pizza.sas7bdat");
+
+	private final List<File> files = new ArrayList<File>();
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : files) {
+			file.delete();
+		}
+		super.tearDown();
+	}
+
+	public void testReadCharCompressed() throws Exception {
+		runCompressionTest(SasCompression.CHAR);
+	}
+
+	public void testReadBinaryCompressed() throws Exception {
+		runCompressionTest(SasCompression.BINARY);
+	}
+
+	private void runCompressionTest(SasCompression compression)
+			throws Exception {
+		final File uncompressed = write(SasCompression.NONE);
+		final File compressed = write(compression);
+		assertTrue(compressed.length() < uncompressed.length());
+
+		final SasMetadata metadata = new SasReader(compressed).readMetadata();
+		assertEquals(compression, metadata.getCompression());
+		assertEquals(SasCompression.NONE, new SasReader(uncompressed)
+				.readMetadata().getCompression());
+		assertEquals(2000, metadata.getRowCount());
+
+		final RowCollectingSasReaderCallback expected = new RowCollectingSasReaderCallback();
+		new SasReader(uncompressed).read(expected);
+		assertEquals(2000, expected.rows.size());
+
+		RowCollectingSasReaderCallback actual = new RowCollectingSasReaderCallback();
+		new SasReader(compressed).read(actual);
+		assertRows(expected, actual);
+
+		SasReader reader = new SasReader(compressed);
+		reader.setParallelism(4);
+		actual = new RowCollectingSasReaderCallback();
+		reader.read(actual);
+		assertRows(expected, actual);
+
+		final SasRowCursor cursor = new SasReader(compressed).openCursor();
+		try {
+			int i = 0;
+			while (cursor.next()) {
+				final Object[] row = expected.rows.get(i);
+				assertEquals(i + 1, cursor.getRowNumber());
+				assertEquals(row[0], cursor.getString(0));
+				assertEquals(row[1], cursor.getDouble(1));
+				assertEquals(row[3], cursor.getString(3));
+				i++;
+			}
+			assertEquals(2000, i);
+		} finally {
+			cursor.close();
+		}
+
+		final List<Object> values = new ArrayList<Object>();
+		new SasReader(compressed).read(new SasColumnarCallback() {
+			@Override
+			public void column(int columnIndex, String columnName,
+					String columnLabel, SasColumnType columnType,
+					String format, int columnLength) {
+			}
+
+			@Override
+			public boolean readData() {
+				return true;
+			}
+
+			@Override
+			public boolean batch(SasColumnBatch batch) {
+				for (int row = 0; row < batch.getRowCount(); row++) {
+					values.add(batch.getString(3, row));
+				}
+				return true;
+			}
+		});
+		assertEquals(2000, values.size());
+		for (int i = 0; i < values.size(); i++) {
+			assertEquals(expected.rows.get(i)[3], values.get(i));
+		}
+	}
+
+	/**
+	 * Writes the pizza data repeatedly, with a wide and mostly blank comment
+	 * column that makes most rows compressible.
+	 */
+	private File write(SasCompression compression) throws Exception {
+		final RowCollectingSasReaderCallback pizza = new RowCollectingSasReaderCallback();
+		new SasReader(PIZZA).read(pizza);
+		final SasMetadata metadata = new SasReader(PIZZA).readMetadata();
+
+		final Random random = new Random(42);
+		final File file = File.createTempFile("sassy", ".sas7bdat");
+		files.add(file);
+		final SasWriter writer = new SasWriter(file);
+		writer.setPageSize(8192);
+		writer.setCompression(compression);
+		writer.addColumn(metadata.getColumn("id"));
+		writer.addColumn(metadata.getColumn("mois"));
+		writer.addColumn(metadata.getColumn("brand"));
+		writer.addColumn("comment", SasColumnType.CHARACTER, 200);
+		for (int i = 0; i < 2000; i++) {
+			final Object[] row = pizza.rows.get(i % pizza.rows.size());
+			final String comment;
+			if (i % 10 == 0) {
+				comment = null;
+			} else if (i % 10 == 1) {
+				// incompressible rows are stored as they are
+				final char[] chars = new char[200];
+				for (int j = 0; j < chars.length; j++) {
+					chars[j] = (char) ('!' + random.nextInt(90));
+				}
+				comment = new String(chars);
+			} else {
+				comment = "comment no. " + i;
+			}
+			writer.writeRow(row[metadata.getColumn("id").getIndex()],
+					row[metadata.getColumn("mois").getIndex()],
+					row[metadata.getColumn("brand").getIndex()], comment);
+		}
+		writer.close();
+		return file;
+	}
+
+	private void assertRows(RowCollectingSasReaderCallback expected,
+			RowCollectingSasReaderCallback actual) {
+		assertEquals(expected.rows.size(), actual.rows.size());
+		assertEquals(expected.rowNumbers, actual.rowNumbers);
+		for (int i = 0; i < expected.rows.size(); i++) {
+			final Object[] expectedRow = expected.rows.get(i);
+			final Object[] actualRow = actual.rows.get(i);
+			for (int j = 0; j < expectedRow.length; j++) {
+				assertEquals(expectedRow[j], actualRow[j]);
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class SasReaderParallelTest extends TestCase {
+
+	private final File[] files = new File("src/test/resources")
+			.listFiles(new SasFilenameFilter());
+
+	public void testOrderedParallelMatchesSequential() throws Exception {
+		for (File file : files) {
+			List<Object[]> expected = readSequential(file);
+
+			SasReader reader = new SasReader(file);
+			reader.setParallelism(4);
+			RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+			reader.read(callback);
+
+			assertRows(file, expected, callback.rows);
+			assertRowNumbersInOrder(file, callback.rowNumbers);
+		}
+	}
+
+	public void testUnorderedParallelMatchesSequential() throws Exception {
+		ExecutorService executorService = Executors.newFixedThreadPool(3);
+		try {
+			for (File file : files) {
+				List<Object[]> expected = readSequential(file);
+
+				SasReader reader = new SasReader(file);
+				reader.setMemoryMapped(true);
+				reader.setExecutorService(executorService);
+				reader.setOrderedDelivery(false);
+				RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+				reader.read(callback);
+
+				Map<Integer, Object[]> rowsByNumber = new TreeMap<Integer, Object[]>();
+				for (int i = 0; i < callback.rows.size(); i++) {
+					rowsByNumber.put(callback.rowNumbers.get(i),
+							callback.rows.get(i));
+				}
+				assertRows(file, expected,
+						new ArrayList<Object[]>(rowsByNumber.values()));
+			}
+			assertFalse(executorService.isShutdown());
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	public void testStopIterationInParallel() throws Exception {
+		SasReader reader = new SasReader(new File(
+				"src/test/resources/mathattitudes.sas7bdat"));
+		reader.setParallelism(2);
+		RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		callback.maxRows = 100;
+		reader.read(callback);
+
+		assertEquals(100, callback.rows.size());
+		assertRowNumbersInOrder(null, callback.rowNumbers);
+	}
+
+	private List<Object[]> readSequential(File file) {
+		RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		new SasReader(file).read(callback);
+		return callback.rows;
+	}
+
+	private void assertRows(File file, List<Object[]> expected,
+			List<Object[]> actual) {
+		assertEquals(file.getName(), expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertTrue(file.getName() + " row " + i,
+					Arrays.equals(expected.get(i), actual.get(i)));
+		}
+	}
+
+	private void assertRowNumbersInOrder(File file, List<Integer> rowNumbers) {
+		for (int i = 0; i < rowNumbers.size(); i++) {
+			assertEquals(String.valueOf(file), i + 1, rowNumbers.get(i)
+					.intValue());
+		}
+	}
+}
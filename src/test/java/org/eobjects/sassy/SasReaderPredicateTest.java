@@ -0,0 +1,180 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eobjects.sassy.SasPredicate.Operator;
+
+public class SasReaderPredicateTest extends TestCase {
+
+	private static final File PIZZA = new File(
+			"src/test/resources/pizza.sas7bdat");
+
+	private static interface RowMatcher {
+		boolean matches(Object[] row);
+	}
+
+	private List<Object[]> _allRows;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		new SasReader(PIZZA).read(callback);
+		_allRows = callback.rows;
+		assertEquals(300, _allRows.size());
+	}
+
+	public void testEqualsAndGreaterThan() throws Exception {
+		int matches = assertPredicates(1, new RowMatcher() {
+			@Override
+			public boolean matches(Object[] row) {
+				return "a".equals(row[8]) && (Double) row[1] > 30;
+			}
+		}, new SasPredicate("brand", Operator.EQUALS_TO, "a"),
+				new SasPredicate(1, Operator.GREATER_THAN, 30));
+		assertEquals(16, matches);
+	}
+
+	public void testDifferentFromAndLessThan() throws Exception {
+		int matches = assertPredicates(1, new RowMatcher() {
+			@Override
+			public boolean matches(Object[] row) {
+				return !"a".equals(row[8])
+						&& ((String) row[0]).compareTo("14050") < 0;
+			}
+		}, new SasPredicate("brand", Operator.DIFFERENT_FROM, "a"),
+				new SasPredicate("id", Operator.LESS_THAN, "14050"));
+		assertTrue(matches > 0);
+	}
+
+	public void testInAndStartsWithInParallel() throws Exception {
+		final Object mois1 = _allRows.get(5)[1];
+		final Object mois2 = _allRows.get(250)[1];
+		int matches = assertPredicates(3, new RowMatcher() {
+			@Override
+			public boolean matches(Object[] row) {
+				return mois1.equals(row[1]) || mois2.equals(row[1]);
+			}
+		}, new SasPredicate("mois", Operator.IN, mois1, mois2, -1.0));
+		assertTrue(matches >= 2);
+
+		matches = assertPredicates(3, new RowMatcher() {
+			@Override
+			public boolean matches(Object[] row) {
+				return ("b".equals(row[8]) || "c".equals(row[8]))
+						&& ((String) row[0]).startsWith("140");
+			}
+		}, new SasPredicate("brand", Operator.IN, "b", "c", "zz"),
+				new SasPredicate("id", Operator.STARTS_WITH, "140"));
+		assertTrue(matches > 0);
+	}
+
+	public void testNullPredicates() throws Exception {
+		assertEquals(0, assertPredicates(1, new RowMatcher() {
+			@Override
+			public boolean matches(Object[] row) {
+				return false;
+			}
+		}, new SasPredicate("brand", Operator.IS_NULL)));
+
+		assertEquals(300, assertPredicates(1, new RowMatcher() {
+			@Override
+			public boolean matches(Object[] row) {
+				return true;
+			}
+		}, new SasPredicate("brand", Operator.IS_NOT_NULL)));
+	}
+
+	public void testCountWithPredicates() throws Exception {
+		SasReader reader = new SasReader(PIZZA);
+		reader.setPredicates(new SasPredicate("brand", Operator.EQUALS_TO,
+				"j"));
+		CountReaderCallback callback = new CountReaderCallback();
+		reader.read(callback);
+		assertEquals(33, callback.getCount());
+	}
+
+	public void testInvalidPredicates() throws Exception {
+		SasReader reader = new SasReader(PIZZA);
+		reader.setPredicates(new SasPredicate("mois", Operator.EQUALS_TO,
+				"foo"));
+		try {
+			reader.read(new CountReaderCallback());
+			fail("Exception expected");
+		} catch (SasReaderException e) {
+			assertEquals(
+					"Operand of predicate on NUMERIC column mois is not a number: foo",
+					e.getMessage());
+		}
+
+		reader = new SasReader(PIZZA);
+		reader.setPredicates(new SasPredicate("foo", Operator.IS_NULL));
+		try {
+			reader.read(new CountReaderCallback());
+			fail("Exception expected");
+		} catch (SasReaderException e) {
+			assertEquals("No such column: foo", e.getMessage());
+		}
+
+		try {
+			new SasPredicate("brand", Operator.EQUALS_TO);
+			fail("Exception expected");
+		} catch (IllegalArgumentException e) {
+			assertEquals("EQUALS_TO takes a single non-null operand",
+					e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads the pizza file with predicates and asserts that exactly the rows
+	 * accepted by the matcher are read.
+	 * 
+	 * @return the amount of matching rows
+	 */
+	private int assertPredicates(int parallelism, RowMatcher matcher,
+			SasPredicate... predicates) {
+		List<Integer> expectedRowNumbers = new ArrayList<Integer>();
+		for (int i = 0; i < _allRows.size(); i++) {
+			if (matcher.matches(_allRows.get(i))) {
+				expectedRowNumbers.add(i + 1);
+			}
+		}
+
+		SasReader reader = new SasReader(PIZZA);
+		reader.setParallelism(parallelism);
+		reader.setPredicates(predicates);
+		RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		reader.read(callback);
+
+		assertEquals(expectedRowNumbers, callback.rowNumbers);
+		for (int i = 0; i < callback.rows.size(); i++) {
+			Object[] expected = _allRows.get(expectedRowNumbers.get(i) - 1);
+			assertTrue(Arrays.equals(expected, callback.rows.get(i)));
+		}
+		return expectedRowNumbers.size();
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class SasReaderReadAheadTest extends TestCase {
+
+	private final File[] files = new File("src/test/resources")
+			.listFiles(new SasFilenameFilter());
+
+	public void testReadAheadMatchesSequential() throws Exception {
+		for (File file : files) {
+			final List<Object[]> expected = read(new SasReader(file));
+
+			SasReader reader = new SasReader(file);
+			reader.setReadAhead(3);
+			assertRows(file, expected, read(reader));
+
+			reader = new SasReader(file);
+			reader.setReadAhead(1);
+			reader.setMemoryMapped(true);
+			assertRows(file, expected, read(reader));
+
+			reader = new SasReader(new ByteArrayInputStream(
+					Files.readAllBytes(file.toPath())));
+			reader.setReadAhead(2);
+			reader.setParallelism(3);
+			assertRows(file, expected, read(reader));
+		}
+		assertNoReadAheadThreads();
+	}
+
+	public void testCursor() throws Exception {
+		final File file = new File("src/test/resources/mathattitudes.sas7bdat");
+		final List<Object[]> expected = read(new SasReader(file));
+
+		final SasReader reader = new SasReader(file);
+		reader.setReadAhead(4);
+		final SasRowCursor cursor = reader.openCursor();
+		try {
+			int i = 0;
+			while (cursor.next()) {
+				assertEquals(expected.get(i)[0], cursor.getDouble(0));
+				i++;
+			}
+			assertEquals(expected.size(), i);
+		} finally {
+			cursor.close();
+		}
+		assertNoReadAheadThreads();
+	}
+
+	public void testStopReading() throws Exception {
+		final SasReader reader = new SasReader(new File(
+				"src/test/resources/mathattitudes.sas7bdat"));
+		reader.setReadAhead(2);
+		final RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		callback.maxRows = 10;
+		reader.read(callback);
+		assertEquals(10, callback.rows.size());
+		assertNoReadAheadThreads();
+	}
+
+	public void testReadFailure() throws Exception {
+		final File file = new File("src/test/resources/mathattitudes.sas7bdat");
+		final byte[] bytes = Files.readAllBytes(file.toPath());
+		final InputStream in = new FilterInputStream(new ByteArrayInputStream(
+				bytes)) {
+			private int _read;
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (_read > bytes.length / 2) {
+					throw new IOException("Disk on fire");
+				}
+				final int n = super.read(b, off, len);
+				_read += n;
+				return n;
+			}
+		};
+		final SasReader reader = new SasReader(in);
+		reader.setReadAhead(2);
+		try {
+			reader.read(new RowCollectingSasReaderCallback());
+			fail("Exception expected");
+		} catch (SasReaderException e) {
+			assertEquals("Disk on fire", e.getCause().getMessage());
+		}
+		assertNoReadAheadThreads();
+	}
+
+	public void testRecyclesBuffers() throws Exception {
+		final byte[] bytes = new byte[100];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) i;
+		}
+		final ReadAheadSasPageSource source = new ReadAheadSasPageSource(
+				new InputStreamSasPageSource(new ByteArrayInputStream(bytes)),
+				30, 1, "test");
+		try {
+			assertFalse(source.isRetainingBuffers());
+			try {
+				source.read(10);
+				fail("Exception expected");
+			} catch (IllegalArgumentException e) {
+				assertEquals(
+						"Read of 10 bytes, only pages of 30 bytes are read ahead",
+						e.getMessage());
+			}
+			final ByteBuffer first = source.read(30);
+			assertEquals(30, first.limit());
+			assertEquals(0, first.get(0));
+			final ByteBuffer second = source.read(30);
+			assertEquals(30, second.get(0));
+			assertNotSame(first, second);
+			assertSame(first, source.read(30));
+			assertEquals(60, first.get(0));
+			final ByteBuffer last = source.read(30);
+			assertEquals(10, last.limit());
+			assertEquals(90, last.get(0));
+			assertNull(source.read(30));
+			assertNull(source.read(30));
+		} finally {
+			source.close();
+		}
+	}
+
+	private List<Object[]> read(SasReader reader) {
+		final RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		reader.read(callback);
+		return callback.rows;
+	}
+
+	private void assertRows(File file, List<Object[]> expected,
+			List<Object[]> actual) {
+		assertEquals(file.getName(), expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertTrue(file.getName() + " row " + i,
+					Arrays.equals(expected.get(i), actual.get(i)));
+		}
+	}
+
+	private void assertNoReadAheadThreads() {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			assertFalse(thread.getName(),
+					thread.getName().startsWith("sassy-read-ahead"));
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eobjects.sassy.SasPredicate.Operator;
+
+public class SasReaderTemporalTest extends TestCase {
+
+	// 2020-01-01, in days since 1960-01-01 and since 1970-01-01
+	private static final double SAS_DAY = 21915;
+	private static final long EPOCH_DAY = 18262;
+	private static final long DAY_MILLIS = 86400000L;
+
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = File.createTempFile("sassy", ".sas7bdat");
+		final SasWriter writer = new SasWriter(file);
+		try {
+			writer.addColumn("d", null, SasColumnType.DATE, "DATE", 8);
+			writer.addColumn("dt", null, SasColumnType.DATETIME, null, 8);
+			writer.addColumn("t", null, SasColumnType.TIME, "TIME", 8);
+			writer.addColumn("us", null, SasColumnType.NUMERIC, "MMDDYY", 8);
+			writer.addColumn("n", null, SasColumnType.NUMERIC, "BEST", 8);
+			writer.writeRow(SAS_DAY, SAS_DAY * 86400 + 3600.5, 45296, 0, 1);
+			writer.writeRow(null, null, null, null, null);
+			writer.writeRow(new Date(DAY_MILLIS), new Date(-1000),
+					new Date(1000), SAS_DAY - 1, 3);
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	public void testGetNumericType() throws Exception {
+		assertEquals(SasColumnType.DATE, SasColumnType.getNumericType("DATE9."));
+		assertEquals(SasColumnType.DATE, SasColumnType.getNumericType("yymmdd10"));
+		assertEquals(SasColumnType.DATE, SasColumnType.getNumericType("E8601DA"));
+		assertEquals(SasColumnType.DATETIME,
+				SasColumnType.getNumericType("DATETIME20."));
+		assertEquals(SasColumnType.DATETIME,
+				SasColumnType.getNumericType("E8601DT19.3"));
+		assertEquals(SasColumnType.TIME, SasColumnType.getNumericType("HHMM"));
+		assertEquals(SasColumnType.NUMERIC, SasColumnType.getNumericType("F"));
+		assertEquals(SasColumnType.NUMERIC,
+				SasColumnType.getNumericType("BEST12."));
+		assertEquals(SasColumnType.NUMERIC, SasColumnType.getNumericType(""));
+		assertEquals(SasColumnType.NUMERIC, SasColumnType.getNumericType(null));
+	}
+
+	public void testMetadata() throws Exception {
+		final SasMetadata metadata = new SasReader(file).readMetadata();
+		assertEquals(SasColumnType.DATE, metadata.getColumn("d").getType());
+		assertEquals(SasColumnType.DATETIME, metadata.getColumn("dt")
+				.getType());
+		assertEquals("DATETIME", metadata.getColumn("dt").getFormat());
+		assertEquals(SasColumnType.TIME, metadata.getColumn("t").getType());
+		assertEquals(SasColumnType.DATE, metadata.getColumn("us").getType());
+		assertEquals(SasColumnType.NUMERIC, metadata.getColumn("n").getType());
+	}
+
+	public void testWriterValidation() throws Exception {
+		final SasWriter writer = new SasWriter(file);
+		try {
+			writer.addColumn("d", null, SasColumnType.DATE, "BEST", 8);
+			fail("Exception expected");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Format of DATE column d is not a DATE format: BEST",
+					e.getMessage());
+		}
+		writer.addColumn("t", SasColumnType.TIME, 8);
+		try {
+			writer.writeRow("12:00");
+			fail("Exception expected");
+		} catch (IllegalArgumentException e) {
+			assertEquals(
+					"Value of TIME column t is not a number or date: 12:00",
+					e.getMessage());
+		}
+		writer.close();
+	}
+
+	public void testReadNumbers() throws Exception {
+		final RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		new SasReader(file).read(callback);
+		assertEquals(3, callback.rows.size());
+		Object[] row = callback.rows.get(0);
+		assertEquals(SAS_DAY, row[0]);
+		assertEquals(SAS_DAY * 86400 + 3600.5, row[1]);
+		assertEquals(45296.0, row[2]);
+		row = callback.rows.get(1);
+		assertTrue(Double.isNaN((Double) row[0]));
+		row = callback.rows.get(2);
+		assertEquals(3654.0, row[0]);
+		assertEquals(315619199.0, row[1]);
+		assertEquals(1.0, row[2]);
+	}
+
+	public void testReadEpochValues() throws Exception {
+		final SasReader reader = new SasReader(file);
+		reader.setTemporalValues(SasTemporalValues.EPOCH);
+		final RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		reader.read(callback);
+		Object[] row = callback.rows.get(0);
+		assertEquals(EPOCH_DAY, row[0]);
+		assertEquals(EPOCH_DAY * DAY_MILLIS + 3600500, row[1]);
+		assertEquals(45296000L, row[2]);
+		assertEquals(-3653L, row[3]);
+		assertEquals(1.0, row[4]);
+		row = callback.rows.get(1);
+		assertNull(row[0]);
+		assertNull(row[1]);
+		assertNull(row[2]);
+		assertNull(row[3]);
+		assertTrue(Double.isNaN((Double) row[4]));
+		row = callback.rows.get(2);
+		assertEquals(1L, row[0]);
+		assertEquals(-1000L, row[1]);
+		assertEquals(1000L, row[2]);
+	}
+
+	public void testReadDates() throws Exception {
+		final SasReader reader = new SasReader(file);
+		reader.setTemporalValues(SasTemporalValues.DATES);
+		final RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		reader.read(callback);
+		Object[] row = callback.rows.get(0);
+		assertEquals(new Date(EPOCH_DAY * DAY_MILLIS), row[0]);
+		assertEquals(new Date(EPOCH_DAY * DAY_MILLIS + 3600500), row[1]);
+		assertEquals(new Date(45296000L), row[2]);
+		assertEquals(new Date(-3653 * DAY_MILLIS), row[3]);
+		assertNull(callback.rows.get(1)[0]);
+	}
+
+	public void testReadColumnar() throws Exception {
+		final List<Long> dates = new ArrayList<Long>();
+		final List<Long> datetimes = new ArrayList<Long>();
+		final List<Boolean> missing = new ArrayList<Boolean>();
+		new SasReader(file).read(new SasColumnarCallback() {
+			@Override
+			public void column(int columnIndex, String columnName,
+					String columnLabel, SasColumnType columnType,
+					String format, int columnLength) {
+			}
+
+			@Override
+			public boolean readData() {
+				return true;
+			}
+
+			@Override
+			public boolean batch(SasColumnBatch batch) {
+				assertEquals(SAS_DAY, batch.getDoubles(0)[0]);
+				final long[] epochDays = batch.getEpochValues(0);
+				assertSame(epochDays, batch.getEpochValues(0));
+				final long[] epochMillis = batch.getEpochValues(1);
+				for (int row = 0; row < batch.getRowCount(); row++) {
+					dates.add(epochDays[row]);
+					datetimes.add(epochMillis[row]);
+					missing.add(batch.isMissing(0, row));
+				}
+				try {
+					batch.getEpochValues(4);
+					fail("Exception expected");
+				} catch (IllegalArgumentException e) {
+					assertEquals(
+							"Column 4 of batch is not temporal but NUMERIC",
+							e.getMessage());
+				}
+				return true;
+			}
+		});
+		assertEquals("[18262, 0, 1]", dates.toString());
+		assertEquals("[" + (EPOCH_DAY * DAY_MILLIS + 3600500) + ", 0, -1000]",
+				datetimes.toString());
+		assertEquals("[false, true, false]", missing.toString());
+	}
+
+	public void testReadCursor() throws Exception {
+		final SasRowCursor cursor = new SasReader(file).openCursor();
+		try {
+			assertTrue(cursor.next());
+			assertEquals(SAS_DAY, cursor.getDouble(0));
+			assertEquals(EPOCH_DAY, cursor.getEpochValue(0));
+			assertEquals(new Date(EPOCH_DAY * DAY_MILLIS + 3600500),
+					cursor.getDate(1));
+			assertEquals(45296000L, cursor.getEpochValue(2));
+			assertTrue(cursor.next());
+			assertTrue(cursor.isMissing(0));
+			assertEquals(0, cursor.getEpochValue(0));
+			assertNull(cursor.getDate(1));
+			assertTrue(cursor.next());
+			assertFalse(cursor.next());
+		} finally {
+			cursor.close();
+		}
+	}
+
+	public void testDatePredicates() throws Exception {
+		SasReader reader = new SasReader(file);
+		reader.setPredicates(new SasPredicate("d", Operator.LESS_THAN,
+				new Date(2 * DAY_MILLIS)));
+		RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		reader.read(callback);
+		assertEquals("[3]", callback.rowNumbers.toString());
+
+		// a time of day makes a date compare as a fraction of a day
+		reader = new SasReader(file);
+		reader.setPredicates(new SasPredicate("d", Operator.LESS_THAN,
+				new Date(DAY_MILLIS / 2)));
+		callback = new RowCollectingSasReaderCallback();
+		reader.read(callback);
+		assertEquals("[]", callback.rowNumbers.toString());
+		reader = new SasReader(file);
+		reader.setPredicates(new SasPredicate("d", Operator.LESS_THAN,
+				new Date(DAY_MILLIS * 3 / 2)));
+		callback = new RowCollectingSasReaderCallback();
+		reader.read(callback);
+		assertEquals("[3]", callback.rowNumbers.toString());
+
+		reader = new SasReader(file);
+		reader.setPredicates(new SasPredicate("dt", Operator.EQUALS_TO,
+				new Date(EPOCH_DAY * DAY_MILLIS + 3600500)));
+		callback = new RowCollectingSasReaderCallback();
+		reader.read(callback);
+		assertEquals("[1]", callback.rowNumbers.toString());
+
+		reader = new SasReader(file);
+		reader.setPredicates(new SasPredicate("n", Operator.EQUALS_TO,
+				new Date(0)));
+		try {
+			reader.read(new RowCollectingSasReaderCallback());
+			fail("Exception expected");
+		} catch (SasReaderException e) {
+			assertEquals("Operand of predicate on NUMERIC column n is not "
+					+ "a number: " + new Date(0), e.getMessage());
+		}
+	}
+}
@@ -20,6 +20,12 @@
 package org.eobjects.sassy;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 
 import junit.framework.TestCase;
@@ -98,6 +104,118 @@ public class SasReaderTest extends TestCase {
         readSas("pizza.sas7bdat", 9, 300, createComparisonDataSet("pizza.tsv"));
     }
 
+    public void testReadMathAttitudesMemoryMapped() throws Exception {
+        SasReader reader = new SasReader(new File(
+                "src/test/resources/mathattitudes.sas7bdat"));
+        reader.setMemoryMapped(true);
+        readSas(reader, 15, 1907, createComparisonDataSet("mathattitudes.tsv"));
+    }
+
+    public void testReadPizzaMemoryMapped() throws Exception {
+        SasReader reader = new SasReader(new File(
+                "src/test/resources/pizza.sas7bdat"));
+        reader.setMemoryMapped(true);
+        readSas(reader, 9, 300, createComparisonDataSet("pizza.tsv"));
+    }
+
+    public void testReadMetadata() throws Exception {
+        SasReader reader = new SasReader(new File(
+                "src/test/resources/pizza.sas7bdat"));
+        SasMetadata metadata = reader.readMetadata();
+
+        assertFalse(metadata.isU64());
+        assertEquals(1024, metadata.getHeaderLength());
+        assertEquals(8192, metadata.getPageSize());
+        assertEquals(3, metadata.getPageCount());
+        assertEquals(300, metadata.getRowCount());
+        assertEquals(9, metadata.getColumnCount());
+
+        SasColumn column = metadata.getColumn("brand");
+        assertEquals(8, column.getIndex());
+        assertEquals(SasColumnType.CHARACTER, column.getType());
+        assertEquals(1, column.getLength());
+        assertEquals(SasColumnType.NUMERIC, metadata.getColumns().get(1)
+                .getType());
+        assertNull(metadata.getColumn("foo"));
+
+        CountReaderCallback callback = new CountReaderCallback();
+        reader.read(callback);
+        assertEquals(metadata.getRowCount(), callback.getCount());
+    }
+
+    public void testColumnProjection() throws Exception {
+        File file = new File("src/test/resources/pizza.sas7bdat");
+        RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+        new SasReader(file).read(callback);
+        List<Object[]> allColumns = callback.rows;
+
+        SasReader reader = new SasReader(file);
+        reader.setColumnProjection("brand", "mois");
+        callback = new RowCollectingSasReaderCallback();
+        reader.read(callback);
+
+        List<Object[]> projected = callback.rows;
+        assertEquals(300, projected.size());
+        for (int i = 0; i < projected.size(); i++) {
+            assertEquals(2, projected.get(i).length);
+            assertEquals(allColumns.get(i)[8], projected.get(i)[0]);
+            assertEquals(allColumns.get(i)[1], projected.get(i)[1]);
+        }
+
+        reader.setColumnProjection(new int[] { 1 });
+        callback = new RowCollectingSasReaderCallback();
+        reader.read(callback);
+        assertEquals(allColumns.get(0)[1], callback.rows.get(0)[0]);
+
+        reader.setColumnProjection("foo");
+        try {
+            reader.read(new CountReaderCallback());
+            fail("Exception expected");
+        } catch (SasReaderException e) {
+            assertEquals("No such column: foo", e.getMessage());
+        }
+    }
+
+    public void testReadFromByteBuffer() throws Exception {
+        byte[] bytes = Files.readAllBytes(new File(
+                "src/test/resources/mathattitudes.sas7bdat").toPath());
+        SasReader reader = new SasReader(ByteBuffer.wrap(bytes));
+        assertNull(reader.getFile());
+        readSas(reader, 15, 1907, createComparisonDataSet("mathattitudes.tsv"));
+    }
+
+    public void testReadFromSeekableByteChannel() throws Exception {
+        FileChannel channel = FileChannel.open(new File(
+                "src/test/resources/pizza.sas7bdat").toPath(),
+                StandardOpenOption.READ);
+        try {
+            readSas(new SasReader(channel), 9, 300,
+                    createComparisonDataSet("pizza.tsv"));
+            assertTrue(channel.isOpen());
+        } finally {
+            channel.close();
+        }
+    }
+
+    public void testReadFromInputStreamOnlyOnce() throws Exception {
+        InputStream inputStream = new FileInputStream(
+                "src/test/resources/beef.sas7bdat");
+        try {
+            SasReader reader = new SasReader(inputStream);
+            readSas(reader, 9, 30, createComparisonDataSet("beef.tsv"));
+            try {
+                reader.read(new CountReaderCallback());
+                fail("Exception expected");
+            } catch (SasReaderException e) {
+                assertEquals(
+                        "Page source of InputStreamSasPageSource has already been consumed",
+                        e.getMessage());
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
     private List<Object[]> readSas(String filename, int columns, int rows,
             DataSet compareToDataSet) {
         File file = new File("src/test/resources/" + filename);
@@ -106,8 +224,11 @@ public class SasReaderTest extends TestCase {
 
     private List<Object[]> readSas(File file, int columns, int rows,
             DataSet compareToDataSet) {
-        SasReader reader = new SasReader(file);
+        return readSas(new SasReader(file), columns, rows, compareToDataSet);
+    }
 
+    private List<Object[]> readSas(SasReader reader, int columns, int rows,
+            DataSet compareToDataSet) {
         CountingSasReaderCallback callback = new CountingSasReaderCallback(
                 true, compareToDataSet);
         reader.read(callback);
@@ -0,0 +1,149 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import junit.framework.TestCase;
+
+import org.eobjects.sassy.SasPredicate.Operator;
+
+public class SasRowCursorTest extends TestCase {
+
+	private static final File MATH_ATTITUDES = new File(
+			"src/test/resources/mathattitudes.sas7bdat");
+	private static final File PIZZA = new File(
+			"src/test/resources/pizza.sas7bdat");
+
+	public void testReadMathAttitudes() throws Exception {
+		RowCollectingSasReaderCallback expected = new RowCollectingSasReaderCallback();
+		new SasReader(MATH_ATTITUDES).read(expected);
+
+		SasRowCursor cursor = new SasReader(MATH_ATTITUDES).openCursor();
+		try {
+			assertEquals(15, cursor.getColumnCount());
+			int i = 0;
+			while (cursor.next()) {
+				Object[] expectedRow = expected.rows.get(i);
+				assertEquals(expected.rowNumbers.get(i).intValue(),
+						cursor.getRowNumber());
+				for (int col = 0; col < cursor.getColumnCount(); col++) {
+					if (cursor.getColumnType(col) == SasColumnType.NUMERIC) {
+						assertEquals(expectedRow[col], cursor.getDouble(col));
+					} else {
+						assertEquals(expectedRow[col], cursor.getString(col));
+					}
+				}
+				i++;
+			}
+			assertEquals(1907, i);
+			assertFalse(cursor.next());
+		} finally {
+			cursor.close();
+		}
+	}
+
+	public void testProjectionAndPredicates() throws Exception {
+		SasReader reader = new SasReader(PIZZA);
+		reader.setColumnProjection("brand", "mois");
+		reader.setPredicates(new SasPredicate("brand", Operator.EQUALS_TO,
+				"j"));
+		SasRowCursor cursor = reader.openCursor();
+		try {
+			byte[] bytes = new byte[1];
+			int count = 0;
+			while (cursor.next()) {
+				assertEquals(1, cursor.getBytes(0, bytes));
+				assertEquals('j', bytes[0]);
+				assertFalse(cursor.isMissing(1));
+				count++;
+			}
+			assertEquals(33, count);
+
+			try {
+				cursor.getDouble(1);
+				fail("Exception expected");
+			} catch (IllegalStateException e) {
+				assertEquals("Cursor is not positioned on a row",
+						e.getMessage());
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	public void testNoAllocationsPerRow() throws Exception {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+			// allocation counters not available on this JVM
+			return;
+		}
+		com.sun.management.ThreadMXBean allocationCounter = (com.sun.management.ThreadMXBean) threadMXBean;
+		if (!allocationCounter.isThreadAllocatedMemorySupported()
+				|| !allocationCounter.isThreadAllocatedMemoryEnabled()) {
+			return;
+		}
+		long threadId = Thread.currentThread().getId();
+
+		SasRowCursor cursor = new SasReader(MATH_ATTITUDES).openCursor();
+		try {
+			byte[] bytes = new byte[1024];
+			double sum = 0;
+			int rows = 0;
+			int allocatingRows = 0;
+			while (true) {
+				long allocatedBefore = allocationCounter
+						.getThreadAllocatedBytes(threadId);
+				boolean hasRow = cursor.next();
+				if (hasRow) {
+					for (int col = 0; col < cursor.getColumnCount(); col++) {
+						if (cursor.isMissing(col)) {
+							continue;
+						}
+						if (cursor.getColumnType(col) == SasColumnType.NUMERIC) {
+							sum += cursor.getDouble(col);
+						} else {
+							cursor.getBytes(col, bytes);
+						}
+					}
+				}
+				if (allocationCounter.getThreadAllocatedBytes(threadId) != allocatedBefore) {
+					allocatingRows++;
+				}
+				if (!hasRow) {
+					break;
+				}
+				rows++;
+			}
+			assertEquals(1907, rows);
+			assertTrue(sum > 0);
+
+			// only moving to a new page is allowed to allocate (eg. for
+			// logging), reading rows and values is not
+			int pageCount = cursor.getMetadata().getPageCount();
+			assertTrue("Allocations on " + allocatingRows + " rows",
+					allocatingRows <= pageCount);
+		} finally {
+			cursor.close();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SasRowDecompressorTest extends TestCase {
+
+	public void testDecompressRle() throws Exception {
+		// copy 3 bytes, then insert 3 blanks
+		byte[] src = new byte[] { (byte) 0x82, 'a', 'b', 'c', (byte) 0xe1 };
+		byte[] dst = new byte[6];
+		assertEquals(6, SasRowDecompressor.decompressRle(ByteBuffer.wrap(src),
+				0, src.length, dst, 0, dst.length));
+		assertEquals("abc   ", new String(dst, "US-ASCII"));
+	}
+
+	public void testDecompressRdc() throws Exception {
+		// a literal and a short run
+		byte[] src = new byte[] { 0x40, 0x00, 'x', 0x02, 'y' };
+		byte[] dst = new byte[6];
+		assertEquals(6, SasRowDecompressor.decompressRdc(ByteBuffer.wrap(src),
+				0, src.length, dst, 0, dst.length));
+		assertEquals("xyyyyy", new String(dst, "US-ASCII"));
+
+		// four literals and a short pattern 4 bytes back
+		src = new byte[] { 0x08, 0x00, 'a', 'b', 'c', 'd', 0x41, 0x00 };
+		dst = new byte[8];
+		assertEquals(8, SasRowDecompressor.decompressRdc(ByteBuffer.wrap(src),
+				0, src.length, dst, 0, dst.length));
+		assertEquals("abcdabcd", new String(dst, "US-ASCII"));
+	}
+
+	public void testInvalidCommand() throws Exception {
+		byte[] src = new byte[] { 0x30, 0x00 };
+		try {
+			SasRowDecompressor.decompressRle(ByteBuffer.wrap(src), 0,
+					src.length, new byte[10], 0, 10);
+			fail("Exception expected");
+		} catch (SasReaderException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith(
+					"Unknown RLE command"));
+		}
+	}
+
+	public void testRoundTrip() throws Exception {
+		final Random random = new Random(42);
+		final int[] hashTable = new int[SasRowCompressor.RDC_HASH_TABLE_SIZE];
+		for (int i = 0; i < 200; i++) {
+			final byte[] row = createRow(random, 1 + random.nextInt(6000));
+			final byte[] compressed = new byte[row.length * 2 + 16];
+			final byte[] decompressed = new byte[row.length];
+
+			int length = SasRowCompressor.compressRle(row, 0, row.length,
+					compressed);
+			assertTrue(length > 0);
+			assertEquals(row.length, SasRowDecompressor.decompressRle(
+					ByteBuffer.wrap(compressed), 0, length, decompressed, 0,
+					decompressed.length));
+			assertTrue(Arrays.equals(row, decompressed));
+
+			Arrays.fill(decompressed, (byte) 0);
+			length = SasRowCompressor.compressRdc(row, 0, row.length,
+					compressed, hashTable);
+			assertTrue(length > 0);
+			assertEquals(row.length, SasRowDecompressor.decompressRdc(
+					ByteBuffer.wrap(compressed), 0, length, decompressed, 0,
+					decompressed.length));
+			assertTrue(Arrays.equals(row, decompressed));
+		}
+	}
+
+	/**
+	 * Creates a row of random literals, runs and repeated patterns.
+	 */
+	private static byte[] createRow(Random random, int length) {
+		final byte[] row = new byte[length];
+		int i = 0;
+		while (i < length) {
+			final int n = Math.min(length - i, 1 + random.nextInt(300));
+			switch (random.nextInt(4)) {
+			case 0:
+				for (int j = 0; j < n; j++) {
+					row[i + j] = (byte) random.nextInt(256);
+				}
+				break;
+			case 1:
+				Arrays.fill(row, i, i + n, (byte) " @\0x".charAt(random
+						.nextInt(4)));
+				break;
+			case 2:
+				if (i > 0) {
+					final int from = random.nextInt(i);
+					for (int j = 0; j < n; j++) {
+						row[i + j] = row[from + j];
+					}
+				}
+				break;
+			default:
+				for (int j = 0; j < n; j++) {
+					row[i + j] = (byte) ('a' + random.nextInt(3));
+				}
+			}
+			i += n;
+		}
+		return row;
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class SasStringDictionaryTest extends TestCase {
+
+	private static final File PIZZA = new File(
+			"src/test/resources/pizza.sas7bdat");
+
+	public void testCanonicalStrings() throws Exception {
+		final SasStringDictionary dictionary = new SasStringDictionary(10,
+				SasCharset.get(Charset.forName("US-ASCII")));
+		final ByteBuffer buffer = ByteBuffer.wrap("xfooxbarxfoo".getBytes());
+		final String foo = dictionary.get(buffer, 1, 3);
+		assertEquals("foo", foo);
+		assertEquals("bar", dictionary.get(buffer, 5, 3));
+		assertSame(foo, dictionary.get(buffer, 9, 3));
+		assertEquals("oox", dictionary.get(buffer, 2, 3));
+		assertEquals(3, dictionary.size());
+		assertFalse(dictionary.isDisabled());
+	}
+
+	public void testGrowing() throws Exception {
+		final SasStringDictionary dictionary = new SasStringDictionary(
+				SasStringDictionary.MAX_SIZE, SasCharset.get(Charset
+						.forName("US-ASCII")));
+		final ByteBuffer buffer = ByteBuffer.allocate(5);
+		final String[] values = new String[10000];
+		for (int i = 0; i < values.length; i++) {
+			buffer.put(0, (byte) ('a' + i % 26));
+			buffer.putInt(1, i / 26);
+			values[i] = dictionary.get(buffer, 0, 5);
+		}
+		assertEquals(values.length, dictionary.size());
+		for (int i = 0; i < values.length; i++) {
+			buffer.put(0, (byte) ('a' + i % 26));
+			buffer.putInt(1, i / 26);
+			assertSame(values[i], dictionary.get(buffer, 0, 5));
+		}
+		assertFalse(dictionary.isDisabled());
+	}
+
+	public void testHighCardinalityFallback() throws Exception {
+		final SasStringDictionary dictionary = new SasStringDictionary(3,
+				SasCharset.get(Charset.forName("US-ASCII")));
+		final ByteBuffer buffer = ByteBuffer.wrap("abcdefgh".getBytes());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(String.valueOf((char) ('a' + i)),
+					dictionary.get(buffer, i, 1));
+		}
+		assertFalse(dictionary.isDisabled());
+		assertEquals("d", dictionary.get(buffer, 3, 1));
+		assertTrue(dictionary.isDisabled());
+
+		// values are still decoded, just not canonicalized
+		final String a = dictionary.get(buffer, 0, 1);
+		assertEquals("a", a);
+		assertNotSame(a, dictionary.get(buffer, 0, 1));
+	}
+
+	public void testReadWithDictionary() throws Exception {
+		RowCollectingSasReaderCallback expected = new RowCollectingSasReaderCallback();
+		new SasReader(PIZZA).read(expected);
+
+		SasReader reader = new SasReader(PIZZA);
+		reader.setDictionaryColumns("brand");
+		RowCollectingSasReaderCallback actual = new RowCollectingSasReaderCallback();
+		reader.read(actual);
+
+		final int brand = reader.readMetadata().getColumn("brand").getIndex();
+		final Map<Object, Object> distinct = new IdentityHashMap<Object, Object>();
+		assertEquals(300, actual.rows.size());
+		for (int i = 0; i < actual.rows.size(); i++) {
+			for (int j = 0; j < actual.rows.get(i).length; j++) {
+				assertEquals(expected.rows.get(i)[j], actual.rows.get(i)[j]);
+			}
+			distinct.put(actual.rows.get(i)[brand], null);
+		}
+		assertEquals(10, distinct.size());
+	}
+
+	public void testCursorWithDictionary() throws Exception {
+		SasReader reader = new SasReader(PIZZA);
+		reader.setDictionaryColumns(reader.readMetadata().getColumn("brand")
+				.getIndex());
+		reader.setColumnProjection("brand");
+		final Map<Object, Object> distinct = new IdentityHashMap<Object, Object>();
+		SasRowCursor cursor = reader.openCursor();
+		try {
+			while (cursor.next()) {
+				distinct.put(cursor.getString(0), null);
+			}
+		} finally {
+			cursor.close();
+		}
+		assertEquals(10, distinct.size());
+	}
+
+	public void testInvalidDictionaryColumn() throws Exception {
+		SasReader reader = new SasReader(PIZZA);
+		reader.setDictionaryColumns("mois");
+		try {
+			reader.read(new RowCollectingSasReaderCallback());
+			fail("Exception expected");
+		} catch (SasReaderException e) {
+			assertEquals("Dictionary column mois is not a CHARACTER column",
+					e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+public class SasStringTest extends TestCase {
+
+	private static final File PIZZA = new File(
+			"src/test/resources/pizza.sas7bdat");
+	private static final SasCharset UTF8 = SasCharset.get(Charset
+			.forName("UTF-8"));
+	private static final File CYRILLIC = new File(
+			"src/test/resources/charset_cyrillic_and_more.sas7bdat");
+
+	public void testValue() throws Exception {
+		SasString str = new SasString("abc".getBytes("US-ASCII"), UTF8);
+		assertFalse(str.isEmpty());
+		assertEquals(3, str.getByteLength());
+		assertTrue(str.contentEquals("abc"));
+		assertFalse(str.contentEquals("abd"));
+		assertFalse(str.contentEquals("abcd"));
+		assertFalse(str.contentEquals("ab"));
+		assertEquals(3, str.length());
+		assertEquals('b', str.charAt(1));
+		assertEquals("bc", str.subSequence(1, 3).toString());
+		assertEquals("abc", str.toString());
+		assertSame(str.toString(), str.toString());
+
+		assertEquals(str, new SasString("abc".getBytes("US-ASCII"), UTF8));
+		assertEquals(str.hashCode(),
+				new SasString("abc".getBytes("US-ASCII"), UTF8).hashCode());
+		assertFalse(str.equals("abc"));
+
+		assertTrue(SasString.EMPTY.isEmpty());
+		assertTrue(SasString.EMPTY.contentEquals(""));
+		assertEquals("", SasString.EMPTY.toString());
+	}
+
+	public void testNonAsciiValue() throws Exception {
+		SasString str = new SasString("北京".getBytes("GBK"),
+				SasCharset.get(Charset.forName("GBK")));
+		assertEquals(4, str.getByteLength());
+		assertEquals(2, str.length());
+		assertTrue(str.contentEquals("北京"));
+		assertFalse(str.contentEquals("北"));
+		assertFalse(str.contentEquals("abcd"));
+	}
+
+	public void testReadLazyStrings() throws Exception {
+		runLazyStringsTest(PIZZA);
+		runLazyStringsTest(CYRILLIC);
+	}
+
+	private void runLazyStringsTest(File file) throws Exception {
+		RowCollectingSasReaderCallback expected = new RowCollectingSasReaderCallback();
+		new SasReader(file).read(expected);
+
+		SasReader reader = new SasReader(file);
+		reader.setLazyStrings(true);
+		RowCollectingSasReaderCallback actual = new RowCollectingSasReaderCallback();
+		reader.read(actual);
+
+		assertEquals(expected.rows.size(), actual.rows.size());
+		for (int i = 0; i < expected.rows.size(); i++) {
+			Object[] expectedRow = expected.rows.get(i);
+			Object[] actualRow = actual.rows.get(i);
+			for (int j = 0; j < expectedRow.length; j++) {
+				if (expectedRow[j] instanceof String) {
+					assertTrue(actualRow[j] instanceof SasString);
+					assertEquals(expectedRow[j], actualRow[j].toString());
+					assertTrue(((SasString) actualRow[j])
+							.contentEquals((String) expectedRow[j]));
+				} else {
+					assertEquals(expectedRow[j], actualRow[j]);
+				}
+			}
+		}
+	}
+
+	public void testWritePassThrough() throws Exception {
+		SasReader reader = new SasReader(PIZZA);
+		reader.setLazyStrings(true);
+		reader.setColumnProjection("id", "brand");
+		RowCollectingSasReaderCallback rows = new RowCollectingSasReaderCallback();
+		reader.read(rows);
+
+		SasMetadata metadata = new SasReader(PIZZA).readMetadata();
+		File file = File.createTempFile("sassy", ".sas7bdat");
+		try {
+			SasWriter writer = new SasWriter(file);
+			writer.addColumn(metadata.getColumn("id"));
+			writer.addColumn(metadata.getColumn("brand"));
+			for (Object[] row : rows.rows) {
+				writer.writeRow(row);
+			}
+			writer.close();
+
+			RowCollectingSasReaderCallback actual = new RowCollectingSasReaderCallback();
+			new SasReader(file).read(actual);
+			assertEquals(300, actual.rows.size());
+			for (int i = 0; i < 300; i++) {
+				assertEquals(rows.rows.get(i)[0].toString(),
+						actual.rows.get(i)[0]);
+				assertEquals(rows.rows.get(i)[1].toString(),
+						actual.rows.get(i)[1]);
+			}
+		} finally {
+			file.delete();
+		}
+	}
+}
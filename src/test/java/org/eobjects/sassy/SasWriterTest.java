@@ -0,0 +1,256 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eobjects.sassy.SasPredicate.Operator;
+
+public class SasWriterTest extends TestCase {
+
+	private static final File PIZZA = new File(
+			"src/test/resources/pizza.sas7bdat");
+
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = File.createTempFile("sassy", ".sas7bdat");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	public void testRoundTrip() throws Exception {
+		SasWriter writer = new SasWriter(file);
+		writer.setPageSize(4096);
+		writer.addColumn("id", "Identifier", SasColumnType.NUMERIC, "BEST12.",
+				8);
+		writer.addColumn("score", SasColumnType.NUMERIC, 4);
+		writer.addColumn("name", "Name", SasColumnType.CHARACTER, null, 12);
+		writer.addColumn("city", SasColumnType.CHARACTER, 8);
+		for (int i = 0; i < 1000; i++) {
+			if (i % 7 == 0) {
+				writer.writeRow(i, null, null, null);
+			} else {
+				writer.writeRow(i, i * 0.5, "name" + i, "北京");
+			}
+		}
+		assertEquals(1000, writer.getRowCount());
+		writer.close();
+
+		SasMetadata metadata = new SasReader(file).readMetadata();
+		assertEquals(1000, metadata.getRowCount());
+		assertEquals(32, metadata.getRowLength());
+		assertEquals(4096, metadata.getPageSize());
+		List<SasColumn> columns = metadata.getColumns();
+		assertEquals(
+				"SasColumn[index=0,name=id,type=NUMERIC,format=BEST12.,offset=0,length=8]",
+				columns.get(0).toString());
+		assertEquals("Identifier", columns.get(0).getLabel());
+		assertEquals(
+				"SasColumn[index=1,name=score,type=NUMERIC,format=null,offset=8,length=4]",
+				columns.get(1).toString());
+		assertEquals(
+				"SasColumn[index=2,name=name,type=CHARACTER,format=null,offset=12,length=12]",
+				columns.get(2).toString());
+		assertEquals("Name", columns.get(2).getLabel());
+		assertEquals(
+				"SasColumn[index=3,name=city,type=CHARACTER,format=null,offset=24,length=8]",
+				columns.get(3).toString());
+
+		RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		new SasReader(file).read(callback);
+		assertEquals(1000, callback.rows.size());
+		for (int i = 0; i < 1000; i++) {
+			Object[] row = callback.rows.get(i);
+			assertEquals(i + 1, callback.rowNumbers.get(i).intValue());
+			assertEquals(Double.valueOf(i), row[0]);
+			if (i % 7 == 0) {
+				assertTrue(Double.isNaN((Double) row[1]));
+				assertEquals("", row[2]);
+				assertEquals("", row[3]);
+			} else {
+				assertEquals(Double.valueOf(i * 0.5), row[1]);
+				assertEquals("name" + i, row[2]);
+				assertEquals("北京", row[3]);
+			}
+		}
+	}
+
+	public void testEncoding() throws Exception {
+		SasWriter writer = new SasWriter(file);
+		assertEquals(SasWriter.DEFAULT_ENCODING, writer.getEncoding());
+		writer.setEncoding(Charset.forName("windows-1251"));
+		writer.addColumn("имя", "Имя", SasColumnType.CHARACTER, null, 6);
+		writer.writeRow("Иван");
+		writer.close();
+
+		SasMetadata metadata = new SasReader(file).readMetadata();
+		assertEquals(Charset.forName("windows-1251"), metadata.getEncoding());
+		assertEquals("имя", metadata.getColumns().get(0).getName());
+		assertEquals("Имя", metadata.getColumns().get(0).getLabel());
+		RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		new SasReader(file).read(callback);
+		assertEquals("Иван", callback.rows.get(0)[0]);
+
+		writer = new SasWriter(file);
+		try {
+			writer.setEncoding(Charset.forName("UTF-16"));
+			fail("Exception expected");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Encoding UTF-16 has no SAS encoding code",
+					e.getMessage());
+		} finally {
+			writer.close();
+		}
+	}
+
+	public void testTruncatedNumbers() throws Exception {
+		SasWriter writer = new SasWriter(file);
+		writer.addColumn("x", SasColumnType.NUMERIC, 3);
+		writer.writeRow(1.0 / 3);
+		writer.writeRow(-42);
+		writer.close();
+
+		RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		new SasReader(file).read(callback);
+		assertEquals(1.0 / 3, (Double) callback.rows.get(0)[0], 0.001);
+		assertEquals(-42.0, callback.rows.get(1)[0]);
+	}
+
+	public void testExtractSubset() throws Exception {
+		SasReader reader = new SasReader(PIZZA);
+		reader.setColumnProjection("id", "brand", "mois");
+		reader.setPredicates(new SasPredicate("brand", Operator.EQUALS_TO,
+				"a"));
+		RowCollectingSasReaderCallback expected = new RowCollectingSasReaderCallback();
+		reader.read(expected);
+
+		SasMetadata metadata = new SasReader(PIZZA).readMetadata();
+		final SasWriter writer = new SasWriter(file);
+		writer.addColumn(metadata.getColumn("id"));
+		writer.addColumn(metadata.getColumn("brand"));
+		writer.addColumn(metadata.getColumn("mois"));
+		for (Object[] row : expected.rows) {
+			writer.writeRow(row);
+		}
+		writer.close();
+
+		RowCollectingSasReaderCallback actual = new RowCollectingSasReaderCallback();
+		new SasReader(file).read(actual);
+		assertEquals(29, actual.rows.size());
+		for (int i = 0; i < 29; i++) {
+			assertEquals(expected.rows.get(i).length,
+					actual.rows.get(i).length);
+			for (int j = 0; j < 3; j++) {
+				assertEquals(expected.rows.get(i)[j], actual.rows.get(i)[j]);
+			}
+		}
+	}
+
+	public void testManyColumns() throws Exception {
+		// needs several meta pages and COLATTR sub headers
+		SasWriter writer = new SasWriter(file);
+		writer.setPageSize(16 * 1024);
+		for (int j = 0; j < 2000; j++) {
+			writer.addColumn("c" + j, SasColumnType.NUMERIC, 3);
+		}
+		Object[] values = new Object[2000];
+		for (int i = 0; i < 5; i++) {
+			for (int j = 0; j < 2000; j++) {
+				values[j] = (i * 7 + j) % 1000;
+			}
+			writer.writeRow(values);
+		}
+		writer.close();
+
+		RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		new SasReader(file).read(callback);
+		assertEquals(5, callback.rows.size());
+		for (int i = 0; i < 5; i++) {
+			Object[] row = callback.rows.get(i);
+			assertEquals(2000, row.length);
+			for (int j = 0; j < 2000; j += 99) {
+				assertEquals(Double.valueOf((i * 7 + j) % 1000), row[j]);
+			}
+		}
+		SasMetadata metadata = new SasReader(file).readMetadata();
+		assertEquals("c1999", metadata.getColumns().get(1999).getName());
+		assertEquals(1999 * 3, metadata.getColumns().get(1999).getOffset());
+	}
+
+	public void testEmptyTable() throws Exception {
+		SasWriter writer = new SasWriter(file);
+		writer.addColumn("foo", SasColumnType.CHARACTER, 3);
+		writer.close();
+
+		SasMetadata metadata = new SasReader(file).readMetadata();
+		assertEquals(0, metadata.getRowCount());
+		assertEquals("foo", metadata.getColumns().get(0).getName());
+
+		CountReaderCallback callback = new CountReaderCallback();
+		new SasReader(file).read(callback);
+		assertEquals(0, callback.getCount());
+	}
+
+	public void testInvalidValues() throws Exception {
+		SasWriter writer = new SasWriter(file);
+		writer.addColumn("num", SasColumnType.NUMERIC, 8);
+		writer.addColumn("str", SasColumnType.CHARACTER, 3);
+		try {
+			writer.writeRow(1, "abcd");
+			fail("Exception expected");
+		} catch (IllegalArgumentException e) {
+			assertEquals(
+					"Value of CHARACTER column str is longer than 3 bytes: abcd",
+					e.getMessage());
+		}
+		try {
+			writer.writeRow("1", "abc");
+			fail("Exception expected");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Value of NUMERIC column num is not a number: 1",
+					e.getMessage());
+		}
+		writer.writeRow(1, "abc");
+		try {
+			writer.addColumn("foo", SasColumnType.NUMERIC, 8);
+			fail("Exception expected");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().startsWith(
+					"Writer has already started writing"));
+		}
+		writer.close();
+
+		RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		new SasReader(file).read(callback);
+		assertEquals(1, callback.rows.size());
+		assertEquals("abc", callback.rows.get(0)[1]);
+	}
+}
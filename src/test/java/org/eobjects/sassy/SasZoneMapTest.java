@@ -0,0 +1,237 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eobjects.sassy.SasPredicate.Operator;
+
+public class SasZoneMapTest extends TestCase {
+
+	private File _directory;
+	private File _mathattitudes;
+	private File _pizza;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_directory = Files.createTempDirectory("sassy").toFile();
+		_mathattitudes = new File(_directory, "mathattitudes.sas7bdat");
+		Files.copy(new File("src/test/resources/mathattitudes.sas7bdat")
+				.toPath(), _mathattitudes.toPath());
+		_pizza = new File(_directory, "pizza.sas7bdat");
+		Files.copy(new File("src/test/resources/pizza.sas7bdat").toPath(),
+				_pizza.toPath());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : _directory.listFiles()) {
+			file.delete();
+		}
+		_directory.delete();
+		super.tearDown();
+	}
+
+	public void testSkippingPages() throws Exception {
+		assertSkippingPages(SasCompression.NONE);
+	}
+
+	public void testSkippingCompressedPages() throws Exception {
+		assertSkippingPages(SasCompression.CHAR);
+	}
+
+	private void assertSkippingPages(SasCompression compression)
+			throws Exception {
+		final File file = new File(_directory, "sorted.sas7bdat");
+		final SasWriter writer = new SasWriter(file);
+		writer.setCompression(compression);
+		writer.setPageSize(4096);
+		writer.addColumn("x", SasColumnType.NUMERIC, 8);
+		writer.addColumn("name", SasColumnType.CHARACTER, 12);
+		writer.addColumn("day", SasColumnType.DATE, 8);
+		for (int i = 0; i < 3000; i++) {
+			// every tenth number is missing
+			writer.writeRow(i % 10 == 9 ? null : i,
+					String.format("row%05d", i), new Date(i * 86400000L));
+		}
+		writer.close();
+
+		final SasZoneMap zoneMap = SasZoneMap.index(file);
+		assertTrue(SasZoneMap.getSidecarFile(file).exists());
+		assertTrue(zoneMap.getPageCount() > 3);
+
+		final SasPredicate equalsX = new SasPredicate("x",
+				Operator.EQUALS_TO, 2000);
+		assertEquals(zoneMap.getPageCount() - 1,
+				getSkippedPages(file, equalsX).cardinality());
+		assertEquals(1, assertSameRows(file, 1, equalsX));
+		assertEquals(1, assertSameRows(file, 3, equalsX));
+
+		assertEquals(2, assertSameRows(file, 3, new SasPredicate("x",
+				Operator.IN, 10, 2990)));
+		assertEquals(90, assertSameRows(file, 1, new SasPredicate("x",
+				Operator.LESS_THAN, 100)));
+		assertEquals(300, assertSameRows(file, 1, new SasPredicate("x",
+				Operator.EQUALS_TO, Double.NaN)));
+		assertEquals(2700, assertSameRows(file, 3, new SasPredicate("x",
+				Operator.DIFFERENT_FROM, Double.NaN)));
+		assertEquals(100, assertSameRows(file, 1, new SasPredicate("day",
+				Operator.GREATER_THAN, new Date(2899 * 86400000L))));
+		assertEquals(1, assertSameRows(file, 1, new SasPredicate("name",
+				Operator.EQUALS_TO, "row01234")));
+		assertEquals(100, assertSameRows(file, 3, new SasPredicate("name",
+				Operator.STARTS_WITH, "row015")));
+		assertEquals(50, assertSameRows(file, 1, new SasPredicate("name",
+				Operator.LESS_THAN, "row00050")));
+
+		// the row numbers of columnar batches skip the pages too
+		final SasReader reader = new SasReader(file);
+		reader.setUsingZoneMap(true);
+		reader.setPredicates(equalsX);
+		final List<Integer> rowNumbers = new ArrayList<Integer>();
+		reader.read(new SasColumnarCallback() {
+			@Override
+			public void column(int columnIndex, String columnName,
+					String columnLabel, SasColumnType columnType,
+					String format, int columnLength) {
+			}
+
+			@Override
+			public boolean readData() {
+				return true;
+			}
+
+			@Override
+			public boolean batch(SasColumnBatch batch) {
+				for (int row = 0; row < batch.getRowCount(); row++) {
+					rowNumbers.add(batch.getRowNumber(row));
+				}
+				return true;
+			}
+		});
+		assertEquals("[2001]", rowNumbers.toString());
+	}
+
+	public void testUnclusteredValues() throws Exception {
+		SasZoneMap.index(_mathattitudes);
+
+		// CLASS alternates between 1 and 2, so no pages are skipped
+		final SasPredicate equalsClass = new SasPredicate("CLASS",
+				Operator.EQUALS_TO, 2);
+		assertEquals(0, getSkippedPages(_mathattitudes, equalsClass)
+				.cardinality());
+		assertTrue(assertSameRows(_mathattitudes, 3, equalsClass) > 0);
+		assertSameRows(_mathattitudes, 1, new SasPredicate("XAGE",
+				Operator.GREATER_THAN, 150), new SasPredicate("C2",
+				Operator.DIFFERENT_FROM, 2));
+	}
+
+	public void testCharacterPredicates() throws Exception {
+		SasZoneMap.index(_pizza);
+
+		final SasPredicate noBrand = new SasPredicate("brand",
+				Operator.EQUALS_TO, "zz");
+		assertEquals(3, getSkippedPages(_pizza, noBrand).cardinality());
+		assertEquals(0, assertSameRows(_pizza, 1, noBrand));
+
+		assertEquals(16, assertSameRows(_pizza, 1, new SasPredicate("brand",
+				Operator.EQUALS_TO, "a"), new SasPredicate("mois",
+				Operator.GREATER_THAN, 30)));
+		assertSameRows(_pizza, 3, new SasPredicate("brand", Operator.IN, "b",
+				"l"));
+		assertSameRows(_pizza, 1, new SasPredicate("id", Operator.LESS_THAN,
+				"14050"));
+		assertSameRows(_pizza, 1, new SasPredicate("id",
+				Operator.GREATER_THAN, "24"));
+		assertSameRows(_pizza, 1, new SasPredicate("id",
+				Operator.STARTS_WITH, "140"));
+		assertSameRows(_pizza, 1, new SasPredicate("brand",
+				Operator.DIFFERENT_FROM, "a"));
+	}
+
+	public void testStaleSidecarIsIgnored() throws Exception {
+		SasZoneMap.index(_pizza);
+		assertNotNull(SasZoneMap.load(_pizza));
+
+		assertTrue(_pizza.setLastModified(_pizza.lastModified() - 10000));
+		assertNull(SasZoneMap.load(_pizza));
+
+		// a stale zone map skips nothing
+		final SasReader reader = new SasReader(_pizza);
+		reader.setUsingZoneMap(true);
+		reader.setPredicates(new SasPredicate("brand", Operator.EQUALS_TO,
+				"a"));
+		final CountReaderCallback callback = new CountReaderCallback();
+		reader.read(callback);
+		assertTrue(callback.getCount() > 0);
+
+		final SasZoneMap zoneMap = SasZoneMap.index(_pizza);
+		assertFalse(zoneMap.isStale());
+		assertNotNull(SasZoneMap.load(_pizza));
+	}
+
+	private BitSet getSkippedPages(File file,
+			SasPredicate... predicates) {
+		final SasMetadata metadata = new SasReader(file).readMetadata();
+		return SasZoneMap.load(file).getSkippedPages(metadata,
+				Arrays.asList(predicates));
+	}
+
+	/**
+	 * Asserts that reading with the zone map yields the same rows (and row
+	 * numbers) as reading without it.
+	 * 
+	 * @return the amount of rows
+	 */
+	private int assertSameRows(File file, int parallelism,
+			SasPredicate... predicates) {
+		final RowCollectingSasReaderCallback expected = read(file,
+				parallelism, false, predicates);
+		final RowCollectingSasReaderCallback actual = read(file,
+				parallelism, true, predicates);
+		assertEquals(expected.rowNumbers, actual.rowNumbers);
+		final List<Object[]> expectedRows = expected.rows;
+		for (int i = 0; i < expectedRows.size(); i++) {
+			assertTrue(Arrays.equals(expectedRows.get(i), actual.rows.get(i)));
+		}
+		return expectedRows.size();
+	}
+
+	private RowCollectingSasReaderCallback read(File file, int parallelism,
+			boolean usingZoneMap, SasPredicate... predicates) {
+		final SasReader reader = new SasReader(file);
+		reader.setParallelism(parallelism);
+		reader.setOrderedDelivery(true);
+		reader.setUsingZoneMap(usingZoneMap);
+		reader.setPredicates(predicates);
+		final RowCollectingSasReaderCallback callback = new RowCollectingSasReaderCallback();
+		reader.read(callback);
+		return callback;
+	}
+}
@@ -0,0 +1,191 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.metamodel;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eobjects.metamodel.DataContext;
+import org.eobjects.metamodel.MetaModelHelper;
+import org.eobjects.metamodel.query.Query;
+import org.eobjects.metamodel.schema.Column;
+import org.eobjects.metamodel.schema.Table;
+import org.eobjects.sassy.SasColumn;
+import org.eobjects.sassy.SasMetadata;
+import org.eobjects.sassy.SasReader;
+
+public class SasCatalogTest extends TestCase {
+
+	private static final File PIZZA = new File(
+			"src/test/resources/pizza.sas7bdat");
+	private static final File MATHATTITUDES = new File(
+			"src/test/resources/mathattitudes.sas7bdat");
+
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		directory = Files.createTempDirectory("sassy").toFile();
+		Files.copy(PIZZA.toPath(), new File(directory, "pizza.sas7bdat")
+				.toPath());
+		Files.copy(MATHATTITUDES.toPath(), new File(directory,
+				"mathattitudes.sas7bdat").toPath());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+		super.tearDown();
+	}
+
+	public void testSaveAndLoad() throws Exception {
+		final File catalogFile = new File(directory, "catalog");
+		final File pizza = new File(directory, "pizza.sas7bdat");
+		final SasMetadata metadata = new SasReader(pizza).readMetadata();
+
+		SasCatalog catalog = SasCatalog.load(catalogFile);
+		assertNull(catalog.get(pizza));
+		catalog.put(pizza, pizza.length(), pizza.lastModified(), metadata);
+		catalog.save();
+		assertTrue(catalogFile.exists());
+
+		catalog = SasCatalog.load(catalogFile);
+		final SasCatalog.Entry entry = catalog.get(pizza);
+		assertEquals(300, entry.getRowCount());
+		assertEquals(metadata.getColumnCount(), entry.getColumns().size());
+		for (int i = 0; i < metadata.getColumnCount(); i++) {
+			final SasColumn expected = metadata.getColumns().get(i);
+			final SasColumn actual = entry.getColumns().get(i);
+			assertEquals(expected.getIndex(), actual.getIndex());
+			assertEquals(expected.getName(), actual.getName());
+			assertEquals(expected.getLabel(), actual.getLabel());
+			assertEquals(expected.getType(), actual.getType());
+			assertEquals(expected.getFormat(), actual.getFormat());
+			assertEquals(expected.getOffset(), actual.getOffset());
+			assertEquals(expected.getLength(), actual.getLength());
+		}
+
+		// a changed file is not served from the catalog
+		assertTrue(pizza.setLastModified(pizza.lastModified() + 2000));
+		assertNull(catalog.get(pizza));
+
+		// deleted files are removed
+		catalog.retain(directory, Arrays.asList(new File(directory,
+				"mathattitudes.sas7bdat")));
+		catalog.save();
+		assertTrue(pizza.setLastModified(pizza.lastModified() - 2000));
+		assertNull(SasCatalog.load(catalogFile).get(pizza));
+	}
+
+	public void testUnreadableCatalogIsIgnored() throws Exception {
+		final File catalogFile = new File(directory, "catalog");
+		Files.write(catalogFile.toPath(), "garbage".getBytes());
+		final SasCatalog catalog = SasCatalog.load(catalogFile);
+		assertNull(catalog.get(new File(directory, "pizza.sas7bdat")));
+		catalog.save();
+		assertEquals(12, catalogFile.length());
+	}
+
+	public void testDataContextUsesCatalog() throws Exception {
+		final File catalogFile = new File(directory,
+				SasDataContext.DEFAULT_CATALOG_FILENAME);
+		final File pizza = new File(directory, "pizza.sas7bdat");
+
+		SasDataContext dc = new SasDataContext(directory);
+		dc.setCatalogFile(catalogFile);
+		dc.setSchemaLoadingParallelism(2);
+		assertEquals(Arrays.asList("mathattitudes", "pizza"),
+				Arrays.asList(dc.getDefaultSchema().getTableNames()));
+		waitForCatalog(catalogFile, 2);
+		final String[] columnNames = dc.getDefaultSchema()
+				.getTableByName("pizza").getColumnNames();
+
+		// scramble the rows of the file without changing its size and time
+		final long lastModified = pizza.lastModified();
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(pizza,
+				"rw");
+		try {
+			randomAccessFile.seek(pizza.length() - 1000);
+			randomAccessFile.write(new byte[1000]);
+		} finally {
+			randomAccessFile.close();
+		}
+		assertTrue(pizza.setLastModified(lastModified));
+
+		dc = new SasDataContext(directory);
+		dc.setCatalogFile(catalogFile);
+		Table table = dc.getDefaultSchema().getTableByName("pizza");
+		assertEquals(Arrays.toString(columnNames),
+				Arrays.toString(table.getColumnNames()));
+		assertEquals("Row[values=[300]]", MetaModelHelper
+				.executeSingleRowQuery(dc,
+						new Query().from(table).selectCount()).toString());
+
+		// a changed file is read again
+		Files.copy(MATHATTITUDES.toPath(), pizza.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		assertTrue(pizza.setLastModified(lastModified + 2000));
+		dc = new SasDataContext(directory);
+		dc.setCatalogFile(catalogFile);
+		table = dc.getDefaultSchema().getTableByName("pizza");
+		final List<Column> columns = Arrays.asList(table.getColumns());
+		assertEquals(15, columns.size());
+		assertEquals("CLASS", columns.get(0).getName());
+		waitForCatalog(catalogFile, 2);
+
+		DataContext plain = new SasDataContext(directory);
+		assertEquals(1907, ((Number) MetaModelHelper.executeSingleRowQuery(
+				plain,
+				new Query().from(
+						plain.getDefaultSchema().getTableByName("pizza"))
+						.selectCount()).getValue(0)).intValue());
+	}
+
+	private void waitForCatalog(File catalogFile, int entries)
+			throws Exception {
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (System.currentTimeMillis() < deadline) {
+			if (catalogFile.exists()) {
+				final SasCatalog catalog = SasCatalog.load(catalogFile);
+				int count = 0;
+				for (File file : directory.listFiles()) {
+					if (catalog.get(file) != null) {
+						count++;
+					}
+				}
+				if (count == entries) {
+					return;
+				}
+			}
+			Thread.sleep(10);
+		}
+		fail("Catalog was not written");
+	}
+}
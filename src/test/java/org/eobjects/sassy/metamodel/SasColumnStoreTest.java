@@ -0,0 +1,129 @@
+/**
+ * eobjects.org SassyReader
+ * Copyright (C) 2011 eobjects.org
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.eobjects.sassy.metamodel;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eobjects.sassy.SasColumnType;
+import org.eobjects.sassy.SasFilenameFilter;
+import org.eobjects.sassy.SasReader;
+import org.eobjects.sassy.SasReaderCallback;
+import org.eobjects.sassy.SasTemporalValues;
+import org.eobjects.sassy.SasWriter;
+
+public class SasColumnStoreTest extends TestCase {
+
+	public void testSameValuesAsReader() throws Exception {
+		final File[] files = new File("src/test/resources")
+				.listFiles(new SasFilenameFilter());
+		for (File file : files) {
+			if (file.getName().equals("event2.sas7bdat")) {
+				// not readable, see SasReaderTest
+				continue;
+			}
+			assertSameValues(file);
+		}
+	}
+
+	public void testTemporalAndMissingValues() throws Exception {
+		final File directory = Files.createTempDirectory("sassy").toFile();
+		final File file = new File(directory, "events.sas7bdat");
+		try {
+			final SasWriter writer = new SasWriter(file);
+			writer.addColumn("day", SasColumnType.DATE, 8);
+			writer.addColumn("name", SasColumnType.CHARACTER, 10);
+			writer.addColumn("amount", SasColumnType.NUMERIC, 8);
+			for (int i = 0; i < 1000; i++) {
+				writer.writeRow(i % 3 == 0 ? null : new Date(i * 86400000L),
+						i % 5 == 0 ? "" : "name" + (i % 7), i % 4 == 0 ? null
+								: i * 1.5);
+			}
+			writer.close();
+
+			final SasColumnStore store = assertSameValues(file);
+			assertEquals(new Date(86400000L), store.getValue(0, 1));
+			assertNull(store.getValue(0, 3));
+			assertTrue(store.getSize() > 0);
+			assertFalse(store.isStale());
+			assertTrue(file.setLastModified(file.lastModified() + 2000));
+			assertTrue(store.isStale());
+		} finally {
+			file.delete();
+			directory.delete();
+		}
+	}
+
+	public void testOversizedFiles() throws Exception {
+		// rejected by the size estimated from the metadata
+		assertNull(SasColumnStore.load(new File(
+				"src/test/resources/mathattitudes.sas7bdat"), 100000));
+
+		final File pizza = new File("src/test/resources/pizza.sas7bdat");
+		final SasColumnStore store = SasColumnStore.load(pizza,
+				Long.MAX_VALUE);
+		assertNull(SasColumnStore.load(pizza, store.getSize() - 1));
+		assertEquals(store.getSize(), SasColumnStore.load(pizza,
+				store.getSize()).getSize());
+	}
+
+	private SasColumnStore assertSameValues(File file) {
+		final SasColumnStore store = SasColumnStore.load(file, Long.MAX_VALUE);
+		final List<Object[]> rows = new ArrayList<Object[]>();
+		final SasReader reader = new SasReader(file);
+		reader.setTemporalValues(SasTemporalValues.DATES);
+		reader.read(new SasReaderCallback() {
+			@Override
+			public boolean row(int rowNumber, Object[] rowData) {
+				rows.add(rowData);
+				return true;
+			}
+
+			@Override
+			public boolean readData() {
+				return true;
+			}
+
+			@Override
+			public void column(int columnIndex, String columnName,
+					String columnLabel, SasColumnType columnType,
+					String format, int columnLength) {
+			}
+		});
+
+		assertEquals(file.getName(), rows.size(), store.getRowCount());
+		for (int row = 0; row < rows.size(); row++) {
+			final Object[] expected = rows.get(row);
+			final Object[] actual = new Object[expected.length];
+			for (int column = 0; column < actual.length; column++) {
+				actual[column] = store.getValue(column, row);
+			}
+			assertEquals(file.getName() + " row " + row,
+					Arrays.toString(expected), Arrays.toString(actual));
+		}
+		return store;
+	}
+}
@@ -19,8 +19,14 @@
  */
 package org.eobjects.sassy.metamodel;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import javax.swing.table.TableModel;
 
@@ -30,9 +36,20 @@ import org.eobjects.metamodel.DataContext;
 import org.eobjects.metamodel.MetaModelHelper;
 import org.eobjects.metamodel.data.DataSet;
 import org.eobjects.metamodel.data.Row;
+import org.eobjects.metamodel.query.FilterItem;
+import org.eobjects.metamodel.query.FunctionType;
+import org.eobjects.metamodel.query.LogicalOperator;
+import org.eobjects.metamodel.query.OperatorType;
+import org.eobjects.metamodel.query.OrderByItem;
 import org.eobjects.metamodel.query.Query;
+import org.eobjects.metamodel.query.SelectItem;
+import org.eobjects.metamodel.schema.Column;
+import org.eobjects.metamodel.schema.ColumnType;
 import org.eobjects.metamodel.schema.Schema;
 import org.eobjects.metamodel.schema.Table;
+import org.eobjects.sassy.SasColumnType;
+import org.eobjects.sassy.SasWriter;
+import org.eobjects.sassy.SasZoneMap;
 import org.eobjects.sassy.metamodel.SasDataContext;
 
 public class SasDataContextTest extends TestCase {
@@ -63,6 +80,37 @@ public class SasDataContextTest extends TestCase {
 		assertEquals(10, tm.getRowCount());
 	}
 
+	public void testParallelSchemaLoading() throws Exception {
+		Schema expected = new SasDataContext("src/test/resources")
+				.getDefaultSchema();
+
+		SasDataContext dc = new SasDataContext("src/test/resources");
+		assertEquals(1, dc.getSchemaLoadingParallelism());
+		dc.setSchemaLoadingParallelism(3);
+		Schema schema = dc.getDefaultSchema();
+		assertEquals(Arrays.toString(expected.getTableNames()),
+				Arrays.toString(schema.getTableNames()));
+		for (Table table : schema.getTables()) {
+			Table expectedTable = expected.getTableByName(table.getName());
+			assertEquals(table.getName(), expectedTable.getColumnCount(),
+					table.getColumnCount());
+			for (int i = 0; i < table.getColumnCount(); i++) {
+				Column column = table.getColumns()[i];
+				Column expectedColumn = expectedTable.getColumns()[i];
+				assertEquals(expectedColumn.getName(), column.getName());
+				assertEquals(expectedColumn.getType(), column.getType());
+			}
+		}
+
+		try {
+			dc.setSchemaLoadingParallelism(0);
+			fail("Exception expected");
+		} catch (IllegalArgumentException e) {
+			assertEquals("schemaLoadingParallelism must be a positive number",
+					e.getMessage());
+		}
+	}
+
 	public void testResourcesFolder() throws Exception {
 		DataContext dc = new SasDataContext("src/test/resources");
 
@@ -125,4 +173,593 @@ public class SasDataContextTest extends TestCase {
 		assertEquals("c", objectArrays.get(2)[0]);
 		assertEquals("d", objectArrays.get(3)[0]);
 	}
+
+	public void testPredicatePushDown() throws Exception {
+		DataContext dc = new SasDataContext("src/test/resources");
+		Table table = dc.getDefaultSchema().getTableByName("pizza");
+		Column id = table.getColumnByName("id");
+		Column mois = table.getColumnByName("mois");
+		Column brand = table.getColumnByName("brand");
+
+		List<Object[]> allRows = dc.executeQuery(
+				new Query().from(table).select(id, mois, brand))
+				.toObjectArrays();
+		assertEquals(300, allRows.size());
+
+		Query q = new Query().from(table).select(id)
+				.where(brand, OperatorType.EQUALS_TO, "a")
+				.where(mois, OperatorType.GREATER_THAN, 30);
+		List<Object[]> result = dc.executeQuery(q).toObjectArrays();
+		assertEquals(16, result.size());
+		int i = 0;
+		for (Object[] row : allRows) {
+			if ("a".equals(row[2]) && (Double) row[1] > 30) {
+				assertEquals(row[0], result.get(i++)[0]);
+			}
+		}
+
+		// the original query is not modified
+		assertEquals(2, q.getWhereClause().getItemCount());
+
+		q.select(new SelectItem(FunctionType.COUNT, "*", null));
+		q.getSelectClause().removeItem(0);
+		assertEquals("Row[values=[16]]", MetaModelHelper
+				.executeSingleRowQuery(dc, q).toString());
+
+		q = new Query().from(table).selectCount()
+				.where(brand, OperatorType.LIKE, "j%");
+		assertEquals("Row[values=[33]]", MetaModelHelper
+				.executeSingleRowQuery(dc, q).toString());
+
+		// LIKE matches the pattern anywhere in a value, whether or not the
+		// filter item is combined with others
+		Table states = dc.getDefaultSchema().getTableByName("physeds2006");
+		Column stateName = states.getColumnByName("StateName");
+		FilterItem like = new FilterItem(new SelectItem(stateName),
+				OperatorType.LIKE, "ia%");
+		List<Object[]> matches = dc.executeQuery(
+				new Query().from(states).select(stateName).where(like))
+				.toObjectArrays();
+		assertEquals(8, matches.size());
+		assertEquals("Indiana", matches.get(3)[0]);
+		assertEquals(8, dc.executeQuery(
+				new Query().from(states).select(stateName).where(
+						new FilterItem(LogicalOperator.OR, like,
+								new FilterItem(new SelectItem(stateName),
+										OperatorType.EQUALS_TO, null))))
+				.toObjectArrays().size());
+
+		q = new Query().from(table).select(brand)
+				.where(brand, OperatorType.EQUALS_TO, "c").setMaxRows(5);
+		result = dc.executeQuery(q).toObjectArrays();
+		assertEquals(5, result.size());
+		for (Object[] row : result) {
+			assertEquals("c", row[0]);
+		}
+
+		// OR filters are evaluated by MetaModel, IN is pushed down
+		q = new Query().from(table).select(id)
+				.where(brand, OperatorType.IN, new String[] { "b", "c" })
+				.where(new FilterItem(LogicalOperator.OR, new FilterItem(
+						new SelectItem(mois), OperatorType.LESS_THAN, 30),
+						new FilterItem(new SelectItem(mois),
+								OperatorType.GREATER_THAN, 50)));
+		int expected = 0;
+		for (Object[] row : allRows) {
+			double moisValue = (Double) row[1];
+			if (("b".equals(row[2]) || "c".equals(row[2]))
+					&& (moisValue < 30 || moisValue > 50)) {
+				expected++;
+			}
+		}
+		assertTrue(expected > 0);
+		assertEquals(expected, dc.executeQuery(q).toObjectArrays().size());
+	}
+
+	public void testTemporalColumns() throws Exception {
+		final File directory = Files.createTempDirectory("sassy").toFile();
+		final File file = new File(directory, "events.sas7bdat");
+		try {
+			final SasWriter writer = new SasWriter(file);
+			writer.addColumn("day", null, SasColumnType.NUMERIC, "YYMMDD", 8);
+			writer.addColumn("stamp", SasColumnType.DATETIME, 8);
+			writer.addColumn("clock", SasColumnType.TIME, 8);
+			for (int i = 0; i < 10; i++) {
+				writer.writeRow(new Date(i * 86400000L), new Date(i * 1000L),
+						new Date(i * 60000L));
+			}
+			writer.close();
+
+			DataContext dc = new SasDataContext(directory);
+			Table table = dc.getDefaultSchema().getTableByName("events");
+			Column day = table.getColumnByName("day");
+			assertEquals(ColumnType.DATE, day.getType());
+			assertEquals(ColumnType.TIMESTAMP, table.getColumnByName("stamp")
+					.getType());
+			Column clock = table.getColumnByName("clock");
+			assertEquals(ColumnType.TIME, clock.getType());
+
+			List<Object[]> rows = dc.executeQuery(
+					new Query().from(table).select(day, clock)
+							.where(day, OperatorType.GREATER_THAN,
+									new Date(6 * 86400000L))).toObjectArrays();
+			assertEquals(3, rows.size());
+			assertEquals(new Date(7 * 86400000L), rows.get(0)[0]);
+			assertEquals(new Date(7 * 60000L), rows.get(0)[1]);
+		} finally {
+			file.delete();
+			directory.delete();
+		}
+	}
+
+	public void testWatching() throws Exception {
+		final File directory = Files.createTempDirectory("sassy").toFile();
+		final File pizza = new File("src/test/resources/pizza.sas7bdat");
+		final File mathattitudes = new File(
+				"src/test/resources/mathattitudes.sas7bdat");
+		Files.copy(pizza.toPath(), new File(directory, "pizza.sas7bdat")
+				.toPath());
+		final SasDataContext dc = new SasDataContext(directory);
+		try {
+			dc.setWatching(true);
+			assertTrue(dc.isWatching());
+			final Schema schema = dc.getDefaultSchema();
+			assertEquals("[pizza]", Arrays.toString(schema.getTableNames()));
+			final Table pizzaTable = schema.getTableByName("pizza");
+
+			// a new file is added
+			Files.copy(mathattitudes.toPath(), new File(directory,
+					"copy.sas7bdat").toPath());
+			awaitTableNames(schema, "[copy, pizza]");
+			assertSame(pizzaTable, schema.getTableByName("pizza"));
+			assertEquals("CLASS", schema.getTableByName("copy").getColumns()[0]
+					.getName());
+
+			// a changed file is replaced
+			Files.copy(pizza.toPath(), new File(directory, "copy.sas7bdat")
+					.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			// (the copy deletes the file first, so the table may be absent)
+			final long deadline = System.currentTimeMillis() + 10000;
+			while (schema.getTableByName("copy") == null
+					|| schema.getTableByName("copy").getColumns()[0]
+							.getName().equals("CLASS")) {
+				assertTrue("Table was not replaced",
+						System.currentTimeMillis() < deadline);
+				Thread.sleep(50);
+			}
+			assertEquals(pizzaTable.getColumnCount(), schema.getTableByName(
+					"copy").getColumnCount());
+
+			// a deleted file is removed
+			assertTrue(new File(directory, "copy.sas7bdat").delete());
+			awaitTableNames(schema, "[pizza]");
+			assertSame(pizzaTable, schema.getTableByName("pizza"));
+		} finally {
+			dc.close();
+			assertFalse(dc.isWatching());
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	public void testQueryCache() throws Exception {
+		final File directory = Files.createTempDirectory("sassy").toFile();
+		final File file = new File(directory, "pizza.sas7bdat");
+		Files.copy(new File("src/test/resources/pizza.sas7bdat").toPath(),
+				file.toPath());
+		try {
+			final SasDataContext dc = new SasDataContext(directory);
+			dc.setQueryCacheSize(1024 * 1024);
+			final Table table = dc.getDefaultSchema().getTableByName("pizza");
+			final Column id = table.getColumnByName("id");
+			final Column brand = table.getColumnByName("brand");
+
+			final Query query = new Query().from(table).select(id)
+					.where(brand, OperatorType.EQUALS_TO, "a");
+			final List<Object[]> rows = dc.executeQuery(query)
+					.toObjectArrays();
+			assertEquals(0, dc.getQueryCacheHits());
+			assertEquals(1, dc.getQueryCacheMisses());
+
+			// an equal query is served from the cache
+			assertEquals(rows.size(), dc.executeQuery(query.clone())
+					.toObjectArrays().size());
+			assertEquals(rows.get(0)[0], dc.executeQuery(
+					new Query().from(table).select(id)
+							.where(brand, OperatorType.EQUALS_TO, "a"))
+					.toObjectArrays().get(0)[0]);
+			assertEquals(2, dc.getQueryCacheHits());
+
+			// a result is only cached once it has been read completely
+			final Query brands = new Query().from(table).select(brand);
+			final DataSet partiallyRead = dc.executeQuery(brands);
+			assertTrue(partiallyRead.next());
+			partiallyRead.close();
+			assertEquals(300, dc.executeQuery(brands).toObjectArrays().size());
+			assertEquals(300, dc.executeQuery(brands).toObjectArrays().size());
+			assertEquals(3, dc.getQueryCacheHits());
+			assertEquals(3, dc.getQueryCacheMisses());
+
+			// paging is part of the query
+			assertEquals(10, dc.executeQuery(
+					new Query().from(table).select(id).setMaxRows(10))
+					.toObjectArrays().size());
+			assertEquals(20, dc.executeQuery(
+					new Query().from(table).select(id).setMaxRows(20))
+					.toObjectArrays().size());
+			assertEquals(3, dc.getQueryCacheHits());
+			assertEquals(5, dc.getQueryCacheMisses());
+
+			// a changed file invalidates the cached results
+			assertTrue(file.setLastModified(file.lastModified() + 2000));
+			assertEquals(rows.size(), dc.executeQuery(query).toObjectArrays()
+					.size());
+			assertEquals(3, dc.getQueryCacheHits());
+			assertEquals(6, dc.getQueryCacheMisses());
+
+			// results that exceed the budget evict the eldest, or are not
+			// cached at all
+			dc.setQueryCacheSize(4096);
+			assertEquals(rows.size(), dc.executeQuery(query).toObjectArrays()
+					.size());
+			assertEquals(300, dc.executeQuery(new Query().from(table).select(
+					table.getColumns())).toObjectArrays().size());
+			assertEquals(0, dc.getQueryCacheEvictions());
+			for (int i = 0; i < 20; i++) {
+				dc.executeQuery(
+						new Query().from(table).select(id).setMaxRows(i + 1))
+						.toObjectArrays();
+			}
+			assertTrue(dc.getQueryCacheEvictions() > 0);
+			dc.executeQuery(query);
+			assertEquals(0, dc.getQueryCacheHits());
+		} finally {
+			file.delete();
+			directory.delete();
+		}
+	}
+
+	public void testColumnStore() throws Exception {
+		final File directory = Files.createTempDirectory("sassy").toFile();
+		final File file = new File(directory, "pizza.sas7bdat");
+		Files.copy(new File("src/test/resources/pizza.sas7bdat").toPath(),
+				file.toPath());
+		try {
+			final SasDataContext dc = new SasDataContext(directory);
+			final Table table = dc.getDefaultSchema().getTableByName("pizza");
+			final Query query = new Query().from(table)
+					.select(table.getColumns())
+					.where(table.getColumnByName("brand"),
+							OperatorType.EQUALS_TO, "a")
+					.where(table.getColumnByName("mois"),
+							OperatorType.GREATER_THAN, 30);
+			final List<Object[]> expected = dc.executeQuery(query)
+					.toObjectArrays();
+			assertEquals(16, expected.size());
+
+			dc.setColumnStoreSize(1024 * 1024);
+			dc.pinTable("pizza");
+			assertTrue(dc.isPinned("pizza"));
+			final List<Object[]> actual = dc.executeQuery(query)
+					.toObjectArrays();
+			assertTrue(dc.getColumnStoreUsage() > 0);
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(Arrays.toString(expected.get(i)),
+						Arrays.toString(actual.get(i)));
+			}
+			assertEquals(300, ((Number) MetaModelHelper.executeSingleRowQuery(
+					dc, new Query().from(table).selectCount()).getValue(0))
+					.intValue());
+			assertEquals(5, dc.executeQuery(
+					new Query().from(table).select(table.getColumns())
+							.setMaxRows(5)).toObjectArrays().size());
+
+			// a changed file is read again
+			assertTrue(file.setLastModified(file.lastModified() + 2000));
+			assertEquals(16, dc.executeQuery(query).toObjectArrays().size());
+			assertTrue(dc.getColumnStoreUsage() > 0);
+
+			dc.unpinTable("pizza");
+			assertEquals(0, dc.getColumnStoreUsage());
+
+			// tables that exceed the budget are not stored
+			dc.setColumnStoreSize(1024);
+			dc.pinTable("pizza");
+			assertEquals(16, dc.executeQuery(query).toObjectArrays().size());
+			assertEquals(0, dc.getColumnStoreUsage());
+		} finally {
+			file.delete();
+			directory.delete();
+		}
+	}
+
+	public void testAggregatePushDown() throws Exception {
+		DataContext dc = new SasDataContext(new File("src/test/resources"));
+		Table table = dc.getDefaultSchema().getTableByName("pizza");
+		Column mois = table.getColumnByName("mois");
+		Column brand = table.getColumnByName("brand");
+
+		long count = 0;
+		double sum = 0;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		int rowCount = 0;
+		for (Object[] row : dc.executeQuery(
+				new Query().from(table).select(mois)
+						.where(brand, OperatorType.EQUALS_TO, "a"))
+				.toObjectArrays()) {
+			rowCount++;
+			final double value = (Double) row[0];
+			if (!Double.isNaN(value)) {
+				count++;
+				sum += value;
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+		}
+		assertTrue(count > 0);
+
+		Query q = new Query().from(table)
+				.select(new SelectItem(FunctionType.SUM, mois))
+				.select(new SelectItem(FunctionType.MIN, mois))
+				.select(new SelectItem(FunctionType.MAX, mois))
+				.select(new SelectItem(FunctionType.AVG, mois))
+				.select(new SelectItem(FunctionType.COUNT, mois))
+				.select(SelectItem.getCountAllItem())
+				.where(brand, OperatorType.EQUALS_TO, "a");
+		Row row = MetaModelHelper.executeSingleRowQuery(dc, q);
+		assertEquals(sum, (Double) row.getValue(0), 0.000001);
+		assertEquals(min, row.getValue(1));
+		assertEquals(max, row.getValue(2));
+		assertEquals(sum / count, (Double) row.getValue(3), 0.000001);
+		assertEquals(Long.valueOf(count), row.getValue(4));
+		assertEquals(Long.valueOf(rowCount), row.getValue(5));
+
+		// no rows
+		q = new Query().from(table)
+				.select(new SelectItem(FunctionType.SUM, mois))
+				.select(new SelectItem(FunctionType.MAX, mois))
+				.where(brand, OperatorType.EQUALS_TO, "no such brand");
+		row = MetaModelHelper.executeSingleRowQuery(dc, q);
+		assertEquals(0d, row.getValue(0));
+		assertNull(row.getValue(1));
+
+		// aggregates of CHARACTER columns are computed by MetaModel
+		q = new Query().from(table).select(
+				new SelectItem(FunctionType.MAX, brand));
+		assertEquals("Row[values=[l]]",
+				MetaModelHelper.executeSingleRowQuery(dc, q).toString());
+	}
+
+	public void testAggregateMissingValues() throws Exception {
+		final File directory = Files.createTempDirectory("sassy").toFile();
+		final File file = new File(directory, "missing.sas7bdat");
+		try {
+			final SasWriter writer = new SasWriter(file);
+			writer.addColumn("grp", SasColumnType.CHARACTER, 1);
+			writer.addColumn("x", SasColumnType.NUMERIC, 8);
+			for (int i = 0; i < 30; i++) {
+				writer.writeRow(i % 2 == 0 ? "a" : "b", i % 3 == 0 ? null
+						: Integer.valueOf(i));
+			}
+			writer.close();
+
+			final SasDataContext dc = new SasDataContext(directory);
+			final Table table = dc.getDefaultSchema().getTableByName(
+					"missing");
+			final Column grp = table.getColumnByName("grp");
+			final Column x = table.getColumnByName("x");
+
+			// pushed down, not pushed down (OR) and paged
+			final Query aggregates = new Query().from(table)
+					.select(new SelectItem(FunctionType.SUM, x))
+					.select(new SelectItem(FunctionType.MIN, x))
+					.select(new SelectItem(FunctionType.MAX, x))
+					.select(new SelectItem(FunctionType.AVG, x))
+					.select(new SelectItem(FunctionType.COUNT, x))
+					.select(SelectItem.getCountAllItem());
+			final Query orAggregates = aggregates.clone().where(
+					new FilterItem(LogicalOperator.OR, new FilterItem(
+							new SelectItem(grp), OperatorType.EQUALS_TO, "a"),
+							new FilterItem(new SelectItem(grp),
+									OperatorType.EQUALS_TO, "b")));
+			final Query pagedAggregates = aggregates.clone().setFirstRow(1);
+			final Query grouped = new Query().from(table).select(grp)
+					.select(new SelectItem(FunctionType.SUM, x))
+					.select(new SelectItem(FunctionType.COUNT, x))
+					.select(new SelectItem(FunctionType.MIN, x))
+					.where(new FilterItem(LogicalOperator.OR, new FilterItem(
+							new SelectItem(x), OperatorType.GREATER_THAN, 1),
+							new FilterItem(new SelectItem(x),
+									OperatorType.EQUALS_TO, null)))
+					.groupBy(grp).orderBy(grp);
+
+			final String expected = "[300.0, 1.0, 29.0, 15.0, 20, 30]";
+			assertEquals(expected, Arrays.toString(dc.executeQuery(aggregates)
+					.toObjectArrays().get(0)));
+			assertEquals(expected,
+					Arrays.toString(dc.executeQuery(orAggregates)
+							.toObjectArrays().get(0)));
+			assertEquals(expected,
+					Arrays.toString(dc.executeQuery(pagedAggregates)
+							.toObjectArrays().get(0)));
+			final List<Object[]> expectedGroups = dc.executeQuery(grouped)
+					.toObjectArrays();
+			assertEquals(2, expectedGroups.size());
+			assertEquals("[a, 150.0, 10, 2.0]",
+					Arrays.toString(expectedGroups.get(0)));
+
+			dc.setColumnStoreSize(1024 * 1024);
+			dc.pinTable("missing");
+			assertEquals(expected, Arrays.toString(dc.executeQuery(aggregates)
+					.toObjectArrays().get(0)));
+			assertTrue(dc.getColumnStoreUsage() > 0);
+			assertEquals(expected,
+					Arrays.toString(dc.executeQuery(orAggregates)
+							.toObjectArrays().get(0)));
+			final List<Object[]> groups = dc.executeQuery(grouped)
+					.toObjectArrays();
+			assertEquals(expectedGroups.size(), groups.size());
+			for (int i = 0; i < groups.size(); i++) {
+				assertEquals(Arrays.toString(expectedGroups.get(i)),
+						Arrays.toString(groups.get(i)));
+			}
+		} finally {
+			file.delete();
+			directory.delete();
+		}
+	}
+
+	public void testGroupedPushDown() throws Exception {
+		DataContext dc = new SasDataContext(new File("src/test/resources"));
+		Table table = dc.getDefaultSchema().getTableByName("pizza");
+		Column brand = table.getColumnByName("brand");
+		Column mois = table.getColumnByName("mois");
+		Column prot = table.getColumnByName("prot");
+
+		// the expected groups, computed from all rows
+		Map<String, double[]> expected = new TreeMap<String, double[]>();
+		for (Object[] row : dc.executeQuery(
+				new Query().from(table).select(brand, mois, prot))
+				.toObjectArrays()) {
+			double[] group = expected.get(row[0]);
+			if (group == null) {
+				group = new double[] { 0, 0, Double.POSITIVE_INFINITY };
+				expected.put((String) row[0], group);
+			}
+			group[0]++;
+			group[1] += (Double) row[1];
+			group[2] = Math.min(group[2], (Double) row[2]);
+		}
+
+		Query q = new Query().from(table).select(brand)
+				.select(SelectItem.getCountAllItem())
+				.select(new SelectItem(FunctionType.SUM, mois))
+				.select(new SelectItem(FunctionType.MIN, prot))
+				.select(new SelectItem(FunctionType.AVG, mois)).groupBy(brand)
+				.orderBy(brand);
+		List<Object[]> rows = dc.executeQuery(q).toObjectArrays();
+		assertEquals(expected.size(), rows.size());
+		int i = 0;
+		for (Map.Entry<String, double[]> entry : expected.entrySet()) {
+			Object[] row = rows.get(i++);
+			assertEquals(entry.getKey(), row[0]);
+			assertEquals((long) entry.getValue()[0], row[1]);
+			assertEquals(entry.getValue()[1], (Double) row[2], 0.000001);
+			assertEquals(entry.getValue()[2], row[3]);
+			assertEquals(entry.getValue()[1] / entry.getValue()[0],
+					(Double) row[4], 0.000001);
+		}
+
+		// having, ordering by an aggregate that is not selected, and paging
+		q = new Query().from(table).select(brand).groupBy(brand)
+				.having(new FilterItem(new SelectItem(FunctionType.COUNT, mois),
+						OperatorType.GREATER_THAN, 20))
+				.orderBy(new OrderByItem(new SelectItem(FunctionType.COUNT,
+						mois), false)).setMaxRows(3);
+		rows = dc.executeQuery(q).toObjectArrays();
+		assertEquals(3, rows.size());
+		assertEquals(1, rows.get(0).length);
+		double previousCount = Double.MAX_VALUE;
+		for (Object[] row : rows) {
+			double count = expected.get(row[0])[0];
+			assertTrue(count > 20);
+			assertTrue(count <= previousCount);
+			previousCount = count;
+		}
+	}
+
+	public void testParallelGroupedPushDown() throws Exception {
+		SasDataContext dc = new SasDataContext(new File("src/test/resources"));
+		Table table = dc.getDefaultSchema().getTableByName("mathattitudes");
+		Column clazz = table.getColumnByName("CLASS");
+		Column c2 = table.getColumnByName("C2");
+		Column age = table.getColumnByName("XAGE");
+
+		Query q = new Query().from(table).select(clazz, c2)
+				.select(SelectItem.getCountAllItem())
+				.select(new SelectItem(FunctionType.SUM, age))
+				.select(new SelectItem(FunctionType.MAX, age))
+				.groupBy(clazz, c2).orderBy(clazz).orderBy(c2);
+		Query byClass = new Query().from(table).select(clazz)
+				.select(SelectItem.getCountAllItem()).groupBy(clazz)
+				.orderBy(clazz);
+		List<Object[]> expected = dc.executeQuery(q).toObjectArrays();
+		List<Object[]> expectedByClass = dc.executeQuery(byClass)
+				.toObjectArrays();
+
+		long rowCount = 0;
+		for (Object[] row : expected) {
+			rowCount += (Long) row[2];
+		}
+		assertEquals(1907, rowCount);
+		assertTrue(expectedByClass.size() > 1);
+
+		dc.setGroupingParallelism(3);
+		List<Object[]> rows = dc.executeQuery(q).toObjectArrays();
+		assertEquals(expected.size(), rows.size());
+		for (int i = 0; i < rows.size(); i++) {
+			assertEquals(Arrays.toString(expected.get(i)),
+					Arrays.toString(rows.get(i)));
+		}
+		rows = dc.executeQuery(byClass).toObjectArrays();
+		assertEquals(expectedByClass.size(), rows.size());
+		for (int i = 0; i < rows.size(); i++) {
+			assertEquals(Arrays.toString(expectedByClass.get(i)),
+					Arrays.toString(rows.get(i)));
+		}
+	}
+
+	private void awaitTableNames(Schema schema, String expected)
+			throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (!expected.equals(Arrays.toString(schema.getTableNames()))) {
+			assertTrue("Expected tables " + expected + " but was "
+					+ Arrays.toString(schema.getTableNames()),
+					System.currentTimeMillis() < deadline);
+			Thread.sleep(50);
+		}
+	}
+
+	public void testZoneMaps() throws Exception {
+		final File directory = Files.createTempDirectory("sassy").toFile();
+		final File file = new File(directory, "pizza.sas7bdat");
+		Files.copy(new File("src/test/resources/pizza.sas7bdat").toPath(),
+				file.toPath());
+		final File sidecarFile = SasZoneMap.getSidecarFile(file);
+		try {
+			final SasDataContext dc = new SasDataContext(directory);
+			dc.indexTable("pizza");
+			assertTrue(sidecarFile.exists());
+			dc.setUsingZoneMaps(true);
+			assertTrue(dc.isUsingZoneMaps());
+
+			// the sidecar is not a table
+			assertEquals("[pizza]", Arrays.toString(dc.getDefaultSchema()
+					.getTableNames()));
+			final Table table = dc.getDefaultSchema().getTableByName("pizza");
+			final Column brand = table.getColumnByName("brand");
+			assertEquals(16, dc.executeQuery(
+					new Query().from(table).select(table.getColumns())
+							.where(brand, OperatorType.EQUALS_TO, "a")
+							.where(table.getColumnByName("mois"),
+									OperatorType.GREATER_THAN, 30))
+					.toObjectArrays().size());
+			assertEquals(0, ((Number) MetaModelHelper.executeSingleRowQuery(
+					dc, new Query().from(table).selectCount()
+							.where(brand, OperatorType.EQUALS_TO, "zz"))
+					.getValue(0)).intValue());
+			assertEquals(0, dc.executeQuery(
+					new Query().from(table).select(brand).groupBy(brand)
+							.where(brand, OperatorType.GREATER_THAN, "zz"))
+					.toObjectArrays().size());
+		} finally {
+			sidecarFile.delete();
+			file.delete();
+			directory.delete();
+		}
+	}
 }